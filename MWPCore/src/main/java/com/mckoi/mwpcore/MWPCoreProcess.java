@@ -45,8 +45,8 @@ import java.net.URLStreamHandlerFactory;
 import java.security.Policy;
 import java.text.MessageFormat;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.tools.JavaCompiler;
@@ -337,21 +337,25 @@ public class MWPCoreProcess extends AbstractCoreProcess {
             app_service_config.getProperty("shared_threadpool_max_threads", "256");
       String shared_threadpool_timeout_seconds =
             app_service_config.getProperty("shared_threadpool_timeout_seconds", "60");
+      String shared_threadpool_queue_size =
+            app_service_config.getProperty("shared_threadpool_queue_size", "8192");
       
-      int shared_tp_min, shared_tp_max, shared_tp_timeout;
+      int shared_tp_min, shared_tp_max, shared_tp_timeout, shared_tp_queue;
       try {
         shared_tp_min = Integer.parseInt(shared_threadpool_min.trim());
         shared_tp_max = Integer.parseInt(shared_threadpool_max.trim());
         shared_tp_timeout = Integer.parseInt(shared_threadpool_timeout_seconds.trim());
+        shared_tp_queue = Integer.parseInt(shared_threadpool_queue_size.trim());
       }
       catch (NumberFormatException ex) {
         String err_msg = MessageFormat.format(
-            "Either {0}, {1} or {2} (from ''shared_threadpool_min_threads'', " +
-            "''shared_threadpool_max_threads'' or ''shared_threadpool_timeout_seconds'') " +
-            "are not numbers",
+            "Either {0}, {1}, {2} or {3} (from ''shared_threadpool_min_threads'', " +
+            "''shared_threadpool_max_threads'', ''shared_threadpool_timeout_seconds'' " +
+            "or ''shared_threadpool_queue_size'') are not numbers",
                   new Object[] { shared_threadpool_min,
                                  shared_threadpool_max,
-                                 shared_threadpool_timeout_seconds });
+                                 shared_threadpool_timeout_seconds,
+                                 shared_threadpool_queue_size });
         throw new RuntimeException(err_msg);
       }
 
@@ -368,11 +372,18 @@ public class MWPCoreProcess extends AbstractCoreProcess {
       if (shared_tp_timeout < 1) {
         throw new RuntimeException("'shared_threadpool_timeout_seconds' < 1");
       }
+      if (shared_tp_queue < 1) {
+        throw new RuntimeException("'shared_threadpool_queue_size' < 1");
+      }
+
+      // The queue is bounded. Threads are added up to the maximum when the
+      // queue is full, and after that new tasks are rejected (the submitter
+      // gets a RejectedExecutionException) rather than queued without limit,
 
       ThreadPoolExecutor thread_pool_executor =
                new ThreadPoolExecutor(shared_tp_min, shared_tp_max,
                                       shared_tp_timeout, TimeUnit.SECONDS,
-                                      new LinkedBlockingQueue<Runnable>());      
+                                      new ArrayBlockingQueue<Runnable>(shared_tp_queue));      
 
       // Create the user code class loader,
       
@@ -489,6 +500,42 @@ public class MWPCoreProcess extends AbstractCoreProcess {
       ProcessClientService process_client_service = new ProcessClientService(
                           sessions_cache, shared_thread_pool, net_if);
 
+      // The output batching of the process client service,
+      String batch_delay_value = app_service_config.getProperty(
+                                      "process_client_batch_delay_us", "0");
+      String batch_bytes_value = app_service_config.getProperty(
+                                      "process_client_batch_bytes", "65536");
+      try {
+        process_client_service.setOutputBatching(
+                            Long.parseLong(batch_delay_value.trim()),
+                            Integer.parseInt(batch_bytes_value.trim()));
+      }
+      catch (NumberFormatException ex) {
+        String err_msg = MessageFormat.format(
+            "Either {0} or {1} (from ''process_client_batch_delay_us'' or " +
+            "''process_client_batch_bytes'') are not numbers",
+                  new Object[] { batch_delay_value, batch_bytes_value });
+        throw new RuntimeException(err_msg);
+      }
+
+      // The number of process servers relaying each broadcast channel,
+      String relays_value = app_service_config.getProperty(
+                                      "process_client_broadcast_relays", "0");
+      int relay_count;
+      try {
+        relay_count = Integer.parseInt(relays_value.trim());
+      }
+      catch (NumberFormatException ex) {
+        relay_count = -1;
+      }
+      if (relay_count < 0) {
+        String err_msg = MessageFormat.format(
+            "{0} (from ''process_client_broadcast_relays'') is not a " +
+            "non-negative integer", relays_value);
+        throw new RuntimeException(err_msg);
+      }
+      process_client_service.setBroadcastRelayCount(relay_count);
+
       // Opens the client service,
       process_client_service.open();
 
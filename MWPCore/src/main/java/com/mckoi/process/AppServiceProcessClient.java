@@ -53,6 +53,38 @@ public interface AppServiceProcessClient extends ProcessClient {
   ProcessResult invokeFunction(
              ProcessId process_id, ProcessMessage msg, boolean reply_expected);
 
+  /**
+   * Invokes a function on the given process and notifies the callback when
+   * the reply is received. This never blocks the calling thread, and no
+   * thread is parked waiting for the reply. If no reply is received within
+   * 'timeout' milliseconds then the callback 'failed' method is called with
+   * a ResultTimeoutException.
+   * <p>
+   * Note that a failure reported by the process function is given to the
+   * callback 'completed' method as a ProcessInputMessage of type
+   * RETURN_EXCEPTION, the same as 'invokeFunction'.
+   */
+  void invokeFunctionAsync(ProcessId process_id, ProcessMessage msg,
+               long timeout, ProcessCallback<ProcessInputMessage> callback);
+
+  /**
+   * Creates a process instance in the same way as 'createProcess' and
+   * notifies the callback with the process id when the process has been
+   * initialized. This never blocks the calling thread.
+   */
+  void createProcessAsync(String webapp_name, String process_class,
+                          ProcessCallback<ProcessId> callback);
+
+  /**
+   * Sends a signal to the process in the same way as 'sendSignal' and
+   * notifies the callback when the signal has been put on the process
+   * server's out-going queue. Unlike 'sendSignal', if the process is not
+   * available then the callback 'failed' method is called. This never
+   * blocks the calling thread.
+   */
+  void sendSignalAsync(ProcessId process_id, String[] signal,
+                       ProcessCallback<Void> callback);
+
   /**
    * Returns a consumer that is initialized from a previous session value (use
    * 'ChannelConsumer.getSessionState()' to serialize the session state of an
@@ -0,0 +1,473 @@
+/**
+ * com.mckoi.process.ArgsCodec  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary codec for the arguments lists of process messages. An
+ * arguments list is a 2 byte argument count followed by each argument as
+ * a 1 byte type tag and the encoded value.
+ * <p>
+ * The type tags 0 to 3 (null, int, long and modified UTF-8 string) are the
+ * version 1 tags and are always used for values they can represent, so a
+ * message with only those types can be decoded by older versions. The
+ * version 2 tags add booleans, doubles, byte arrays, UTF-8 strings of any
+ * length, and nested lists and maps. Lengths and counts in version 2 values
+ * are encoded as unsigned varints.
+ * <p>
+ * There is no version number in the encoding, since a header would stop
+ * older versions decoding version 1 messages. A decoder that meets a type
+ * tag it doesn't know fails with an 'Unknown type' error.
+ * <p>
+ * The encoder writes directly to a growable array and the decoder reads
+ * directly from an array, so neither allocates streams.
+ *
+ * @author Tobias Downer
+ */
+
+final class ArgsCodec {
+
+  // Version 1 type tags,
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_INT = 1;
+  private static final byte TAG_LONG = 2;
+  private static final byte TAG_MUTF8 = 3;
+
+  // Version 2 type tags,
+  private static final byte TAG_FALSE = 4;
+  private static final byte TAG_TRUE = 5;
+  private static final byte TAG_DOUBLE = 6;
+  private static final byte TAG_BYTES = 7;
+  private static final byte TAG_UTF8 = 8;
+  private static final byte TAG_LIST = 9;
+  private static final byte TAG_MAP = 10;
+
+  /**
+   * The largest string in bytes that can be encoded with the version 1
+   * string tag.
+   */
+  private static final int MUTF8_MAX_BYTES = 65535;
+
+  private ArgsCodec() {
+  }
+
+  // ----- Encoding -----
+
+  /**
+   * A growable byte array the arguments are encoded into.
+   */
+  private static final class Output {
+
+    private byte[] buf;
+    private int pos = 0;
+
+    Output(int initial_size) {
+      buf = new byte[initial_size];
+    }
+
+    private void ensure(int n) {
+      if (pos + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+      }
+    }
+
+    void writeByte(int v) {
+      ensure(1);
+      buf[pos++] = (byte) v;
+    }
+
+    void writeBytes(byte[] b, int off, int len) {
+      ensure(len);
+      System.arraycopy(b, off, buf, pos, len);
+      pos += len;
+    }
+
+    void writeShort(int v) {
+      ensure(2);
+      buf[pos++] = (byte) (v >>> 8);
+      buf[pos++] = (byte) v;
+    }
+
+    void writeInt(int v) {
+      ensure(4);
+      buf[pos++] = (byte) (v >>> 24);
+      buf[pos++] = (byte) (v >>> 16);
+      buf[pos++] = (byte) (v >>> 8);
+      buf[pos++] = (byte) v;
+    }
+
+    void writeLong(long v) {
+      writeInt((int) (v >>> 32));
+      writeInt((int) v);
+    }
+
+    void writeVarInt(int v) {
+      ensure(5);
+      while ((v & ~0x07F) != 0) {
+        buf[pos++] = (byte) ((v & 0x07F) | 0x080);
+        v >>>= 7;
+      }
+      buf[pos++] = (byte) v;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+    }
+
+  }
+
+  /**
+   * Returns the number of bytes the string encodes to in modified UTF-8.
+   */
+  private static int modifiedUTF8Length(String str) {
+    final int len = str.length();
+    int utf_len = 0;
+    for (int i = 0; i < len; ++i) {
+      char c = str.charAt(i);
+      if (c >= 0x0001 && c <= 0x007F) {
+        utf_len += 1;
+      }
+      else if (c > 0x07FF) {
+        utf_len += 3;
+      }
+      else {
+        utf_len += 2;
+      }
+    }
+    return utf_len;
+  }
+
+  /**
+   * Writes the string in the same format as DataOutput.writeUTF.
+   */
+  private static void writeModifiedUTF8(Output out, String str, int utf_len) {
+    final int len = str.length();
+    out.writeShort(utf_len);
+    out.ensure(utf_len);
+    final byte[] buf = out.buf;
+    int p = out.pos;
+    for (int i = 0; i < len; ++i) {
+      char c = str.charAt(i);
+      if (c >= 0x0001 && c <= 0x007F) {
+        buf[p++] = (byte) c;
+      }
+      else if (c > 0x07FF) {
+        buf[p++] = (byte) (0x0E0 | ((c >> 12) & 0x0F));
+        buf[p++] = (byte) (0x080 | ((c >> 6) & 0x03F));
+        buf[p++] = (byte) (0x080 | (c & 0x03F));
+      }
+      else {
+        buf[p++] = (byte) (0x0C0 | ((c >> 6) & 0x01F));
+        buf[p++] = (byte) (0x080 | (c & 0x03F));
+      }
+    }
+    out.pos = p;
+  }
+
+  private static void encodeString(Output out, String str) {
+    // Use the version 1 encoding if it fits,
+    int utf_len = (str.length() <= MUTF8_MAX_BYTES) ?
+                            modifiedUTF8Length(str) : MUTF8_MAX_BYTES + 1;
+    if (utf_len <= MUTF8_MAX_BYTES) {
+      out.writeByte(TAG_MUTF8);
+      writeModifiedUTF8(out, str, utf_len);
+    }
+    // Otherwise length prefixed standard UTF-8,
+    else {
+      byte[] b = str.getBytes(StandardCharsets.UTF_8);
+      out.writeByte(TAG_UTF8);
+      out.writeVarInt(b.length);
+      out.writeBytes(b, 0, b.length);
+    }
+  }
+
+  private static void encodeArg(Output out, Object arg) {
+    if (arg == null) {
+      out.writeByte(TAG_NULL);
+    }
+    else if (arg instanceof Integer) {
+      out.writeByte(TAG_INT);
+      out.writeInt((Integer) arg);
+    }
+    else if (arg instanceof Long) {
+      out.writeByte(TAG_LONG);
+      out.writeLong((Long) arg);
+    }
+    else if (arg instanceof String) {
+      encodeString(out, (String) arg);
+    }
+    else if (arg instanceof Boolean) {
+      out.writeByte(((Boolean) arg) ? TAG_TRUE : TAG_FALSE);
+    }
+    else if (arg instanceof Double || arg instanceof Float) {
+      out.writeByte(TAG_DOUBLE);
+      out.writeLong(Double.doubleToLongBits(((Number) arg).doubleValue()));
+    }
+    else if (arg instanceof byte[]) {
+      byte[] b = (byte[]) arg;
+      out.writeByte(TAG_BYTES);
+      out.writeVarInt(b.length);
+      out.writeBytes(b, 0, b.length);
+    }
+    else if (arg instanceof List) {
+      List<?> list = (List<?>) arg;
+      out.writeByte(TAG_LIST);
+      out.writeVarInt(list.size());
+      for (Object item : list) {
+        encodeArg(out, item);
+      }
+    }
+    else if (arg instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) arg;
+      out.writeByte(TAG_MAP);
+      out.writeVarInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        encodeArg(out, entry.getKey());
+        encodeArg(out, entry.getValue());
+      }
+    }
+    else {
+      throw new RuntimeException(
+              "Unknown object class: " + arg.getClass() +
+              " '" + arg.toString() + "'");
+    }
+  }
+
+  /**
+   * Encodes the header followed by the arguments list.
+   */
+  static byte[] encode(byte[] header, Object[] args) {
+    int header_sz = (header == null) ? 0 : header.length;
+    Output out = new Output(header_sz + 512);
+    if (header != null) {
+      out.writeBytes(header, 0, header_sz);
+    }
+    // The number of args,
+    out.writeShort(args.length);
+    for (Object arg : args) {
+      encodeArg(out, arg);
+    }
+    return out.toByteArray();
+  }
+
+  // ----- Decoding -----
+
+  /**
+   * A cursor over the array an arguments list is decoded from.
+   */
+  private static final class Input {
+
+    private final byte[] buf;
+    private int pos;
+    private final int end;
+
+    Input(byte[] buf, int offset, int length) {
+      this.buf = buf;
+      this.pos = offset;
+      this.end = offset + length;
+    }
+
+    private void check(int n) {
+      if (n < 0 || pos + n > end) {
+        throw new RuntimeException("Unexpected end of arguments list");
+      }
+    }
+
+    int readByte() {
+      check(1);
+      return buf[pos++];
+    }
+
+    int readUnsignedShort() {
+      check(2);
+      int v = ((buf[pos] & 0x0FF) << 8) | (buf[pos + 1] & 0x0FF);
+      pos += 2;
+      return v;
+    }
+
+    int readInt() {
+      check(4);
+      int v = ((buf[pos] & 0x0FF) << 24) |
+              ((buf[pos + 1] & 0x0FF) << 16) |
+              ((buf[pos + 2] & 0x0FF) << 8) |
+              (buf[pos + 3] & 0x0FF);
+      pos += 4;
+      return v;
+    }
+
+    long readLong() {
+      long high = readInt();
+      long low = readInt();
+      return (high << 32) | (low & 0x0FFFFFFFFL);
+    }
+
+    int readVarInt() {
+      int v = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = readByte();
+        v |= (b & 0x07F) << shift;
+        if ((b & 0x080) == 0) {
+          return v;
+        }
+      }
+      throw new RuntimeException("Malformed varint");
+    }
+
+    byte[] readBytes(int len) {
+      check(len);
+      byte[] b = Arrays.copyOfRange(buf, pos, pos + len);
+      pos += len;
+      return b;
+    }
+
+    String readUTF8(int len) {
+      check(len);
+      String str = new String(buf, pos, len, StandardCharsets.UTF_8);
+      pos += len;
+      return str;
+    }
+
+    /**
+     * Reads a string in the format of DataOutput.writeUTF.
+     */
+    String readModifiedUTF8() {
+      final int utf_len = readUnsignedShort();
+      check(utf_len);
+      final int utf_end = pos + utf_len;
+      char[] chars = new char[utf_len];
+      int char_count = 0;
+      int p = pos;
+      while (p < utf_end) {
+        int c = buf[p] & 0x0FF;
+        if (c < 0x080) {
+          chars[char_count++] = (char) c;
+          p += 1;
+        }
+        else if ((c & 0x0E0) == 0x0C0) {
+          if (p + 2 > utf_end) {
+            throw new RuntimeException("Malformed string");
+          }
+          chars[char_count++] =
+                    (char) (((c & 0x01F) << 6) | (buf[p + 1] & 0x03F));
+          p += 2;
+        }
+        else if ((c & 0x0F0) == 0x0E0) {
+          if (p + 3 > utf_end) {
+            throw new RuntimeException("Malformed string");
+          }
+          chars[char_count++] = (char) (((c & 0x0F) << 12) |
+                                        ((buf[p + 1] & 0x03F) << 6) |
+                                        (buf[p + 2] & 0x03F));
+          p += 3;
+        }
+        else {
+          throw new RuntimeException("Malformed string");
+        }
+      }
+      pos = utf_end;
+      return new String(chars, 0, char_count);
+    }
+
+  }
+
+  private static Object decodeArg(Input in) {
+    int type = in.readByte(); // The type,
+    switch (type) {
+      case TAG_NULL:
+        return null;
+      case TAG_INT:
+        return in.readInt();
+      case TAG_LONG:
+        return in.readLong();
+      case TAG_MUTF8:
+        return in.readModifiedUTF8();
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      case TAG_DOUBLE:
+        return Double.longBitsToDouble(in.readLong());
+      case TAG_BYTES:
+        return in.readBytes(in.readVarInt());
+      case TAG_UTF8:
+        return in.readUTF8(in.readVarInt());
+      case TAG_LIST: {
+        int size = in.readVarInt();
+        List<Object> list = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; ++i) {
+          list.add(decodeArg(in));
+        }
+        return list;
+      }
+      case TAG_MAP: {
+        int size = in.readVarInt();
+        Map<Object, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; ++i) {
+          Object key = decodeArg(in);
+          map.put(key, decodeArg(in));
+        }
+        return map;
+      }
+      default:
+        throw new RuntimeException("Unknown type: " + type);
+    }
+  }
+
+  /**
+   * Decodes the arguments list from the 'length' bytes at 'offset' in the
+   * array.
+   */
+  static Object[] decode(byte[] buf, int offset, int length) {
+    Input in = new Input(buf, offset, length);
+    int arg_list_size = in.readUnsignedShort();
+    Object[] args = new Object[arg_list_size];
+    for (int i = 0; i < arg_list_size; ++i) {
+      args[i] = decodeArg(in);
+    }
+    return args;
+  }
+
+  /**
+   * Decodes an arguments list of strings from the 'length' bytes at
+   * 'offset' in the array.
+   */
+  static String[] decodeStrings(byte[] buf, int offset, int length) {
+    Input in = new Input(buf, offset, length);
+    int arg_list_size = in.readUnsignedShort();
+    String[] args = new String[arg_list_size];
+    for (int i = 0; i < arg_list_size; ++i) {
+      args[i] = (String) decodeArg(in);
+    }
+    return args;
+  }
+
+}
@@ -99,6 +99,10 @@ import javax.servlet.ServletRequest;
  *         return;
  *       }
  * </pre>
+ * <p>
+ * To stream a channel to a browser over a connection that stays open,
+ * without a dispatch for each wake-up, see ChannelEventSourceServlet and
+ * ChannelWebSocketServlet.
  *
  * @author Tobias Downer
  */
@@ -31,6 +31,10 @@ import java.io.*;
  * An implementation of ProcessMessage using a materialized Java byte[] array.
  * This class provides a simple mechanism for serializing and deserializing
  * basic Java primitives in a ProcessMessage.
+ * <p>
+ * The arguments list encoding supports null, Integer, Long, String,
+ * Boolean, Double (and Float), byte[], and List and Map values that contain
+ * any of these types. See ArgsCodec for the format.
  *
  * @author Tobias Downer
  */
@@ -57,45 +61,20 @@ public final class ByteArrayProcessMessage implements ProcessMessage {
     this(buf, 0, buf.length);
   }
 
-  private static Object decodeArg(DataInputStream din) throws IOException {
-    byte type = din.readByte(); // The type,
-    if (type == 0) {
-      return null;
-    }
-    else if (type == 1) {
-      return din.readInt();
-    }
-    else if (type == 2) {
-      return din.readLong();
-    }
-    else if (type == 3) {
-      return din.readUTF();
-    }
-    else {
-      throw new RuntimeException("Unknown type: " + type);
-    }
-  }
-
   /**
    * Decodes the message as an arguments list offset from the given position
    * in the message buffer.
    */
   public static Object[] decodeArgsList(byte[] buf, int offset) {
-    try {
-      ByteArrayInputStream bin =
-                   new ByteArrayInputStream(buf, offset, buf.length - offset);
-      DataInputStream din = new DataInputStream(bin);
-      int arg_list_size = ((int) din.readShort()) & 0x0FFFF;
-      Object[] args = new Object[arg_list_size];
-      for (int i = 0; i < arg_list_size; ++i) {
-        args[i] = decodeArg(din);
-      }
-      return args;
-    }
-    catch (IOException e) {
-      // Should be impossible,
-      throw new RuntimeException(e);
-    }
+    return decodeArgsList(buf, offset, buf.length - offset);
+  }
+
+  /**
+   * Decodes the message as an arguments list from the 'length' bytes at the
+   * given position in the message buffer.
+   */
+  public static Object[] decodeArgsList(byte[] buf, int offset, int length) {
+    return ArgsCodec.decode(buf, offset, length);
   }
 
   /**
@@ -103,6 +82,12 @@ public final class ByteArrayProcessMessage implements ProcessMessage {
    * method.
    */
   public static Object[] decodeArgsList(ProcessMessage message, int offset) {
+    // Decode directly from the array of a byte array message,
+    if (message instanceof ByteArrayProcessMessage) {
+      ByteArrayProcessMessage bam = (ByteArrayProcessMessage) message;
+      return decodeArgsList(
+                    bam.buf, bam.offset + offset, bam.length - offset);
+    }
     ByteArrayOutputStream bout = new ByteArrayOutputStream(message.size());
     try {
       message.writeTo(bout);
@@ -127,21 +112,16 @@ public final class ByteArrayProcessMessage implements ProcessMessage {
    * in the message buffer.
    */
   public static String[] decodeStringArgsList(byte[] buf, int offset) {
-    try {
-      ByteArrayInputStream bin =
-                   new ByteArrayInputStream(buf, offset, buf.length - offset);
-      DataInputStream din = new DataInputStream(bin);
-      int arg_list_size = ((int) din.readShort()) & 0x0FFFF;
-      String[] args = new String[arg_list_size];
-      for (int i = 0; i < arg_list_size; ++i) {
-        args[i] = (String) decodeArg(din);
-      }
-      return args;
-    }
-    catch (IOException e) {
-      // Should be impossible,
-      throw new RuntimeException(e);
-    }
+    return decodeStringArgsList(buf, offset, buf.length - offset);
+  }
+
+  /**
+   * Decodes the message as an arguments list from the 'length' bytes at the
+   * given position in the message buffer.
+   */
+  public static String[] decodeStringArgsList(
+                                      byte[] buf, int offset, int length) {
+    return ArgsCodec.decodeStrings(buf, offset, length);
   }
 
   /**
@@ -150,6 +130,12 @@ public final class ByteArrayProcessMessage implements ProcessMessage {
    */
   public static String[] decodeStringArgsList(
                                         ProcessMessage message, int offset) {
+    // Decode directly from the array of a byte array message,
+    if (message instanceof ByteArrayProcessMessage) {
+      ByteArrayProcessMessage bam = (ByteArrayProcessMessage) message;
+      return decodeStringArgsList(
+                    bam.buf, bam.offset + offset, bam.length - offset);
+    }
     ByteArrayOutputStream bout = new ByteArrayOutputStream(message.size());
     try {
       message.writeTo(bout);
@@ -169,45 +155,7 @@ public final class ByteArrayProcessMessage implements ProcessMessage {
    * Encodes the given arg list into a byte buffer message.
    */
   public static byte[] encodeArgsList(byte[] header, Object[] args) {
-    try {
-      ByteArrayOutputStream bout = new ByteArrayOutputStream(512);
-      DataOutputStream dout = new DataOutputStream(bout);
-      // Write the header,
-      if (header != null) {
-        dout.write(header);
-      }
-      // The number of args,
-      dout.writeShort((short) args.length);
-      for (Object arg : args) {
-        if (arg == null) {
-          dout.writeByte(0);
-        }
-        else if (arg instanceof Integer) {
-          dout.writeByte(1);
-          dout.writeInt((Integer) arg);
-        }
-        else if (arg instanceof Long) {
-          dout.writeByte(2);
-          dout.writeLong((Long) arg);
-        }
-        else if (arg instanceof String) {
-          dout.writeByte(3);
-          dout.writeUTF((String) arg);
-        }
-        else {
-          throw new RuntimeException(
-                  "Unknown object class: " + arg.getClass() + " '" + arg.toString() + "'");
-        }
-      }
-      dout.flush();
-      // Return it as a PMessage,
-      byte[] b = bout.toByteArray();
-      return b;
-    }
-    catch (IOException e) {
-      // Should be impossible,
-      throw new RuntimeException(e);
-    }
+    return ArgsCodec.encode(header, args);
   }
 
   /**
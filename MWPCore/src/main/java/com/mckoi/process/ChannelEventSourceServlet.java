@@ -0,0 +1,286 @@
+/**
+ * com.mckoi.process.ChannelEventSourceServlet  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet that streams the messages on a process broadcast channel to a
+ * browser as Server-Sent Events (the 'text/event-stream' content type read
+ * by the JavaScript EventSource object). Unlike a long poll servlet that
+ * uses AsyncServletProcessUtil, the request is put into asynchronous mode
+ * once and stays open, and the messages are written to it as they arrive
+ * without dispatching the request again.
+ * <p>
+ * A subclass implements 'getChannelConsumer' to choose the channel for the
+ * request, and may override 'writeMessage' to change how a message is
+ * encoded. By default each message is written as one event of UTF-8 text.
+ * The id of the last event in each batch is the session state of the
+ * consumer, so a browser that reconnects will send it back in the
+ * 'Last-Event-ID' header and can be resumed from where it left off (see
+ * 'getLastEventState').
+ * <p>
+ * For example;
+ * <pre>
+ *   protected ChannelConsumer getChannelConsumer(HttpServletRequest request)
+ *                                  throws ServletException, IOException {
+ *     AppServiceProcessClient client = ....
+ *     // The channel this request is allowed to read,
+ *     ProcessChannel channel = ....
+ *     ChannelSessionState state = getLastEventState(request, channel);
+ *     try {
+ *       if (state == null) {
+ *         return client.getChannelConsumer(channel);
+ *       }
+ *       return client.getChannelConsumer(state);
+ *     }
+ *     catch (ProcessUnavailableException e) {
+ *       throw new ServletException(e);
+ *     }
+ *   }
+ * </pre>
+ * <p>
+ * The servlet must be declared with asynchronous support enabled.
+ *
+ * @author Tobias Downer
+ */
+
+public abstract class ChannelEventSourceServlet extends HttpServlet {
+
+  /**
+   * The default maximum number of messages written in one batch.
+   */
+  public static final int DEFAULT_BATCH_LIMIT = 64;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Returns the ChannelConsumer to stream to the client for the given
+   * request, or null if the request should be refused with a 404 error.
+   */
+  protected abstract ChannelConsumer getChannelConsumer(
+                                            HttpServletRequest request)
+                                    throws ServletException, IOException;
+
+  /**
+   * Returns the maximum number of messages written in one batch.
+   */
+  protected int getBatchLimit() {
+    return DEFAULT_BATCH_LIMIT;
+  }
+
+  /**
+   * Returns the time, in milliseconds, between keep alive comments written
+   * to the stream.
+   */
+  protected int getKeepAliveTime() {
+    return ChannelPushStream.DEFAULT_KEEP_ALIVE_TIME;
+  }
+
+  /**
+   * Writes the 'data' lines of an event for the given message. The default
+   * implementation decodes the message as UTF-8 text and writes each line
+   * of the text as a 'data' line.
+   */
+  protected void writeMessage(Writer out, ProcessMessage message)
+                                                        throws IOException {
+    BufferedReader r = new BufferedReader(
+                   new InputStreamReader(message.getMessageStream(), UTF8));
+    boolean empty = true;
+    while (true) {
+      String line = r.readLine();
+      if (line == null) {
+        break;
+      }
+      out.write("data: ");
+      out.write(line);
+      out.write("\n");
+      empty = false;
+    }
+    if (empty) {
+      out.write("data:\n");
+    }
+  }
+
+  /**
+   * Returns the ChannelSessionState on the given channel from the
+   * 'Last-Event-ID' header sent by a reconnecting EventSource, or null if
+   * there is no such header. The header is client input, so only the
+   * sequence value is taken from it and the state is built from the given
+   * channel. Returns null if the id is for a different channel or is
+   * malformed, so a client can't use the header to read another channel.
+   */
+  public static ChannelSessionState getLastEventState(
+                HttpServletRequest request, ProcessChannel process_channel) {
+    String last_event_id = request.getHeader("Last-Event-ID");
+    if (last_event_id == null || last_event_id.isEmpty()) {
+      return null;
+    }
+    // The id must be '[process channel]:[hex sequence value]'
+    String prefix = process_channel.toString() + ":";
+    if (!last_event_id.startsWith(prefix)) {
+      return null;
+    }
+    long sequence_value;
+    try {
+      sequence_value =
+              Long.parseLong(last_event_id.substring(prefix.length()), 16);
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+    if (sequence_value < 0) {
+      return null;
+    }
+    return ChannelSessionState.encodeSessionState(
+                                            process_channel, sequence_value);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request,
+                       HttpServletResponse response)
+                                    throws ServletException, IOException {
+
+    ChannelConsumer consumer = getChannelConsumer(request);
+    if (consumer == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    // Send the headers now so the client knows the stream is open,
+    response.flushBuffer();
+
+    // The stream stays open until the client goes away,
+    final AsyncContext async_context = request.startAsync();
+    async_context.setTimeout(0);
+
+    // Pushes are run by the container,
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        async_context.start(command);
+      }
+    };
+
+    final EventStream stream = new EventStream(
+                       consumer, executor, getBatchLimit(), async_context);
+    async_context.addListener(new AsyncListener() {
+      @Override
+      public void onComplete(AsyncEvent event) throws IOException {
+        stream.close();
+      }
+      @Override
+      public void onTimeout(AsyncEvent event) throws IOException {
+        stream.close();
+      }
+      @Override
+      public void onError(AsyncEvent event) throws IOException {
+        stream.close();
+      }
+      @Override
+      public void onStartAsync(AsyncEvent event) throws IOException {
+      }
+    });
+    stream.start(getKeepAliveTime());
+
+  }
+
+  /**
+   * Writes the messages of a channel to the response as events.
+   */
+  private class EventStream extends ChannelPushStream {
+
+    private final AsyncContext async_context;
+
+    private EventStream(ChannelConsumer consumer, Executor executor,
+                        int batch_limit, AsyncContext async_context) {
+      super(consumer, executor, batch_limit);
+      this.async_context = async_context;
+    }
+
+    @Override
+    protected void writeBatch(Collection<ProcessMessage> messages,
+                  ChannelSessionState session_state) throws IOException {
+      PrintWriter out = async_context.getResponse().getWriter();
+      int i = messages.size();
+      for (ProcessMessage message : messages) {
+        --i;
+        // The session state is the id of the last event in the batch,
+        if (i == 0) {
+          out.write("id: ");
+          out.write(session_state.toString());
+          out.write("\n");
+        }
+        writeMessage(out, message);
+        out.write("\n");
+      }
+      flush(out);
+    }
+
+    @Override
+    protected void writeKeepAlive() throws IOException {
+      PrintWriter out = async_context.getResponse().getWriter();
+      out.write(":\n\n");
+      flush(out);
+    }
+
+    private void flush(PrintWriter out) throws IOException {
+      // A PrintWriter doesn't throw when the client has gone away,
+      if (out.checkError()) {
+        throw new IOException("Client closed the stream");
+      }
+    }
+
+    @Override
+    protected void closeConnection() {
+      try {
+        async_context.complete();
+      }
+      catch (IllegalStateException e) {
+        // The context is already complete,
+      }
+    }
+
+  }
+
+}
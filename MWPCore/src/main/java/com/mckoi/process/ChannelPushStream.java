@@ -0,0 +1,286 @@
+/**
+ * com.mckoi.process.ChannelPushStream  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+import com.mckoi.process.ProcessResultNotifier.CleanupHandler;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the messages consumed from a ChannelConsumer to a single connected
+ * client as they become available. This is the transport independent part
+ * of ChannelEventSourceServlet and ChannelWebSocketServlet, where a subclass
+ * implements 'writeBatch' to send a batch of messages over its connection.
+ * <p>
+ * Messages are consumed from the channel at most 'batch_limit' at a time,
+ * and the next batch is not consumed until the previous one has been
+ * written. Only one task writes to the connection at a time, so a slow
+ * client holds at most one thread of the executor and the messages it
+ * hasn't read yet stay in the broadcast queue of the channel rather than
+ * being buffered here.
+ * <p>
+ * The stream re-registers its notifier each keep alive period because the
+ * process client disposes of notifiers that have waited for a long time.
+ *
+ * @author Tobias Downer
+ */
+
+public abstract class ChannelPushStream {
+
+  /**
+   * The default time between keep alives (30 seconds).
+   */
+  public static final int DEFAULT_KEEP_ALIVE_TIME = 30 * 1000;
+
+  /**
+   * The timer that schedules the keep alives of all the open streams.
+   */
+  private static final Timer KEEP_ALIVE_TIMER =
+                                  new Timer("Mckoi Channel Push Timer", true);
+
+  /**
+   * The consumer the messages are read from.
+   */
+  private final ChannelConsumer consumer;
+
+  /**
+   * The executor that runs the push task.
+   */
+  private final Executor executor;
+
+  /**
+   * The maximum number of messages consumed and written in one batch.
+   */
+  private final int batch_limit;
+
+  /**
+   * True while a push task is scheduled or running, and true when messages
+   * may have arrived since the task last looked.
+   */
+  private final AtomicBoolean running = new AtomicBoolean(false);
+  private final AtomicBoolean pending = new AtomicBoolean(false);
+
+  /**
+   * True when the push task should write a keep alive.
+   */
+  private final AtomicBoolean keep_alive = new AtomicBoolean(false);
+
+  /**
+   * Set once the stream is closed.
+   */
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  /**
+   * Removes the notifier from the broadcast queue it's currently waiting on.
+   */
+  private volatile CleanupHandler cleanup_handler =
+                                  ProcessResultNotifier.NOOP_CLEANUP_HANDLER;
+
+  /**
+   * The keep alive task, or null if the stream hasn't started.
+   */
+  private TimerTask keep_alive_task;
+
+  /**
+   * Notified by the broadcast queue when messages arrive.
+   */
+  private final ProcessResultNotifier notifier = new ProcessResultNotifier() {
+    @Override
+    public void init(CleanupHandler cleanup_handler) {
+      ChannelPushStream.this.cleanup_handler = cleanup_handler;
+    }
+    @Override
+    public void notifyMessages() {
+      schedulePush();
+    }
+  };
+
+  /**
+   * Constructor.
+   */
+  protected ChannelPushStream(ChannelConsumer consumer,
+                              Executor executor, int batch_limit) {
+    if (batch_limit <= 0) {
+      throw new IllegalArgumentException("batch_limit <= 0");
+    }
+    this.consumer = consumer;
+    this.executor = executor;
+    this.batch_limit = batch_limit;
+  }
+
+  /**
+   * Returns the consumer the messages of this stream are read from.
+   */
+  public ChannelConsumer getConsumer() {
+    return consumer;
+  }
+
+  /**
+   * Returns true if this stream is closed.
+   */
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Starts pushing messages to the client. Any messages already pending on
+   * the channel are written immediately, and a keep alive is written every
+   * 'keep_alive_time' milliseconds.
+   */
+  public void start(int keep_alive_time) {
+    synchronized (this) {
+      if (keep_alive_task != null) {
+        throw new IllegalStateException("Already started");
+      }
+      keep_alive_task = new TimerTask() {
+        @Override
+        public void run() {
+          keep_alive.set(true);
+          schedulePush();
+        }
+      };
+      KEEP_ALIVE_TIMER.schedule(keep_alive_task,
+                                keep_alive_time, keep_alive_time);
+    }
+    schedulePush();
+  }
+
+  /**
+   * Closes this stream. The notifier is removed from the broadcast queue and
+   * 'closeConnection' is called. This may be called any number of times.
+   */
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      synchronized (this) {
+        if (keep_alive_task != null) {
+          keep_alive_task.cancel();
+        }
+      }
+      cleanup_handler.performCleanup();
+      closeConnection();
+    }
+  }
+
+  /**
+   * Schedules a task to push any new messages to the client.
+   */
+  private void schedulePush() {
+    pending.set(true);
+    if (!closed.get() && running.compareAndSet(false, true)) {
+      try {
+        executor.execute(pushTask);
+      }
+      catch (RejectedExecutionException e) {
+        // The executor is saturated, the messages are pushed on the next
+        // notification or keep alive,
+        running.set(false);
+      }
+    }
+  }
+
+  /**
+   * The task that pushes messages until the channel has none pending.
+   */
+  private final Runnable pushTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        while (!closed.get() && pending.getAndSet(false)) {
+          push();
+        }
+      }
+      catch (IOException e) {
+        // The client has gone away,
+        close();
+      }
+      finally {
+        running.set(false);
+      }
+      // Messages that arrived as the task was finishing,
+      if (pending.get()) {
+        schedulePush();
+      }
+    }
+  };
+
+  /**
+   * Writes batches of messages until the channel has none pending, then
+   * leaves the notifier waiting on the channel.
+   */
+  private void push() throws IOException {
+    if (keep_alive.getAndSet(false)) {
+      writeKeepAlive();
+    }
+    // Remove the notifier from the queue if it's still there so that it's
+    // not registered twice,
+    CleanupHandler previous_handler = cleanup_handler;
+    cleanup_handler = ProcessResultNotifier.NOOP_CLEANUP_HANDLER;
+    previous_handler.performCleanup();
+
+    while (!closed.get()) {
+      Collection<ProcessMessage> messages;
+      try {
+        messages = consumer.consumeFromChannel(batch_limit, notifier);
+      }
+      catch (ProcessUnavailableException e) {
+        // Try again on the next keep alive,
+        return;
+      }
+      // Null means the notifier is waiting on the channel,
+      if (messages == null || messages.isEmpty()) {
+        return;
+      }
+      writeBatch(messages, consumer.getSessionState());
+    }
+  }
+
+  /**
+   * Writes the given batch of messages to the client and flushes the
+   * connection. 'session_state' is the state of the consumer after the
+   * batch, which the client may use to resume the stream if it reconnects.
+   */
+  protected abstract void writeBatch(Collection<ProcessMessage> messages,
+                 ChannelSessionState session_state) throws IOException;
+
+  /**
+   * Writes a keep alive to the client. Writing to a connection that's
+   * closed by the client is how the stream finds out it's gone. By default
+   * this does nothing.
+   */
+  protected void writeKeepAlive() throws IOException {
+  }
+
+  /**
+   * Closes the underlying connection. Called once when the stream closes.
+   */
+  protected abstract void closeConnection();
+
+}
@@ -0,0 +1,183 @@
+/**
+ * com.mckoi.process.ChannelWebSocketServlet  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.websocket.WebSocket;
+import org.eclipse.jetty.websocket.WebSocketServlet;
+
+/**
+ * A Jetty WebSocket servlet that streams the messages on a process broadcast
+ * channel to the client. Each connection has a ChannelPushStream that sends
+ * the messages as text frames as they arrive on the channel.
+ * <p>
+ * A subclass implements 'getChannelConsumer' to choose the channel for the
+ * connection request (the request is refused if it returns null). By
+ * default each message is sent as one text frame of its UTF-8 decoded
+ * content. 'sendBatch' may be overridden to change the framing, for example
+ * to also send the session state so the client can resume the stream on
+ * another connection.
+ * <p>
+ * Frames sent by the client are ignored.
+ *
+ * @author Tobias Downer
+ */
+
+public abstract class ChannelWebSocketServlet extends WebSocketServlet {
+
+  /**
+   * The threads that send the messages to the connections.
+   */
+  private ExecutorService push_executor;
+
+  /**
+   * Returns the ChannelConsumer to stream to the client for the given
+   * request, or null if the connection should be refused.
+   */
+  protected abstract ChannelConsumer getChannelConsumer(
+                          HttpServletRequest request, String protocol);
+
+  /**
+   * Returns the maximum number of messages sent in one batch.
+   */
+  protected int getBatchLimit() {
+    return ChannelEventSourceServlet.DEFAULT_BATCH_LIMIT;
+  }
+
+  /**
+   * Returns the time, in milliseconds, between checks that the connection
+   * is still open.
+   */
+  protected int getKeepAliveTime() {
+    return ChannelPushStream.DEFAULT_KEEP_ALIVE_TIME;
+  }
+
+  /**
+   * Sends a batch of messages over the connection. The default
+   * implementation sends each message as a text frame of its UTF-8 decoded
+   * content.
+   */
+  protected void sendBatch(WebSocket.Connection connection,
+                           Collection<ProcessMessage> messages,
+                           ChannelSessionState session_state)
+                                                        throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    for (ProcessMessage message : messages) {
+      bout.reset();
+      message.writeTo(bout);
+      connection.sendMessage(bout.toString("UTF-8"));
+    }
+  }
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    push_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "Mckoi Channel WebSocket Push");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  @Override
+  public void destroy() {
+    push_executor.shutdownNow();
+    super.destroy();
+  }
+
+  @Override
+  public WebSocket doWebSocketConnect(
+                              HttpServletRequest request, String protocol) {
+    ChannelConsumer consumer = getChannelConsumer(request, protocol);
+    if (consumer == null) {
+      return null;
+    }
+    return new PushSocket(consumer);
+  }
+
+  /**
+   * The WebSocket events of a connection.
+   */
+  private class PushSocket implements WebSocket.OnTextMessage {
+
+    private final ChannelConsumer consumer;
+    private volatile ChannelPushStream stream;
+
+    private PushSocket(ChannelConsumer consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void onOpen(final Connection connection) {
+      stream = new ChannelPushStream(
+                        consumer, push_executor, getBatchLimit()) {
+        @Override
+        protected void writeBatch(Collection<ProcessMessage> messages,
+                  ChannelSessionState session_state) throws IOException {
+          sendBatch(connection, messages, session_state);
+        }
+        @Override
+        protected void writeKeepAlive() throws IOException {
+          if (!connection.isOpen()) {
+            throw new IOException("Connection closed");
+          }
+        }
+        @Override
+        protected void closeConnection() {
+          if (connection.isOpen()) {
+            connection.close();
+          }
+        }
+      };
+      stream.start(getKeepAliveTime());
+    }
+
+    @Override
+    public void onClose(int close_code, String message) {
+      ChannelPushStream s = stream;
+      if (s != null) {
+        s.close();
+      }
+    }
+
+    @Override
+    public void onMessage(String data) {
+      // Frames from the client are ignored,
+    }
+
+  }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * com.mckoi.process.ProcessCallback  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+/**
+ * A closure that is notified when an asynchronous process client operation
+ * completes. Exactly one of the methods is called once for each operation.
+ * The methods are called on a thread from the shared thread pool, so they
+ * should not block.
+ *
+ * @author Tobias Downer
+ */
+
+public interface ProcessCallback<T> {
+
+  /**
+   * Called when the operation completed with the given result.
+   */
+  void completed(T result);
+
+  /**
+   * Called when the operation failed. For example, with a
+   * ProcessUnavailableException if the process server is not available, or
+   * with a ResultTimeoutException if no reply was received before the
+   * timeout.
+   */
+  void failed(Throwable e);
+
+}
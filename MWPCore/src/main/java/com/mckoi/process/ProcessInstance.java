@@ -157,4 +157,19 @@ public interface ProcessInstance {
    */
   void broadcastMessage(int channel_number, ProcessMessage message);
 
+  /**
+   * Sets whether the given channel is durable. The messages broadcast on a
+   * durable channel are also appended, in batches, to a log stored in the
+   * database, so they don't expire after 2 minutes. A ChannelConsumer that
+   * resumes from a ChannelSessionState older than the messages held in
+   * memory reads the missed messages from the log. Messages are logged
+   * from the next maintenance cycle of the process server, are kept for a
+   * period set by the server configuration, and are removed when the
+   * process terminates.
+   * <p>
+   * This setting isn't saved with the process state, so a process should
+   * set it each time it's resumed or reloaded.
+   */
+  void setChannelDurable(int channel_number, boolean durable);
+
 }
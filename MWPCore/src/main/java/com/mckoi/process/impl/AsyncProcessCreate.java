@@ -0,0 +1,190 @@
+/**
+ * com.mckoi.process.impl.AsyncProcessCreate  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessCallback;
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessServiceAddress;
+import com.mckoi.process.ProcessUnavailableException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An asynchronous process creation. The process is initialized on an id
+ * leased from the client's pool by sending the init message with a reply
+ * callback, so no thread waits for the reply. If the init fails or times
+ * out then the next lease is tried. If the pool runs out, a block of ids
+ * is leased from the database on the thread pool (at most once) and the
+ * creation carries on with the new leases.
+ * <p>
+ * Each step is started by the completion of the step before it, so the
+ * state of the operation is never accessed concurrently.
+ *
+ * @author Tobias Downer
+ */
+
+class AsyncProcessCreate {
+
+  /**
+   * The maximum number of leased ids an init message is sent to.
+   */
+  static final int MAX_ATTEMPTS = 8;
+
+  /**
+   * The operations the creation is performed with.
+   */
+  static interface Target {
+
+    /**
+     * Takes the lease to try next from the pool, or returns null if the
+     * pool is empty. Must not block.
+     */
+    ProcessIdPool.Lease takeLease();
+
+    /**
+     * Leases a new block of ids from the database and adds it to the pool.
+     * This blocks, so it's only called on the thread pool.
+     */
+    void leaseBlock() throws ProcessUnavailableException;
+
+    /**
+     * Sends the init message for the process id of the lease to its
+     * machine. The callback is notified with the reply, or with a failure
+     * message if the reply times out.
+     */
+    void sendInit(ProcessIdPool.Lease lease,
+                  ProcessClientService.ReplyCallback callback);
+
+  }
+
+  private final Target target;
+  private final ExecutorService thread_pool;
+  private final ProcessCallback<ProcessId> callback;
+
+  /**
+   * The number of init messages sent, whether a block has been leased, and
+   * the last machine tried.
+   */
+  private int attempt_count = 0;
+  private boolean block_leased = false;
+  private ProcessServiceAddress last_machine = null;
+
+  /**
+   * Constructor.
+   */
+  AsyncProcessCreate(Target target, ExecutorService thread_pool,
+                     ProcessCallback<ProcessId> callback) {
+    this.target = target;
+    this.thread_pool = thread_pool;
+    this.callback = callback;
+  }
+
+  /**
+   * Starts the creation. Returns immediately unless the target blocks.
+   */
+  void start() {
+    next();
+  }
+
+  /**
+   * Tries the next lease.
+   */
+  private void next() {
+
+    if (attempt_count >= MAX_ATTEMPTS) {
+      failed(new ProcessUnavailableException(
+                        "Unable to allocate a Process ID",
+                        ProcessUnavailableException.Reason.UNAVAILABLE,
+                        last_machine));
+      return;
+    }
+
+    final ProcessIdPool.Lease lease;
+    try {
+      lease = target.takeLease();
+    }
+    catch (RuntimeException e) {
+      failed(e);
+      return;
+    }
+
+    // If the pool is empty then lease a new block from the database,
+    if (lease == null) {
+      if (block_leased) {
+        failed(new ProcessUnavailableException(
+                        "Unable to allocate a Process ID",
+                        ProcessUnavailableException.Reason.UNAVAILABLE,
+                        last_machine));
+        return;
+      }
+      block_leased = true;
+      try {
+        thread_pool.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              target.leaseBlock();
+            }
+            catch (ProcessUnavailableException | RuntimeException e) {
+              ProcessClientService.callbackFailed(callback, e);
+              return;
+            }
+            next();
+          }
+        });
+      }
+      catch (RejectedExecutionException e) {
+        failed(e);
+      }
+      return;
+    }
+
+    ++attempt_count;
+    last_machine = lease.getMachine();
+    target.sendInit(lease, new ProcessClientService.ReplyCallback() {
+      @Override
+      public void replyReceived(PMessage reply) {
+        if (reply.isSuccessMessage()) {
+          completed(lease.getProcessId());
+        }
+        else {
+          // Failed or timed out so try another id,
+          next();
+        }
+      }
+    });
+
+  }
+
+  private void completed(ProcessId process_id) {
+    ProcessClientService.postCompleted(thread_pool, callback, process_id);
+  }
+
+  private void failed(Throwable e) {
+    ProcessClientService.postFailed(thread_pool, callback, e);
+  }
+
+}
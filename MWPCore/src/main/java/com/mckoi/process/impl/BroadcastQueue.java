@@ -29,6 +29,7 @@ import com.mckoi.process.ProcessResultNotifier;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Timer;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -52,6 +53,13 @@ class BroadcastQueue {
    */
   private volatile long current_max_sequence_num = 0;
 
+  /**
+   * The greatest sequence value a consumer read the channel log after and
+   * found nothing, or -1. A consumer at or before this doesn't need to read
+   * the log again.
+   */
+  private volatile long log_checked_sequence_num = -1;
+
   /**
    * The list of notifiers.
    */
@@ -126,6 +134,40 @@ class BroadcastQueue {
     return current_max_sequence_num;
   }
 
+  /**
+   * Returns the greatest sequence value the channel log was read after
+   * with no messages found, or -1.
+   */
+  long getLogCheckedSequenceValue() {
+    return log_checked_sequence_num;
+  }
+
+  /**
+   * Records that the channel log has no messages after the given sequence
+   * value that aren't in this queue.
+   */
+  void setLogChecked(long sequence_value) {
+    synchronized (this) {
+      if (sequence_value > log_checked_sequence_num) {
+        log_checked_sequence_num = sequence_value;
+      }
+    }
+  }
+
+  /**
+   * Returns the sequence value of the oldest message in the broadcast queue,
+   * or Long.MAX_VALUE if the queue is empty.
+   */
+  long getFirstSequenceValue() {
+    synchronized (this) {
+      QueueMessage msg = queue_list.getFirst();
+      if (msg == null) {
+        return Long.MAX_VALUE;
+      }
+      return msg.getMessage().getSequenceValue();
+    }
+  }
+
   /**
    * Returns true if the request on this broadcast channel is expired (is was
    * over 4 minutes ago since 'setRequestNotExpired' was called).
@@ -418,7 +460,7 @@ class BroadcastQueue {
    * interested in an incoming message with the given sequence value. The call
    * back is dispatched to the given thread pool.
    */
-  private void dispatchEvents(ExecutorService thread_pool,
+  private void dispatchEvents(ExecutorService thread_pool, Timer timer,
                               long sequence_num) {
 
 //    System.out.println("scheduleNotify(" + sequence_num + ")");
@@ -435,7 +477,10 @@ class BroadcastQueue {
 
     // If we are to schedule take,
     if (schedule_task) {
-      thread_pool.submit(new Runnable() {
+      // If the pool is saturated the task is submitted again a little
+      // later on the timer,
+      boolean dispatched = ProcessExecutor.executeOrRetry(
+                                        thread_pool, timer, new Runnable() {
         @Override
         public void run() {
 
@@ -489,6 +534,11 @@ class BroadcastQueue {
         }
 
       });
+      // If the task won't run (the service is stopping) then allow a
+      // later message to schedule it,
+      if (!dispatched) {
+        scheduled_seq_num = 0;
+      }
 
     }
 
@@ -519,10 +569,11 @@ class BroadcastQueue {
    * Puts all the messages in 'in_msgs' into this broadcast queue. If messages
    * were successfully added to the list, the given thread_pool is used to
    * dispatch calls to any notifiers or listeners that might be interested in
-   * the messages added.
+   * the messages added. If the pool is saturated the dispatch is retried on
+   * the given timer.
    */
   void putMessagesInQueue(QueueList in_msgs,
-                          ExecutorService thread_pool) {
+                          ExecutorService thread_pool, Timer timer) {
 
     synchronized (this) {
 
@@ -586,7 +637,7 @@ class BroadcastQueue {
       // Schedule notification on this queue,
       if (max_sequence_num > 0) {
         current_max_sequence_num = max_sequence_num;
-        dispatchEvents(thread_pool, max_sequence_num);
+        dispatchEvents(thread_pool, timer, max_sequence_num);
       }
 
     }
@@ -0,0 +1,459 @@
+/**
+ * com.mckoi.process.impl.BroadcastRelay  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessChannel;
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessResultNotifier;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Relays the broadcast messages of process channels to clients connected to
+ * this process server. The relay receives each channel once from the process
+ * server running the process (through the ProcessClientService of this
+ * server) and forwards the messages to every client that asked for them, so
+ * the process server running the process sends a message once per relay
+ * rather than once per client.
+ * <p>
+ * Each client of a channel is forwarded to by its own task, so a client
+ * that's slow to read (a send to it blocks) doesn't hold up the others. A
+ * task that can't be submitted because the thread pool is saturated is
+ * retried after a short delay.
+ * <p>
+ * Clients refresh their request every few minutes. A client that hasn't
+ * refreshed for 'DOWNSTREAM_TIMEOUT' is dropped, and a channel with no
+ * clients stops being received.
+ *
+ * @author Tobias Downer
+ */
+
+final class BroadcastRelay {
+
+  /**
+   * The time after the last request from a client before the client stops
+   * being sent the messages of a channel. Clients refresh every 4 minutes.
+   */
+  static final int DOWNSTREAM_TIMEOUT = 6 * 60 * 1000;
+
+  /**
+   * The maximum number of messages fetched from the queue at a time.
+   */
+  private static final int FORWARD_BATCH_SIZE = 256;
+
+  /**
+   * The delay before a task rejected by the thread pool is submitted again.
+   */
+  private static final long RETRY_DELAY = 100;
+
+  /**
+   * The source of the relayed channels, implemented by the client service of
+   * this server.
+   */
+  static interface Source {
+
+    /**
+     * Starts receiving the broadcast messages of the channel. The messages
+     * must be requested directly from the process server running the
+     * process and never through another relay, or relays could end up
+     * relaying from each other.
+     */
+    void startRelayingBroadcast(ProcessChannel process_channel);
+
+    /**
+     * Stops receiving the broadcast messages of the channel.
+     */
+    void stopRelayingBroadcast(ProcessChannel process_channel);
+
+    /**
+     * Returns true if the channel stopped being received because the
+     * process was terminated.
+     */
+    boolean isRelayedBroadcastClosed(ProcessChannel process_channel);
+
+    /**
+     * Returns the received messages of the channel with a sequence value
+     * greater than the one given, or null if there are none. If there are
+     * none and 'notifier' isn't null then the notifier is called when
+     * messages arrive, replacing any earlier registration of the notifier.
+     */
+    List<PMessage> getRelayedMessages(ProcessChannel process_channel,
+            long sequence_value, int consume_limit,
+            ProcessResultNotifier notifier);
+
+  }
+
+  /**
+   * The client that receives the relayed channels.
+   */
+  private final Source client;
+
+  /**
+   * The thread pool messages are forwarded on.
+   */
+  private final ExecutorService thread_pool;
+
+  /**
+   * The timer rejected tasks are retried on.
+   */
+  private final Timer timer;
+
+  /**
+   * The channels being relayed.
+   */
+  private final Map<ProcessChannel, RelayChannel> channels = new HashMap<>();
+
+  /**
+   * Constructor.
+   */
+  BroadcastRelay(Source client, ExecutorService thread_pool, Timer timer) {
+    this.client = client;
+    this.thread_pool = thread_pool;
+    this.timer = timer;
+  }
+
+  /**
+   * Runs the task on the thread pool. If the pool is saturated the task is
+   * submitted again after a short delay.
+   */
+  private void execute(final Runnable task) {
+    try {
+      thread_pool.execute(task);
+    }
+    catch (RejectedExecutionException e) {
+      try {
+        timer.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            execute(task);
+          }
+        }, RETRY_DELAY);
+      }
+      catch (IllegalStateException e2) {
+        // The timer was cancelled (the service is stopping),
+      }
+    }
+  }
+
+  /**
+   * Adds (or refreshes) a request from the client on the given connection
+   * to be sent the messages on the channel with a sequence value greater
+   * than 'min_sequence_val'. Returns false if the channel was closed because
+   * the process terminated.
+   */
+  boolean addDownstream(ProcessChannel process_channel,
+                        NIOConnection connection, long min_sequence_val) {
+
+    RelayChannel relay_channel;
+    Downstream ds;
+    synchronized (channels) {
+      relay_channel = channels.get(process_channel);
+      if (relay_channel == null) {
+        relay_channel = new RelayChannel(process_channel);
+        channels.put(process_channel, relay_channel);
+        client.startRelayingBroadcast(process_channel);
+      }
+      else if (client.isRelayedBroadcastClosed(process_channel)) {
+        channels.remove(process_channel);
+        client.stopRelayingBroadcast(process_channel);
+        relay_channel.notifyTerminated();
+        return false;
+      }
+      ds = relay_channel.addDownstream(connection, min_sequence_val);
+    }
+
+    // Send the client any messages it's missing,
+    ds.scheduleForward();
+    return true;
+
+  }
+
+  /**
+   * Drops clients that haven't refreshed their requests and channels that
+   * have no clients or were closed. This must be called more often than the
+   * notifiers on the broadcast queues are cleared (4 minutes) because it
+   * also renews the notifier on each channel.
+   */
+  void maintenance() {
+
+    long timeout_ts = System.currentTimeMillis() - DOWNSTREAM_TIMEOUT;
+    List<RelayChannel> to_forward = new ArrayList<>();
+
+    synchronized (channels) {
+      Iterator<RelayChannel> it = channels.values().iterator();
+      while (it.hasNext()) {
+        RelayChannel relay_channel = it.next();
+        relay_channel.removeStaleDownstream(timeout_ts);
+        ProcessChannel process_channel = relay_channel.process_channel;
+        if (client.isRelayedBroadcastClosed(process_channel)) {
+          it.remove();
+          client.stopRelayingBroadcast(process_channel);
+          relay_channel.notifyTerminated();
+        }
+        else if (relay_channel.downstream.isEmpty()) {
+          it.remove();
+          client.stopRelayingBroadcast(process_channel);
+        }
+        else {
+          to_forward.add(relay_channel);
+        }
+      }
+    }
+
+    for (RelayChannel relay_channel : to_forward) {
+      relay_channel.scheduleForward();
+    }
+
+  }
+
+  /**
+   * A client being sent the messages of a channel. Messages are forwarded
+   * to the client by at most one task at a time.
+   */
+  private class Downstream implements Runnable {
+
+    private final RelayChannel relay_channel;
+    private final NIOConnection connection;
+
+    /**
+     * The sequence value of the last message sent to the client. Only
+     * changed by the forwarding task.
+     */
+    private volatile long sequence_val;
+
+    /**
+     * The time of the last request from the client.
+     */
+    private volatile long last_request_ts;
+
+    /**
+     * True while a forwarding task is scheduled or running, and true when
+     * messages may have arrived since the task last looked.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    private Downstream(RelayChannel relay_channel,
+                       NIOConnection connection, long sequence_val) {
+      this.relay_channel = relay_channel;
+      this.connection = connection;
+      this.sequence_val = sequence_val;
+      this.last_request_ts = System.currentTimeMillis();
+    }
+
+    /**
+     * Schedules a task to forward any new messages to the client.
+     */
+    private void scheduleForward() {
+      pending.set(true);
+      if (running.compareAndSet(false, true)) {
+        execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (pending.getAndSet(false)) {
+          forward();
+        }
+      }
+      finally {
+        running.set(false);
+      }
+      // Messages that arrived as the task was finishing,
+      if (pending.get()) {
+        scheduleForward();
+      }
+      else {
+        relay_channel.renewNotifier();
+      }
+    }
+
+    /**
+     * Sends the client the messages it hasn't been sent yet.
+     */
+    private void forward() {
+      if (!connection.isValid()) {
+        relay_channel.downstream.remove(connection, this);
+        return;
+      }
+      try {
+        while (true) {
+          List<PMessage> msgs = client.getRelayedMessages(
+                relay_channel.process_channel, sequence_val,
+                FORWARD_BATCH_SIZE, null);
+          if (msgs == null) {
+            break;
+          }
+          for (PMessage msg : msgs) {
+            // NOTE: can block, but only this client's task waits
+            connection.sendFirstMessage(msg);
+            sequence_val = msg.getSequenceValue();
+          }
+          if (msgs.size() < FORWARD_BATCH_SIZE) {
+            break;
+          }
+        }
+        connection.flushSendMessages();
+      }
+      catch (IOException ex) {
+        ProcessServerService.PROCESS_LOG.log(Level.FINE,
+                                  "Failed to relay broadcast messages", ex);
+        relay_channel.downstream.remove(connection, this);
+      }
+    }
+
+  }
+
+  /**
+   * A channel being relayed.
+   */
+  private class RelayChannel {
+
+    private final ProcessChannel process_channel;
+
+    /**
+     * The clients being sent the messages on this channel.
+     */
+    private final ConcurrentHashMap<NIOConnection, Downstream> downstream =
+                                                     new ConcurrentHashMap<>();
+
+    /**
+     * Notified by the broadcast queue when messages arrive.
+     */
+    private final ProcessResultNotifier notifier =
+                                            new ProcessResultNotifier() {
+      @Override
+      public void init(CleanupHandler cleanup_handler) {
+      }
+      @Override
+      public void notifyMessages() {
+        scheduleForward();
+      }
+    };
+
+    private RelayChannel(ProcessChannel process_channel) {
+      this.process_channel = process_channel;
+    }
+
+    private Downstream addDownstream(NIOConnection connection,
+                                     long min_sequence_val) {
+      Downstream ds = downstream.get(connection);
+      if (ds == null) {
+        ds = new Downstream(this, connection, min_sequence_val);
+        downstream.put(connection, ds);
+      }
+      else {
+        ds.last_request_ts = System.currentTimeMillis();
+      }
+      return ds;
+    }
+
+    private void removeStaleDownstream(long timeout_ts) {
+      Iterator<Map.Entry<NIOConnection, Downstream>> it =
+                                            downstream.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<NIOConnection, Downstream> e = it.next();
+        if (!e.getKey().isValid() ||
+            e.getValue().last_request_ts < timeout_ts) {
+          it.remove();
+        }
+      }
+    }
+
+    /**
+     * Schedules the forwarding task of every client of the channel.
+     */
+    private void scheduleForward() {
+      for (Downstream ds : downstream.values()) {
+        ds.scheduleForward();
+      }
+    }
+
+    /**
+     * Registers the notifier on the queue to wait for the next message
+     * after the ones sent to the clients with no forwarding task running.
+     * A client with a running task catches up on its own and renews the
+     * notifier when its task ends.
+     */
+    private void renewNotifier() {
+      long low_sequence_val = Long.MAX_VALUE;
+      for (Downstream ds : downstream.values()) {
+        if (!ds.running.get()) {
+          low_sequence_val = Math.min(low_sequence_val, ds.sequence_val);
+        }
+      }
+      if (low_sequence_val == Long.MAX_VALUE) {
+        return;
+      }
+      List<PMessage> msgs = client.getRelayedMessages(
+                    process_channel, low_sequence_val, 1, notifier);
+      // Messages arrived since the clients were sent to,
+      if (msgs != null) {
+        scheduleForward();
+      }
+    }
+
+    /**
+     * Tells the clients the process was terminated.
+     */
+    private void notifyTerminated() {
+      ProcessId process_id = process_channel.getProcessId();
+      final PMessage msg = new PMessage(ProcessServerService.createHeader(
+                      process_id, 0, CommConstants.NOTIFY_TERMINATED_CC));
+      for (final NIOConnection connection : downstream.keySet()) {
+        execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              connection.sendFirstMessage(msg);
+              connection.flushSendMessages();
+            }
+            catch (IOException e) {
+              ProcessServerService.PROCESS_LOG.log(Level.FINE,
+                                "Failed to send terminated notice", e);
+            }
+          }
+        });
+      }
+      downstream.clear();
+    }
+
+  }
+
+}
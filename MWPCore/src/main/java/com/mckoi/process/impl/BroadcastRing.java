@@ -0,0 +1,291 @@
+/**
+ * com.mckoi.process.impl.BroadcastRing  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.util.ByteArrayUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The broadcast messages of a process instance held in a ring buffer that's
+ * indexed by the sequence value of the message. The sequence values of the
+ * messages in the ring are contiguous, so the messages in any sequence
+ * range are found without searching.
+ * <p>
+ * Writers are serialized by a lock. Readers never lock. A message is
+ * stored in its slot before the tail sequence (a volatile) is advanced
+ * past it, so a reader that sees the tail sees every message before it.
+ * A reader that races with the writer reusing a slot sees a message with a
+ * different sequence value in the slot and skips it (the message it wanted
+ * was evicted).
+ * <p>
+ * The ring starts small and doubles in size up to a maximum number of
+ * messages. Messages are evicted from the head when the ring is full, when
+ * the total size of the messages is over a maximum number of bytes, or
+ * when they are older than an age given to 'cleanOlderThan'.
+ *
+ * @author Tobias Downer
+ */
+
+final class BroadcastRing {
+
+  /**
+   * The initial number of slots in the ring (a power of 2).
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * The byte offset of the sequence value and timestamp in a broadcast
+   * message.
+   */
+  private static final int SEQUENCE_OFFSET = 20;
+  private static final int TIMESTAMP_OFFSET = 28;
+
+  /**
+   * The maximum number of slots (a power of 2) and the maximum number of
+   * bytes of the messages in the ring.
+   */
+  private final int max_capacity;
+  private final long max_bytes;
+
+  /**
+   * The lock writers hold.
+   */
+  private final Object write_lock = new Object();
+
+  /**
+   * The slots. Replaced with a larger array when the ring grows.
+   */
+  private volatile AtomicReferenceArray<PMessage> slots;
+
+  /**
+   * The sequence value of the oldest message in the ring, and the sequence
+   * value the next message will be given. The ring is empty when they are
+   * equal.
+   */
+  private volatile long head_seq;
+  private volatile long tail_seq;
+
+  /**
+   * The total size in bytes of the messages in the ring (guarded by
+   * 'write_lock').
+   */
+  private long retained_bytes = 0;
+
+  /**
+   * Constructor. 'first_seq' is the sequence value of the first message
+   * published.
+   */
+  BroadcastRing(long first_seq, int max_capacity, long max_bytes) {
+    this.max_capacity = Math.max(INITIAL_CAPACITY, max_capacity);
+    this.max_bytes = max_bytes;
+    this.slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    this.head_seq = first_seq;
+    this.tail_seq = first_seq;
+  }
+
+  /**
+   * Returns the slot index of the sequence value in the given array.
+   */
+  private static int slotOf(AtomicReferenceArray<PMessage> a, long seq) {
+    return (int) (seq & (a.length() - 1));
+  }
+
+  /**
+   * Returns the message with the given sequence value in the given array,
+   * or null if it's not there.
+   */
+  private static PMessage messageAt(
+                              AtomicReferenceArray<PMessage> a, long seq) {
+    PMessage msg = a.get(slotOf(a, seq));
+    if (msg != null && msg.getSequenceValue() == seq) {
+      return msg;
+    }
+    return null;
+  }
+
+  /**
+   * Evicts the message at the head of the ring. Must be called under the
+   * write lock on a non-empty ring.
+   */
+  private void evictHead() {
+    AtomicReferenceArray<PMessage> a = slots;
+    long seq = head_seq;
+    int slot = slotOf(a, seq);
+    PMessage msg = a.get(slot);
+    if (msg != null) {
+      retained_bytes -= msg.sizeInBytes();
+    }
+    a.set(slot, null);
+    head_seq = seq + 1;
+  }
+
+  /**
+   * Doubles the size of the ring. Must be called under the write lock.
+   */
+  private void grow() {
+    AtomicReferenceArray<PMessage> a = slots;
+    AtomicReferenceArray<PMessage> grown =
+                                new AtomicReferenceArray<>(a.length() * 2);
+    long tail = tail_seq;
+    for (long seq = head_seq; seq < tail; ++seq) {
+      grown.set(slotOf(grown, seq), a.get(slotOf(a, seq)));
+    }
+    slots = grown;
+  }
+
+  /**
+   * Publishes a broadcast message. The next sequence value is written into
+   * the message buffer at the sequence offset, and the sequence value is
+   * returned.
+   */
+  long publish(byte[] msg_buf) {
+    synchronized (write_lock) {
+      long seq = tail_seq;
+      ByteArrayUtil.setLong(seq, msg_buf, SEQUENCE_OFFSET);
+      PMessage msg = new PMessage(msg_buf);
+
+      // Make room,
+      if (seq - head_seq >= slots.length()) {
+        if (slots.length() < max_capacity) {
+          grow();
+        }
+        else {
+          evictHead();
+        }
+      }
+      while (head_seq < seq &&
+             retained_bytes + msg_buf.length > max_bytes) {
+        evictHead();
+      }
+
+      // Store the message and then make it visible,
+      AtomicReferenceArray<PMessage> a = slots;
+      a.set(slotOf(a, seq), msg);
+      retained_bytes += msg_buf.length;
+      tail_seq = seq + 1;
+      return seq;
+    }
+  }
+
+  /**
+   * Evicts all the messages with a timestamp older than the given time.
+   * Returns the number of messages evicted.
+   */
+  int cleanOlderThan(long time) {
+    synchronized (write_lock) {
+      int count = 0;
+      AtomicReferenceArray<PMessage> a = slots;
+      while (head_seq < tail_seq) {
+        PMessage msg = a.get(slotOf(a, head_seq));
+        if (msg != null &&
+            msg.asByteBuffer().getLong(TIMESTAMP_OFFSET) >= time) {
+          break;
+        }
+        evictHead();
+        ++count;
+      }
+      // Release a grown ring once it's empty,
+      if (head_seq == tail_seq && a.length() > INITIAL_CAPACITY) {
+        slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Returns all the messages in the ring with a sequence value between
+   * 'min_seq' and 'max_seq' inclusive, in sequence order.
+   */
+  List<PMessage> messagesBetween(long min_seq, long max_seq) {
+    // NOTE: The order of the volatile reads is important. The tail must be
+    //   read before the slots so the slots contain every message before
+    //   the tail.
+    long tail = tail_seq;
+    AtomicReferenceArray<PMessage> a = slots;
+    long from = Math.max(min_seq, head_seq);
+    long to = Math.min(max_seq, tail - 1);
+    if (from > to) {
+      return new ArrayList<>(0);
+    }
+    List<PMessage> out = new ArrayList<>((int) Math.min(to - from + 1, 64));
+    for (long seq = from; seq <= to; ++seq) {
+      PMessage msg = messageAt(a, seq);
+      if (msg != null) {
+        out.add(msg);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Returns the message with the given sequence value, or null if it's not
+   * in the ring.
+   */
+  PMessage get(long seq) {
+    // NOTE: The tail must be read before the slots,
+    long tail = tail_seq;
+    if (seq >= tail) {
+      return null;
+    }
+    return messageAt(slots, seq);
+  }
+
+  /**
+   * Makes sure the next message published is given a sequence value no
+   * less than 'next_seq'. If the sequence value has to move forward then
+   * any messages in the ring are evicted, because the sequence values in
+   * the ring must be contiguous.
+   */
+  void advanceTo(long next_seq) {
+    synchronized (write_lock) {
+      if (next_seq <= tail_seq) {
+        return;
+      }
+      while (head_seq < tail_seq) {
+        evictHead();
+      }
+      head_seq = next_seq;
+      tail_seq = next_seq;
+    }
+  }
+
+  /**
+   * Returns the sequence value the next message published will be given.
+   */
+  long getNextSequence() {
+    return tail_seq;
+  }
+
+  /**
+   * Returns true if the ring has no messages.
+   */
+  boolean isEmpty() {
+    return head_seq == tail_seq;
+  }
+
+}
@@ -0,0 +1,399 @@
+/**
+ * com.mckoi.process.impl.CallbackScheduler  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A hashed timing wheel that schedules TIMED_CALLBACK messages on process
+ * instances. Scheduling a callback is O(1) and lock-free (new callbacks are
+ * put on a concurrent queue that the wheel thread drains into the buckets
+ * on each tick). On each tick the wheel thread expires all the callbacks in
+ * the current bucket as a batch, pushing the messages directly to the
+ * function queue of each instance, and notifies the function dispatcher
+ * once for each instance touched.
+ * <p>
+ * A callback that belongs to a terminated process releases its reference
+ * to the instance and message as soon as the wheel next visits it, which
+ * is at most one rotation of the wheel. Callbacks can't be cancelled by a
+ * process, so there is no cancel operation.
+ *
+ * @author Tobias Downer
+ */
+
+class CallbackScheduler {
+
+  /**
+   * The number of buckets in the wheel (must be a power of 2).
+   */
+  static final int WHEEL_SIZE = 512;
+
+  /**
+   * The default time period covered by each bucket in the wheel.
+   */
+  static final long DEFAULT_TICK_MS = 10;
+
+  /**
+   * The process service.
+   */
+  private final ProcessServerService process_service;
+
+  /**
+   * The time period of each tick in nanoseconds.
+   */
+  private final long tick_nanos;
+
+  /**
+   * The wheel buckets. Only accessed by the wheel thread.
+   */
+  private final Bucket[] wheel;
+
+  /**
+   * Callbacks that have been scheduled but not yet put in a bucket.
+   */
+  private final ConcurrentLinkedQueue<Callback> pending =
+                                                new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of callbacks currently scheduled.
+   */
+  private final AtomicInteger scheduled_count = new AtomicInteger(0);
+
+  /**
+   * The thread that advances the wheel.
+   */
+  private final WheelThread wheel_thread;
+
+  /**
+   * The System.nanoTime() when the wheel started.
+   */
+  private volatile long start_time;
+
+  /**
+   * Set when the wheel is stopped.
+   */
+  private volatile boolean finished = false;
+
+  /**
+   * Constructor.
+   */
+  CallbackScheduler(ProcessServerService process_service, long tick_ms) {
+    this.process_service = process_service;
+    this.tick_nanos = TimeUnit.MILLISECONDS.toNanos(tick_ms);
+    this.wheel = new Bucket[WHEEL_SIZE];
+    for (int i = 0; i < WHEEL_SIZE; ++i) {
+      wheel[i] = new Bucket();
+    }
+    this.wheel_thread = new WheelThread();
+  }
+
+  /**
+   * Starts the wheel thread.
+   */
+  void start() {
+    start_time = System.nanoTime();
+    wheel_thread.start();
+  }
+
+  /**
+   * Stops the wheel thread. Any callbacks still scheduled are discarded.
+   */
+  void stop() {
+    finished = true;
+    wheel_thread.interrupt();
+  }
+
+  /**
+   * Returns the number of callbacks currently scheduled.
+   */
+  int scheduledCount() {
+    return scheduled_count.get();
+  }
+
+  /**
+   * Schedules a TIMED_CALLBACK message with the given call_id to be pushed
+   * to the function queue of the instance after 'delay_ms' milliseconds.
+   */
+  void schedule(ProcessInstanceImpl instance, int call_id,
+                ProcessMessage msg, long delay_ms) {
+    long deadline = System.nanoTime() - start_time +
+                    TimeUnit.MILLISECONDS.toNanos(delay_ms);
+    scheduleAt(instance, call_id, msg, deadline);
+  }
+
+  /**
+   * Schedules a TIMED_CALLBACK message with the given call_id to be pushed
+   * to the function queue of the instance at the given deadline, in
+   * nanoseconds since the wheel started.
+   */
+  void scheduleAt(ProcessInstanceImpl instance, int call_id,
+                  ProcessMessage msg, long deadline) {
+    Callback callback = new Callback(instance, call_id, msg, deadline);
+    scheduled_count.incrementAndGet();
+    pending.add(callback);
+  }
+
+  /**
+   * Moves the pending callbacks into the wheel and expires the callbacks in
+   * the bucket of the given tick. Called by the wheel thread at the end of
+   * each tick.
+   */
+  void advance(long tick) {
+    transferPending(tick);
+    try {
+      expireBucket(wheel[(int) (tick & (WHEEL_SIZE - 1))]);
+    }
+    catch (Throwable e) {
+      ProcessServerService.PROCESS_LOG.log(Level.SEVERE,
+                                   "Exception in callback scheduler", e);
+    }
+  }
+
+  /**
+   * Notifies the function dispatcher that the function queue of the
+   * instance has messages.
+   */
+  void notifyMessagesAvailable(ProcessInstanceImpl instance) {
+    process_service.notifyMessagesAvailable(instance.getId());
+  }
+
+  /**
+   * Moves the pending callbacks into the wheel buckets.
+   */
+  private void transferPending(long tick) {
+    // Limit the number transferred per tick so a flood of new callbacks
+    // can't stall expiry,
+    for (int i = 0; i < 100000; ++i) {
+      Callback callback = pending.poll();
+      if (callback == null) {
+        break;
+      }
+      long calculated = callback.deadline / tick_nanos;
+      callback.remaining_rounds = (calculated - tick) / WHEEL_SIZE;
+      // Deadlines in the past go in the current bucket,
+      long ticks = Math.max(calculated, tick);
+      wheel[(int) (ticks & (WHEEL_SIZE - 1))].add(callback);
+    }
+  }
+
+  /**
+   * Expires the callbacks in the given bucket that are due and pushes the
+   * messages to the instance function queues.
+   */
+  private void expireBucket(Bucket bucket) {
+
+    List<Callback> expired = new ArrayList<>();
+
+    Callback callback = bucket.head;
+    while (callback != null) {
+      Callback next = callback.next;
+      ProcessInstanceImpl instance = callback.instance;
+      // The process terminated,
+      if (instance.isTerminated()) {
+        bucket.remove(callback);
+        callback.release();
+      }
+      else if (callback.remaining_rounds <= 0) {
+        bucket.remove(callback);
+        expired.add(callback);
+      }
+      else {
+        --callback.remaining_rounds;
+      }
+      callback = next;
+    }
+
+    if (expired.isEmpty()) {
+      return;
+    }
+
+    // Push to the function queues, then notify the dispatcher once per
+    // instance,
+    List<ProcessInstanceImpl> notify_list = new ArrayList<>();
+    for (Callback c : expired) {
+      ProcessInstanceImpl instance = c.instance;
+      try {
+        if (instance.pushTimedCallback(c.call_id, c.msg)) {
+          notify_list.add(instance);
+        }
+      }
+      catch (Throwable e) {
+        ProcessServerService.PROCESS_LOG.log(Level.SEVERE,
+                                   "Exception pushing timed callback", e);
+      }
+      c.release();
+    }
+    for (ProcessInstanceImpl instance : notify_list) {
+      notifyMessagesAvailable(instance);
+    }
+
+  }
+
+  /**
+   * A scheduled callback.
+   */
+  private final class Callback {
+
+    private ProcessInstanceImpl instance;
+    private final int call_id;
+    private ProcessMessage msg;
+    private final long deadline;
+    private long remaining_rounds;
+
+    // The bucket linked list (only accessed by the wheel thread),
+    private Bucket bucket;
+    private Callback next;
+    private Callback prev;
+
+    private Callback(ProcessInstanceImpl instance, int call_id,
+                     ProcessMessage msg, long deadline) {
+      this.instance = instance;
+      this.call_id = call_id;
+      this.msg = msg;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Drops the references to the instance and message.
+     */
+    private void release() {
+      instance = null;
+      msg = null;
+      scheduled_count.decrementAndGet();
+    }
+
+  }
+
+  /**
+   * A bucket in the wheel, which is a doubly linked list of callbacks.
+   */
+  private static final class Bucket {
+
+    private Callback head;
+    private Callback tail;
+
+    void add(Callback callback) {
+      callback.bucket = this;
+      if (head == null) {
+        head = tail = callback;
+      }
+      else {
+        tail.next = callback;
+        callback.prev = tail;
+        tail = callback;
+      }
+    }
+
+    void remove(Callback callback) {
+      if (callback.bucket != this) {
+        return;
+      }
+      Callback next = callback.next;
+      if (callback.prev != null) {
+        callback.prev.next = next;
+      }
+      if (next != null) {
+        next.prev = callback.prev;
+      }
+      if (callback == head) {
+        head = next;
+      }
+      if (callback == tail) {
+        tail = callback.prev;
+      }
+      callback.prev = null;
+      callback.next = null;
+      callback.bucket = null;
+    }
+
+    void clear() {
+      Callback callback = head;
+      while (callback != null) {
+        Callback next = callback.next;
+        callback.instance = null;
+        callback.msg = null;
+        callback.prev = null;
+        callback.next = null;
+        callback.bucket = null;
+        callback = next;
+      }
+      head = null;
+      tail = null;
+    }
+
+  }
+
+  /**
+   * The thread that advances the wheel one tick at a time.
+   */
+  private class WheelThread extends Thread {
+
+    WheelThread() {
+      super("Mckoi Callback Scheduler");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long tick = 0;
+      try {
+        while (!finished) {
+          // Wait until the end of the current tick,
+          long deadline = tick_nanos * (tick + 1);
+          long sleep_nanos = deadline - (System.nanoTime() - start_time);
+          if (sleep_nanos > 0) {
+            try {
+              TimeUnit.NANOSECONDS.sleep(sleep_nanos);
+            }
+            catch (InterruptedException e) {
+              // Interrupted by 'stop',
+              continue;
+            }
+          }
+
+          advance(tick);
+          ++tick;
+        }
+      }
+      finally {
+        // Discard everything still scheduled,
+        for (Bucket bucket : wheel) {
+          bucket.clear();
+        }
+        pending.clear();
+        scheduled_count.set(0);
+      }
+    }
+
+  }
+
+}
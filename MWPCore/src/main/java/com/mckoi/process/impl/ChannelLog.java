@@ -0,0 +1,475 @@
+/**
+ * com.mckoi.process.impl.ChannelLog  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.odb.ClassValidationException;
+import com.mckoi.odb.ODBClass;
+import com.mckoi.odb.ODBClassCreator;
+import com.mckoi.odb.ODBData;
+import com.mckoi.odb.ODBList;
+import com.mckoi.odb.ODBObject;
+import com.mckoi.odb.ODBOrderSpecification;
+import com.mckoi.odb.ODBTransaction;
+import com.mckoi.process.ProcessChannel;
+import com.mckoi.process.ProcessId;
+import com.mckoi.util.ByteArrayUtil;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static methods for the logs of the messages broadcast on durable
+ * channels. The log of a channel is stored in the process path of the
+ * process as a list of segments, each holding a batch of messages in
+ * sequence order. A segment is keyed by the sequence value of the last
+ * message in it, so the segment holding the messages after any sequence
+ * value is found with a single 'tail' lookup.
+ * <p>
+ * The classes of the log are defined in the process path the first time a
+ * message is logged on the path.
+ *
+ * @author Tobias Downer
+ */
+
+final class ChannelLog {
+
+  /**
+   * The named item of the log root in the process path.
+   */
+  private static final String ROOT_ITEM = "channelroot";
+
+  /**
+   * A batch is merged into the newest segment of the log if the merged
+   * segment is no larger than this, so a slow channel doesn't end up with
+   * a segment per maintenance cycle.
+   */
+  private static final int SEGMENT_TARGET_SIZE = 64 * 1024;
+
+  private ChannelLog() {
+  }
+
+  /**
+   * Returns the sequence value as a fixed width hex string so that keys
+   * sort in sequence order.
+   */
+  static String seqKey(long sequence_val) {
+    String hex = Long.toHexString(sequence_val);
+    StringBuilder b = new StringBuilder(16);
+    for (int i = hex.length(); i < 16; ++i) {
+      b.append('0');
+    }
+    b.append(hex);
+    return b.toString();
+  }
+
+  /**
+   * A batch of messages encoded for a segment, each message is [size]
+   * [message].
+   */
+  static final class Batch {
+
+    /**
+     * The encoded messages, in the first 'size' bytes of the buffer.
+     */
+    final byte[] buf;
+    final int size;
+
+    /**
+     * The sequence value of the last message in the batch, and the number
+     * of messages left out of the batch.
+     */
+    final long last_seq;
+    final int skip_count;
+
+    private Batch(byte[] buf, int size, long last_seq, int skip_count) {
+      this.buf = buf;
+      this.size = size;
+      this.last_seq = last_seq;
+      this.skip_count = skip_count;
+    }
+
+  }
+
+  /**
+   * Encodes the messages (in sequence order) that have a sequence value
+   * greater than 'last_seq' as a batch. The messages that don't follow the
+   * sequence are left out of the batch.
+   */
+  static Batch encodeBatch(List<PMessage> msgs, long last_seq) {
+    int batch_size = 0;
+    for (PMessage msg : msgs) {
+      batch_size += 4 + msg.sizeInBytes();
+    }
+    byte[] batch = new byte[batch_size];
+    int p = 0;
+    int skip_count = 0;
+    long new_last_seq = last_seq;
+    for (PMessage msg : msgs) {
+      long seq = msg.getSequenceValue();
+      if (seq <= new_last_seq) {
+        ++skip_count;
+        continue;
+      }
+      int sz = msg.sizeInBytes();
+      ByteArrayUtil.setInt(sz, batch, p);
+      msg.asByteBuffer().get(batch, p + 4, sz);
+      p += 4 + sz;
+      new_last_seq = seq;
+    }
+    return new Batch(batch, p, new_last_seq, skip_count);
+  }
+
+  /**
+   * Decodes the messages of a segment that have a sequence value greater
+   * than 'sequence_val' into 'out', until 'out' has 'limit' messages.
+   * Returns true if the limit was reached.
+   */
+  static boolean decodeSegment(byte[] buf, long sequence_val, int limit,
+                               List<PMessage> out) {
+    int p = 0;
+    while (p < buf.length) {
+      int sz = ByteArrayUtil.getInt(buf, p);
+      PMessage msg = new PMessage(buf, p + 4, sz);
+      p += 4 + sz;
+      if (msg.getSequenceValue() > sequence_val) {
+        out.add(msg);
+        if (out.size() >= limit) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if a segment, with the given key and the time it was last
+   * appended to, is dropped from a log with the given newest segment key.
+   * The newest segment of a log is never dropped.
+   */
+  static boolean isSegmentExpired(String segment_key, String segment_time,
+                                  String last_key, long expire_ts) {
+    return !segment_key.equals(last_key) &&
+           Long.parseLong(segment_time, 16) < expire_ts;
+  }
+
+  /**
+   * Returns the log root of the process path, defining the classes of the
+   * log and creating the root if they don't exist.
+   */
+  private static ODBObject getOrCreateRoot(ODBTransaction t)
+                                                          throws PException {
+
+    ODBObject root_ob = t.getNamedItem(ROOT_ITEM);
+    if (root_ob != null) {
+      return root_ob;
+    }
+
+    if (t.findClass("C.Root") == null) {
+      ODBClassCreator class_creator = t.getClassCreator();
+
+      // The root object of the channel logs,
+      class_creator.createClass("C.Root")
+         .defineString("version", true)
+         .defineList("channelIdx", "C.Log",
+                     ODBOrderSpecification.lexicographic("channel"), false);
+
+      // The log of a channel. 'last' is the key of the newest segment,
+      class_creator.createClass("C.Log")
+         .defineString("channel")
+         .defineString("last")
+         .defineList("segmentIdx", "C.Segment",
+                     ODBOrderSpecification.lexicographic("last"), false);
+
+      // A batch of messages,
+      class_creator.createClass("C.Segment")
+         .defineString("last")
+         .defineString("time")
+         .defineData("data");
+
+      try {
+        class_creator.validateAndComplete();
+      }
+      catch (ClassValidationException e) {
+        throw new PException(e);
+      }
+    }
+
+    // (version, channelIdx)
+    root_ob = t.constructObject(t.findClass("C.Root"), "1.0", null);
+    t.addNamedItem(ROOT_ITEM, root_ob);
+    return root_ob;
+
+  }
+
+  /**
+   * Returns the log object of the channel, or null if the channel has no
+   * log.
+   */
+  private static ODBObject getLog(ODBTransaction t,
+                                  ProcessChannel process_channel) {
+    ODBObject root_ob = t.getNamedItem(ROOT_ITEM);
+    if (root_ob == null) {
+      return null;
+    }
+    return root_ob.getList("channelIdx").getObject(process_channel.toString());
+  }
+
+  /**
+   * Returns true if the channel has a log (it's durable).
+   */
+  static boolean isLogged(ODBTransaction t, ProcessChannel process_channel) {
+    return getLog(t, process_channel) != null;
+  }
+
+  /**
+   * Appends the broadcast messages (in sequence order) to the logs of
+   * their channels and drops the segments last appended to before
+   * 'expire_ts'. The newest segment of a log is never dropped.
+   * <p>
+   * A message with a sequence value that isn't greater than the last
+   * message in the log is not written. This only happens when a process
+   * restarts and its sequence values overlap the previous run. Returns the
+   * number of messages not written.
+   */
+  static int append(ODBTransaction t, List<PMessage> msgs, long expire_ts)
+                                                          throws PException {
+
+    // Group the messages by channel,
+    Map<ProcessChannel, List<PMessage>> channel_msgs = new LinkedHashMap<>();
+    for (PMessage msg : msgs) {
+      // The channel number is in the call id position of the header,
+      ProcessChannel process_channel =
+                  new ProcessChannel(msg.getProcessId(), msg.getCallId());
+      List<PMessage> list = channel_msgs.get(process_channel);
+      if (list == null) {
+        list = new ArrayList<>();
+        channel_msgs.put(process_channel, list);
+      }
+      list.add(msg);
+    }
+
+    ODBObject root_ob = getOrCreateRoot(t);
+    ODBList channel_idx = root_ob.getList("channelIdx");
+    ODBClass log_class = t.findClass("C.Log");
+    ODBClass segment_class = t.findClass("C.Segment");
+    String time_now = Long.toHexString(System.currentTimeMillis());
+
+    int skip_count = 0;
+    for (Map.Entry<ProcessChannel, List<PMessage>> e :
+                                                   channel_msgs.entrySet()) {
+
+      String channel_key = e.getKey().toString();
+      ODBObject log_ob = channel_idx.getObject(channel_key);
+      if (log_ob == null) {
+        // (channel, last, segmentIdx)
+        log_ob = t.constructObject(log_class, channel_key, "", null);
+        channel_idx.add(log_ob);
+      }
+      String last_key = log_ob.getString("last");
+      long last_seq = last_key.isEmpty() ? -1 : Long.parseLong(last_key, 16);
+
+      // Encode the batch,
+      Batch batch = encodeBatch(e.getValue(), last_seq);
+      skip_count += batch.skip_count;
+      int p = batch.size;
+      if (p == 0) {
+        continue;
+      }
+
+      ODBList segment_idx = log_ob.getList("segmentIdx");
+
+      // Merge the batch into the newest segment if it's small,
+      int merge_size = 0;
+      ODBObject newest_ob =
+              last_key.isEmpty() ? null : segment_idx.getObject(last_key);
+      if (newest_ob != null) {
+        ODBData data = newest_ob.getData("data");
+        if (data.size() + p <= SEGMENT_TARGET_SIZE) {
+          merge_size = (int) data.size();
+        }
+      }
+      byte[] segment_buf = new byte[merge_size + p];
+      if (merge_size > 0) {
+        ODBData data = newest_ob.getData("data");
+        data.position(0);
+        data.get(segment_buf, 0, merge_size);
+        segment_idx.remove(last_key);
+      }
+      System.arraycopy(batch.buf, 0, segment_buf, merge_size, p);
+
+      // (last, time, data)
+      String new_last_key = seqKey(batch.last_seq);
+      ODBObject segment_ob =
+                t.constructObject(segment_class, new_last_key, time_now, null);
+      ODBData data = segment_ob.getData("data");
+      data.put(segment_buf, 0, segment_buf.length);
+      segment_idx.add(segment_ob);
+      log_ob.setString("last", new_last_key);
+
+      // Drop the expired segments,
+      expireSegments(log_ob, expire_ts);
+
+    }
+
+    return skip_count;
+
+  }
+
+  /**
+   * Drops the segments of the log last appended to before 'expire_ts',
+   * except the newest segment. Returns the number of segments dropped.
+   */
+  private static int expireSegments(ODBObject log_ob, long expire_ts) {
+    String last_key = log_ob.getString("last");
+    ODBList segment_idx = log_ob.getList("segmentIdx");
+    List<String> to_remove = new ArrayList<>();
+    for (ODBObject old_ob : segment_idx) {
+      String key = old_ob.getString("last");
+      if (!isSegmentExpired(key, old_ob.getString("time"),
+                            last_key, expire_ts)) {
+        break;
+      }
+      to_remove.add(key);
+    }
+    for (String key : to_remove) {
+      segment_idx.remove(key);
+    }
+    return to_remove.size();
+  }
+
+  /**
+   * Drops the segments last appended to before 'expire_ts' from all the
+   * logs in the process path, so the logs of channels that are no longer
+   * written to also expire. The newest segment of a log is never dropped.
+   * Returns the number of segments dropped.
+   */
+  static int expire(ODBTransaction t, long expire_ts) {
+    ODBObject root_ob = t.getNamedItem(ROOT_ITEM);
+    if (root_ob == null) {
+      return 0;
+    }
+    int count = 0;
+    for (ODBObject log_ob : root_ob.getList("channelIdx")) {
+      count += expireSegments(log_ob, expire_ts);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the greatest sequence value logged on any channel of the
+   * process, or -1 if nothing is logged for the process. A process that
+   * is resumed must publish with sequence values greater than this, or
+   * its messages won't be logged.
+   */
+  static long getLastSequenceValue(ODBTransaction t, ProcessId process_id) {
+    ODBObject root_ob = t.getNamedItem(ROOT_ITEM);
+    if (root_ob == null) {
+      return -1;
+    }
+    // The channel keys of the process all start with the process id,
+    String process_id_str = process_id.getStringValue();
+    long last_seq = -1;
+    for (ODBObject log_ob :
+                  root_ob.getList("channelIdx").tail(process_id_str)) {
+      if (!log_ob.getString("channel").startsWith(process_id_str)) {
+        break;
+      }
+      String last_key = log_ob.getString("last");
+      if (!last_key.isEmpty()) {
+        last_seq = Math.max(last_seq, Long.parseLong(last_key, 16));
+      }
+    }
+    return last_seq;
+  }
+
+  /**
+   * Returns no more than 'limit' messages from the log of the channel with
+   * a sequence value greater than the one given, or null if the channel
+   * has no log.
+   */
+  static List<PMessage> read(ODBTransaction t,
+                             ProcessChannel process_channel,
+                             long sequence_val, int limit) {
+
+    ODBObject log_ob = getLog(t, process_channel);
+    if (log_ob == null) {
+      return null;
+    }
+
+    List<PMessage> msgs = new ArrayList<>();
+    String last_key = log_ob.getString("last");
+    if (last_key.isEmpty() ||
+        Long.parseLong(last_key, 16) <= sequence_val) {
+      return msgs;
+    }
+
+    // The segments with messages after the sequence value,
+    ODBList segments =
+          log_ob.getList("segmentIdx").tail(seqKey(sequence_val + 1));
+    for (ODBObject segment_ob : segments) {
+      ODBData data = segment_ob.getData("data");
+      byte[] buf = new byte[(int) data.size()];
+      data.position(0);
+      data.get(buf, 0, buf.length);
+      if (decodeSegment(buf, sequence_val, limit, msgs)) {
+        return msgs;
+      }
+    }
+    return msgs;
+
+  }
+
+  /**
+   * Removes the logs of all the channels of the process. Returns true if
+   * anything was removed.
+   */
+  static boolean removeProcess(ODBTransaction t, ProcessId process_id) {
+
+    ODBObject root_ob = t.getNamedItem(ROOT_ITEM);
+    if (root_ob == null) {
+      return false;
+    }
+    ODBList channel_idx = root_ob.getList("channelIdx");
+
+    // The channel keys of the process all start with the process id,
+    String process_id_str = process_id.getStringValue();
+    List<String> to_remove = new ArrayList<>();
+    for (ODBObject log_ob : channel_idx.tail(process_id_str)) {
+      String key = log_ob.getString("channel");
+      if (!key.startsWith(process_id_str)) {
+        break;
+      }
+      to_remove.add(key);
+    }
+    for (String key : to_remove) {
+      channel_idx.remove(key);
+    }
+    return !to_remove.isEmpty();
+
+  }
+
+}
@@ -0,0 +1,266 @@
+/**
+ * com.mckoi.process.impl.ClassLoaderPool  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A reference counted pool of the ProcessMckoiAppClassLoader objects used
+ * by process instances. For each account/application there's a 'current'
+ * class loader for the latest version of the application. Process instances
+ * acquire a reference to a class loader when they materialize their process
+ * object and release it when they are suspended, reloaded or disposed.
+ * <p>
+ * When an application changes version the old class loader is no longer
+ * current, and it's released (closed and removed from the pool) as soon as
+ * the last instance referencing it releases it. This makes the lifetime of
+ * old class loaders deterministic rather than being left to the GC.
+ * <p>
+ * This also rate limits process reloads, so that a new application version
+ * doesn't cause all the process instances of the application to be
+ * reloaded in the same maintenance cycle.
+ *
+ * @author Tobias Downer
+ */
+
+class ClassLoaderPool implements ClassLoaderPoolMXBean {
+
+  /**
+   * The current class loader of each account/application.
+   */
+  private final Map<AccountApplication, ProcessMckoiAppClassLoader> current;
+
+  /**
+   * The entry of every class loader in the pool.
+   */
+  private final Map<ProcessMckoiAppClassLoader, PoolEntry> entries;
+
+  /**
+   * The number of class loaders released.
+   */
+  private long released_count = 0;
+
+  /**
+   * The maximum number of reloads per second, and the reload token bucket.
+   */
+  private final double reload_rate;
+  private double reload_tokens;
+  private long reload_refill_time;
+  private final AtomicLong deferred_reload_count = new AtomicLong(0);
+
+  /**
+   * Constructor.
+   */
+  ClassLoaderPool(double reload_rate) {
+    this.current = new HashMap<>();
+    this.entries = new IdentityHashMap<>();
+    this.reload_rate = reload_rate;
+    this.reload_tokens = reload_rate;
+    this.reload_refill_time = System.currentTimeMillis();
+  }
+
+  /**
+   * Registers this pool with the platform MBean server.
+   */
+  void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName obj_name =
+                      new ObjectName("com.mckoi.process:type=ClassLoaderPool");
+      if (!server.isRegistered(obj_name)) {
+        server.registerMBean(this, obj_name);
+      }
+    }
+    catch (JMException e) {
+      ProcessServerService.PROCESS_LOG.log(Level.WARNING,
+                              "Unable to register class loader pool MBean", e);
+    }
+  }
+
+  /**
+   * Returns the current class loader for the account/application, or null
+   * if there isn't one. Callers must synchronize on this object if the
+   * current class loader is going to be replaced based on the result.
+   */
+  synchronized ProcessMckoiAppClassLoader getCurrent(
+                                            AccountApplication account_app) {
+    return current.get(account_app);
+  }
+
+  /**
+   * Sets the current class loader for the account/application. If this
+   * replaces a class loader that has no references, the old class loader
+   * is released immediately.
+   */
+  synchronized void setCurrent(AccountApplication account_app,
+                               ProcessMckoiAppClassLoader cl) {
+    ProcessMckoiAppClassLoader old_cl = current.put(account_app, cl);
+    if (old_cl == cl) {
+      return;
+    }
+    entries.put(cl, new PoolEntry(account_app));
+    if (old_cl != null) {
+      PoolEntry old_entry = entries.get(old_cl);
+      old_entry.is_current = false;
+      if (old_entry.ref_count == 0) {
+        releaseLoader(old_cl);
+      }
+    }
+  }
+
+  /**
+   * Adds a reference to the given class loader, which must be in the pool.
+   */
+  synchronized void acquire(ProcessMckoiAppClassLoader cl) {
+    ++entries.get(cl).ref_count;
+  }
+
+  /**
+   * Removes a reference to the given class loader. If it's the last
+   * reference and the class loader is no longer current, it's released.
+   */
+  synchronized void release(ProcessMckoiAppClassLoader cl) {
+    PoolEntry entry = entries.get(cl);
+    if (entry == null) {
+      return;
+    }
+    --entry.ref_count;
+    if (entry.ref_count <= 0 && !entry.is_current) {
+      releaseLoader(cl);
+    }
+  }
+
+  /**
+   * Removes the class loader from the pool and closes it.
+   */
+  private void releaseLoader(ProcessMckoiAppClassLoader cl) {
+    entries.remove(cl);
+    ++released_count;
+    try {
+      cl.close();
+    }
+    catch (IOException e) {
+      ProcessServerService.PROCESS_LOG.log(Level.WARNING,
+                                          "Error closing class loader", e);
+    }
+    if (ProcessServerService.PROCESS_LOG.isLoggable(Level.FINE)) {
+      ProcessServerService.PROCESS_LOG.log(Level.FINE,
+                "Released class loader for version {0} ({1} classes)",
+                new Object[] { cl.getAppVersion(), cl.getDefinedClassCount() });
+    }
+  }
+
+  /**
+   * Returns true if a process reload may happen now, false if the reload
+   * should be deferred to a later maintenance cycle.
+   */
+  synchronized boolean tryAcquireReload() {
+    long time_now = System.currentTimeMillis();
+    long elapsed = time_now - reload_refill_time;
+    if (elapsed > 0) {
+      reload_tokens = Math.min(reload_rate,
+                               reload_tokens + (elapsed * reload_rate / 1000));
+      reload_refill_time = time_now;
+    }
+    if (reload_tokens >= 1) {
+      reload_tokens -= 1;
+      return true;
+    }
+    deferred_reload_count.incrementAndGet();
+    return false;
+  }
+
+  private static String appKey(AccountApplication account_app) {
+    return account_app.getAccountName() + "/" +
+           account_app.getApplicationName();
+  }
+
+  // ----- Implemented from ClassLoaderPoolMXBean -----
+
+  @Override
+  public synchronized int getLiveLoaderCount() {
+    return entries.size();
+  }
+
+  @Override
+  public synchronized long getReleasedLoaderCount() {
+    return released_count;
+  }
+
+  @Override
+  public synchronized Map<String, Integer> getLiveLoadersByApp() {
+    Map<String, Integer> result = new HashMap<>();
+    for (PoolEntry entry : entries.values()) {
+      String key = appKey(entry.account_app);
+      Integer count = result.get(key);
+      result.put(key, count == null ? 1 : count + 1);
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized Map<String, Integer> getLoadedClassesByApp() {
+    Map<String, Integer> result = new HashMap<>();
+    for (Map.Entry<ProcessMckoiAppClassLoader, PoolEntry> e :
+                                                          entries.entrySet()) {
+      String key = appKey(e.getValue().account_app);
+      int classes = e.getKey().getDefinedClassCount();
+      Integer count = result.get(key);
+      result.put(key, count == null ? classes : count + classes);
+    }
+    return result;
+  }
+
+  @Override
+  public long getDeferredReloadCount() {
+    return deferred_reload_count.get();
+  }
+
+  /**
+   * An entry in the pool.
+   */
+  private static class PoolEntry {
+
+    private final AccountApplication account_app;
+    private int ref_count = 0;
+    private boolean is_current = true;
+
+    PoolEntry(AccountApplication account_app) {
+      this.account_app = account_app;
+    }
+
+  }
+
+}
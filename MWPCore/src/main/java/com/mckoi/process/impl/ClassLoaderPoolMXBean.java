@@ -0,0 +1,67 @@
+/**
+ * com.mckoi.process.impl.ClassLoaderPoolMXBean  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.util.Map;
+
+/**
+ * The management interface of the process service's ClassLoaderPool.
+ *
+ * @author Tobias Downer
+ */
+
+public interface ClassLoaderPoolMXBean {
+
+  /**
+   * The number of application class loaders currently in the pool
+   * (including out of date loaders still referenced by instances).
+   */
+  int getLiveLoaderCount();
+
+  /**
+   * The total number of class loaders that have been released from the pool.
+   */
+  long getReleasedLoaderCount();
+
+  /**
+   * The number of live class loaders for each application, keyed by
+   * '[account]/[application]'.
+   */
+  Map<String, Integer> getLiveLoadersByApp();
+
+  /**
+   * The number of classes defined by the live class loaders of each
+   * application, keyed by '[account]/[application]'.
+   */
+  Map<String, Integer> getLoadedClassesByApp();
+
+  /**
+   * The number of process reloads deferred to spread out the cost of an
+   * application version change.
+   */
+  long getDeferredReloadCount();
+
+}
@@ -53,6 +53,12 @@ public class CommConstants {
    */
   public static byte BROADCAST_REQUEST_CC =     (byte) 4;
 
+  /**
+   * Transmission code for a broadcast request or keep-alive signal sent to a
+   * process server that relays the broadcast messages of a channel.
+   */
+  public static byte RELAY_BROADCAST_REQUEST_CC = (byte) 5;
+
   /**
    * Transmission code for a query of the process information.
    */
@@ -94,4 +100,17 @@ public class CommConstants {
    */
   public static byte NOTIFY_TERMINATED_CC =     (byte) 21;
 
+  /**
+   * Transmission code for a report of the load on a process server.
+   */
+  public static byte LOAD_REPORT_CC =           (byte) 22;
+
+  /**
+   * Transmission code for a request from a client to be sent load reports
+   * on the connection. A server that doesn't know the code logs and
+   * ignores it, so a client only receives reports from a server that
+   * supports them.
+   */
+  public static byte LOAD_REPORT_REQUEST_CC =   (byte) 23;
+
 }
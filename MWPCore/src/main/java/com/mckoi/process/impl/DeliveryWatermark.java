@@ -0,0 +1,126 @@
+/**
+ * com.mckoi.process.impl.DeliveryWatermark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.io.IOException;
+
+/**
+ * The messages from one broadcasting instance that a connection has been
+ * sent. Broadcast messages are published with contiguous sequence values,
+ * and every message up to a notified sequence value is already published
+ * when the notification happens, so the delivered messages are always the
+ * contiguous range 'low_seq' (inclusive) to 'next_seq' (exclusive). The
+ * range grows at the top as new messages are notified, and at the bottom
+ * when a concurrent broadcaster notifies an older sequence value late.
+ *
+ * @author Tobias Downer
+ */
+
+class DeliveryWatermark {
+
+  private long low_seq;
+  private long next_seq;
+
+  /**
+   * The range of sequence values notified so far.
+   */
+  private long min_seq_val;
+  private long max_seq_val;
+
+  /**
+   * Constructor. 'first_seq' is the first sequence value notified.
+   */
+  DeliveryWatermark(long first_seq) {
+    this.low_seq = first_seq;
+    this.next_seq = first_seq;
+    this.min_seq_val = first_seq;
+    this.max_seq_val = first_seq - 1;
+  }
+
+  /**
+   * Sets the range of sequence values that have been notified, 'min_seq'
+   * and 'max_seq' inclusive.
+   */
+  void setNotifiedRange(long min_seq, long max_seq) {
+    this.min_seq_val = min_seq;
+    this.max_seq_val = max_seq;
+  }
+
+  /**
+   * Sends to the connection every message in the notified range that's
+   * outside the delivered range, and grows the delivered range to cover
+   * the notified range. Returns the number of messages sent. Messages that
+   * have expired are skipped.
+   * <p>
+   * NOTE: can block on the connection.
+   */
+  int deliver(Source source, NIOConnection conn) throws IOException {
+    int count = 0;
+    // Messages older than the delivered range (notified late by a
+    // concurrent broadcaster),
+    if (min_seq_val < low_seq) {
+      count += push(source, conn, min_seq_val, low_seq - 1);
+      low_seq = min_seq_val;
+    }
+    // Messages newer than the delivered range,
+    if (max_seq_val >= next_seq) {
+      count += push(source, conn, next_seq, max_seq_val);
+      next_seq = max_seq_val + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Sends the messages with sequence values between 'min_seq' and 'max_seq'
+   * inclusive.
+   */
+  private static int push(Source source, NIOConnection conn,
+                          long min_seq, long max_seq) throws IOException {
+    int count = 0;
+    for (long seq = min_seq; seq <= max_seq; ++seq) {
+      PMessage msg = source.getBroadcastMessage(seq);
+      if (msg != null) {
+        conn.sendFirstMessage(msg);
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Where the broadcast messages are read from.
+   */
+  static interface Source {
+
+    /**
+     * Returns the broadcast message with the given sequence value, or null
+     * if it has expired.
+     */
+    PMessage getBroadcastMessage(long sequence_val);
+
+  }
+
+}
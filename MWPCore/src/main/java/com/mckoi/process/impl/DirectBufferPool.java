@@ -0,0 +1,106 @@
+/**
+ * com.mckoi.process.impl.DirectBufferPool  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed size direct ByteBuffers shared by the NIO connections.
+ * Direct buffers are expensive to allocate and are only reclaimed by the GC
+ * lazily, so the connections borrow buffers from this pool while they have
+ * data to read or write and give them back when they are idle. Writing
+ * from, or reading to, a direct buffer also saves the JDK from copying the
+ * data through a temporary direct buffer on each channel operation.
+ * <p>
+ * The pool retains at most 'max_retained' buffers. Buffers released when
+ * the pool is full are left to the GC.
+ *
+ * @author Tobias Downer
+ */
+
+final class DirectBufferPool {
+
+  /**
+   * The size of each buffer in the pool.
+   */
+  private final int buffer_size;
+
+  /**
+   * The maximum number of idle buffers retained by the pool.
+   */
+  private final int max_retained;
+
+  /**
+   * The idle buffers.
+   */
+  private final ConcurrentLinkedQueue<ByteBuffer> free_buffers =
+                                                new ConcurrentLinkedQueue<>();
+  private final AtomicInteger free_count = new AtomicInteger(0);
+
+  /**
+   * Constructor.
+   */
+  DirectBufferPool(int buffer_size, int max_retained) {
+    this.buffer_size = buffer_size;
+    this.max_retained = max_retained;
+  }
+
+  /**
+   * Returns the size of the buffers in this pool.
+   */
+  int getBufferSize() {
+    return buffer_size;
+  }
+
+  /**
+   * Returns a cleared buffer from the pool, allocating a new buffer if the
+   * pool is empty.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer bb = free_buffers.poll();
+    if (bb != null) {
+      free_count.decrementAndGet();
+      return bb;
+    }
+    return ByteBuffer.allocateDirect(buffer_size);
+  }
+
+  /**
+   * Returns a buffer acquired from this pool back to the pool. The buffer
+   * must not be used by the caller after this call.
+   */
+  void release(ByteBuffer bb) {
+    if (free_count.incrementAndGet() > max_retained) {
+      free_count.decrementAndGet();
+      return;
+    }
+    bb.clear();
+    free_buffers.offer(bb);
+  }
+
+}
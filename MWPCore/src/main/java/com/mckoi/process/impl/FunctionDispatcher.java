@@ -0,0 +1,187 @@
+/**
+ * com.mckoi.process.impl.FunctionDispatcher  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps track of the process instances that have queue items that must be
+ * processed, and calls back on them. The work is spread over a number of
+ * threads and each process id is always handled by the same thread (chosen
+ * by the hash of the process id), so dispatch for a process stays in
+ * order. The 'function' method of an instance is never run concurrently
+ * (see FunctionQueue.tryBeginExecution).
+ *
+ * @author Tobias Downer
+ */
+
+class FunctionDispatcher {
+
+  /**
+   * Called to dispatch the function operation of a process instance.
+   */
+  interface Target {
+    void dispatch(ProcessId process_id);
+  }
+
+  /**
+   * The dispatcher threads.
+   */
+  private final DispatcherThread[] threads;
+
+  /**
+   * The target of the dispatches.
+   */
+  private final Target target;
+
+  /**
+   * Constructor.
+   */
+  FunctionDispatcher(int thread_count, Target target) {
+    if (thread_count < 1) {
+      throw new IllegalArgumentException("thread_count < 1");
+    }
+    this.target = target;
+    this.threads = new DispatcherThread[thread_count];
+    for (int i = 0; i < thread_count; ++i) {
+      threads[i] = new DispatcherThread(i + 1);
+    }
+  }
+
+  /**
+   * Starts the dispatcher threads.
+   */
+  void start() {
+    for (DispatcherThread thread : threads) {
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops the dispatcher threads.
+   */
+  void finish() {
+    for (DispatcherThread thread : threads) {
+      thread.finish();
+    }
+  }
+
+  /**
+   * Notifies the dispatcher that items are ready on the function queue of
+   * the process instance.
+   */
+  void notifyMessagesAvailable(ProcessId process_id) {
+    int shard = (process_id.hashCode() & 0x7fffffff) % threads.length;
+    threads[shard].notifyMessagesAvailable(process_id);
+  }
+
+  /**
+   * Returns the number of process ids waiting to be dispatched.
+   */
+  int getPendingCount() {
+    int count = 0;
+    for (DispatcherThread thread : threads) {
+      count += thread.getPendingCount();
+    }
+    return count;
+  }
+
+  /**
+   * A thread that dispatches the process ids of one shard.
+   */
+  private class DispatcherThread extends Thread {
+
+    private final Object lock = new Object();
+    private boolean finished = false;
+
+    private Set<ProcessId> instance_events = new HashSet<>();
+
+    DispatcherThread(int n) {
+      super("Mckoi Function Dispatcher " + n);
+    }
+
+    /**
+     * Notify to this dispatcher thread that events are pending.
+     */
+    void notifyMessagesAvailable(ProcessId id) {
+      synchronized (lock) {
+        instance_events.add(id);
+        lock.notifyAll();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+
+          // Swap out the pending events so that producers aren't blocked
+          // while we dispatch,
+          Set<ProcessId> events;
+          synchronized (lock) {
+            while (!finished && instance_events.isEmpty()) {
+              lock.wait();
+            }
+            if (finished) {
+              return;
+            }
+            events = instance_events;
+            instance_events = new HashSet<>();
+          }
+
+          // Trigger events,
+          for (ProcessId id : events) {
+            target.dispatch(id);
+          }
+
+        }
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException("Interrupted", e);
+      }
+    }
+
+    /**
+     * Returns the number of process ids waiting to be dispatched.
+     */
+    int getPendingCount() {
+      synchronized (lock) {
+        return instance_events.size();
+      }
+    }
+
+    private void finish() {
+      synchronized (lock) {
+        finished = true;
+        lock.notifyAll();
+      }
+    }
+
+  }
+
+}
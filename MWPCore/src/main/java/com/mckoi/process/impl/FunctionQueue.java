@@ -26,13 +26,26 @@
 package com.mckoi.process.impl;
 
 import com.mckoi.process.ProcessInputMessage;
-import java.util.Iterator;
-import java.util.LinkedList;
+import com.mckoi.process.ProcessUnavailableException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An object that represents the input messages of the process instance.
  * Designed to be multi-thread safe.
+ * <p>
+ * Signals and all other input messages are kept in two separate lanes so
+ * that a backlog of signals that are not being consumed doesn't affect the
+ * cost of consuming functions. Both lanes are lock-free queues, and
+ * pushing or removing an item is O(1).
+ * <p>
+ * The queue has a bounded capacity. When the queue is full a push either
+ * fails with ProcessUnavailableException, or (when the overflow policy is
+ * DROP_OLDEST_SIGNAL) the oldest signal is discarded to make room. Items
+ * that are replies to the process's own requests are pushed with
+ * 'forcePushToFunctionQueue' and are never rejected.
  *
  * @author Tobias Downer
  */
@@ -40,20 +53,78 @@ import java.util.concurrent.locks.ReentrantLock;
 class FunctionQueue {
 
   /**
-   * The function queue lock.
+   * The policy when an item is pushed to a full queue.
+   */
+  enum OverflowPolicy {
+
+    // The push fails with a ProcessUnavailableException,
+    REJECT,
+    // The oldest signal on the queue is dropped. If there are no signals
+    // the push fails with a ProcessUnavailableException,
+    DROP_OLDEST_SIGNAL,
+
+  }
+
+  /**
+   * The default capacity of a function queue.
+   */
+  static final int DEFAULT_CAPACITY = 8192;
+
+  /**
+   * The function queue lock. Pushing and removing items does not lock, this
+   * is used by the process instance to guard state that must be consistent
+   * with the queue being empty.
    */
   private final ReentrantLock FUNCTION_QUEUE_LOCK = new ReentrantLock();
 
   /**
-   * The input function message queue.
+   * The signal lane.
+   */
+  private final ConcurrentLinkedQueue<FunctionQueueItem> signal_queue =
+                                                new ConcurrentLinkedQueue<>();
+
+  /**
+   * The function lane (all messages that are not signals).
+   */
+  private final ConcurrentLinkedQueue<FunctionQueueItem> function_queue =
+                                                new ConcurrentLinkedQueue<>();
+
+  /**
+   * The total number of items in both lanes.
+   */
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  /**
+   * The maximum number of items in the queue, and the overflow policy.
+   */
+  private final int capacity;
+  private final OverflowPolicy overflow_policy;
+
+  /**
+   * The number of pushes rejected and signals dropped because the queue was
+   * full.
    */
-  private final LinkedList<FunctionQueueItem> function_queue = new LinkedList();
+  private final AtomicLong rejected_count = new AtomicLong(0);
+  private final AtomicLong dropped_count = new AtomicLong(0);
+
+  /**
+   * True while a thread is running the 'function' method of the process
+   * instance. Guarded by the function queue lock.
+   */
+  private boolean executing = false;
 
   /**
    * Constructor.
    */
-  FunctionQueue() {
-    
+  FunctionQueue(int capacity, OverflowPolicy overflow_policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1");
+    }
+    if (overflow_policy == null) {
+      throw new NullPointerException();
+    }
+    this.capacity = capacity;
+    this.overflow_policy = overflow_policy;
   }
 
   /**
@@ -71,47 +142,144 @@ class FunctionQueue {
   }
 
   /**
-   * Pushes a new queue item to the end of the function queue.
+   * Starts an execution of the 'function' method of the process instance
+   * if one isn't already running and there are items on the queue. Returns
+   * true if the caller is now the only thread that may run the 'function'
+   * method, in which case 'endExecution' must be called when it's done.
    */
-  void pushToFunctionQueue(FunctionQueueItem queue_item) {
-    // Add it,
-    lock();
+  boolean tryBeginExecution() {
+    FUNCTION_QUEUE_LOCK.lock();
     try {
-      function_queue.add(queue_item);
-      queue_item.setIsInQueue();
+      if (executing || isFunctionQueueEmpty()) {
+        return false;
+      }
+      executing = true;
+      return true;
     }
     finally {
-      unlock();
+      FUNCTION_QUEUE_LOCK.unlock();
     }
   }
 
   /**
-   * Pushes a new queue item to the start of the function queue.
+   * Ends the execution started by 'tryBeginExecution' if the queue is
+   * empty, and returns true if it was ended. The check and the end happen
+   * under the lock, so an item pushed after the check is always followed
+   * by a successful 'tryBeginExecution'.
    */
-  void addFirstToFunctionQueue(FunctionQueueItem queue_item) {
-    // Add it,
-    lock();
+  boolean endExecutionIfEmpty() {
+    FUNCTION_QUEUE_LOCK.lock();
     try {
-      function_queue.addFirst(queue_item);
-      queue_item.setIsInQueue();
+      if (!isFunctionQueueEmpty()) {
+        return false;
+      }
+      executing = false;
+      return true;
     }
     finally {
-      unlock();
+      FUNCTION_QUEUE_LOCK.unlock();
     }
   }
 
   /**
-   * Returns true if the function queue is empty or a function is currently
-   * being executed.
+   * Ends the execution started by 'tryBeginExecution'.
    */
-  boolean isFunctionQueueEmpty() {
-    lock();
+  void endExecution() {
+    FUNCTION_QUEUE_LOCK.lock();
     try {
-      return function_queue.isEmpty();
+      executing = false;
     }
     finally {
-      unlock();
+      FUNCTION_QUEUE_LOCK.unlock();
+    }
+  }
+
+  /**
+   * Reserves space in the queue for a new item, applying the overflow policy
+   * if the queue is full.
+   */
+  private void reserve() throws ProcessUnavailableException {
+    if (size.incrementAndGet() <= capacity) {
+      return;
+    }
+    // Full, so try and drop the oldest signal,
+    if (overflow_policy == OverflowPolicy.DROP_OLDEST_SIGNAL) {
+      FunctionQueueItem dropped = signal_queue.poll();
+      if (dropped != null) {
+        size.decrementAndGet();
+        dropped_count.incrementAndGet();
+        return;
+      }
     }
+    size.decrementAndGet();
+    rejected_count.incrementAndGet();
+    throw new ProcessUnavailableException("Function queue is full",
+                       ProcessUnavailableException.Reason.UNAVAILABLE, null);
+  }
+
+  /**
+   * Adds the item to the end of its lane.
+   */
+  private void add(FunctionQueueItem queue_item) {
+    queue_item.setIsInQueue();
+    if (queue_item.getType() == ProcessInputMessage.Type.SIGNAL_INVOKE) {
+      signal_queue.add(queue_item);
+    }
+    else {
+      function_queue.add(queue_item);
+    }
+  }
+
+  /**
+   * Pushes a new queue item to the end of the function queue (or the signal
+   * lane if the item is a signal). Throws ProcessUnavailableException if the
+   * queue is full.
+   */
+  void pushToFunctionQueue(FunctionQueueItem queue_item)
+                                        throws ProcessUnavailableException {
+    reserve();
+    add(queue_item);
+  }
+
+  /**
+   * Pushes a new queue item to the end of the function queue regardless of
+   * the capacity of the queue.
+   */
+  void forcePushToFunctionQueue(FunctionQueueItem queue_item) {
+    size.incrementAndGet();
+    add(queue_item);
+  }
+
+  /**
+   * Returns true if there are no items on the function queue or the signal
+   * queue. 'tryBeginExecution' and 'endExecutionIfEmpty' must call this
+   * while holding FUNCTION_QUEUE_LOCK, so that their check of the queue and
+   * their change of 'executing' happen together. Without the lock the
+   * result is only a hint, since items may be pushed at any time.
+   */
+  boolean isFunctionQueueEmpty() {
+    return function_queue.isEmpty() && signal_queue.isEmpty();
+  }
+
+  /**
+   * Returns the number of items in the queue.
+   */
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * Returns the number of pushes rejected because the queue was full.
+   */
+  long getRejectedCount() {
+    return rejected_count.get();
+  }
+
+  /**
+   * Returns the number of signals dropped because the queue was full.
+   */
+  long getDroppedCount() {
+    return dropped_count.get();
   }
 
   /**
@@ -119,60 +287,34 @@ class FunctionQueue {
    * null if the queue is empty.
    */
   FunctionQueueItem removeFirst() {
-    lock();
-    try {
-      // PENDING: remove old signals that are never consumed,
-      // Find the first none signal item in the queue,
-      Iterator<FunctionQueueItem> iterator = function_queue.iterator();
-      while (iterator.hasNext()) {
-        FunctionQueueItem item = iterator.next();
-        // Consume it if it's not a signal,
-        if (item.getType() != ProcessInputMessage.Type.SIGNAL_INVOKE) {
-          iterator.remove();
-          return item;
-        }
-      }
-      return null;
-    }
-    finally {
-      unlock();
+    FunctionQueueItem item = function_queue.poll();
+    if (item != null) {
+      size.decrementAndGet();
     }
+    return item;
   }
 
   /**
    * Removes the first signal item from the function queue, or returns null
-   * if the queue is empty.
+   * if there are no signals.
    */
   FunctionQueueItem removeFirstSignal() {
-    lock();
-    try {
-      if (function_queue.isEmpty()) {
-        return null;
-      }
-      else {
-        // If the first item matches the input type then consume it,
-        FunctionQueueItem first = function_queue.getFirst();
-        if (first.getType() == ProcessInputMessage.Type.SIGNAL_INVOKE) {
-          return function_queue.removeFirst();
-        }
-        return null;
-      }
-    }
-    finally {
-      unlock();
+    FunctionQueueItem item = signal_queue.poll();
+    if (item != null) {
+      size.decrementAndGet();
     }
+    return item;
   }
 
   /**
    * Cleans the function queue of all elements.
    */
   void clean() {
-    lock();
-    try {
-      function_queue.clear();
+    while (removeFirst() != null) {
+      // Loop until empty,
     }
-    finally {
-      unlock();
+    while (removeFirstSignal() != null) {
+      // Loop until empty,
     }
   }
 
@@ -0,0 +1,448 @@
+/**
+ * com.mckoi.process.impl.LoadingCache  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessUnavailableException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A size bounded cache with a time to live that loads missing values
+ * through a Loader. The entries are spread over a number of stripes that
+ * each have their own lock and evict their least recently used entry when
+ * full, so lookups on different keys rarely contend.
+ * <p>
+ * Loading is single-flight. When several threads miss on the same key only
+ * the first calls the Loader, the others wait for it and share its result
+ * (or its exception). Failed loads are not cached.
+ * <p>
+ * The hit, miss, eviction and load time counters are published as an
+ * MXBean named 'com.mckoi.process:type=Cache,name=[name]'.
+ *
+ * @author Tobias Downer
+ */
+
+class LoadingCache<K, V> implements LoadingCacheMXBean {
+
+  /**
+   * The number of stripes (must be a power of 2).
+   */
+  private static final int STRIPE_COUNT = 16;
+
+  /**
+   * The name of this cache.
+   */
+  private final String name;
+
+  /**
+   * The stripes.
+   */
+  private final Stripe<K, V>[] stripes;
+
+  /**
+   * The maximum number of entries, and the time in milliseconds an entry
+   * stays valid after it's loaded.
+   */
+  private final int max_size;
+  private final long ttl;
+
+  /**
+   * The loads currently in progress.
+   */
+  private final ConcurrentMap<K, Flight<V>> in_flight =
+                                                  new ConcurrentHashMap<>();
+
+  /**
+   * Counters.
+   */
+  private final AtomicLong hit_count = new AtomicLong(0);
+  private final AtomicLong miss_count = new AtomicLong(0);
+  private final AtomicLong load_count = new AtomicLong(0);
+  private final AtomicLong load_failure_count = new AtomicLong(0);
+  private final AtomicLong load_time_nanos = new AtomicLong(0);
+  private final AtomicLong eviction_count = new AtomicLong(0);
+
+  /**
+   * The name this cache is registered under with the MBean server.
+   */
+  private ObjectName mbean_name;
+
+  /**
+   * Constructor.
+   */
+  LoadingCache(String name, int max_size, long ttl) {
+    this.name = name;
+    this.max_size = max_size;
+    this.ttl = ttl;
+    int stripe_capacity = Math.max(1, max_size / STRIPE_COUNT);
+    @SuppressWarnings("unchecked")
+    Stripe<K, V>[] s = (Stripe<K, V>[]) new Stripe<?, ?>[STRIPE_COUNT];
+    for (int i = 0; i < STRIPE_COUNT; ++i) {
+      s[i] = new Stripe<>(stripe_capacity, eviction_count);
+    }
+    this.stripes = s;
+  }
+
+  /**
+   * Returns the stripe for the given key.
+   */
+  private Stripe<K, V> stripeFor(Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return stripes[h & (STRIPE_COUNT - 1)];
+  }
+
+  /**
+   * Returns the value in the cache for the given key, or null if it's not
+   * in the cache or has expired. This never calls the loader.
+   */
+  V getIfPresent(K key) {
+    V value = stripeFor(key).get(key, System.currentTimeMillis());
+    if (value != null) {
+      hit_count.incrementAndGet();
+    }
+    else {
+      miss_count.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Returns the value for the given key, loading it with the given loader
+   * if it's not in the cache. Only one load of a key is performed at a
+   * time.
+   */
+  V get(K key, Loader<K, V> loader) throws ProcessUnavailableException {
+
+    V value = getIfPresent(key);
+    if (value != null) {
+      return value;
+    }
+
+    // If another thread is loading this key then wait for it,
+    Flight<V> flight = new Flight<>();
+    Flight<V> current_flight = in_flight.putIfAbsent(key, flight);
+    if (current_flight != null) {
+      return current_flight.await();
+    }
+
+    long start_ns = System.nanoTime();
+    try {
+      // A load may have finished between the lookup and the flight being
+      // registered,
+      value = stripeFor(key).get(key, System.currentTimeMillis());
+      if (value == null) {
+        value = loader.load(key);
+        load_count.incrementAndGet();
+        load_time_nanos.addAndGet(System.nanoTime() - start_ns);
+        // The value isn't cached if the key was invalidated during the
+        // load, because it may have been loaded from the old state,
+        stripeFor(key).putLoaded(
+                        key, value, System.currentTimeMillis() + ttl, flight);
+      }
+      flight.complete(value);
+      return value;
+    }
+    catch (ProcessUnavailableException | RuntimeException | Error e) {
+      load_failure_count.incrementAndGet();
+      flight.fail(e);
+      throw e;
+    }
+    finally {
+      in_flight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Puts a value that was loaded outside the cache (for example, by an
+   * asynchronous lookup) into the cache.
+   */
+  void put(K key, V value) {
+    stripeFor(key).put(key, value, System.currentTimeMillis() + ttl);
+  }
+
+  /**
+   * Removes the entry with the given key from the cache. If the key is
+   * being loaded, the loaded value is given to the threads waiting on the
+   * load but isn't put in the cache.
+   */
+  void invalidate(K key) {
+    stripeFor(key).invalidate(key, in_flight);
+  }
+
+  /**
+   * Registers this cache with the platform MBean server.
+   */
+  void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName obj_name = new ObjectName(
+                  "com.mckoi.process:type=Cache,name=" +
+                  ObjectName.quote(name));
+      if (!server.isRegistered(obj_name)) {
+        server.registerMBean(this, obj_name);
+        mbean_name = obj_name;
+      }
+    }
+    catch (JMException e) {
+      ProcessServerService.PROCESS_LOG.log(Level.WARNING,
+                                "Unable to register cache MBean", e);
+    }
+  }
+
+  /**
+   * Unregisters this cache from the platform MBean server.
+   */
+  void unregisterMBean() {
+    if (mbean_name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                                                                mbean_name);
+      }
+      catch (JMException e) {
+        // Ignore,
+      }
+      mbean_name = null;
+    }
+  }
+
+  // ----- LoadingCacheMXBean -----
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getSize() {
+    int size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  @Override
+  public int getMaxSize() {
+    return max_size;
+  }
+
+  @Override
+  public long getHitCount() {
+    return hit_count.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return miss_count.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hits = hit_count.get();
+    long total = hits + miss_count.get();
+    if (total == 0) {
+      return 0;
+    }
+    return (double) hits / total;
+  }
+
+  @Override
+  public long getLoadCount() {
+    return load_count.get();
+  }
+
+  @Override
+  public long getLoadFailureCount() {
+    return load_failure_count.get();
+  }
+
+  @Override
+  public double getMeanLoadMillis() {
+    long loads = load_count.get();
+    if (loads == 0) {
+      return 0;
+    }
+    return (load_time_nanos.get() / 1000000d) / loads;
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return eviction_count.get();
+  }
+
+  // -----
+
+  /**
+   * Loads the value for a key that isn't in the cache.
+   */
+  static interface Loader<K, V> {
+
+    /**
+     * Returns the value for the key. Must not return null.
+     */
+    V load(K key) throws ProcessUnavailableException;
+
+  }
+
+  /**
+   * An entry in a stripe.
+   */
+  private static final class Entry<V> {
+    private final V value;
+    private final long expires_at;
+    Entry(V value, long expires_at) {
+      this.value = value;
+      this.expires_at = expires_at;
+    }
+  }
+
+  /**
+   * A part of the cache with its own lock. The map is in access order so
+   * the eldest entry is the least recently used.
+   */
+  private static final class Stripe<K, V> {
+
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    Stripe(final int capacity, final AtomicLong eviction_count) {
+      this.map = new LinkedHashMap<K, Entry<V>>(capacity + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+          if (size() > capacity) {
+            eviction_count.incrementAndGet();
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    synchronized V get(K key, long time_now) {
+      Entry<V> entry = map.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expires_at <= time_now) {
+        map.remove(key);
+        return null;
+      }
+      return entry.value;
+    }
+
+    synchronized void put(K key, V value, long expires_at) {
+      map.put(key, new Entry<>(value, expires_at));
+    }
+
+    /**
+     * Puts a value loaded by the given flight, unless the key was
+     * invalidated during the flight.
+     */
+    synchronized void putLoaded(K key, V value, long expires_at,
+                                Flight<V> flight) {
+      if (!flight.invalidated) {
+        map.put(key, new Entry<>(value, expires_at));
+      }
+    }
+
+    /**
+     * Removes the key, and marks any load of the key in progress as
+     * invalidated. This and 'putLoaded' are both under the stripe lock, so
+     * a load either sees the mark or puts its value before it's removed.
+     */
+    synchronized void invalidate(K key, ConcurrentMap<K, Flight<V>> flights) {
+      Flight<V> flight = flights.get(key);
+      if (flight != null) {
+        flight.invalidated = true;
+      }
+      map.remove(key);
+    }
+
+    synchronized int size() {
+      return map.size();
+    }
+
+  }
+
+  /**
+   * A load in progress that other threads wait on.
+   */
+  private static final class Flight<V> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile V value;
+    private volatile Throwable error;
+
+    /**
+     * Set when the key is invalidated during the load (guarded by the
+     * stripe lock),
+     */
+    private boolean invalidated = false;
+
+    void complete(V value) {
+      this.value = value;
+      done.countDown();
+    }
+
+    void fail(Throwable error) {
+      this.error = error;
+      done.countDown();
+    }
+
+    V await() throws ProcessUnavailableException {
+      try {
+        done.await();
+      }
+      catch (InterruptedException e) {
+        // Restore the interrupt status for the caller,
+        Thread.currentThread().interrupt();
+        throw new PRuntimeException("Interrupted", e);
+      }
+      Throwable e = error;
+      if (e == null) {
+        return value;
+      }
+      if (e instanceof ProcessUnavailableException) {
+        throw (ProcessUnavailableException) e;
+      }
+      if (e instanceof Error) {
+        throw (Error) e;
+      }
+      throw (RuntimeException) e;
+    }
+
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * com.mckoi.process.impl.LoadingCacheMXBean  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+/**
+ * The management interface of a LoadingCache, exposing its size, hit and
+ * miss counters and load times through JMX.
+ *
+ * @author Tobias Downer
+ */
+
+public interface LoadingCacheMXBean {
+
+  /**
+   * The name of the cache.
+   */
+  String getName();
+
+  /**
+   * The number of entries currently in the cache.
+   */
+  int getSize();
+
+  /**
+   * The maximum number of entries in the cache.
+   */
+  int getMaxSize();
+
+  /**
+   * The total number of lookups that found a value in the cache.
+   */
+  long getHitCount();
+
+  /**
+   * The total number of lookups that didn't find a value in the cache.
+   */
+  long getMissCount();
+
+  /**
+   * The fraction of lookups that found a value in the cache.
+   */
+  double getHitRatio();
+
+  /**
+   * The total number of values loaded.
+   */
+  long getLoadCount();
+
+  /**
+   * The total number of loads that failed with an exception.
+   */
+  long getLoadFailureCount();
+
+  /**
+   * The mean time in milliseconds taken by a successful load.
+   */
+  double getMeanLoadMillis();
+
+  /**
+   * The total number of entries evicted because the cache was full.
+   */
+  long getEvictionCount();
+
+}
@@ -0,0 +1,142 @@
+/**
+ * com.mckoi.process.impl.MachineLoadReport  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.util.ByteArrayUtil;
+import java.nio.ByteBuffer;
+
+/**
+ * A summary of how loaded a process server is. A process server
+ * periodically sends a report to every client connected to it, and the
+ * client uses the most recent report from each machine to decide where new
+ * processes are placed.
+ * <p>
+ * The encoded message is (message size = 40 bytes),
+ * [20 byte header] [resident processes] [queued dispatches] [processors]
+ * [function cpu nanos per second]
+ *
+ * @author Tobias Downer
+ */
+
+final class MachineLoadReport {
+
+  /**
+   * The size of an encoded report message.
+   */
+  private static final int MESSAGE_SIZE = 40;
+
+  /**
+   * The number of process instances resident on the server.
+   */
+  private final int resident_processes;
+
+  /**
+   * The number of dispatches waiting to be run by the function pool.
+   */
+  private final int queue_length;
+
+  /**
+   * The number of processors available to the server.
+   */
+  private final int processors;
+
+  /**
+   * The CPU time spent in process functions per second, averaged over the
+   * time since the last report.
+   */
+  private final long cpu_nanos_per_second;
+
+  /**
+   * The time the report was received (set by the receiver).
+   */
+  private final long received_ts;
+
+  /**
+   * Constructor.
+   */
+  MachineLoadReport(int resident_processes, int queue_length,
+                    int processors, long cpu_nanos_per_second,
+                    long received_ts) {
+    this.resident_processes = resident_processes;
+    this.queue_length = queue_length;
+    this.processors = Math.max(1, processors);
+    this.cpu_nanos_per_second = cpu_nanos_per_second;
+    this.received_ts = received_ts;
+  }
+
+  /**
+   * Returns the time the report was received.
+   */
+  long getReceivedTimestamp() {
+    return received_ts;
+  }
+
+  /**
+   * Returns a score for the load on the machine where a higher score means
+   * a more heavily loaded machine. The score is the fraction of the
+   * machine's CPU time spent running functions plus the number of queued
+   * dispatches per processor. The resident process count only breaks ties
+   * between otherwise idle machines.
+   */
+  double getScore() {
+    double cpu_util =
+            (double) cpu_nanos_per_second / (1000000000d * processors);
+    return cpu_util + ((double) queue_length / processors) +
+           (resident_processes / 10000d);
+  }
+
+  /**
+   * Encodes this report as a LOAD_REPORT_CC message.
+   */
+  PMessage asMessage() {
+    byte[] buf = new byte[MESSAGE_SIZE];
+    buf[0] = CommConstants.LOAD_REPORT_CC;
+    ByteArrayUtil.setInt(resident_processes, buf, 20);
+    ByteArrayUtil.setInt(queue_length, buf, 24);
+    ByteArrayUtil.setInt(processors, buf, 28);
+    ByteArrayUtil.setLong(cpu_nanos_per_second, buf, 32);
+    return new PMessage(buf);
+  }
+
+  /**
+   * Decodes a report from a LOAD_REPORT_CC message, stamping it with the
+   * given receive time.
+   */
+  static MachineLoadReport fromMessage(PMessage msg, long received_ts) {
+    ByteBuffer bb = msg.asByteBuffer();
+    return new MachineLoadReport(bb.getInt(20), bb.getInt(24),
+                                 bb.getInt(28), bb.getLong(32), received_ts);
+  }
+
+  @Override
+  public String toString() {
+    return "[resident = " + resident_processes +
+           ", queued = " + queue_length +
+           ", cpu_ns/s = " + cpu_nanos_per_second +
+           ", processors = " + processors + "]";
+  }
+
+}
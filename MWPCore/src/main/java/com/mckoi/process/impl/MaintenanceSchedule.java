@@ -0,0 +1,199 @@
+/**
+ * com.mckoi.process.impl.MaintenanceSchedule  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Tracks which process instances need to be looked at by the process
+ * maintenance task. Instances are put on a concurrent dirty queue when they
+ * are touched (by user code, a broadcast, a termination, etc). The
+ * maintenance task also schedules future deadlines for instances (for
+ * example, when an instance will become stale) on a hashed time wheel.
+ * <p>
+ * Each maintenance cycle only visits the instances on the dirty queue plus
+ * the instances with a deadline that has passed, so the cost of maintenance
+ * scales with activity and not with the number of resident processes.
+ * <p>
+ * 'markDirty' is lock-free. The wheel is only accessed by the maintenance
+ * threads and is guarded by this object's monitor.
+ *
+ * @author Tobias Downer
+ */
+
+class MaintenanceSchedule {
+
+  /**
+   * The number of buckets in the wheel (must be a power of 2).
+   */
+  private static final int WHEEL_SIZE = 64;
+
+  /**
+   * The time period covered by each bucket in the wheel.
+   */
+  private final long tick_ms;
+
+  /**
+   * The queue of process ids that have been touched since the last
+   * maintenance cycle.
+   */
+  private final ConcurrentLinkedQueue<ProcessId> dirty_queue =
+                                                new ConcurrentLinkedQueue<>();
+
+  /**
+   * The wheel buckets. Each bucket maps process id to the deadline the
+   * process id was scheduled for.
+   */
+  private final List<Map<ProcessId, Long>> wheel;
+
+  /**
+   * The current deadline of each scheduled process id. An entry in a wheel
+   * bucket that doesn't match the deadline here has been superseded.
+   */
+  private final Map<ProcessId, Long> scheduled;
+
+  /**
+   * The last tick that was drained from the wheel.
+   */
+  private long last_tick;
+
+  /**
+   * Constructor.
+   */
+  MaintenanceSchedule(long tick_ms) {
+    this.tick_ms = tick_ms;
+    this.wheel = new ArrayList<>(WHEEL_SIZE);
+    for (int i = 0; i < WHEEL_SIZE; ++i) {
+      wheel.add(new HashMap<ProcessId, Long>());
+    }
+    this.scheduled = new HashMap<>();
+    this.last_tick = System.currentTimeMillis() / tick_ms;
+  }
+
+  /**
+   * Puts the process id on the dirty queue so that it is looked at in the
+   * next maintenance cycle. Callers should make sure the same id isn't
+   * pushed repeatedly (see ProcessInstanceImpl.markMaintenanceDirty).
+   */
+  void markDirty(ProcessId process_id) {
+    dirty_queue.add(process_id);
+  }
+
+  /**
+   * Schedules the process id to be looked at by maintenance at or after the
+   * given timestamp. This replaces any deadline previously scheduled for
+   * the id.
+   */
+  synchronized void schedule(ProcessId process_id, long deadline) {
+    Long current = scheduled.get(process_id);
+    if (current != null && current == deadline) {
+      return;
+    }
+    scheduled.put(process_id, deadline);
+    // Deadlines in the past go in the bucket that's drained next,
+    long tick = Math.max(deadline / tick_ms, last_tick);
+    wheel.get((int) (tick & (WHEEL_SIZE - 1))).put(process_id, deadline);
+  }
+
+  /**
+   * Removes any deadline scheduled for the process id.
+   */
+  synchronized void unschedule(ProcessId process_id) {
+    scheduled.remove(process_id);
+  }
+
+  /**
+   * Returns the number of process ids with a scheduled deadline.
+   */
+  synchronized int scheduledCount() {
+    return scheduled.size();
+  }
+
+  /**
+   * Drains the dirty queue and all the entries of the wheel with a deadline
+   * before 'time_now', and returns the set of process ids that need to be
+   * looked at by this maintenance cycle. Drained ids are unscheduled, so the
+   * maintenance task must reschedule any id that it still needs to check at
+   * a later time.
+   */
+  synchronized Set<ProcessId> drainDue(long time_now) {
+
+    Set<ProcessId> due = new LinkedHashSet<>();
+
+    // Everything on the dirty queue,
+    while (true) {
+      ProcessId process_id = dirty_queue.poll();
+      if (process_id == null) {
+        break;
+      }
+      due.add(process_id);
+    }
+
+    // The buckets between the last tick and now. If we've fallen more than a
+    // whole rotation behind we only need to visit every bucket once,
+    long now_tick = time_now / tick_ms;
+    long start_tick = Math.max(last_tick, now_tick - (WHEEL_SIZE - 1));
+    for (long tick = start_tick; tick <= now_tick; ++tick) {
+      Map<ProcessId, Long> bucket =
+                            wheel.get((int) (tick & (WHEEL_SIZE - 1)));
+      Iterator<Map.Entry<ProcessId, Long>> i = bucket.entrySet().iterator();
+      while (i.hasNext()) {
+        Map.Entry<ProcessId, Long> entry = i.next();
+        ProcessId process_id = entry.getKey();
+        long deadline = entry.getValue();
+        Long current = scheduled.get(process_id);
+        // Superseded or unscheduled entries are discarded,
+        if (current == null || current != deadline) {
+          i.remove();
+        }
+        // Due entries are removed and returned,
+        else if (deadline <= time_now) {
+          i.remove();
+          scheduled.remove(process_id);
+          due.add(process_id);
+        }
+        // Otherwise it's for a later rotation of the wheel,
+      }
+    }
+    last_tick = now_tick;
+
+    // Ids on the dirty queue don't keep their old deadline,
+    for (ProcessId process_id : due) {
+      scheduled.remove(process_id);
+    }
+
+    return due;
+  }
+
+}
@@ -26,16 +26,19 @@
 package com.mckoi.process.impl;
 
 import com.mckoi.process.ProcessServiceAddress;
+import com.mckoi.util.ByteArrayUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,14 +54,40 @@ public class NIOConnection {
 
   private static final Logger LOG = ProcessServerService.PROCESS_LOG;
 
+  /**
+   * The direct buffers shared by all the connections in this JVM.
+   */
+  private static final DirectBufferPool BUFFER_POOL =
+                                          new DirectBufferPool(65536, 512);
+
+  /**
+   * The number of bytes that may be buffered by 'sendFirstMessage' before
+   * the buffers are flushed to the channel.
+   */
+  private static final int FLUSH_THRESHOLD = 4 * 65536;
+
+  /**
+   * The maximum number of reads from the channel before the messages read
+   * are dispatched to the handler.
+   */
+  private static final int MAX_READS_PER_DISPATCH = 8;
+
+  // The results of 'readDataIntoBuffer',
+  private static final int READ_EOS = -1;
+  private static final int READ_DONE = 0;
+  private static final int READ_MORE = 1;
+
   private final Selector selector;
   private final PEnvironment process_env;
   private final SocketChannel sc;
 
   private final AtomicInteger dispatch_sem = new AtomicInteger(0);
 
-  private final ByteBuffer read_buffer = ByteBuffer.allocate(65536);
+  // The read buffer, or null if there's no data waiting to be consumed,
+  private ByteBuffer read_buffer = null;
   private PMessage partial_msg;
+  // True when messages were put on the queue that haven't been dispatched,
+  private boolean queue_updated = false;
 
   private final Object message_queue_lock = new Object();
   private PMessage message_queue_head = null;
@@ -67,13 +96,16 @@ public class NIOConnection {
 
   private volatile Long state_long = null;
   private volatile ProcessServiceAddress st_machine_addr = null;
+  private volatile boolean load_reports_requested = false;
 
   private volatile boolean is_valid;
 
   private final Object BUFFER_WRITE_LOCK = new Object();
   private final Object WAIT_WRITE_LOCK = new Object();
   private boolean ready_to_write = true;
-  private final ByteBuffer write_buffer;
+  // The buffers waiting to be written, and the number of bytes in them,
+  private final ArrayList<ByteBuffer> write_buffers = new ArrayList<>(4);
+  private int write_buffered = 0;
   private final NIOWriteSelector write_selector;
 
   private SelectionKey selection_key;
@@ -91,8 +123,6 @@ public class NIOConnection {
     this.sc = sc;
     this.write_selector = write_selector;
 
-    this.write_buffer = ByteBuffer.allocate(65536);
-    
     this.is_valid = true;
   }
 
@@ -194,50 +224,70 @@ public class NIOConnection {
     try {
 
       synchronized (BUFFER_WRITE_LOCK) {
-        write_buffer.flip();
-
-        while (true) {
-
-          int write_try = 0;
-          while (write_buffer.hasRemaining()) {
-            int count = sc.write(write_buffer);
-            // If we didn't write,
-            if (count == 0) {
-              ++write_try;
-              // If we tried to write too many times, break from the loop,
-              if (write_try > 2) {
-                break;
+        int buf_count = write_buffers.size();
+        // Nothing to flush,
+        if (buf_count == 0) {
+          return;
+        }
+        ByteBuffer[] bufs = write_buffers.toArray(new ByteBuffer[buf_count]);
+        for (ByteBuffer bb : bufs) {
+          bb.flip();
+        }
+        final ByteBuffer last_buf = bufs[buf_count - 1];
+
+        try {
+          while (true) {
+
+            // Gathering write of all the buffers,
+            int write_try = 0;
+            while (last_buf.hasRemaining()) {
+              long count = sc.write(bufs);
+              // If we didn't write,
+              if (count == 0) {
+                ++write_try;
+                // If we tried to write too many times, break from the loop,
+                if (write_try > 2) {
+                  break;
+                }
               }
             }
-          }
-
-          // If we wrote everything then break the loop
-          if (!write_buffer.hasRemaining()) {
-            break;
-          }
 
-          // If we get here it means the buffers are full and the client isn't
-          // receiving more data and we still have data to send.
-          // This means we need to register for OP_WRITE events in a selector
-          // that will callback to this connection and try to flush the send
-          // buffer.
-          // We then need to block this call until we can write,
+            // If we wrote everything then break the loop
+            if (!last_buf.hasRemaining()) {
+              break;
+            }
 
-          synchronized (WAIT_WRITE_LOCK) {
-            ready_to_write = false;
-            write_selector.register(this);
-            try {
-              while (!ready_to_write) {
-                WAIT_WRITE_LOCK.wait();
+            // If we get here it means the buffers are full and the client
+            // isn't receiving more data and we still have data to send.
+            // This means we need to register for OP_WRITE events in a
+            // selector that will callback to this connection and try to
+            // flush the send buffer.
+            // We then need to block this call until we can write,
+
+            synchronized (WAIT_WRITE_LOCK) {
+              ready_to_write = false;
+              write_selector.register(this);
+              try {
+                while (!ready_to_write) {
+                  WAIT_WRITE_LOCK.wait();
+                }
+              }
+              catch (InterruptedException e) {
+                // Ignore,
               }
             }
-            catch (InterruptedException e) {
-              // Ignore,
-            }
-          }
 
+          }
+        }
+        finally {
+          // Give the buffers back to the pool so idle connections don't
+          // hold on to them,
+          for (ByteBuffer bb : bufs) {
+            BUFFER_POOL.release(bb);
+          }
+          write_buffers.clear();
+          write_buffered = 0;
         }
-        write_buffer.clear();
       }
 
     }
@@ -250,6 +300,23 @@ public class NIOConnection {
 
   }
 
+  /**
+   * Returns a write buffer with at least 'min_remaining' bytes of space
+   * available. Must be called under BUFFER_WRITE_LOCK.
+   */
+  private ByteBuffer writeBufferWithSpace(int min_remaining) {
+    int sz = write_buffers.size();
+    if (sz > 0) {
+      ByteBuffer bb = write_buffers.get(sz - 1);
+      if (bb.remaining() >= min_remaining) {
+        return bb;
+      }
+    }
+    ByteBuffer bb = BUFFER_POOL.acquire();
+    write_buffers.add(bb);
+    return bb;
+  }
+
   /**
    * Sends the message to the client. Note that this may put the message into
    * an internal buffer. To ensure the message is sent immediately, use
@@ -264,39 +331,29 @@ public class NIOConnection {
 
     boolean performed_flush = false;
 
-    // Put the message in the local buffer,
+    // Copy the message into the direct write buffers,
     synchronized (BUFFER_WRITE_LOCK) {
       int msg_sz = msg.sizeInBytes();
-      if (write_buffer.remaining() < 4) {
-        flushSendMessages();
-        performed_flush = true;
-      }
+      ByteBuffer write_buffer = writeBufferWithSpace(4);
       write_buffer.putInt(msg_sz);
       ByteBuffer msg_bb = msg.asByteBuffer();
       int rs_lim = msg_bb.limit();
-      while (true) {
-        int buf_remaining = write_buffer.remaining();
-        int msg_remaining = msg_bb.remaining();
-        if (msg_remaining == 0) {
-          break;
-        }
-        boolean flush_necessary = false;
-        // If the remaining space in the buffer is less than the remaining
-        // bytes in the message,
-        if (buf_remaining < msg_remaining) {
-          // Set the limit to the size of the message we are copying,
-          msg_bb.limit(msg_bb.position() + buf_remaining);
-          flush_necessary = true;
-        }
+      while (msg_bb.hasRemaining()) {
+        write_buffer = writeBufferWithSpace(1);
+        // Set the limit to the size of the message part we are copying,
+        int part_sz = Math.min(write_buffer.remaining(), msg_bb.remaining());
+        msg_bb.limit(msg_bb.position() + part_sz);
         // Put the message part,
         write_buffer.put(msg_bb);
-        if (flush_necessary) {
-          flushSendMessages();
-          performed_flush = true;
-        }
         // Reset the limit,
         msg_bb.limit(rs_lim);
       }
+      write_buffered += (4 + msg_sz);
+      // Flush if we have buffered enough,
+      if (write_buffered >= FLUSH_THRESHOLD) {
+        flushSendMessages();
+        performed_flush = true;
+      }
     }
 
     return performed_flush;
@@ -322,8 +379,8 @@ public class NIOConnection {
    * connection is not responding.
    */
   public void sendAllMessages(PMessage msg) throws IOException {
-    // PENDING; Consolodate these messages into a buffer and flush the buffer
-    // when it's full.
+    // The messages are consolidated into the write buffers and written with
+    // a gathering write when the buffers are flushed,
     while (msg != null) {
       sendFirstMessage(msg);
       msg = msg.next;
@@ -359,6 +416,22 @@ public class NIOConnection {
     st_machine_addr = machine_addr;
   }
 
+  /**
+   * Returns true if the other end of the connection asked to be sent load
+   * reports.
+   */
+  boolean isLoadReportsRequested() {
+    return load_reports_requested;
+  }
+
+  /**
+   * Sets that the other end of the connection asked to be sent load
+   * reports.
+   */
+  void setLoadReportsRequested(boolean val) {
+    load_reports_requested = val;
+  }
+
   /**
    * Dispatch handle message calls. This attempts to consolidate multiple
    * dispatches.
@@ -374,33 +447,44 @@ public class NIOConnection {
 
     // Dispatch event handler on the thread pool,
     ExecutorService thread_pool = process_env.getThreadPool();
-    thread_pool.submit(new Runnable() {
-      @Override
-      public void run() {
-        while (true) {
-          // Reset dispatch_sem
-          dispatch_sem.set(1);
-          
-          // Process the messages on the queue,
-          try {
-            process_env.handleMessages(NIOConnection.this);
-          }
-          catch (Throwable e) {
-            // Report the exception,
-            LOG.log(Level.SEVERE, "Error during message dispatch", e);
-            // Reset 'dispatch_sem' and return
-            dispatch_sem.set(0);
-            return;
-          }
+    try {
+      thread_pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          while (true) {
+            // Reset dispatch_sem
+            dispatch_sem.set(1);
+            
+            // Process the messages on the queue,
+            try {
+              process_env.handleMessages(NIOConnection.this);
+            }
+            catch (Throwable e) {
+              // Report the exception,
+              LOG.log(Level.SEVERE, "Error during message dispatch", e);
+              // Reset 'dispatch_sem' and return
+              dispatch_sem.set(0);
+              return;
+            }
 
-          // If no new messages were dispatched while handling then return
-          if (dispatch_sem.compareAndSet(1, 0)) {
-            return;
+            // If no new messages were dispatched while handling then return
+            if (dispatch_sem.compareAndSet(1, 0)) {
+              return;
+            }
+            // Otherwise loop and handle any other messages,
           }
-          // Otherwise loop and handle any other messages,
         }
-      }
-    });
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // The pool is saturated. This is called on the selector thread which
+      // must not block or run the handler itself, so the connection is
+      // closed and the peer will have to reconnect,
+      LOG.log(Level.SEVERE,
+              "Thread pool saturated, closing connection", e);
+      dispatch_sem.set(0);
+      close();
+    }
     
   }
 
@@ -506,12 +590,9 @@ public class NIOConnection {
     }
 
     // Remove from the head of the buffer,
-    final byte[] buffer_arr = read_buffer.array();
-    final int end_sz = read_buffer.position() - tail_pos;
-    System.arraycopy(buffer_arr, tail_pos,
-                     buffer_arr, 0,
-                     end_sz);
-    read_buffer.position(end_sz);
+    read_buffer.limit(read_buffer.position());
+    read_buffer.position(tail_pos);
+    read_buffer.compact();
   }
 
   /**
@@ -520,7 +601,48 @@ public class NIOConnection {
    */
   boolean readDataFromChannel() {
 
-    boolean was_queue_updated = false;
+    // Borrow a buffer from the pool if we don't have one,
+    if (read_buffer == null) {
+      read_buffer = BUFFER_POOL.acquire();
+    }
+
+    try {
+      // Keep reading while the channel fills the buffer (up to a limit) so
+      // that a burst of messages is dispatched to the handler as one batch,
+      int read_count = 0;
+      while (true) {
+        int status = readDataIntoBuffer();
+        if (status == READ_EOS) {
+          return true;
+        }
+        ++read_count;
+        if (status == READ_DONE || read_count >= MAX_READS_PER_DISPATCH) {
+          return false;
+        }
+      }
+    }
+    finally {
+      // Notify new messages if queue changed,
+      if (queue_updated) {
+        queue_updated = false;
+        dispatchHandleMessages();
+      }
+      // If there's no data waiting in the buffer then give it back to the
+      // pool so idle connections don't hold on to it,
+      if (read_buffer.position() == 0) {
+        BUFFER_POOL.release(read_buffer);
+        read_buffer = null;
+      }
+    }
+  }
+
+  /**
+   * Reads data from the channel into 'read_buffer' and puts any complete
+   * messages on the queue. Returns READ_EOS on end of stream, READ_MORE if
+   * the read filled the buffer (so there may be more data waiting on the
+   * channel), or READ_DONE otherwise.
+   */
+  private int readDataIntoBuffer() {
 
     try {
 
@@ -528,18 +650,19 @@ public class NIOConnection {
       int read_count = sc.read(read_buffer);
 //      System.out.println("READ = " + read_count);
       if (read_count == 0) {
-        return false;
+        return READ_DONE;
       }
       // If End of stream,
       if (read_count < 0) {
         // Invalidate the connection,
         is_valid = false;
-        return true;
+        return READ_EOS;
       }
+      final boolean buffer_filled = !read_buffer.hasRemaining();
 
       // If the message queue is full, we return
       if (isMessageQueueFull()) {
-        return false;
+        return READ_DONE;
       }
 
       int pos = read_buffer.position();
@@ -560,7 +683,7 @@ public class NIOConnection {
           // Add to the queue if the message is complete,
           if (partial_msg.remainingToWrite() == 0) {
             putInQueue(partial_msg);
-            was_queue_updated = true;
+            queue_updated = true;
             partial_msg = null;
           }
 
@@ -568,45 +691,27 @@ public class NIOConnection {
         else {
           // Here it means the buffer still has room but what is available
           // can't satisfy the partial,
-          return false;
+          return READ_DONE;
         }
       }
 
-      // Is there at least one complete command in the buffer?
+      // Find the extent of the complete messages in the buffer,
       // Not even a message header is available yet,
-      while (pos - msg_pos >= 4) {
+      int frames_end = msg_pos;
+      while (pos - frames_end >= 4) {
 
-        int msg_size = read_buffer.getInt(msg_pos);
+        int msg_size = read_buffer.getInt(frames_end);
 
-//        System.out.println("msg_size = " + msg_size);
-//        System.out.println("msg_pos = " + msg_pos);
-//        System.out.println("pos = " + pos);
-        
         if (msg_size <= 0) {
           throw new IOException("msg_size <= 0");
         }
         if (msg_size > 65536) {
           throw new IOException("msg_size > 65536");
         }
-        
-        if (msg_size <= pos - msg_pos - 4) {
-          // Yes! We have at least one complete message in the buffer, so
-          // put it in the queue,
-
-          byte[] buf = new byte[msg_size];
-
-          final int rpos = read_buffer.position();
-          read_buffer.position(msg_pos + 4);
-          read_buffer.get(buf, 0, msg_size);
-          read_buffer.position(rpos);
-
-          PMessage msg = new PMessage(buf);
-//          System.out.println("DBG: Put message in queue: " + msg.getCallId());
-          putInQueue(msg);
-          was_queue_updated = true;
-
-          msg_pos += (msg_size + 4);
 
+        if (msg_size <= pos - frames_end - 4) {
+          // Yes! We have at least one complete message in the buffer,
+          frames_end += (msg_size + 4);
         }
         else {
           // Not a complete message yet so break,
@@ -614,6 +719,30 @@ public class NIOConnection {
         }
       }
 
+      // If there are complete messages,
+      if (frames_end > msg_pos) {
+        // Copy all the complete messages out of the buffer in one operation.
+        // Each message put in the queue is a view over this array,
+        final int chunk_sz = frames_end - msg_pos;
+        byte[] chunk = new byte[chunk_sz];
+
+        final int rpos = read_buffer.position();
+        read_buffer.position(msg_pos);
+        read_buffer.get(chunk, 0, chunk_sz);
+        read_buffer.position(rpos);
+
+        int chunk_pos = 0;
+        while (chunk_pos < chunk_sz) {
+          int msg_size = ByteArrayUtil.getInt(chunk, chunk_pos);
+          PMessage msg = new PMessage(chunk, chunk_pos + 4, msg_size);
+          putInQueue(msg);
+          chunk_pos += (msg_size + 4);
+        }
+        queue_updated = true;
+
+        msg_pos = frames_end;
+      }
+
       // If the position moved,
       if (msg_pos > 0) {
         // Remove the consumed data,
@@ -630,19 +759,14 @@ public class NIOConnection {
         read_buffer.clear();
       }
 
-      // Notify new messages if queue changed,
-      if (was_queue_updated) {
-        dispatchHandleMessages();
-      }
-
-      return false;
+      return buffer_filled ? READ_MORE : READ_DONE;
 
     }
     catch (IOException e) {
       LOG.log(Level.SEVERE, "Error when reading stream", e);
       // Invalidate the connection,
       is_valid = false;
-      return true;
+      return READ_EOS;
     }
   }
   
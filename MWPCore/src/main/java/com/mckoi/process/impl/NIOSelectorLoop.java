@@ -0,0 +1,295 @@
+/**
+ * com.mckoi.process.impl.NIOSelectorLoop  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A thread that sits on a selector and reads from the connections that are
+ * assigned to it. The process server runs several of these loops so the
+ * reading of inbound connections is spread over the cores of the machine.
+ * <p>
+ * Connections are handed to the loop through a lock-free queue that the
+ * loop drains each time it wakes up, so the channel is only ever registered
+ * with the selector by the loop thread itself.
+ *
+ * @author Tobias Downer
+ */
+
+final class NIOSelectorLoop {
+
+  private static final Logger LOG = ProcessServerService.PROCESS_LOG;
+
+  /**
+   * A connection waiting to be registered with the selector, and the task
+   * to run on the thread pool once it has been registered.
+   */
+  private static final class Registration {
+    private final NIOConnection connection;
+    private final Runnable on_registered;
+    Registration(NIOConnection connection, Runnable on_registered) {
+      this.connection = connection;
+      this.on_registered = on_registered;
+    }
+  }
+
+  /**
+   * The selector.
+   */
+  private final Selector selector;
+
+  /**
+   * The thread pool the 'on_registered' tasks are run on.
+   */
+  private final ExecutorService thread_pool;
+
+  /**
+   * The connections waiting to be registered.
+   */
+  private final ConcurrentLinkedQueue<Registration> registrations =
+                                                new ConcurrentLinkedQueue<>();
+
+  /**
+   * True when the selector has been woken up and the loop hasn't yet
+   * drained the registrations, so further wake ups are unnecessary.
+   */
+  private final AtomicBoolean wakeup_pending = new AtomicBoolean(false);
+
+  /**
+   * The connections managed by this loop (for reporting).
+   */
+  private final Set<NIOConnection> connections =
+          Collections.newSetFromMap(
+                      new ConcurrentHashMap<NIOConnection, Boolean>());
+
+  /**
+   * Set to true when the loop is stopped.
+   */
+  private volatile boolean terminated = false;
+
+  private Thread thread;
+
+  /**
+   * Constructor.
+   */
+  NIOSelectorLoop(ExecutorService thread_pool) throws IOException {
+    this.selector = Selector.open();
+    this.thread_pool = thread_pool;
+  }
+
+  /**
+   * Returns the selector of this loop.
+   */
+  Selector getSelector() {
+    return selector;
+  }
+
+  /**
+   * Returns the number of connections managed by this loop.
+   */
+  int getConnectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * Reports all the connections in this loop.
+   */
+  void report(StringBuilder b) {
+    Iterator<NIOConnection> it = connections.iterator();
+    while (it.hasNext()) {
+      NIOConnection conn = it.next();
+      if (conn.isValid()) {
+        b.append(conn.report()).append("\n");
+      }
+    }
+  }
+
+  /**
+   * Adds the valid connections managed by this loop to the given
+   * collection.
+   */
+  void collectConnections(Collection<NIOConnection> out) {
+    for (NIOConnection conn : connections) {
+      if (conn.isValid()) {
+        out.add(conn);
+      }
+    }
+  }
+
+  /**
+   * Hands a connection to this loop. The connection's channel is registered
+   * for reads by the loop thread, and then 'on_registered' is run on the
+   * thread pool.
+   * <p>
+   * (Thread Safe)
+   */
+  void register(NIOConnection conn, Runnable on_registered) {
+    registrations.offer(new Registration(conn, on_registered));
+    if (wakeup_pending.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Starts this loop on its own thread.
+   */
+  void start(String name) {
+    if (terminated || thread != null) {
+      throw new RuntimeException("Already started");
+    }
+    thread = new Thread(selector_loop, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops this loop and closes the selector.
+   */
+  void stop() {
+    terminated = true;
+    try {
+      selector.close();
+    }
+    catch (IOException e) { /* ignore */ }
+    thread = null;
+  }
+
+  /**
+   * Registers the connections waiting on the queue with the selector.
+   */
+  private void processRegistrations() {
+    Registration reg;
+    while ((reg = registrations.poll()) != null) {
+      NIOConnection conn = reg.connection;
+      try {
+        SelectionKey key = conn.getChannel().register(
+                                      selector, SelectionKey.OP_READ, conn);
+        conn.setSelectionKey(key);
+        connections.add(conn);
+        if (reg.on_registered != null) {
+          thread_pool.submit(reg.on_registered);
+        }
+      }
+      catch (ClosedChannelException e) {
+        LOG.log(Level.SEVERE, "Exception registering with selector", e);
+        NIOServerThread.forceCloseChannel(conn.getChannel());
+      }
+      catch (RejectedExecutionException e) {
+        // The thread pool is saturated so the connection can't be served,
+        LOG.log(Level.SEVERE, "Thread pool saturated, closing connection", e);
+        conn.close();
+      }
+    }
+  }
+
+  /**
+   * Removes the connections closed by other threads from the connection
+   * set.
+   */
+  private void pruneConnections() {
+    Iterator<NIOConnection> it = connections.iterator();
+    while (it.hasNext()) {
+      if (!it.next().isValid()) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * The thread loop.
+   */
+  private final Runnable selector_loop = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        while (!terminated) {
+          selector.select();
+          wakeup_pending.set(false);
+
+          // Register any new connections,
+          processRegistrations();
+
+          Set<SelectionKey> keys = selector.selectedKeys();
+          for (SelectionKey key : keys) {
+            try {
+              // If it's a read op,
+              if ((key.readyOps() & SelectionKey.OP_READ) != 0) {
+                // Get the connection,
+                NIOConnection conn = (NIOConnection) key.attachment();
+                // Read data from channel
+                boolean close = conn.readDataFromChannel();
+                // If the stream closed,
+                if (close) {
+                  conn.close();
+                  connections.remove(conn);
+                }
+              }
+            }
+            catch (CancelledKeyException e) {
+              // This seems to be rarely thrown.
+              LOG.log(Level.WARNING, "Cancelled Key", e);
+            }
+          }
+          // Clear the keys,
+          keys.clear();
+
+          // Keys cancelled by other threads are removed from the key set
+          // by 'select', so when there are more connections than keys some
+          // connections were closed elsewhere,
+          if (connections.size() > selector.keys().size()) {
+            pruneConnections();
+          }
+        }
+      }
+      catch (ClosedSelectorException e) {
+        if (!terminated) {
+          LOG.log(Level.SEVERE, "Selector loop terminated unexpectedly", e);
+        }
+      }
+      catch (IOException e) {
+        LOG.log(Level.SEVERE,
+                "IOException caused selector loop to terminate", e);
+      }
+    }
+  };
+
+}
@@ -30,14 +30,17 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * 
+ * The thread that accepts connections to the process server. Each accepted
+ * connection is assigned round-robin to one of a set of NIOSelectorLoop
+ * threads that reads from the connection for its lifetime.
  *
  * @author Tobias Downer
  */
@@ -50,7 +53,12 @@ class NIOServerThread extends Thread {
   private final int local_port;
   private final PEnvironment env;
 
-  private final ReentrantLock selector_lock = new ReentrantLock();
+  /**
+   * The selector loops that read from the connections, and the index of the
+   * loop the next accepted connection is assigned to.
+   */
+  private final NIOSelectorLoop[] selector_loops;
+  private int next_loop = 0;
 
   private Selector selector = null;
   private ServerSocketChannel server_channel = null;
@@ -67,10 +75,11 @@ class NIOServerThread extends Thread {
    * must also have a scope id.
    */
   NIOServerThread(InetAddress local_bind_addr, int local_port,
-                  PEnvironment env) {
+                  PEnvironment env, int selector_count) {
     this.local_bind_addr = local_bind_addr;
     this.local_port = local_port;
     this.env = env;
+    this.selector_loops = new NIOSelectorLoop[selector_count];
   }
 
   /**
@@ -79,21 +88,11 @@ class NIOServerThread extends Thread {
   String report() {
     StringBuilder b = new StringBuilder();
     b.append("NIOServerThread report\n");
-    selector_lock.lock();
-    try {
-      selector.wakeup();
-      Set<SelectionKey> keys = selector.keys();
-      for (SelectionKey key : keys) {
-        NIOConnection conn = (NIOConnection) key.attachment();
-        if (conn != null) {
-          String s = conn.report();
-          b.append(s).append("\n");
-        }
+    for (NIOSelectorLoop loop : selector_loops) {
+      if (loop != null) {
+        loop.report(b);
       }
     }
-    finally {
-      selector_lock.unlock();
-    }
 
     return b.toString();
   }
@@ -102,6 +101,11 @@ class NIOServerThread extends Thread {
     try {
       server_channel.close();
       selector.close();
+      for (NIOSelectorLoop loop : selector_loops) {
+        if (loop != null) {
+          loop.stop();
+        }
+      }
       nio_write_selector.stop();
       write_selector.close();
       is_closed = true;
@@ -125,6 +129,19 @@ class NIOServerThread extends Thread {
     return env.getThreadPool();
   }
 
+  /**
+   * Returns a list of all the valid connections to this server.
+   */
+  List<NIOConnection> getConnections() {
+    List<NIOConnection> out = new ArrayList<>();
+    for (NIOSelectorLoop loop : selector_loops) {
+      if (loop != null) {
+        loop.collectConnections(out);
+      }
+    }
+    return out;
+  }
+
   /**
    * Force close a socket channel, and ignore any IOException exceptions.
    */
@@ -150,7 +167,13 @@ class NIOServerThread extends Thread {
       nio_write_selector = new NIOWriteSelector(write_selector);
       nio_write_selector.start("Server");
 
-      // The general selector for all other IO
+      // The selector loops that read from the connections,
+      for (int i = 0; i < selector_loops.length; ++i) {
+        selector_loops[i] = new NIOSelectorLoop(getThreadPool());
+        selector_loops[i].start("Mckoi Process Selector " + (i + 1));
+      }
+
+      // The selector for accepting connections,
       selector = Selector.open();
       server_channel = ServerSocketChannel.open();
       server_channel.socket().bind(
@@ -166,8 +189,6 @@ class NIOServerThread extends Thread {
 
       while (true) {
         // Wait until something happens on the selector,
-        selector_lock.lock();
-        selector_lock.unlock();
         int key_count = selector.select();
         if (key_count > 0) {
 
@@ -180,59 +201,32 @@ class NIOServerThread extends Thread {
               if ((r_ops & SelectionKey.OP_ACCEPT) != 0) {
                 // The incoming socket channel,
                 SocketChannel sc = server_channel.accept();
+                if (sc == null) {
+                  continue;
+                }
 
-                // Register with this selector,
                 sc.configureBlocking(false);
                 try {
-
-                  // Make a connection object
-                  NIOConnection conn = new NIOConnection(
-                                         selector, env, sc, nio_write_selector);
-                  // Make the key and attach to the connection,
-                  SelectionKey client_key =
-                              sc.register(selector, SelectionKey.OP_READ, conn);
-                  conn.setSelectionKey(client_key);
-
-                  try {
-                    Socket socket = sc.socket();
-                    socket.setTcpNoDelay(true);
-
-                    // Do init,
-                    getThreadPool().submit(conn.doAccept());
-
-                  }
-                  catch (IOException e) {
-                    LOG.log(Level.SEVERE,
-                            "IOException on socket accept", e);
-                    conn.close();
-                  }
-
+                  Socket socket = sc.socket();
+                  socket.setTcpNoDelay(true);
                 }
-                catch (ClosedChannelException e) {
+                catch (IOException e) {
                   LOG.log(Level.SEVERE,
-                          "Exception registering with selector", e);
+                          "IOException on socket accept", e);
                   forceCloseChannel(sc);
+                  continue;
                 }
 
-              }
-
-              // If it's a read op,
-              if ((r_ops & SelectionKey.OP_READ) != 0) {
+                // Assign the connection to the next selector loop,
+                NIOSelectorLoop loop = selector_loops[next_loop];
+                next_loop = (next_loop + 1) % selector_loops.length;
 
-                // Get the connection,
-                NIOConnection conn = (NIOConnection) key.attachment();
-                // Read data from channel
-                boolean close = conn.readDataFromChannel();
-
-  //              // If the queue was updated, notify listeners of the message
-  //              // queue,
-  //              if (conn.wasQueueUpdated()) {
-  //                getThreadPool().submit(env.handleMessages(conn));
-  //              }
-                // If the stream closed,
-                if (close) {
-                  conn.close();
-                }
+                // Make a connection object
+                NIOConnection conn = new NIOConnection(
+                          loop.getSelector(), env, sc, nio_write_selector);
+                // The loop registers the connection for reads and then does
+                // the init on the thread pool,
+                loop.register(conn, conn.doAccept());
 
               }
 
@@ -273,6 +267,11 @@ class NIOServerThread extends Thread {
           selector.close();
         }
         catch (IOException e) { /* ignore */ }
+        for (NIOSelectorLoop loop : selector_loops) {
+          if (loop != null) {
+            loop.stop();
+          }
+        }
       }
     }
   }
@@ -26,10 +26,13 @@
 package com.mckoi.process.impl;
 
 import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,7 +40,9 @@ import java.util.logging.Logger;
  * An NIO Selector that we register connections with that we need to be
  * notified when they are able to receive writes. Uses OP_WRITE.
  * <p>
- * This starts a thread that will sit on the selector.
+ * This starts a thread that will sit on the selector. Registration requests
+ * are put on a queue that is drained by the selector thread, so callers
+ * never block on the selector.
  *
  * @author Tobias Downer
  */
@@ -52,9 +57,16 @@ public class NIOWriteSelector {
   private final Selector selector;
 
   /**
-   * A reentrant lock used when registering / removing keys with the selector.
+   * The queue of register and deregister operations waiting to be processed
+   * by the selector thread.
    */
-  private final ReentrantLock selector_lock = new ReentrantLock();
+  private final Queue<KeyOp> pending_ops = new ConcurrentLinkedQueue<>();
+
+  /**
+   * True when the selector has been woken up and has not yet drained the
+   * pending operations queue.
+   */
+  private final AtomicBoolean wakeup_pending = new AtomicBoolean(false);
 
   /**
    * Set to true when the selector is terminated.
@@ -62,9 +74,9 @@ public class NIOWriteSelector {
   private volatile boolean terminated = false;
 
   /**
-   * The map.
+   * The map (only accessed by the selector thread).
    */
-  private final Map<NIOConnection, SelectionKey> managed_keys = new HashMap();
+  private final Map<NIOConnection, SelectionKey> managed_keys = new HashMap<>();
 
   private Thread thread;
 
@@ -74,7 +86,18 @@ public class NIOWriteSelector {
   NIOWriteSelector(Selector selector) {
     this.selector = selector;
   }
-  
+
+  /**
+   * Queues an operation and wakes up the selector if it's not already been
+   * woken.
+   */
+  private void queueOp(NIOConnection c, boolean register) {
+    pending_ops.offer(new KeyOp(c, register));
+    if (wakeup_pending.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
   /**
    * Registers a connection with this selector. The connection is notified
    * when it's possible to write on the connection.
@@ -82,23 +105,7 @@ public class NIOWriteSelector {
    * (Thread Safe)
    */
   void register(NIOConnection c) throws IOException {
-    selector_lock.lock();
-    try {
-      selector.wakeup();
-      // Register
-      synchronized (managed_keys) {
-        // If it's already managed?
-        if (managed_keys.get(c) == null) {
-          SelectionKey select_key =
-                   c.getChannel().register(selector, SelectionKey.OP_WRITE, c);
-          managed_keys.put(c, select_key);
-//          System.out.println("REGISTERED");
-        }
-      }
-    }
-    finally {
-      selector_lock.unlock();
-    }
+    queueOp(c, true);
   }
 
   /**
@@ -108,21 +115,7 @@ public class NIOWriteSelector {
    * (Thread Safe)
    */
   void deregister(NIOConnection c) throws IOException {
-    selector_lock.lock();
-    try {
-      selector.wakeup();
-      SelectionKey select_key;
-      synchronized (managed_keys) {
-        select_key = managed_keys.remove(c);
-        if (select_key != null) {
-          select_key.cancel();
-        }
-        selector.selectNow();
-      }
-    }
-    finally {
-      selector_lock.unlock();
-    }
+    queueOp(c, false);
   }
 
   /**
@@ -146,6 +139,53 @@ public class NIOWriteSelector {
     thread = null;
   }
 
+  /**
+   * Processes all the pending register and deregister operations. Must only
+   * be called by the selector thread.
+   */
+  private void processPendingOps() throws IOException {
+    while (true) {
+      KeyOp op = pending_ops.poll();
+      if (op == null) {
+        return;
+      }
+      NIOConnection c = op.connection;
+      SelectionKey key = managed_keys.get(c);
+      if (op.register) {
+        try {
+          if (key != null && key.isValid()) {
+            // Already managed so turn OP_WRITE interest back on,
+            key.interestOps(SelectionKey.OP_WRITE);
+          }
+          else {
+            // Keys are only cancelled when the connection closes, and
+            // registering a closed channel fails below, so there's never a
+            // cancelled key to flush here with a select,
+            key = c.getChannel().register(
+                                      selector, SelectionKey.OP_WRITE, c);
+            managed_keys.put(c, key);
+          }
+        }
+        catch (ClosedChannelException e) {
+          // Notify so the connection discovers the channel is closed on
+          // the write,
+          managed_keys.remove(c);
+          c.notifyWriteReady();
+        }
+        catch (CancelledKeyException e) {
+          managed_keys.remove(c);
+          c.notifyWriteReady();
+        }
+      }
+      else {
+        if (key != null) {
+          managed_keys.remove(c);
+          key.cancel();
+        }
+      }
+    }
+  }
+
   /**
    * The thread loop.
    */
@@ -154,62 +194,45 @@ public class NIOWriteSelector {
     public void run() {
       try {
         while (!terminated) {
-          // Block until we have something to read,
-          selector_lock.lock();
-          selector_lock.unlock();
+          // Block until a channel is writable or an operation is queued,
+          selector.select();
+          wakeup_pending.set(false);
 
-//          long DBG_record_ts = System.currentTimeMillis();
+          // Register and deregister any queued connections,
+          processPendingOps();
 
-          int key_count = selector.select();
-          
-          if (key_count > 0) {
-            Set<SelectionKey> selected_keys = selector.selectedKeys();
+          Set<SelectionKey> selected_keys = selector.selectedKeys();
+          if (!selected_keys.isEmpty()) {
 
             // The connections to notify,
             List<NIOConnection> connections =
-                                         new ArrayList(selected_keys.size());
-
-            // First cancel the keys,
-            synchronized (managed_keys) {
-              for (SelectionKey key : selected_keys) {
-                // Get the attachment,
-                NIOConnection c = (NIOConnection) key.attachment();
-                // Cancel the key,
-                key.cancel();
-                managed_keys.remove(c);                
-                // Add the connection to notify,
-                connections.add(c);
-              }
+                                         new ArrayList<>(selected_keys.size());
 
-              // Clear the selected keys set,
-              selected_keys.clear();
-
-              // Flush the selector (this will remove all the cancelled keys
-              // from the selector)
-              selector.selectNow();
-//              System.out.println("REMOVED");
+            for (SelectionKey key : selected_keys) {
+              // Get the attachment,
+              NIOConnection c = (NIOConnection) key.attachment();
+              // Notification is one-shot so turn off interest in OP_WRITE
+              // until the connection registers again. The key is kept so
+              // it can be reused,
+              try {
+                if (key.isValid()) {
+                  key.interestOps(0);
+                }
+              }
+              catch (CancelledKeyException e) {
+                // Ignore,
+              }
+              // Add the connection to notify,
+              connections.add(c);
             }
 
+            // Clear the selected keys set,
+            selected_keys.clear();
+
             // Notify the connections,
             for (NIOConnection c : connections) {
               c.notifyWriteReady();
-//              System.out.println("NOTIFIED");
             }
-            
-//              // Cancel this key,
-//              key.cancel();
-//              // Cancel the key after notify and remove from the managed map,
-//              // NOTE: The order here is important. We must remove the
-//              //  connection from 'managed_keys' map before we notify the 
-//              //  connection that writes are possible
-//              synchronized (managed_keys) {
-//                managed_keys.remove(c);                
-//              }
-//              // Notify the connection that writes are now possible
-//              c.notifyWriteReady();
-//              System.out.println("OP_WRITE");
-//              System.out.println("Finished OP_WRITE for connection");
-//            }
 
           }
 
@@ -223,4 +246,19 @@ public class NIOWriteSelector {
     }
   };
 
+  /**
+   * A queued register or deregister operation.
+   */
+  private static class KeyOp {
+
+    private final NIOConnection connection;
+    private final boolean register;
+
+    KeyOp(NIOConnection connection, boolean register) {
+      this.connection = connection;
+      this.register = register;
+    }
+
+  }
+
 }
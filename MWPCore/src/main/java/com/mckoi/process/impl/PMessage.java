@@ -40,6 +40,11 @@ import java.nio.ByteBuffer;
  * A raw inter-process message. The message has a 20 byte header followed
  * by a user defined message (usually a set of primitive objects representing
  * an arguments list).
+ * <p>
+ * A message may be a view over part of a larger array. For example, the
+ * messages framed from a single read on a connection all share the one
+ * array, and the ProcessMessage and arguments decoded from a message read
+ * directly from that array without copying it.
  *
  * @author Tobias Downer
  */
@@ -47,18 +52,45 @@ import java.nio.ByteBuffer;
 public final class PMessage {
 
   /**
-   * The message content.
+   * The message content is 'length' bytes in 'buf' from 'offset'.
    */
   private final byte[] buf;
+  private final int offset;
+  private final int length;
   private int pos = 0;
 
   PMessage next;
 
+  /**
+   * Constructs a message that's a view over part of the given array.
+   */
+  PMessage(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.offset = offset;
+    this.length = length;
+  }
+
   /**
    * Constructor.
    */
   PMessage(byte[] buf) {
-    this.buf = buf;
+    this(buf, 0, buf.length);
+  }
+
+  /**
+   * Returns a message with the same content as this message that doesn't
+   * share its array with any other message. Returns this message if it
+   * already covers its whole array. This should be used for messages that
+   * are kept for a long time so that the message doesn't keep a large shared
+   * array from being reclaimed.
+   */
+  PMessage unshared() {
+    if (offset == 0 && length == buf.length) {
+      return this;
+    }
+    byte[] b = new byte[length];
+    System.arraycopy(buf, offset, b, 0, length);
+    return new PMessage(b);
   }
 
   /**
@@ -71,12 +103,12 @@ public final class PMessage {
     int rpos = bb.position();
     bb.position(p);
     // Write to the message buffer,
-    bb.get(buf, pos, len);
+    bb.get(buf, offset + pos, len);
     // Reset position
     bb.position(rpos);
 
     pos += len;
-    if (pos > buf.length) {
+    if (pos > length) {
       throw new RuntimeException("Write past end of message buffer");
     }
   }
@@ -85,21 +117,21 @@ public final class PMessage {
    * The remaining data needed to fill this message.
    */
   int remainingToWrite() {
-    return buf.length - pos;
+    return length - pos;
   }
 
   /**
    * Returns a ByteBuffer that contains this message in its entirety.
    */
   ByteBuffer asByteBuffer() {
-    return ByteBuffer.wrap(buf);
+    return ByteBuffer.wrap(buf, offset, length).slice();
   }
 
   /**
    * The size of this message in bytes.
    */
   int sizeInBytes() {
-    return buf.length;
+    return length;
   }
 
   /**
@@ -107,7 +139,8 @@ public final class PMessage {
    * from the given offset in this message.
    */
   ProcessMessage asProcessMessage(int offset) {
-    return new ByteArrayProcessMessage(buf, offset, buf.length - offset);
+    return new ByteArrayProcessMessage(
+                                buf, this.offset + offset, length - offset);
   }
 
   /**
@@ -115,7 +148,8 @@ public final class PMessage {
    * in the message buffer.
    */
   Object[] asArgsList(int offset) {
-    return ByteArrayProcessMessage.decodeArgsList(buf, offset);
+    return ByteArrayProcessMessage.decodeArgsList(
+                                buf, this.offset + offset, length - offset);
   }
 
   /**
@@ -160,21 +194,21 @@ public final class PMessage {
    * Returns the command code of this message.
    */
   byte getCommandCode() {
-    return buf[0];
+    return buf[offset];
   }
 
   /**
    * Returns the call id of this message.
    */
   int getCallId() {
-    return ByteArrayUtil.getInt(buf, 16);
+    return ByteArrayUtil.getInt(buf, offset + 16);
   }
 
   /**
    * Returns the sequence value if this is a broadcast message.
    */
   long getSequenceValue() {
-    return ByteArrayUtil.getLong(buf, 20);
+    return ByteArrayUtil.getLong(buf, offset + 20);
   }
 
   /**
@@ -215,7 +249,7 @@ public final class PMessage {
     if (fail_type == 'e') {
       try {
         ObjectInputStream oi = new ObjectInputStream(
-                new ByteArrayInputStream(buf, 22, buf.length - 22));
+                new ByteArrayInputStream(buf, offset + 22, length - 22));
 
         // Deserialize the information for the error,
         String error_type = oi.readUTF();
@@ -266,7 +300,7 @@ public final class PMessage {
    */
   String getRemainingAsString(int pos) {
     try {
-      return new String(buf, pos, buf.length - pos, "UTF-8");
+      return new String(buf, offset + pos, length - pos, "UTF-8");
     }
     catch (UnsupportedEncodingException ex) {
       throw new PRuntimeException(ex);
@@ -279,11 +313,12 @@ public final class PMessage {
   String getDebugString() {
     StringBuilder b = new StringBuilder();
     b.append("Size: ");
-    b.append(buf.length);
+    b.append(length);
     b.append("\n");
 
     b.append("[ ");
-    for (byte bv : buf) {
+    for (int i = offset; i < offset + length; ++i) {
+      byte bv = buf[i];
       String v = Integer.toHexString(((int) bv) & 0x0FF);
       if (v.length() == 1) {
         b.append('0');
@@ -294,7 +329,8 @@ public final class PMessage {
     b.append("]\n");
     
     b.append("[ ");
-    for (byte bv : buf) {
+    for (int i = offset; i < offset + length; ++i) {
+      byte bv = buf[i];
       if (bv >= 33 && bv < 127) {
         b.append((char) bv);
       }
@@ -0,0 +1,241 @@
+/**
+ * com.mckoi.process.impl.PendingReplies  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessServiceAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+/**
+ * The replies that callers of the process client are waiting on, keyed by
+ * the machine, process id and call id of the message sent. A reply is
+ * registered before the message is sent, and the thread that receives the
+ * reply completes it directly. A reply is either handed to a thread blocked
+ * in 'PendingReply.await' or to a ReplyCallback. Callback replies that are
+ * not received within the timeout are failed by 'expire' with an
+ * 'UNAVAILABLE-TIMEOUT' failure message.
+ *
+ * @author Tobias Downer
+ */
+
+class PendingReplies {
+
+  /**
+   * The map of pending replies.
+   */
+  private final ConcurrentMap<ReplyKey, PendingReply> pending_replies =
+                                                    new ConcurrentHashMap<>();
+
+  /**
+   * The time in milliseconds after which a callback reply is failed.
+   */
+  private final long timeout_ms;
+
+  /**
+   * Constructor.
+   */
+  PendingReplies(long timeout_ms) {
+    this.timeout_ms = timeout_ms;
+  }
+
+  /**
+   * Registers a reply to be waited on. If 'callback' is null the reply is
+   * waited on with 'PendingReply.await', and the caller must call 'remove'
+   * when it's done. Otherwise the callback is notified with the reply, or
+   * with a failure message if the reply times out.
+   */
+  PendingReply register(ProcessServiceAddress machine, ProcessId pid,
+                  int call_id, ProcessClientService.ReplyCallback callback) {
+    ReplyKey key = new ReplyKey(machine, pid, call_id);
+    PendingReply pending = new PendingReply(key, callback,
+                                  System.currentTimeMillis() + timeout_ms);
+    pending_replies.put(key, pending);
+    return pending;
+  }
+
+  /**
+   * Removes the pending reply if it's still registered.
+   */
+  void remove(PendingReply pending) {
+    pending_replies.remove(pending.key, pending);
+  }
+
+  /**
+   * Completes the reply registered for the given machine, process id and
+   * call id. Returns false if no reply with that key is being waited on.
+   */
+  boolean complete(ProcessServiceAddress machine, ProcessId pid,
+                   int call_id, PMessage msg) {
+    PendingReply pending =
+              pending_replies.remove(new ReplyKey(machine, pid, call_id));
+    if (pending == null) {
+      return false;
+    }
+    pending.complete(msg);
+    return true;
+  }
+
+  /**
+   * Fails the callback replies that have timed out by the given time.
+   * Returns the number of replies that were failed.
+   */
+  int expire(long time_now) {
+    int count = 0;
+    for (Map.Entry<ReplyKey, PendingReply> entry :
+                                                pending_replies.entrySet()) {
+      PendingReply pending = entry.getValue();
+      if (pending.isAsync() && time_now > pending.getTimeoutAt()) {
+        ReplyKey key = entry.getKey();
+        if (pending_replies.remove(key, pending)) {
+          pending.complete(ProcessServerService.failMessage(
+                  key.pid, key.call_id,
+                  "UNAVAILABLE-TIMEOUT", new PTimeoutException()));
+          ++count;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of replies being waited on.
+   */
+  int size() {
+    return pending_replies.size();
+  }
+
+  /**
+   * The key of a reply being waited on.
+   */
+  private static final class ReplyKey {
+
+    private final ProcessServiceAddress machine;
+    private final ProcessId pid;
+    private final int call_id;
+
+    ReplyKey(ProcessServiceAddress machine, ProcessId pid, int call_id) {
+      this.machine = machine;
+      this.pid = pid;
+      this.call_id = call_id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ReplyKey)) {
+        return false;
+      }
+      final ReplyKey other = (ReplyKey) obj;
+      return call_id == other.call_id &&
+             machine.equals(other.machine) &&
+             (pid == null ? other.pid == null : pid.equals(other.pid));
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 7;
+      hash = 41 * hash + machine.hashCode();
+      hash = 41 * hash + (pid == null ? 0 : pid.hashCode());
+      hash = 41 * hash + call_id;
+      return hash;
+    }
+
+  }
+
+  /**
+   * A one-shot holder for a reply that is being waited on. The reply is
+   * either handed to a blocked thread or to a callback.
+   */
+  static final class PendingReply {
+
+    private final ReplyKey key;
+    private final ProcessClientService.ReplyCallback callback;
+    private final long timeout_at;
+    private PMessage reply;
+
+    private PendingReply(ReplyKey key,
+                         ProcessClientService.ReplyCallback callback,
+                         long timeout_at) {
+      this.key = key;
+      this.callback = callback;
+      this.timeout_at = timeout_at;
+    }
+
+    boolean isAsync() {
+      return callback != null;
+    }
+
+    long getTimeoutAt() {
+      return timeout_at;
+    }
+
+    /**
+     * Completes this reply. Only the first completion has any effect.
+     */
+    private void complete(PMessage msg) {
+      synchronized (this) {
+        if (reply != null) {
+          return;
+        }
+        reply = msg;
+        notifyAll();
+      }
+      if (callback != null) {
+        try {
+          callback.replyReceived(msg);
+        }
+        catch (Throwable e) {
+          ProcessServerService.PROCESS_LOG.log(Level.SEVERE,
+                                       "Exception in reply callback", e);
+        }
+      }
+    }
+
+    /**
+     * Waits until the reply is received or the timeout is reached. Returns
+     * null on timeout.
+     */
+    synchronized PMessage await(long timeout_ms)
+                                                throws InterruptedException {
+      final long time_end = System.currentTimeMillis() + timeout_ms;
+      while (reply == null) {
+        long time_now = System.currentTimeMillis();
+        if (time_now >= time_end) {
+          return null;
+        }
+        wait(time_end - time_now);
+      }
+      return reply;
+    }
+
+  }
+
+}
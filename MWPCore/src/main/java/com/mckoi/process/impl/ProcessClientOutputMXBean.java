@@ -0,0 +1,69 @@
+/**
+ * com.mckoi.process.impl.ProcessClientOutputMXBean  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+/**
+ * The management interface of the output stage of a ProcessClientService,
+ * exposing the batching configuration and flush counters through JMX.
+ *
+ * @author Tobias Downer
+ */
+
+public interface ProcessClientOutputMXBean {
+
+  /**
+   * The maximum time in microseconds the output thread waits to coalesce
+   * messages into a batch, or 0 if batching is disabled.
+   */
+  long getBatchDelayMicros();
+
+  /**
+   * The number of pending bytes that causes a batch to be dispatched
+   * immediately.
+   */
+  int getBatchMaxBytes();
+
+  /**
+   * The total number of flushes to process server connections.
+   */
+  long getFlushCount();
+
+  /**
+   * The total number of messages written by the flushes.
+   */
+  long getMessagesFlushedCount();
+
+  /**
+   * The mean number of messages written per flush.
+   */
+  double getMessagesPerFlush();
+
+  /**
+   * The number of flushes in the last second.
+   */
+  long getFlushesPerSecond();
+
+}
@@ -34,10 +34,10 @@ import com.mckoi.odb.ODBObject;
 import com.mckoi.odb.ODBTransaction;
 import com.mckoi.process.*;
 import com.mckoi.util.ByteArrayUtil;
-import com.mckoi.util.Cache;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -53,10 +53,15 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
@@ -123,6 +128,83 @@ public final class ProcessClientService {
    */
   private final QueueList input_queue;
 
+  /**
+   * The replies that callers are waiting on. Incoming replies are routed
+   * directly to the waiting caller through this.
+   */
+  private final PendingReplies pending_replies =
+                                  new PendingReplies(FUNCTION_TIMEOUT_MS);
+
+  /**
+   * The most recent load report received from each process server.
+   */
+  private final ConcurrentMap<ProcessServiceAddress, MachineLoadReport>
+                                  machine_loads = new ConcurrentHashMap<>();
+
+  /**
+   * The age after which a load report is no longer used for placement.
+   */
+  private static final long LOAD_REPORT_STALE_TIME =
+                          5 * ProcessServerService.LOAD_REPORT_FREQUENCY_TIME;
+
+  /**
+   * The pools of process ids leased by this client, keyed by process path.
+   */
+  private final ConcurrentMap<String, ProcessIdPool> id_pools =
+                                                    new ConcurrentHashMap<>();
+
+  /**
+   * The time a leased process id may be handed out by this client, and the
+   * pool size below which a background refill of the pool starts.
+   */
+  private static final long ID_LEASE_TIME = 10 * 60 * 1000;
+  private static final int ID_POOL_LOW_WATERMARK = 16;
+
+  /**
+   * The time, for each process path, up to which ids created in the path
+   * have been checked for abandoned leases.
+   */
+  private final ConcurrentMap<String, Long> id_reclaim_times =
+                                                    new ConcurrentHashMap<>();
+
+  /**
+   * How long after its lease expires an unused id is reclaimed, and how far
+   * back the first check of a process path looks. The delay gives the
+   * process servers time to mark the ids allocated near the end of the
+   * lease as in use.
+   */
+  private static final long ID_RECLAIM_DELAY = 10 * 60 * 1000;
+  private static final long ID_RECLAIM_LOOKBACK = 60 * 60 * 1000;
+
+  /**
+   * The number of process servers that relay the broadcast messages of each
+   * channel to clients, or 0 if broadcast messages are received directly
+   * from the process server running the process.
+   */
+  private volatile int broadcast_relay_count = 0;
+
+  /**
+   * A random value identifying this client when it picks a relay.
+   */
+  private final long relay_client_key =
+                               ProcessServerService.SECURE_RNG.nextLong();
+
+  /**
+   * The channels the process server in this JVM is relaying to other
+   * clients. These are always received directly from the process.
+   */
+  private final Set<ProcessChannel> relayed_channels =
+          Collections.newSetFromMap(
+                      new ConcurrentHashMap<ProcessChannel, Boolean>());
+
+  /**
+   * The results of asynchronous function invocations that have a callback
+   * waiting on them. These are timed out by the reply timeout task.
+   */
+  private final Set<ProcessResultImpl> async_results =
+                 Collections.newSetFromMap(
+                        new ConcurrentHashMap<ProcessResultImpl, Boolean>());
+
   /**
    * The broadcast queues.
    */
@@ -160,15 +242,62 @@ public final class ProcessClientService {
   private Selector write_selector;
   private NIOWriteSelector nio_write_selector;
 
+  /**
+   * The maximum time in nanoseconds the output thread waits for more
+   * messages before dispatching a batch (0 disables batching), and the
+   * number of pending bytes that causes a batch to be dispatched
+   * immediately.
+   */
+  private volatile long batch_delay_ns = 0;
+  private volatile int batch_max_bytes = 65536;
+
+  /**
+   * The number of bytes in the messages on the output queue (guarded by
+   * 'output_queue').
+   */
+  private int output_queue_bytes = 0;
+
+  /**
+   * Counters of the flushes to process server connections.
+   */
+  private final AtomicLong flush_count = new AtomicLong(0);
+  private final AtomicLong messages_flushed_count = new AtomicLong(0);
+  private volatile long flushes_last_second = 0;
+  private long flush_count_sample = 0;
+
+  /**
+   * The name the output stats are registered under with the MBean server.
+   */
+  private ObjectName output_mbean_name;
+
   /**
    * A cache used for machine name queries.
    */
-  private final Cache machine_name_cache;
+  private final LoadingCache<ProcessId, ProcessServiceAddress>
+                                                          machine_name_cache;
 
   /**
    * A cache used to hold ProcessInfoImpl queries.
    */
-  private final Cache process_info_cache;
+  private final LoadingCache<ProcessId, ProcessInfoImpl> process_info_cache;
+
+  /**
+   * A cache of whether channels are durable (have a channel log).
+   */
+  private final LoadingCache<ProcessChannel, Boolean> durable_channel_cache;
+
+  /**
+   * The maximum number of entries in each cache, and the time an entry
+   * stays in the cache after it's loaded.
+   */
+  private static final int PROCESS_CACHE_SIZE = 4096;
+  private static final long PROCESS_CACHE_TTL = 10 * 60 * 1000;
+
+  /**
+   * The time whether a channel is durable stays in the cache (a process may
+   * make a channel durable at any time).
+   */
+  private static final long DURABLE_CHANNEL_CACHE_TTL = 60 * 1000;
 
   /**
    * Constructor.
@@ -186,10 +315,12 @@ public final class ProcessClientService {
     if (shared_thread_pool == null) throw new NullPointerException();
 
     // The cache of process info queries,
-    this.machine_name_cache = new Cache(401, 400, 20);
-    this.process_info_cache = new Cache(401, 400, 20);
-//  DEBUG VALUE
-//    this.process_info_cache = new Cache(17, 14, 20);
+    this.machine_name_cache = new LoadingCache<>("ProcessMachineName",
+                                PROCESS_CACHE_SIZE, PROCESS_CACHE_TTL);
+    this.process_info_cache = new LoadingCache<>("ProcessInfo",
+                                PROCESS_CACHE_SIZE, PROCESS_CACHE_TTL);
+    this.durable_channel_cache = new LoadingCache<>("DurableChannel",
+                                PROCESS_CACHE_SIZE, DURABLE_CHANNEL_CACHE_TTL);
 
     this.output_queue = new QueueList();
     this.input_queue = new QueueList();
@@ -207,6 +338,10 @@ public final class ProcessClientService {
     process_client_timer = new Timer("Mckoi Process Client Timer");
     process_client_timer.scheduleAtFixedRate(
                            maintenance_task, (2 * 60 * 1000), (2 * 60 * 1000));
+    process_client_timer.scheduleAtFixedRate(
+                           reply_timeout_task, 1000, 1000);
+    process_client_timer.scheduleAtFixedRate(
+                           output_stats_task, 1000, 1000);
 
   }
 
@@ -281,6 +416,10 @@ public final class ProcessClientService {
         // Clear the terminated set,
         process_id_terminated_set.clear();
 
+        // Return the unused ids of expired leases,
+        returnExpiredLeases();
+        reclaimAbandonedIds();
+
         if (count > 0) {
           LOG.log(Level.FINE, "Cleaned {0} expired broadcast messages",
                               new Object[] { count });
@@ -293,12 +432,18 @@ public final class ProcessClientService {
             // If it's known failed, then create a thread task that attempts
             // to re-establish connection,
             if (c.isKnownFailed()) {
-              thread_pool.submit(new Runnable() {
-                @Override
-                public void run() {
-                  c.attemptEstablishConnection();
-                }
-              });
+              try {
+                thread_pool.submit(new Runnable() {
+                  @Override
+                  public void run() {
+                    c.attemptEstablishConnection();
+                  }
+                });
+              }
+              catch (RejectedExecutionException e) {
+                // The pool is saturated, the reconnect is tried again on
+                // the next maintenance cycle,
+              }
             }
           }
         }
@@ -312,6 +457,79 @@ public final class ProcessClientService {
     }
   };
 
+  /**
+   * Times out asynchronous replies that haven't been received within the
+   * function timeout, and asynchronous function invocations that haven't
+   * been received within the timeout given by the caller.
+   */
+  private final TimerTask reply_timeout_task = new TimerTask() {
+    @Override
+    public void run() {
+      try {
+        long time_now = System.currentTimeMillis();
+        pending_replies.expire(time_now);
+        // Time out the callbacks of asynchronous function invocations,
+        Iterator<ProcessResultImpl> it = async_results.iterator();
+        while (it.hasNext()) {
+          ProcessResultImpl result = it.next();
+          if (result.isCallbackDone()) {
+            it.remove();
+          }
+          else if (time_now > result.getCallbackTimeoutAt()) {
+            it.remove();
+            result.failCallback(new ResultTimeoutException());
+          }
+        }
+      }
+      catch (Throwable e) {
+        LOG.log(Level.SEVERE, "Exception during reply timeout task", e);
+      }
+    }
+  };
+
+  /**
+   * Samples the flush counters once a second.
+   */
+  private final TimerTask output_stats_task = new TimerTask() {
+    @Override
+    public void run() {
+      long count = flush_count.get();
+      flushes_last_second = count - flush_count_sample;
+      flush_count_sample = count;
+    }
+  };
+
+  /**
+   * Sets how the output thread coalesces messages. The output thread waits
+   * up to 'max_delay_us' microseconds after the first message is queued for
+   * more messages, so they are written to each connection in a single flush.
+   * A batch is dispatched before the delay if the pending messages reach
+   * 'max_batch_bytes'. A delay of 0 disables batching.
+   */
+  public void setOutputBatching(long max_delay_us, int max_batch_bytes) {
+    if (max_delay_us < 0) {
+      throw new IllegalArgumentException("max_delay_us < 0");
+    }
+    if (max_batch_bytes <= 0) {
+      throw new IllegalArgumentException("max_batch_bytes <= 0");
+    }
+    batch_delay_ns = max_delay_us * 1000;
+    batch_max_bytes = max_batch_bytes;
+  }
+
+  /**
+   * Sets the number of process servers that relay the broadcast messages of
+   * a channel. When set, the clients listening to a channel are spread over
+   * that many relays and the process server running the process sends each
+   * message once per relay instead of once per client. 0 disables relays.
+   */
+  public void setBroadcastRelayCount(int relay_count) {
+    if (relay_count < 0) {
+      throw new IllegalArgumentException("relay_count < 0");
+    }
+    broadcast_relay_count = relay_count;
+  }
+
   /**
    * Reports information about this process client.
    */
@@ -323,9 +541,20 @@ public final class ProcessClientService {
     synchronized (input_queue) {
       b.append(" input_queue = ").append(input_queue.size()).append("\n");
     }
+    b.append(" pending_replies = ").append(pending_replies.size()).append("\n");
+    b.append(" async_results = ").append(async_results.size()).append("\n");
     synchronized (output_queue) {
       b.append(" output_queue = ").append(output_queue.size()).append("\n");
     }
+    b.append(" flush_count = ").append(flush_count.get()).append("\n");
+    b.append(" messages_flushed = ")
+     .append(messages_flushed_count.get()).append("\n");
+    b.append("Machine loads\n");
+    for (Map.Entry<ProcessServiceAddress, MachineLoadReport> e :
+                                                  machine_loads.entrySet()) {
+      b.append(" ").append(e.getKey()).append(" ")
+       .append(e.getValue()).append("\n");
+    }
     b.append("Connections\n");
     synchronized (connections) {
       Collection<ProcessClientConnection> conns = connections.values();
@@ -358,6 +587,23 @@ public final class ProcessClientService {
     Thread output_thread = new Thread(output_runnable, "Process Client Output");
     output_thread.setDaemon(true);
     output_thread.start();
+
+    // Publish the output stats,
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName obj_name =
+                new ObjectName("com.mckoi.process:type=ProcessClientOutput");
+      if (!server.isRegistered(obj_name)) {
+        server.registerMBean(new OutputStats(), obj_name);
+        output_mbean_name = obj_name;
+      }
+    }
+    catch (JMException e) {
+      LOG.log(Level.WARNING, "Unable to register output MBean", e);
+    }
+    machine_name_cache.registerMBean();
+    process_info_cache.registerMBean();
+    durable_channel_cache.registerMBean();
   }
 
   /**
@@ -365,6 +611,19 @@ public final class ProcessClientService {
    * @throws java.io.IOException
    */
   public void close() throws IOException {
+    if (output_mbean_name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                                                        output_mbean_name);
+      }
+      catch (JMException e) {
+        // Ignore,
+      }
+      output_mbean_name = null;
+    }
+    machine_name_cache.unregisterMBean();
+    process_info_cache.unregisterMBean();
+    durable_channel_cache.unregisterMBean();
     selector.close();
     nio_write_selector.stop();
     write_selector.close();
@@ -425,18 +684,33 @@ public final class ProcessClientService {
       while (true) {
         QueueMessage queue_item = null;
         synchronized (output_queue) {
-          do {
-            queue_item = output_queue.getFirst();
-            if (queue_item == null) {
+          // Wait until there are messages to send,
+          while (output_queue.getFirst() == null) {
+            try {
+              output_queue.wait();
+            }
+            catch (InterruptedException e) { /* ignore */ }
+          }
+          // If batching is enabled, wait for more messages until either the
+          // batch delay passes or enough bytes are pending,
+          long delay_ns = batch_delay_ns;
+          if (delay_ns > 0) {
+            long deadline = System.nanoTime() + delay_ns;
+            while (output_queue_bytes < batch_max_bytes) {
+              long remaining_ns = deadline - System.nanoTime();
+              if (remaining_ns <= 0) {
+                break;
+              }
               try {
-                output_queue.wait();
+                output_queue.wait(remaining_ns / 1000000,
+                                  (int) (remaining_ns % 1000000));
               }
               catch (InterruptedException e) { /* ignore */ }
             }
-            else {
-              output_queue.clear();
-            }
-          } while (queue_item == null);
+          }
+          queue_item = output_queue.getFirst();
+          output_queue.clear();
+          output_queue_bytes = 0;
         }
 
         // 'queue_item' is a bunch of messages we need to dispatch to process
@@ -482,8 +756,10 @@ public final class ProcessClientService {
           conn.putAllMessagesInQueue(add_queue.getFirst());
 
           // Dispatch a flush operation on this connection from the thread
-          // pool,
-          thread_pool.submit(new Runnable() {
+          // pool, (retried later if the pool is saturated because the
+          // messages are already on the connection's queue)
+          ProcessExecutor.executeOrRetry(thread_pool, process_client_timer,
+                                         new Runnable() {
             @Override
             public void run() {
               conn.flushPendingMessages();
@@ -556,15 +832,27 @@ public final class ProcessClientService {
 
   }
 
+  /**
+   * Creates a request for the server to send load reports on the
+   * connection.
+   */
+  private static PMessage createLoadReportRequestMessage() {
+    byte[] header = ProcessServerService.createHeader(
+              new ProcessId((byte) 0, 0, 0), 0,
+              CommConstants.LOAD_REPORT_REQUEST_CC);
+    return new PMessage(header);
+  }
+
   /**
    * Creates a broadcast request message.
    */
   private PMessage createBroadcastRequestMessage(
-                ProcessId process_id, int channel_num, long min_sequence_val) {
+                ProcessId process_id, int channel_num, long min_sequence_val,
+                byte command_code) {
 
-    // NOTE: Command code is 4
-    byte[] header = ProcessServerService.createHeader(process_id, 0,
-                                           CommConstants.BROADCAST_REQUEST_CC);
+    // NOTE: Command code is 4 (or 5 when sent to a relay)
+    byte[] header =
+              ProcessServerService.createHeader(process_id, 0, command_code);
 
     try {
       ByteArrayOutputStream bout = new ByteArrayOutputStream(20 + 8);
@@ -620,6 +908,55 @@ public final class ProcessClientService {
     return getCurrentConnect(machine).isKnownFailed();
   }
 
+  /**
+   * Returns the load score of the given machine from its most recent load
+   * report. A machine we have no recent report from (we have no connection
+   * to it, or it doesn't send reports) scores the mean of the recent
+   * reports, so it is neither favoured nor avoided.
+   */
+  private double getLoadScore(ProcessServiceAddress machine) {
+    long time_now = System.currentTimeMillis();
+    MachineLoadReport report = machine_loads.get(machine);
+    if (report != null && !isStale(report, time_now)) {
+      return report.getScore();
+    }
+    double total = 0;
+    int count = 0;
+    for (MachineLoadReport r : machine_loads.values()) {
+      if (!isStale(r, time_now)) {
+        total += r.getScore();
+        ++count;
+      }
+    }
+    return (count == 0) ? 0 : (total / count);
+  }
+
+  /**
+   * Returns true if the load report is too old to be used for placement.
+   */
+  private static boolean isStale(MachineLoadReport report, long time_now) {
+    return time_now - report.getReceivedTimestamp() > LOAD_REPORT_STALE_TIME;
+  }
+
+  /**
+   * Picks two machines at random from the list and returns the one with
+   * the lower load score (power of two choices). Comparing two random
+   * choices avoids the herding that comes from everyone picking the single
+   * least loaded machine from reports that are a few seconds old.
+   */
+  private ProcessServiceAddress pickLessLoaded(
+                                  List<ProcessServiceAddress> machines) {
+    int sz = machines.size();
+    ProcessServiceAddress machine = machines.get(rng.nextInt(sz));
+    if (sz > 1) {
+      ProcessServiceAddress alt_machine = machines.get(rng.nextInt(sz));
+      if (getLoadScore(alt_machine) < getLoadScore(machine)) {
+        machine = alt_machine;
+      }
+    }
+    return machine;
+  }
+
   /**
    * Generates an exception (InvalidProcessException) if the given process
    * channel is not owned by the given account.
@@ -664,7 +1001,7 @@ public final class ProcessClientService {
     BroadcastQueue queue = getProcessChannelQueue(process_channel);
 
     // Put the messages in the queue,
-    queue.putMessagesInQueue(in_msgs, thread_pool);
+    queue.putMessagesInQueue(in_msgs, thread_pool, process_client_timer);
 
   }
 
@@ -701,10 +1038,18 @@ public final class ProcessClientService {
     BroadcastQueue queue;
     synchronized (broadcast_queues) {
       queue = broadcast_queues.get(process_channel);
-      if (queue == null) {
-        // Return if no queue,
-        return null;
-      }
+    }
+
+    // Messages missed by the queue that are in the channel log,
+    List<PMessage> logged_msgs =
+                readChannelLog(queue, process_channel, sequence_value, 1);
+    if (logged_msgs != null) {
+      return logged_msgs.get(0);
+    }
+
+    // Return if no queue,
+    if (queue == null) {
+      return null;
     }
 
     return queue.getMessageFromBroadcast(sequence_value);
@@ -729,20 +1074,95 @@ public final class ProcessClientService {
     // Do we have an active queue?
     BroadcastQueue queue = getProcessChannelQueue(process_channel);
 
+    // Messages missed by the queue that are in the channel log,
+    List<PMessage> logged_msgs = readChannelLog(
+                  queue, process_channel, sequence_value, consume_limit);
+    if (logged_msgs != null) {
+      return logged_msgs;
+    }
+
     // Get the messages from the queue,
     return queue.getMessagesFromBroadcast(
                                       sequence_value, consume_limit, notifier);
 
   }
 
+  /**
+   * If the channel is durable and the consumer at 'sequence_value' is
+   * behind the oldest message in the queue (it may have missed messages
+   * that expired or were sent before this client was listening), returns
+   * the next messages from the channel log. Returns null if the messages
+   * should come from the queue.
+   * <p>
+   * The log isn't read for a consumer that has seen the last message the
+   * queue received, or that a previous read of the log found nothing
+   * after, so a caught up consumer that long-polls an empty queue doesn't
+   * read the database each time.
+   */
+  private List<PMessage> readChannelLog(BroadcastQueue queue,
+          ProcessChannel process_channel, long sequence_value,
+          int consume_limit) throws ProcessUnavailableException {
+
+    // A new consumer (-1) starts from the queue,
+    if (sequence_value < 0 || consume_limit <= 0) {
+      return null;
+    }
+    if (queue != null) {
+      if (sequence_value + 1 >= queue.getFirstSequenceValue() ||
+          sequence_value <= queue.getLogCheckedSequenceValue()) {
+        return null;
+      }
+      long last_sequence_value = queue.getLastSequenceValue();
+      if (last_sequence_value > 0 && sequence_value >= last_sequence_value) {
+        return null;
+      }
+    }
+    if (!durable_channel_cache.get(process_channel, durable_channel_loader)) {
+      return null;
+    }
+
+    ODBTransaction t = sessions_cache.getODBTransaction(
+                            process_channel.getProcessId().getProcessPath());
+    List<PMessage> msgs = ChannelLog.read(
+                      t, process_channel, sequence_value, consume_limit);
+    // Not in the log so the queue has the next messages,
+    if (msgs == null || msgs.isEmpty()) {
+      if (queue != null) {
+        queue.setLogChecked(sequence_value);
+      }
+      return null;
+    }
+    return msgs;
+
+  }
+
+  /**
+   * Loads whether a channel is durable from the database.
+   */
+  private final LoadingCache.Loader<ProcessChannel, Boolean>
+              durable_channel_loader =
+                  new LoadingCache.Loader<ProcessChannel, Boolean>() {
+    @Override
+    public Boolean load(ProcessChannel process_channel) {
+      ODBTransaction t = sessions_cache.getODBTransaction(
+                            process_channel.getProcessId().getProcessPath());
+      return ChannelLog.isLogged(t, process_channel);
+    }
+  };
+
   /**
    * Puts a message on the output queue.
    */
   private void putMessageOnOutput(QueueMessage queue_msg) {
     synchronized (output_queue) {
+      boolean was_empty = output_queue.isEmpty();
       output_queue.add(queue_msg);
-      // Notify the dispatcher thread blocking on it,
-      output_queue.notifyAll();
+      output_queue_bytes += queue_msg.getMessage().sizeInBytes();
+      // Notify the dispatcher thread blocking on it. The thread is only
+      // waiting when the queue is empty or when it's coalescing a batch,
+      if (was_empty || output_queue_bytes >= batch_max_bytes) {
+        output_queue.notifyAll();
+      }
     }
   }
 
@@ -801,7 +1221,9 @@ public final class ProcessClientService {
           chan_queue = new QueueList();
           to_broadcast.put(process_channel, chan_queue);
         }
-        chan_queue.add(new QueueMessage(machine_addr, msg));
+        // Broadcast messages are kept for minutes, so don't let them keep the
+        // array they were read into from being reclaimed,
+        chan_queue.add(new QueueMessage(machine_addr, msg.unshared()));
       }
 
       // Function cleanup control code,
@@ -826,12 +1248,21 @@ public final class ProcessClientService {
         to_ack.add(process_channel);
       }
       
+      // A load report from the process server,
+      else if (command_code == CommConstants.LOAD_REPORT_CC) {
+        machine_loads.put(machine_addr, MachineLoadReport.fromMessage(
+                                      msg, System.currentTimeMillis()));
+      }
+
       // Process the 'is terminated' response,
       else if (command_code == CommConstants.NOTIFY_TERMINATED_CC) {
         // This is used by the maintenance task to determine the channels
         // we no longer care about,
         ProcessId process_id = PMessage.createProcessIdFromBuffer(bb);
         process_id_terminated_set.put(process_id, Boolean.TRUE);
+        // Nothing more will be asked of the process,
+        machine_name_cache.invalidate(process_id);
+        process_info_cache.invalidate(process_id);
       }
 
       else {
@@ -859,10 +1290,20 @@ public final class ProcessClientService {
       // Add all the input messages to the queue under synchronization on the
       // input_queue,
       QueueMessage msg = inputs.getFirst();
+      boolean added_to_input_queue = false;
       while (msg != null) {
         QueueMessage next_msg = msg.getNext();
 
         ProcessServiceAddress machine = msg.getMachine();
+
+        // If a caller is waiting on this reply then complete it directly,
+        PMessage pmsg = msg.getMessage();
+        if (pending_replies.complete(
+                  machine, pmsg.getProcessId(), pmsg.getCallId(), pmsg)) {
+          msg = next_msg;
+          continue;
+        }
+
         ProcessResultImpl ares = null;
         // If there's a notifier for this,
         synchronized (process_result_list) {
@@ -901,12 +1342,15 @@ public final class ProcessClientService {
           synchronized (input_queue) {
             input_queue.add(msg);
           }
+          added_to_input_queue = true;
         }
 
         msg = next_msg;
       }
-      synchronized (input_queue) {
-        input_queue.notifyAll();
+      if (added_to_input_queue) {
+        synchronized (input_queue) {
+          input_queue.notifyAll();
+        }
       }
     }
 
@@ -929,45 +1373,6 @@ public final class ProcessClientService {
 
   }
 
-  /**
-   * Blocks until a message with the given call_id is received on the input
-   * queue. When found, returns the message and removes it from the queue.
-   */
-  private PMessage blockUntilReply(
-                ProcessServiceAddress machine, ProcessId pid, int call_id)
-                    throws InterruptedException {
-
-    synchronized (input_queue) {
-      long start_time = System.currentTimeMillis();
-      QueueMessage msg = input_queue.getFirst();
-      while (true) {
-        // Reached the end of the queue so we need to block,
-        if (msg == null) {
-          // If timed out,
-          if ((System.currentTimeMillis() - start_time) > FUNCTION_TIMEOUT_MS) {
-            // Failure,
-            return ProcessServerService.failMessage(pid, call_id,
-                              "UNAVAILABLE-TIMEOUT", new PTimeoutException());
-          }
-          input_queue.wait(FUNCTION_TIMEOUT_MS);
-          // After wait, go back to the head of the queue to search for the
-          // call_id.
-          msg = input_queue.getFirst();
-        }
-        else {
-          // Call id and machine matches, so remove this,
-          if (msg.matches(pid, call_id) && msg.getMachine().equals(machine)) {
-            // Remove this,
-            input_queue.remove(msg);
-            // Return the PMessage,
-            return msg.getMessage();
-          }
-          msg = msg.getNext();
-        }
-      }
-    }
-  }
-
   /**
    * Blocks until the connection initialization message for the given machine
    * is found in the queue.
@@ -1019,13 +1424,47 @@ public final class ProcessClientService {
     final int call_id = msg.getCallId();
     final ProcessId pid = msg.getProcessId();
 
+    // Register for the reply before the message is sent,
+    PendingReplies.PendingReply pending =
+                          pending_replies.register(machine, pid, call_id, null);
+
+    try {
+      // Put the message to send on the out-going message queue,
+      putMessageOnOutput(new QueueMessage(machine, msg));
+      // Block until we receive a message that replies to this message,
+      PMessage reply = pending.await(FUNCTION_TIMEOUT_MS);
+      if (reply == null) {
+        // Failure,
+        return ProcessServerService.failMessage(pid, call_id,
+                              "UNAVAILABLE-TIMEOUT", new PTimeoutException());
+      }
+      // Return the message,
+      return reply;
+    }
+    finally {
+      pending_replies.remove(pending);
+    }
+  }
+
+  /**
+   * Sends a message to the given machine and returns immediately. The
+   * callback is notified with the reply when it is received from the
+   * process, or with a failure message if no reply is received within the
+   * function timeout. The callback is called on the thread that received
+   * the reply, so it should not block.
+   */
+  void sendMessageAsync(ProcessServiceAddress machine, PMessage msg,
+                        ReplyCallback callback) {
+
+    // Get the call id from the message being sent,
+    final int call_id = msg.getCallId();
+    final ProcessId pid = msg.getProcessId();
+
+    // Register for the reply before the message is sent,
+    pending_replies.register(machine, pid, call_id, callback);
+
     // Put the message to send on the out-going message queue,
     putMessageOnOutput(new QueueMessage(machine, msg));
-    // Block until we receive a message that replies to this message,
-    PMessage reply = blockUntilReply(machine, pid, call_id);
-
-    // Return the message,
-    return reply;
   }
 
   /**
@@ -1036,6 +1475,18 @@ public final class ProcessClientService {
    * messages, returns immediately.
    */
   private void ensureReceivingBroadcast(ProcessChannel process_channel) {
+    requestBroadcast(process_channel, false);
+  }
+
+  /**
+   * Sends a request for the broadcast messages of the channel to the server
+   * running the process, or to a relay. If 'direct' is true then the
+   * request always goes to the server running the process and is sent
+   * even if the channel is already being received (possibly through a
+   * relay).
+   */
+  private void requestBroadcast(ProcessChannel process_channel,
+                                boolean direct) {
 
     // Do we have an active queue?
     BroadcastQueue queue = getProcessChannelQueue(process_channel);
@@ -1046,18 +1497,29 @@ public final class ProcessClientService {
     ProcessServiceAddress machine =
                             getMachineNameFor(process_channel.getProcessId());
 
+    // Receive through a relay if relays are enabled,
+    byte command_code = CommConstants.BROADCAST_REQUEST_CC;
+    ProcessServiceAddress relay = direct ? null :
+                              getBroadcastRelayFor(process_channel, machine);
+    if (relay != null) {
+      machine = relay;
+      command_code = CommConstants.RELAY_BROADCAST_REQUEST_CC;
+    }
+
     // Get the connect time,
     long connect_time = getCurrentConnectTime(machine);
 
     // If we are not receiving on the queue or 4 minutes has passed since the
     // last request,
-    if (connect_time > queue.getConnectTime() || queue.requestExpired()) {
+    if (direct ||
+        connect_time > queue.getConnectTime() || queue.requestExpired()) {
       // Send a request to the process that we are still interested in
       // broadcast messages that originate from it,
       queue.setRequestNotExpired();
       ProcessId process_id = process_channel.getProcessId();
       PMessage pmsg = createBroadcastRequestMessage(
-                   process_id, process_channel.getChannel(), min_sequence_val);
+                   process_id, process_channel.getChannel(), min_sequence_val,
+                   command_code);
       putMessageOnOutput(new QueueMessage(machine, pmsg));
     }
 
@@ -1066,6 +1528,131 @@ public final class ProcessClientService {
 
   }
 
+  /**
+   * Returns the process server this client receives the broadcast messages
+   * of the channel through, or null if they are received directly from
+   * 'origin' (the process server running the process).
+   * <p>
+   * The relays of a channel are the 'broadcast_relay_count' process servers
+   * (other than the origin) with the highest hash of the channel and the
+   * server, so every client agrees on them. Each client then picks one of
+   * the relays with its own key, which spreads the clients over the relays.
+   */
+  private ProcessServiceAddress getBroadcastRelayFor(
+          ProcessChannel process_channel, ProcessServiceAddress origin) {
+
+    int relay_count = broadcast_relay_count;
+    if (relay_count == 0 || relayed_channels.contains(process_channel)) {
+      return null;
+    }
+
+    List<ProcessServiceAddress> machines = getAllProcessMachines();
+    int sz = machines.size();
+    if (sz < 2) {
+      return null;
+    }
+
+    // Rank the candidates by their hash with the channel,
+    final long[] hashes = new long[sz];
+    Integer[] order = new Integer[sz];
+    for (int i = 0; i < sz; ++i) {
+      hashes[i] = mixHash(((long) process_channel.hashCode() << 32) ^
+                          machines.get(i).hashCode());
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return Long.compare(hashes[o2], hashes[o1]);
+      }
+    });
+    List<ProcessServiceAddress> relays = new ArrayList<>(relay_count);
+    for (int i = 0; i < sz && relays.size() < relay_count; ++i) {
+      ProcessServiceAddress candidate = machines.get(order[i]);
+      if (!candidate.equals(origin)) {
+        relays.add(candidate);
+      }
+    }
+
+    // Pick one of the relays,
+    int n = (int) ((mixHash(relay_client_key ^ process_channel.hashCode())
+                    >>> 1) % relays.size());
+    ProcessServiceAddress relay = relays.get(n);
+
+    // Go to the origin directly if the relay is failing,
+    if (isCurrentConnectKnownFailed(relay)) {
+      return null;
+    }
+    return relay;
+
+  }
+
+  /**
+   * Mixes the bits of a long value (the 64-bit finalizer of MurmurHash3).
+   */
+  private static long mixHash(long h) {
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  /**
+   * Starts receiving the broadcast messages of the channel so the process
+   * server in this JVM can relay them to other clients. The channel is
+   * received directly from the process and the subscription is renewed by
+   * maintenance until 'stopRelayingBroadcast' is called. A request is
+   * always sent to the process, even if this client already receives the
+   * channel through another relay, so relays never relay from each other.
+   */
+  void startRelayingBroadcast(ProcessChannel process_channel) {
+    relayed_channels.add(process_channel);
+    addBroadcastQueueListenerLock(process_channel);
+    requestBroadcast(process_channel, true);
+  }
+
+  /**
+   * Stops receiving the broadcast messages of a channel that was being
+   * relayed.
+   */
+  void stopRelayingBroadcast(ProcessChannel process_channel) {
+    if (relayed_channels.remove(process_channel)) {
+      // The lock is already gone if the queue was closed,
+      BroadcastQueue queue = getProcessChannelQueue(process_channel);
+      if (queue.hasListenerLocks()) {
+        queue.removeListenerLock();
+      }
+    }
+  }
+
+  /**
+   * Returns true if a channel being relayed has stopped receiving because
+   * the process was terminated.
+   */
+  boolean isRelayedBroadcastClosed(ProcessChannel process_channel) {
+    return !getProcessChannelQueue(process_channel).hasListenerLocks();
+  }
+
+  /**
+   * Returns the messages received on a relayed channel with a sequence value
+   * greater than the one given, or null if there are none. If there are
+   * none and 'notifier' isn't null then the notifier is called when
+   * messages arrive. The notifier replaces any earlier registration of the
+   * same notifier.
+   */
+  List<PMessage> getRelayedMessages(ProcessChannel process_channel,
+          long sequence_value, int consume_limit,
+          ProcessResultNotifier notifier) {
+    BroadcastQueue queue = getProcessChannelQueue(process_channel);
+    if (notifier != null) {
+      queue.removeNotifier(notifier);
+    }
+    return queue.getMessagesFromBroadcast(
+                                      sequence_value, consume_limit, notifier);
+  }
+
   /**
    * Adds a broadcast queue listener lock on the given process channel. While
    * at least one listener lock is on a queue, it will be renewed every
@@ -1195,10 +1782,15 @@ public final class ProcessClientService {
 
   /**
    * Populates the given process path with some new ids. Optionally takes a
-   * set of machines that we don't populate ids on (can be null).
+   * set of machines that we don't populate ids on (can be null). Returns
+   * the ids created as leases that expire at the given time. If 'leased' is
+   * true then the ids are not added to the available list, so they can
+   * only be allocated by this client.
    */
-  private void populateWithIds(String process_path, ODBTransaction t,
-                               Set<ProcessServiceAddress> no_populate)
+  private List<ProcessIdPool.Lease> populateWithIds(
+                  String process_path, ODBTransaction t,
+                  Set<ProcessServiceAddress> no_populate,
+                  boolean leased, long lease_expires_at)
                                           throws ProcessUnavailableException {
 
 //    System.out.println("*** POPULATING ***");
@@ -1233,21 +1825,28 @@ public final class ProcessClientService {
     String ppval_hex = process_path.substring(process_path.length() - 2);
     int path_val = Integer.parseInt(ppval_hex, 16);
 
+    List<ProcessIdPool.Lease> created = new ArrayList<>(64);
+
     ODBClass process_class = t.findClass("Process");
     for (int i = 0; i < 64; ++i) {
       String process_id = randomProcessId(path_val);
-      // Pick a random server from the list,
-      ProcessServiceAddress machine =
-              process_machines.get(rng.nextInt(process_machines_sz));
+      // Pick the less loaded of two random servers from the list,
+      ProcessServiceAddress machine = pickLessLoaded(process_machines);
       String value = "";
       
       // [id, machine, value, state]
       ODBObject process_ob = t.constructObject(process_class,
                         process_id, machine.getMachineAddress(), value, null);
 
-      // Add to the 'all_ids' and 'available_ids' list,
+      // Add to the 'all_ids' list, and to the 'available_ids' list unless
+      // the id is leased,
       all_ids.add(process_ob);
-      available_ids.add(process_ob);
+      if (!leased) {
+        available_ids.add(process_ob);
+      }
+
+      created.add(new ProcessIdPool.Lease(
+              ProcessId.fromString(process_id), machine, lease_expires_at));
     }
 
 //    // DEBUGGING,
@@ -1255,6 +1854,294 @@ public final class ProcessClientService {
 //      System.out.println(id.getString("id") + ", " + id.getString("machine"));
 //    }
 
+    return created;
+
+  }
+
+  /**
+   * Returns the pool of leased process ids for the given process path.
+   */
+  private ProcessIdPool getIdPool(String process_path) {
+    ProcessIdPool pool = id_pools.get(process_path);
+    if (pool == null) {
+      pool = new ProcessIdPool();
+      ProcessIdPool existing = id_pools.putIfAbsent(process_path, pool);
+      if (existing != null) {
+        pool = existing;
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * If the pool is running low on leased ids, creates and commits a new
+   * block of ids in the process path on the thread pool and adds them to
+   * the pool.
+   */
+  private void refillIdPool(final String process_path,
+                            final ProcessIdPool pool) {
+    if (pool.size() >= ID_POOL_LOW_WATERMARK || !pool.startRefill()) {
+      return;
+    }
+    try {
+      thread_pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            leaseIdBlock(process_path, pool);
+          }
+          catch (CommitFaultException e) {
+            // Another client changed the path at the same time, we'll try
+            // again on the next process creation,
+            LOG.log(Level.FINE, "Process id lease commit failed", e);
+          }
+          catch (ProcessUnavailableException e) {
+            LOG.log(Level.FINE, "Process id lease failed", e);
+          }
+          catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Process id lease failed", e);
+          }
+          finally {
+            pool.endRefill();
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // The pool is saturated, we'll try again on the next process creation,
+      pool.endRefill();
+    }
+  }
+
+  /**
+   * Creates and commits a new block of ids in the process path and adds
+   * them to the pool. This is a database operation.
+   */
+  private void leaseIdBlock(String process_path, ProcessIdPool pool)
+              throws CommitFaultException, ProcessUnavailableException {
+    ODBTransaction t = sessions_cache.getODBTransaction(process_path);
+    List<ProcessIdPool.Lease> block = populateWithIds(process_path, t,
+                      null, true, System.currentTimeMillis() + ID_LEASE_TIME);
+    t.commit();
+    pool.addAll(block);
+  }
+
+  /**
+   * Adds the ids of the given expired leases to the available list of the
+   * process path, so that any client may allocate them. This is a database
+   * operation.
+   */
+  private void returnExpiredIds(String process_path,
+                                List<ProcessIdPool.Lease> expired)
+                                                throws CommitFaultException {
+    ODBTransaction t = sessions_cache.getODBTransaction(process_path);
+    ODBObject root_ob = t.getNamedItem("root");
+    ODBList available_ids = root_ob.getList("available_processIdx");
+    ODBList all_ids = root_ob.getList("all_processIdx");
+    for (ProcessIdPool.Lease lease : expired) {
+      String process_id_string = lease.getProcessId().getStringValue();
+      ODBObject process_ob = all_ids.getObject(process_id_string);
+      if (process_ob != null && !available_ids.contains(process_id_string)) {
+        available_ids.add(process_ob);
+      }
+    }
+    t.commit();
+  }
+
+  /**
+   * Adds the ids created in the process path between the two times that
+   * were never allocated to the available list of the path. These are the
+   * ids of leases that were lost, for example because the leasing client
+   * stopped. An id is created at the time of its 'high_id' and its
+   * 'value' field is set by the process server when the id is allocated,
+   * so any client can tell an unused id from its creation time. This is a
+   * database operation.
+   */
+  private int reclaimUnusedIds(String process_path,
+                      long created_from, long created_to)
+                                                throws CommitFaultException {
+    ODBTransaction t = sessions_cache.getODBTransaction(process_path);
+    ODBObject root_ob = t.getNamedItem("root");
+    ODBList available_ids = root_ob.getList("available_processIdx");
+    ODBList all_ids = root_ob.getList("all_processIdx");
+
+    // The ids in 'all_processIdx' are ordered by creation time,
+    String ppval_hex = process_path.substring(process_path.length() - 2);
+    byte path_val = (byte) Integer.parseInt(ppval_hex, 16);
+    String from_key =
+              new ProcessId(path_val, created_from, 0).getStringValue();
+    String to_key = new ProcessId(path_val, created_to, 0).getStringValue();
+
+    List<ODBObject> unused = new ArrayList<>();
+    for (ODBObject process_ob : all_ids.sub(from_key, to_key)) {
+      if (process_ob.getString("value").equals("") &&
+          !available_ids.contains(process_ob.getString("id"))) {
+        unused.add(process_ob);
+      }
+    }
+    if (!unused.isEmpty()) {
+      for (ODBObject process_ob : unused) {
+        available_ids.add(process_ob);
+      }
+      t.commit();
+    }
+    return unused.size();
+  }
+
+  /**
+   * Reclaims the unused ids of leases that expired in any client since the
+   * last check. The database operations are performed on the thread pool.
+   */
+  private void reclaimAbandonedIds() {
+    final long created_to =
+              System.currentTimeMillis() - ID_LEASE_TIME - ID_RECLAIM_DELAY;
+    try {
+      thread_pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (String process_path : getSystemProcessPaths()) {
+            Long checked_to = id_reclaim_times.get(process_path);
+            long created_from = (checked_to == null) ?
+                          created_to - ID_RECLAIM_LOOKBACK : checked_to;
+            if (created_from >= created_to) {
+              continue;
+            }
+            try {
+              int count =
+                   reclaimUnusedIds(process_path, created_from, created_to);
+              id_reclaim_times.put(process_path, created_to);
+              if (count > 0) {
+                LOG.log(Level.FINE, "Reclaimed {0} unused process ids in {1}",
+                        new Object[] { count, process_path });
+              }
+            }
+            catch (CommitFaultException | RuntimeException e) {
+              // Check the same range again on the next maintenance cycle,
+              LOG.log(Level.FINE, "Reclaiming process ids failed", e);
+            }
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // The pool is saturated, the range is checked on the next maintenance
+      // cycle,
+    }
+  }
+
+  /**
+   * Returns the ids of any expired leases in the pools to the available
+   * lists of their process paths. The database operations are performed
+   * on the thread pool.
+   */
+  private void returnExpiredLeases() {
+    long time_now = System.currentTimeMillis();
+    for (Map.Entry<String, ProcessIdPool> e : id_pools.entrySet()) {
+      final String process_path = e.getKey();
+      final ProcessIdPool pool = e.getValue();
+      final List<ProcessIdPool.Lease> expired = pool.takeExpired(time_now);
+      if (expired.isEmpty()) {
+        continue;
+      }
+      try {
+        thread_pool.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              returnExpiredIds(process_path, expired);
+              LOG.log(Level.FINE, "Returned {0} expired process ids to {1}",
+                      new Object[] { expired.size(), process_path });
+            }
+            catch (CommitFaultException | RuntimeException e) {
+              // Try again on the next maintenance cycle,
+              pool.addExpired(expired);
+              LOG.log(Level.FINE, "Returning expired process ids failed", e);
+            }
+          }
+        });
+      }
+      catch (RejectedExecutionException ex) {
+        // The pool is saturated, try again on the next maintenance cycle,
+        pool.addExpired(expired);
+      }
+    }
+  }
+
+  /**
+   * Tries to initialize the process on an id leased from the pool. Of two
+   * leases taken from the pool the one on the less loaded machine is used
+   * and the other is given back. Returns null if the pool is empty or the
+   * leased ids are failing. Leases that fail are returned to the pool to be
+   * expired. Throws ProcessUnavailableException if the thread is
+   * interrupted.
+   */
+  private ProcessId allocateLeasedId(ProcessIdPool pool,
+                  String account_name, String webapp_name,
+                  String process_class) throws ProcessUnavailableException {
+
+    for (int i = 0; i < 3; ++i) {
+      ProcessIdPool.Lease lease = takeLease(pool);
+      if (lease == null) {
+        return null;
+      }
+
+      ProcessServiceAddress machine = lease.getMachine();
+      ProcessId process_id = lease.getProcessId();
+      try {
+        PMessage fun_msg = createInitProcessMessage(
+                         process_id, account_name, webapp_name, process_class);
+        PMessage reply = sendMessage(machine, fun_msg);
+        if (reply.isSuccessMessage()) {
+          return process_id;
+        }
+        // The id wasn't allocated so it's returned to the available list by
+        // the next maintenance cycle,
+        pool.addExpired(Collections.singletonList(lease));
+      }
+      catch (InterruptedException e) {
+        // If the server did allocate the id it refuses any later init of it,
+        // so the id is safe to return,
+        pool.addExpired(Collections.singletonList(lease));
+        Thread.currentThread().interrupt();
+        throw new ProcessUnavailableException("Interrupted",
+                    ProcessUnavailableException.Reason.UNAVAILABLE, machine, e);
+      }
+    }
+
+    return null;
+  }
+
+
+  /**
+   * Takes a lease from the pool to create a process on. Of two leases taken
+   * from the pool the one on the less loaded machine is returned and the
+   * other is given back. Leases on machines that are known to be failing
+   * are dropped. Returns null if the pool is empty. This never blocks.
+   */
+  private ProcessIdPool.Lease takeLease(ProcessIdPool pool) {
+    while (true) {
+      long time_now = System.currentTimeMillis();
+      ProcessIdPool.Lease lease = pool.take(time_now);
+      if (lease == null) {
+        return null;
+      }
+      ProcessIdPool.Lease alt_lease = pool.take(time_now);
+      if (alt_lease != null) {
+        if (getLoadScore(alt_lease.getMachine()) <
+                                        getLoadScore(lease.getMachine())) {
+          ProcessIdPool.Lease swap = lease;
+          lease = alt_lease;
+          alt_lease = swap;
+        }
+        pool.giveBack(alt_lease);
+      }
+      if (!isCurrentConnectKnownFailed(lease.getMachine())) {
+        return lease;
+      }
+      // The machine is failing so the id is returned to the available list
+      // by the next maintenance cycle,
+      pool.addExpired(Collections.singletonList(lease));
+    }
   }
 
 
@@ -1306,31 +2193,38 @@ public final class ProcessClientService {
 
     if (process_id == null) throw new RuntimeException();
 
-    ProcessServiceAddress machine;
-    synchronized (machine_name_cache) {
-      machine = (ProcessServiceAddress) machine_name_cache.get(process_id);
+    try {
+      return machine_name_cache.get(process_id, machine_name_loader);
     }
-    
-    // In the cache,
-    if (machine != null) {
-      return machine;
+    catch (ProcessUnavailableException e) {
+      // The loader only queries the database,
+      throw new PRuntimeException(e);
     }
-    
-    // Load the process ODB object from the DB,
-    ODBObject process_ob = loadProcessOb(process_id);
 
-    // The process machine,
-    ProcessServiceAddress process_machine =
-              createAddressFromMachineString(process_ob.getString("machine"));
+  }
 
-    // Put it in the cache,
-    synchronized (machine_name_cache) {
-      machine_name_cache.put(process_id, process_machine);
+  /**
+   * Loads the machine name of a process from the database.
+   */
+  private final LoadingCache.Loader<ProcessId, ProcessServiceAddress>
+              machine_name_loader =
+                  new LoadingCache.Loader<ProcessId, ProcessServiceAddress>() {
+    @Override
+    public ProcessServiceAddress load(ProcessId process_id) {
+      // Load the process ODB object from the DB,
+      ODBObject process_ob = loadProcessOb(process_id);
+      // The process machine,
+      return createAddressFromMachineString(process_ob.getString("machine"));
     }
+  };
 
-    // Return it,
-    return process_machine;
-
+  /**
+   * Returns the ProcessInfoImpl object for a process id if it is in the
+   * cache, otherwise returns null. This never blocks on the database or a
+   * process server.
+   */
+  private ProcessInfoImpl getCachedProcessInfo(ProcessId process_id) {
+    return process_info_cache.getIfPresent(process_id);
   }
 
   /**
@@ -1345,15 +2239,30 @@ public final class ProcessClientService {
 
     if (process_id == null) throw new RuntimeException();
 
-    ProcessInfoImpl process_info;
-    synchronized (process_info_cache) {
-      process_info = (ProcessInfoImpl) process_info_cache.get(process_id);
-    }
+    return process_info_cache.get(process_id, process_info_loader);
 
-    // In the cache,
-    if (process_info != null) {
-      return process_info;
+  }
+
+  /**
+   * Loads the ProcessInfoImpl of a process from the database, or by asking
+   * the process server if the process record isn't populated.
+   */
+  private final LoadingCache.Loader<ProcessId, ProcessInfoImpl>
+              process_info_loader =
+                  new LoadingCache.Loader<ProcessId, ProcessInfoImpl>() {
+    @Override
+    public ProcessInfoImpl load(ProcessId process_id)
+                                          throws ProcessUnavailableException {
+      return loadProcessInfo(process_id);
     }
+  };
+
+  /**
+   * Loads a ProcessInfoImpl object for a process id from the database or
+   * the process server.
+   */
+  private ProcessInfoImpl loadProcessInfo(ProcessId process_id)
+                                          throws ProcessUnavailableException {
 
     // Load the process ODB object from the DB,
     ODBObject process_ob = loadProcessOb(process_id);
@@ -1363,88 +2272,177 @@ public final class ProcessClientService {
               createAddressFromMachineString(process_ob.getString("machine"));
 
     // Is the 'value' field populated?
-    String process_value = process_ob.getString("value");
+    ProcessInfoImpl info =
+          parseProcessInfo(process_machine, process_ob.getString("value"));
+    if (info != null) {
+      return info;
+    }
+
+    // Not populated so query the machine for the details of the process,
+
+    // Create the function message,
+    PMessage fun_msg = createProcessQueryMessage(process_id);
+
+    try {
+      // Send the message and block until reply,
+      PMessage reply = sendMessage(process_machine, fun_msg);
+      return processInfoFromReply(process_machine, reply);
+    }
+    catch (InterruptedException e) {
+      throw new PRuntimeException("Interrupted");
+    }
+
+  }
+
+  /**
+   * Returns the ProcessInfoImpl from the 'value' field of a process record,
+   * or null if the field isn't populated.
+   */
+  private static ProcessInfoImpl parseProcessInfo(
+          ProcessServiceAddress process_machine, String process_value) {
+
+    if (process_value == null || process_value.equals("")) {
+      return null;
+    }
 
     String account_name;
     String application_name;
     String process_name;
-
-    if (process_value != null && !process_value.equals("")) {
-      // Yes, so parse it,
-      try {
-        JSONTokener json = new JSONTokener(process_value);
-        JSONObject json_ob = (JSONObject) json.nextValue();
-        account_name = json_ob.getString("acn");     // account name
-        application_name = json_ob.getString("apn"); // application name
-        process_name = json_ob.getString("pn");      // process name
-      }
-      catch (JSONException e) {
-        throw new PRuntimeException(e);
-      }
+    try {
+      JSONTokener json = new JSONTokener(process_value);
+      JSONObject json_ob = (JSONObject) json.nextValue();
+      account_name = json_ob.getString("acn");     // account name
+      application_name = json_ob.getString("apn"); // application name
+      process_name = json_ob.getString("pn");      // process name
     }
-    else {
-      // Not populated so query the machine for the details of the process,
+    catch (JSONException e) {
+      throw new PRuntimeException(e);
+    }
+
+    // Make the ProcessInfoImpl object,
+    return new ProcessInfoImpl(
+                    process_machine,
+                    new AccountApplication(account_name, application_name),
+                    process_name);
 
-      // Create the function message,
-      PMessage fun_msg = createProcessQueryMessage(process_id);
+  }
 
-      try {
+  /**
+   * Returns the ProcessInfoImpl from the reply to a process query message
+   * sent to the given machine.
+   */
+  private static ProcessInfoImpl processInfoFromReply(
+          ProcessServiceAddress process_machine, PMessage reply)
+                                          throws ProcessUnavailableException {
+
+    // The message will have the characters 'S;' if function success,
 
-        // Send the message and block until reply,
-        PMessage reply = sendMessage(process_machine, fun_msg);
+    if (reply.isFailMessage()) {
 
-        // The message will have the characters 'S;' if function success,
+      ProcessFunctionError originating_ex = reply.messageFailError();
+
+      if (originating_ex.getErrorType().startsWith("UNAVAILABLE")) {
+        throw new ProcessUnavailableException(
+                "Process Unavailable",
+                ProcessUnavailableException.Reason.UNAVAILABLE,
+                process_machine);
+      }
+
+      // PENDING: we need to make a distinction here between 'process not
+      //   found' and exceptions caused by erroneous state.
+      throw new InvalidProcessException();
+
+    }
+    else if (reply.isSuccessMessage()) {
 
-        if (reply.isFailMessage()) {
+      // Extract the returned details,
+      Object[] args = reply.asArgsList(22);
+      String account_name = (String) args[0];
+      String application_name = (String) args[1];
+      String process_name = (String) args[2];
 
-          ProcessFunctionError originating_ex = reply.messageFailError();
+      // Make the ProcessInfoImpl object,
+      return new ProcessInfoImpl(
+                    process_machine,
+                    new AccountApplication(account_name, application_name),
+                    process_name);
 
-          if (originating_ex.getErrorType().startsWith("UNAVAILABLE")) {
-            throw new ProcessUnavailableException(
-                    "Process Unavailable",
-                    ProcessUnavailableException.Reason.UNAVAILABLE,
-                    process_machine);
-          }
+    }
+    else {
+      throw new PRuntimeException("Error in format of reply message");
+    }
 
-          // PENDING: we need to make a distinction here between 'process not
-          //   found' and exceptions caused by erroneous state.
-          throw new InvalidProcessException();
+  }
 
-        }
-        else if (reply.isSuccessMessage()) {
+  /**
+   * Fetches the ProcessInfoImpl of a process and notifies the callback with
+   * it. If the information is cached the callback is notified immediately
+   * on the calling thread. Otherwise the process record is read on the
+   * thread pool, and if the process server has to be asked for the details
+   * then the query is sent with 'sendMessageAsync' so no thread waits for
+   * the reply. The callback may be notified on the thread that received the
+   * reply, so it must not block.
+   */
+  private void getProcessInfoAsync(final ProcessId process_id,
+                        final ProcessCallback<ProcessInfoImpl> callback) {
 
-          // Extract the returned details,
-          Object[] args = reply.asArgsList(22);
-          account_name = (String) args[0];
-          application_name = (String) args[1];
-          process_name = (String) args[2];
+    ProcessInfoImpl cached_info = getCachedProcessInfo(process_id);
+    if (cached_info != null) {
+      callbackCompleted(callback, cached_info);
+      return;
+    }
 
+    Runnable lookup = new Runnable() {
+      @Override
+      public void run() {
+        final ProcessServiceAddress process_machine;
+        try {
+          // Load the process ODB object from the DB,
+          ODBObject process_ob = loadProcessOb(process_id);
+          process_machine = createAddressFromMachineString(
+                                          process_ob.getString("machine"));
+          ProcessInfoImpl info = parseProcessInfo(
+                            process_machine, process_ob.getString("value"));
+          if (info != null) {
+            process_info_cache.put(process_id, info);
+            callbackCompleted(callback, info);
+            return;
+          }
         }
-        else {
-          throw new PRuntimeException("Error in format of reply message");
+        catch (RuntimeException e) {
+          callbackFailed(callback, e);
+          return;
         }
 
+        // Ask the process server,
+        sendMessageAsync(process_machine,
+                         createProcessQueryMessage(process_id),
+                         new ReplyCallback() {
+          @Override
+          public void replyReceived(PMessage reply) {
+            ProcessInfoImpl info;
+            try {
+              info = processInfoFromReply(process_machine, reply);
+            }
+            catch (ProcessUnavailableException | RuntimeException e) {
+              callbackFailed(callback, e);
+              return;
+            }
+            process_info_cache.put(process_id, info);
+            callbackCompleted(callback, info);
+          }
+        });
       }
-      catch (InterruptedException e) {
-        throw new PRuntimeException("Interrupted");
-      }
-      
+    };
+    try {
+      thread_pool.submit(lookup);
     }
-    
-    // Make the ProcessInfoImpl object,
-    process_info = new ProcessInfoImpl(
-                    process_machine,
-                    new AccountApplication(account_name, application_name),
-                    process_name);
-
-    // Put it in the cache,
-    synchronized (process_info_cache) {
-      process_info_cache.put(process_id, process_info);
+    catch (RejectedExecutionException e) {
+      // The pool is saturated so fail now rather than leave the callback
+      // waiting,
+      callbackFailed(callback, e);
     }
 
-    // Return it,
-    return process_info;
-
   }
 
   /**
@@ -1510,10 +2508,10 @@ public final class ProcessClientService {
     return new PCSAppServiceProcessClient(account_name);
   }
 
-  public ProcessId createProcess(String account_name,
-                                 String webapp_name, String process_class)
-                                          throws ProcessUnavailableException {
-
+  /**
+   * Picks a random system process path to create a process in.
+   */
+  private String pickProcessPath() {
     // Query the system process paths for a process id,
     // Get the list of all process paths,
     List<String> sys_process_paths = getSystemProcessPaths();
@@ -1527,8 +2525,25 @@ public final class ProcessClientService {
     if (size > 1) {
       process_path_num = rng.nextInt(size);
     }
+    return sys_process_paths.get(process_path_num);
+  }
+
+  public ProcessId createProcess(String account_name,
+                                 String webapp_name, String process_class)
+                                          throws ProcessUnavailableException {
+
     // The process path name (eg. 'sysprocess00')
-    String process_path = sys_process_paths.get(process_path_num);
+    String process_path = pickProcessPath();
+
+    // In the common case the process is created on an id leased by this
+    // client, which doesn't need a commit,
+    ProcessIdPool id_pool = getIdPool(process_path);
+    ProcessId leased_id = allocateLeasedId(
+                          id_pool, account_name, webapp_name, process_class);
+    refillIdPool(process_path, id_pool);
+    if (leased_id != null) {
+      return leased_id;
+    }
 
     ProcessId process_id;
     {
@@ -1552,11 +2567,13 @@ public final class ProcessClientService {
           ++process_populate_count;
           checked_count = 0;
           commit_needed = true;
-          populateWithIds(process_path, t, dont_populate_machines);
+          populateWithIds(process_path, t, dont_populate_machines,
+                          false, 0);
           available_ids = root_ob.getList("available_processIdx");
         }
 
-        // Pick a random id from the available list,
+        // Pick two random ids from the available list and use the one on
+        // the less loaded machine (power of two choices),
         int av_sz = (int) available_ids.size();
         int id_index = rng.nextInt(av_sz);
         ODBObject process_ob = available_ids.getObject(id_index);
@@ -1564,6 +2581,18 @@ public final class ProcessClientService {
         // Get the machine,
         ProcessServiceAddress machine =
               createAddressFromMachineString(process_ob.getString("machine"));
+
+        if (av_sz > 1) {
+          ODBObject alt_process_ob =
+                              available_ids.getObject(rng.nextInt(av_sz));
+          ProcessServiceAddress alt_machine = createAddressFromMachineString(
+                                      alt_process_ob.getString("machine"));
+          if (!alt_machine.equals(machine) &&
+              getLoadScore(alt_machine) < getLoadScore(machine)) {
+            process_ob = alt_process_ob;
+            machine = alt_machine;
+          }
+        }
         // Is this machine currently failed?
         if (isCurrentConnectKnownFailed(machine)) {
           // Ok, so try a different machine,
@@ -1683,6 +2712,20 @@ public final class ProcessClientService {
       return process_ret;
     }
 
+    return invokeFunction(account_name, process_id, process_info,
+                          call_id, msg, reply_expected);
+
+  }
+
+  /**
+   * Invokes the function on a process with the given process information.
+   * This never blocks.
+   */
+  private ProcessResultImpl invokeFunction(
+               String account_name, ProcessId process_id,
+               ProcessInfoImpl process_info, int call_id, ProcessMessage msg,
+               boolean reply_expected) {
+
     // If the account name doesn't match,
     if (!account_name.equals(
                       process_info.getAccountApplication().getAccountName())) {
@@ -1750,20 +2793,43 @@ public final class ProcessClientService {
     // Null pointer exception,
     if (signal == null) throw new NullPointerException();
 
-    int call_id = generateCallId();
-
-    // Find out information about the process,
-    ProcessInfoImpl process_info;
     try {
-      process_info = getProcessInfo(process_id);
+      putSignalOnOutput(account_name, process_id, signal);
     }
     catch (ProcessUnavailableException e) {
       // If the process is unavailable, do nothing (signals are never
       // guarenteed)
       // PENDING: Should we convey this failure to the user in some way?
-      return;
     }
 
+  }
+
+  /**
+   * Puts a signal message for the given process on the out-going queue.
+   * Throws ProcessUnavailableException if the process information could not
+   * be fetched.
+   */
+  private void putSignalOnOutput(String account_name,
+                         ProcessId process_id, String[] signal)
+                                          throws ProcessUnavailableException {
+
+    // Find out information about the process,
+    ProcessInfoImpl process_info = getProcessInfo(process_id);
+
+    putSignalOnOutput(account_name, process_id, process_info, signal);
+
+  }
+
+  /**
+   * Puts a signal message for the process with the given information on the
+   * out-going queue. This never blocks.
+   */
+  private void putSignalOnOutput(String account_name,
+                         ProcessId process_id, ProcessInfoImpl process_info,
+                         String[] signal) {
+
+    int call_id = generateCallId();
+
     // If the account name doesn't match,
     if (!account_name.equals(
                       process_info.getAccountApplication().getAccountName())) {
@@ -1787,6 +2853,198 @@ public final class ProcessClientService {
 
   }
 
+  /**
+   * Calls 'completed' on the callback, logging any exception thrown by it.
+   */
+  static <T> void callbackCompleted(
+                                    ProcessCallback<T> callback, T result) {
+    try {
+      callback.completed(result);
+    }
+    catch (RuntimeException e) {
+      LOG.log(Level.SEVERE, "Exception in process callback", e);
+    }
+  }
+
+  /**
+   * Calls 'failed' on the callback, logging any exception thrown by it.
+   */
+  static void callbackFailed(
+                              ProcessCallback<?> callback, Throwable error) {
+    try {
+      callback.failed(error);
+    }
+    catch (RuntimeException e) {
+      LOG.log(Level.SEVERE, "Exception in process callback", e);
+    }
+  }
+
+  /**
+   * Calls 'completed' on the callback on a thread from the thread pool. If
+   * the pool is saturated the callback is called on the current thread.
+   */
+  static <T> void postCompleted(ExecutorService thread_pool,
+                      final ProcessCallback<T> callback, final T result) {
+    try {
+      thread_pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          callbackCompleted(callback, result);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      callbackCompleted(callback, result);
+    }
+  }
+
+  /**
+   * Calls 'failed' on the callback on a thread from the thread pool. If the
+   * pool is saturated the callback is called on the current thread.
+   */
+  static void postFailed(ExecutorService thread_pool,
+                 final ProcessCallback<?> callback, final Throwable error) {
+    try {
+      thread_pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          callbackFailed(callback, error);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      callbackFailed(callback, error);
+    }
+  }
+
+  /**
+   * Invokes the function on the given process and notifies the callback
+   * with the reply. The process information is fetched with
+   * 'getProcessInfoAsync', the reply is delivered to the callback when it
+   * is received, and the timeout is enforced by the reply timeout task, so
+   * no thread is parked waiting for the process server.
+   */
+  public void invokeFunctionAsync(
+               final String account_name, final ProcessId process_id,
+               final ProcessMessage msg, long timeout,
+               final ProcessCallback<ProcessInputMessage> callback) {
+
+    if (callback == null) throw new NullPointerException();
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout < 0");
+    }
+
+    final long timeout_at = System.currentTimeMillis() + timeout;
+
+    getProcessInfoAsync(process_id, new ProcessCallback<ProcessInfoImpl>() {
+      @Override
+      public void completed(ProcessInfoImpl process_info) {
+        ProcessResultImpl result;
+        try {
+          result = invokeFunction(account_name, process_id, process_info,
+                                  generateCallId(), msg, true);
+        }
+        catch (RuntimeException e) {
+          postFailed(thread_pool, callback, e);
+          return;
+        }
+        async_results.add(result);
+        result.setCallback(callback, timeout_at);
+      }
+      @Override
+      public void failed(Throwable e) {
+        postFailed(thread_pool, callback, e);
+      }
+    });
+
+  }
+
+  /**
+   * Creates a process and notifies the callback with the process id. The
+   * process is initialized on an id leased by this client with
+   * 'sendMessageAsync' (see AsyncProcessCreate), so no thread waits for
+   * the process server to reply. A database operation is only performed if
+   * the pool of leased ids is empty, in which case a block of ids is
+   * leased on the thread pool.
+   */
+  public void createProcessAsync(final String account_name,
+               final String webapp_name, final String process_class,
+               final ProcessCallback<ProcessId> callback) {
+
+    if (callback == null) throw new NullPointerException();
+
+    final String process_path;
+    try {
+      process_path = pickProcessPath();
+    }
+    catch (RuntimeException e) {
+      postFailed(thread_pool, callback, e);
+      return;
+    }
+    final ProcessIdPool id_pool = getIdPool(process_path);
+    refillIdPool(process_path, id_pool);
+
+    new AsyncProcessCreate(new AsyncProcessCreate.Target() {
+      @Override
+      public ProcessIdPool.Lease takeLease() {
+        return ProcessClientService.this.takeLease(id_pool);
+      }
+      @Override
+      public void leaseBlock() throws ProcessUnavailableException {
+        try {
+          leaseIdBlock(process_path, id_pool);
+        }
+        catch (CommitFaultException e) {
+          throw new ProcessUnavailableException(
+                      "Unable to allocate a Process ID",
+                      ProcessUnavailableException.Reason.UNAVAILABLE,
+                      null, e);
+        }
+      }
+      @Override
+      public void sendInit(ProcessIdPool.Lease lease,
+                           ReplyCallback reply_callback) {
+        PMessage fun_msg = createInitProcessMessage(lease.getProcessId(),
+                            account_name, webapp_name, process_class);
+        sendMessageAsync(lease.getMachine(), fun_msg, reply_callback);
+      }
+    }, thread_pool, callback).start();
+
+  }
+
+  /**
+   * Sends a signal to the process and notifies the callback when the signal
+   * is on the out-going queue. The process information is fetched with
+   * 'getProcessInfoAsync' so no thread is parked waiting for the process
+   * server.
+   */
+  public void sendSignalAsync(final String account_name,
+               final ProcessId process_id, final String[] signal,
+               final ProcessCallback<Void> callback) {
+
+    if (signal == null) throw new NullPointerException();
+    if (callback == null) throw new NullPointerException();
+
+    getProcessInfoAsync(process_id, new ProcessCallback<ProcessInfoImpl>() {
+      @Override
+      public void completed(ProcessInfoImpl process_info) {
+        try {
+          putSignalOnOutput(account_name, process_id, process_info, signal);
+        }
+        catch (RuntimeException e) {
+          postFailed(thread_pool, callback, e);
+          return;
+        }
+        postCompleted(thread_pool, callback, null);
+      }
+      @Override
+      public void failed(Throwable e) {
+        postFailed(thread_pool, callback, e);
+      }
+    });
+
+  }
+
   /**
    * 
    * @param account_name
@@ -2136,6 +3394,20 @@ public final class ProcessClientService {
 
   }
 
+  /**
+   * Notified when the reply to a message sent via 'sendMessageAsync' is
+   * received.
+   */
+  static interface ReplyCallback {
+
+    /**
+     * Called when the reply is received, or with a failure message when the
+     * reply times out.
+     */
+    void replyReceived(PMessage reply);
+
+  }
+
   /**
    * ProcessResult implementation.
    */
@@ -2154,6 +3426,11 @@ public final class ProcessClientService {
                                                         new ArrayList<>(2);
     private PMessage reply = null;
 
+    // The callback of an asynchronous invocation, and the time it times out,
+    private ProcessCallback<ProcessInputMessage> callback = null;
+    private long callback_timeout_at;
+    private boolean callback_done = false;
+
     private ProcessResultImpl(ExecutorService thread_pool,
             String account_name,
             ProcessServiceAddress machine, int call_id, ProcessId process_id) {
@@ -2236,6 +3513,96 @@ public final class ProcessClientService {
       return getResult(null);
     }
 
+    /**
+     * Sets the callback that is notified when the reply is received, or
+     * failed if the reply isn't received before 'timeout_at'. If the reply
+     * has already been received then the callback is dispatched
+     * immediately.
+     */
+    void setCallback(ProcessCallback<ProcessInputMessage> callback,
+                     long timeout_at) {
+      boolean dispatch;
+      synchronized (notifiers) {
+        this.callback = callback;
+        this.callback_timeout_at = timeout_at;
+        dispatch = (reply != null);
+      }
+      if (dispatch) {
+        try {
+          thread_pool.submit(new Runnable() {
+            @Override
+            public void run() {
+              completeCallback();
+            }
+          });
+        }
+        catch (RejectedExecutionException e) {
+          // The pool is saturated, so notify the callback on this thread
+          // the same way 'postCompleted' does,
+          completeCallback();
+        }
+      }
+    }
+
+    long getCallbackTimeoutAt() {
+      synchronized (notifiers) {
+        return callback_timeout_at;
+      }
+    }
+
+    boolean isCallbackDone() {
+      synchronized (notifiers) {
+        return callback_done;
+      }
+    }
+
+    /**
+     * Takes the callback if it hasn't already been notified, or returns
+     * null.
+     */
+    private ProcessCallback<ProcessInputMessage> takeCallback() {
+      synchronized (notifiers) {
+        if (callback == null || callback_done) {
+          return null;
+        }
+        callback_done = true;
+        return callback;
+      }
+    }
+
+    /**
+     * Notifies the callback of the reply.
+     */
+    private void completeCallback() {
+      ProcessCallback<ProcessInputMessage> cb = takeCallback();
+      if (cb != null) {
+        PMessage pmsg;
+        synchronized (notifiers) {
+          pmsg = reply;
+        }
+        ProcessInputMessage result_msg;
+        try {
+          result_msg = replyAsProcessMessage(pmsg);
+        }
+        catch (RuntimeException e) {
+          callbackFailed(cb, e);
+          return;
+        }
+        callbackCompleted(cb, result_msg);
+      }
+    }
+
+    /**
+     * Fails the callback with the given error if it hasn't already been
+     * notified.
+     */
+    void failCallback(Throwable error) {
+      ProcessCallback<ProcessInputMessage> cb = takeCallback();
+      if (cb != null) {
+        callbackFailed(cb, error);
+      }
+    }
+
     // Notifies when result comes in,
     private void notifyResult() {
       // If there's something to notify then dispatch it,
@@ -2244,11 +3611,14 @@ public final class ProcessClientService {
         to_notify = new ArrayList<>(notifiers.size());
         to_notify.addAll(notifiers);
       }
-      // Dispatch to the thread pool,
+      // Dispatch to the thread pool, (retried later if the pool is
+      // saturated so the notification isn't lost)
       final List<ProcessResultNotifier> set = to_notify;
-      thread_pool.submit(new Runnable() {
+      ProcessExecutor.executeOrRetry(thread_pool, process_client_timer,
+                                     new Runnable() {
         @Override
         public void run() {
+          completeCallback();
           for (ProcessResultNotifier n : set) {
             n.lock();
             try {
@@ -2375,6 +3745,27 @@ public final class ProcessClientService {
                         getAccountName(), process_id, msg, reply_expected);
     }
 
+    @Override
+    public void invokeFunctionAsync(ProcessId process_id, ProcessMessage msg,
+               long timeout, ProcessCallback<ProcessInputMessage> callback) {
+      ProcessClientService.this.invokeFunctionAsync(
+                        getAccountName(), process_id, msg, timeout, callback);
+    }
+
+    @Override
+    public void createProcessAsync(String webapp_name, String process_class,
+                                   ProcessCallback<ProcessId> callback) {
+      ProcessClientService.this.createProcessAsync(
+                        getAccountName(), webapp_name, process_class, callback);
+    }
+
+    @Override
+    public void sendSignalAsync(ProcessId process_id, String[] signal,
+                                ProcessCallback<Void> callback) {
+      ProcessClientService.this.sendSignalAsync(
+                        getAccountName(), process_id, signal, callback);
+    }
+
     @Override
     public ChannelConsumer getChannelConsumer(ChannelSessionState session_state)
                                           throws ProcessUnavailableException {
@@ -2407,6 +3798,47 @@ public final class ProcessClientService {
 
   }
 
+  /**
+   * The output stats published through JMX.
+   */
+  private class OutputStats implements ProcessClientOutputMXBean {
+
+    @Override
+    public long getBatchDelayMicros() {
+      return batch_delay_ns / 1000;
+    }
+
+    @Override
+    public int getBatchMaxBytes() {
+      return batch_max_bytes;
+    }
+
+    @Override
+    public long getFlushCount() {
+      return flush_count.get();
+    }
+
+    @Override
+    public long getMessagesFlushedCount() {
+      return messages_flushed_count.get();
+    }
+
+    @Override
+    public double getMessagesPerFlush() {
+      long flushes = flush_count.get();
+      if (flushes == 0) {
+        return 0;
+      }
+      return (double) messages_flushed_count.get() / flushes;
+    }
+
+    @Override
+    public long getFlushesPerSecond() {
+      return flushes_last_second;
+    }
+
+  }
+
   /**
    * ProcessEnvironment implementation.
    */
@@ -2751,6 +4183,9 @@ queue_empty_loop:
                   QueueMessage init_msg = blockUntilConnectionInit(machine_addr);
                   // Send the same message as a reply,
                   nio_connection.sendFirstMessage(init_msg.getMessage());
+                  // Ask the server for load reports,
+                  nio_connection.sendFirstMessage(
+                                        createLoadReportRequestMessage());
                   nio_connection.flushSendMessages();
                   nio_connection.setStateLong((long) 0);
 
@@ -2811,15 +4246,20 @@ queue_empty_loop:
                 // Send messages if connection initialized,
                 if (nio_connection != null &&
                     nio_connection.getStateLong() == 0) {
+                  int msg_count = 0;
                   while (msg != null) {
                     boolean performed_flush =
                             nio_connection.sendFirstMessage(msg.getMessage());
                     msg = msg.getNext();
+                    ++msg_count;
                     if (performed_flush) {
                       not_flushed_msg = msg;
+                      flush_count.incrementAndGet();
                     }
                   }
                   nio_connection.flushSendMessages();
+                  flush_count.incrementAndGet();
+                  messages_flushed_count.addAndGet(msg_count);
                 }
                 else {
                   // Couldn't send the message because connection state isn't 0, so
@@ -0,0 +1,330 @@
+/**
+ * com.mckoi.process.impl.ProcessExecutor  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A fixed size thread pool with a bounded queue used by the process
+ * service. It records how long tasks wait in the queue and publishes its
+ * gauges (active, queued, completed, saturated and wait time) as an MXBean
+ * named 'com.mckoi.process:type=Executor,name=[name]'.
+ * <p>
+ * When the queue is full the executor is saturated. The submitting thread
+ * then waits up to 'hand_off_ms' milliseconds for space in the queue
+ * (which slows down the producer), and if there's still no space a
+ * RejectedExecutionException is thrown. A task is never run on the
+ * submitting thread, because the submitters include the selector and
+ * dispatcher threads which must never run user code. Internal tasks that
+ * must not be lost when the pool is saturated are submitted with
+ * 'executeOrRetry'.
+ *
+ * @author Tobias Downer
+ */
+
+class ProcessExecutor extends ThreadPoolExecutor
+                                        implements ProcessExecutorMXBean {
+
+  /**
+   * The number of recent wait time samples kept (must be a power of 2).
+   */
+  private static final int WAIT_SAMPLE_COUNT = 1024;
+
+  /**
+   * The delay, in milliseconds, before 'executeOrRetry' submits a rejected
+   * task again.
+   */
+  static final long RETRY_DELAY_MS = 100;
+
+  /**
+   * The name of this executor.
+   */
+  private final String name;
+
+  /**
+   * The capacity of the queue.
+   */
+  private final int queue_capacity;
+
+  /**
+   * The number of times a task couldn't be queued.
+   */
+  private final AtomicLong saturated_count = new AtomicLong(0);
+
+  /**
+   * A ring of recent wait time samples (in nanoseconds).
+   */
+  private final AtomicLongArray wait_samples =
+                                      new AtomicLongArray(WAIT_SAMPLE_COUNT);
+  private final AtomicLong wait_sample_index = new AtomicLong(0);
+
+  /**
+   * The name this is registered against in the MBean server, or null if
+   * not registered.
+   */
+  private ObjectName mbean_name;
+
+  /**
+   * Constructor.
+   */
+  ProcessExecutor(final String name, int thread_count, int queue_capacity,
+                  final long hand_off_ms) {
+    super(thread_count, thread_count, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(queue_capacity));
+    this.name = name;
+    this.queue_capacity = queue_capacity;
+
+    setThreadFactory(new ThreadFactory() {
+      private final AtomicInteger thread_count = new AtomicInteger(0);
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r,
+                        "Mckoi " + name + " " + thread_count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    setRejectedExecutionHandler(new RejectedExecutionHandler() {
+      @Override
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+          throw new RejectedExecutionException(name + " is shut down");
+        }
+        saturated_count.incrementAndGet();
+        if (hand_off_ms > 0) {
+          try {
+            if (executor.getQueue().offer(r, hand_off_ms,
+                                          TimeUnit.MILLISECONDS)) {
+              // If the executor was shut down while we waited then take the
+              // task back off the queue,
+              if (executor.isShutdown() && executor.remove(r)) {
+                throw new RejectedExecutionException(name + " is shut down");
+              }
+              return;
+            }
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        throw new RejectedExecutionException(name + " queue is full");
+      }
+    });
+  }
+
+  /**
+   * Submits a task to the pool. If the pool rejects the task, the submit
+   * is tried again on the timer every RETRY_DELAY_MS milliseconds until
+   * the pool accepts it. This is for internal tasks (message flushes,
+   * notifications and replies) that must eventually run but mustn't be
+   * run on the submitting thread.
+   * <p>
+   * Returns false, and the task is never run, if the task is rejected and
+   * can't be retried because the pool is shut down or the timer is
+   * cancelled (the service is stopping).
+   */
+  static boolean executeOrRetry(final Executor pool, final Timer timer,
+                                final Runnable task) {
+    try {
+      pool.execute(task);
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      if (timer == null || (pool instanceof ExecutorService &&
+                            ((ExecutorService) pool).isShutdown())) {
+        return false;
+      }
+      try {
+        timer.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            executeOrRetry(pool, timer, task);
+          }
+        }, RETRY_DELAY_MS);
+        return true;
+      }
+      catch (IllegalStateException ex) {
+        // The timer was cancelled,
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Registers this executor with the platform MBean server.
+   */
+  void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName obj_name = new ObjectName(
+                  "com.mckoi.process:type=Executor,name=" +
+                  ObjectName.quote(name));
+      if (!server.isRegistered(obj_name)) {
+        server.registerMBean(this, obj_name);
+        mbean_name = obj_name;
+      }
+    }
+    catch (JMException e) {
+      ProcessServerService.PROCESS_LOG.log(Level.WARNING,
+                                "Unable to register executor MBean", e);
+    }
+  }
+
+  /**
+   * Unregisters this executor from the platform MBean server.
+   */
+  private void unregisterMBean() {
+    if (mbean_name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                                                                mbean_name);
+      }
+      catch (JMException e) {
+        // Ignore,
+      }
+      mbean_name = null;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    super.execute(new TimedTask(command));
+  }
+
+  @Override
+  protected void terminated() {
+    super.terminated();
+    unregisterMBean();
+  }
+
+  /**
+   * Records a wait time sample.
+   */
+  private void addWaitSample(long wait_nanos) {
+    int i = (int) (wait_sample_index.getAndIncrement() &
+                   (WAIT_SAMPLE_COUNT - 1));
+    wait_samples.set(i, wait_nanos);
+  }
+
+  /**
+   * Returns a sorted copy of the recent wait time samples.
+   */
+  private long[] getSortedWaitSamples() {
+    int count = (int) Math.min(wait_sample_index.get(), WAIT_SAMPLE_COUNT);
+    long[] samples = new long[count];
+    for (int i = 0; i < count; ++i) {
+      samples[i] = wait_samples.get(i);
+    }
+    Arrays.sort(samples);
+    return samples;
+  }
+
+  // ----- Implemented from ProcessExecutorMXBean -----
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getQueuedCount() {
+    return getQueue().size();
+  }
+
+  @Override
+  public int getQueueCapacity() {
+    return queue_capacity;
+  }
+
+  @Override
+  public long getSaturatedCount() {
+    return saturated_count.get();
+  }
+
+  @Override
+  public double getP99WaitMillis() {
+    long[] samples = getSortedWaitSamples();
+    if (samples.length == 0) {
+      return 0;
+    }
+    int i = (int) Math.ceil(samples.length * 0.99) - 1;
+    return samples[Math.max(i, 0)] / 1000000d;
+  }
+
+  @Override
+  public double getMeanWaitMillis() {
+    long[] samples = getSortedWaitSamples();
+    if (samples.length == 0) {
+      return 0;
+    }
+    long total = 0;
+    for (long sample : samples) {
+      total += sample;
+    }
+    return (total / samples.length) / 1000000d;
+  }
+
+  /**
+   * A task wrapper that records the time the task waited in the queue.
+   */
+  private class TimedTask implements Runnable {
+
+    private final Runnable task;
+    private final long enqueue_time;
+
+    TimedTask(Runnable task) {
+      this.task = task;
+      this.enqueue_time = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+      addWaitSample(System.nanoTime() - enqueue_time);
+      task.run();
+    }
+
+  }
+
+}
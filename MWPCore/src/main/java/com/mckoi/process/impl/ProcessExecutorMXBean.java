@@ -0,0 +1,84 @@
+/**
+ * com.mckoi.process.impl.ProcessExecutorMXBean  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+/**
+ * The management interface of a ProcessExecutor, exposing the gauges of a
+ * process service thread pool through JMX.
+ *
+ * @author Tobias Downer
+ */
+
+public interface ProcessExecutorMXBean {
+
+  /**
+   * The name of the executor.
+   */
+  String getName();
+
+  /**
+   * The approximate number of threads currently executing tasks.
+   */
+  int getActiveCount();
+
+  /**
+   * The current number of threads in the pool.
+   */
+  int getPoolSize();
+
+  /**
+   * The number of tasks waiting in the queue.
+   */
+  int getQueuedCount();
+
+  /**
+   * The maximum number of tasks that may wait in the queue.
+   */
+  int getQueueCapacity();
+
+  /**
+   * The approximate number of tasks that have completed execution.
+   */
+  long getCompletedTaskCount();
+
+  /**
+   * The number of tasks that couldn't be queued because the queue was full.
+   */
+  long getSaturatedCount();
+
+  /**
+   * The 99th percentile of the time recent tasks waited in the queue before
+   * being executed, in milliseconds.
+   */
+  double getP99WaitMillis();
+
+  /**
+   * The mean of the time recent tasks waited in the queue before being
+   * executed, in milliseconds.
+   */
+  double getMeanWaitMillis();
+
+}
@@ -0,0 +1,197 @@
+/**
+ * com.mckoi.process.impl.ProcessIdPool  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessServiceAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of process ids that a client created and committed to a process
+ * path ahead of time so that a process can be created without a database
+ * commit. A leased id is not put in the path's available list, so no other
+ * client can allocate it. Each id is leased for a limited time. After the
+ * lease expires the id is moved to the expired list of the pool, and the
+ * client returns it to the path's available list.
+ * <p>
+ * Leases are added in blocks that share an expiry time, so the queue is
+ * ordered by expiry and expired leases are always at the head.
+ *
+ * @author Tobias Downer
+ */
+
+final class ProcessIdPool {
+
+  /**
+   * The leases in the pool.
+   */
+  private final ConcurrentLinkedQueue<Lease> leases =
+                                               new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of leases in the pool ('ConcurrentLinkedQueue.size' is not a
+   * constant time operation).
+   */
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  /**
+   * The leases that expired without being used, to be returned to the
+   * available list of the process path.
+   */
+  private final ConcurrentLinkedQueue<Lease> expired =
+                                               new ConcurrentLinkedQueue<>();
+
+  /**
+   * True while a refill of this pool is in progress.
+   */
+  private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+  /**
+   * Returns the number of leases in the pool, including any that have
+   * expired but not yet been dropped.
+   */
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * Adds a block of leases to the pool.
+   */
+  void addAll(Collection<Lease> block) {
+    leases.addAll(block);
+    size.addAndGet(block.size());
+  }
+
+  /**
+   * Returns an unused lease to the pool.
+   */
+  void giveBack(Lease lease) {
+    leases.offer(lease);
+    size.incrementAndGet();
+  }
+
+  /**
+   * Takes a lease from the pool that hasn't expired at the given time,
+   * moving any expired leases it finds to the expired list. Returns null if
+   * the pool is empty.
+   */
+  Lease take(long time_now) {
+    while (true) {
+      Lease lease = leases.poll();
+      if (lease == null) {
+        return null;
+      }
+      size.decrementAndGet();
+      if (lease.expires_at > time_now) {
+        return lease;
+      }
+      expired.offer(lease);
+    }
+  }
+
+  /**
+   * Removes all the leases that have expired at the given time from the
+   * pool and returns them along with the leases already on the expired
+   * list. The ids of the returned leases were never used by this client.
+   */
+  List<Lease> takeExpired(long time_now) {
+    Iterator<Lease> i = leases.iterator();
+    while (i.hasNext()) {
+      Lease lease = i.next();
+      // 'remove' only succeeds for one thread, so a lease is either taken
+      // or expired but never both,
+      if (lease.expires_at <= time_now && leases.remove(lease)) {
+        size.decrementAndGet();
+        expired.offer(lease);
+      }
+    }
+    List<Lease> out = new ArrayList<>();
+    while (true) {
+      Lease lease = expired.poll();
+      if (lease == null) {
+        return out;
+      }
+      out.add(lease);
+    }
+  }
+
+  /**
+   * Puts leases back on the expired list, for when returning them to the
+   * process path failed.
+   */
+  void addExpired(Collection<Lease> block) {
+    expired.addAll(block);
+  }
+
+  /**
+   * Marks the pool as refilling. Returns false if a refill is already in
+   * progress.
+   */
+  boolean startRefill() {
+    return refilling.compareAndSet(false, true);
+  }
+
+  /**
+   * Marks the refill of the pool as finished.
+   */
+  void endRefill() {
+    refilling.set(false);
+  }
+
+  /**
+   * A process id that's been created in a process path and assigned to a
+   * machine, and the time the lease on it expires.
+   */
+  static final class Lease {
+
+    private final ProcessId process_id;
+    private final ProcessServiceAddress machine;
+    private final long expires_at;
+
+    Lease(ProcessId process_id, ProcessServiceAddress machine,
+          long expires_at) {
+      this.process_id = process_id;
+      this.machine = machine;
+      this.expires_at = expires_at;
+    }
+
+    ProcessId getProcessId() {
+      return process_id;
+    }
+
+    ProcessServiceAddress getMachine() {
+      return machine;
+    }
+
+  }
+
+}
@@ -41,13 +41,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -62,7 +62,8 @@ import org.json.JSONTokener;
  * @author Tobias Downer
  */
 
-final class ProcessInstanceImpl implements ProcessInstance {
+final class ProcessInstanceImpl
+                   implements ProcessInstance, DeliveryWatermark.Source {
 
   /**
    * The process log.
@@ -104,15 +105,10 @@ final class ProcessInstanceImpl implements ProcessInstance {
   private final ReentrantLock USER_CODE_LOCK = new ReentrantLock();
 
 
-  /**
-   * True if code is currently being executed.
-   */
-  private boolean currently_executing_code = false;
-
   /**
    * The function queue for this instance, and associated lock.
    */
-  private final FunctionQueue function_queue = new FunctionQueue();
+  private final FunctionQueue function_queue;
 
   /**
    * A map of ProcessChannel to the object managing it.
@@ -183,10 +179,25 @@ final class ProcessInstanceImpl implements ProcessInstance {
   private volatile long function_cpu_time_nano = 0;
 
   /**
-   * When true, this instance can not be cleaned up.
+   * The 'prevent remove' state of this instance. The low bits are a count of
+   * the 'prevent remove' locks on this instance. When EVICTED_BIT is set the
+   * instance has been (or is being) removed from the process set and no new
+   * locks can be acquired on it. All transitions are CAS'd so lookups and
+   * eviction don't need a shared lock.
    */
   private final AtomicInteger prevent_remove = new AtomicInteger(0);
 
+  /**
+   * The bit in 'prevent_remove' set when this instance is evicted.
+   */
+  private static final int EVICTED_BIT = 0x40000000;
+
+  /**
+   * True when this instance is on the process service maintenance dirty
+   * queue.
+   */
+  private final AtomicBoolean maintenance_dirty = new AtomicBoolean(false);
+
   /**
    * Atomic counter for 'function' calls where 'consumeMessage' is not called.
    */
@@ -203,6 +214,13 @@ final class ProcessInstanceImpl implements ProcessInstance {
    */
   private volatile BroadcastInstance broadcast_instance;
 
+  /**
+   * The lowest sequence value the next broadcast message may be given, so
+   * that the sequence values continue on from the messages of a previous
+   * run that are in the channel logs.
+   */
+  private volatile long min_broadcast_seq = 0;
+
   /**
    * The StateMap object for this instance.
    */
@@ -229,6 +247,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
     this.time_of_last_function = System.currentTimeMillis();
 
     this.state_map = new StateMapImpl();
+    this.function_queue = process_service.createFunctionQueue();
 
   }
 
@@ -249,6 +268,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
     this.time_of_last_function = System.currentTimeMillis();
 
     this.state_map = new StateMapImpl();
+    this.function_queue = process_service.createFunctionQueue();
 
   }
 
@@ -260,7 +280,11 @@ final class ProcessInstanceImpl implements ProcessInstance {
       // Instantiate it,
       synchronized (RESUME_LOCK) {
         if (broadcast_instance == null) {
-          broadcast_instance = new BroadcastInstance();
+          long first_seq = Math.max(
+                  System.currentTimeMillis() + 1, min_broadcast_seq);
+          broadcast_instance = new BroadcastInstance(first_seq,
+                        process_service.getBroadcastMaxMessages(),
+                        process_service.getBroadcastMaxBytes());
         }
       }
     }
@@ -390,6 +414,46 @@ final class ProcessInstanceImpl implements ProcessInstance {
     return true;
   }
 
+  /**
+   * Returns true if user code has interacted with this instance since it was
+   * last flushed.
+   */
+  boolean isInteractedSinceFlush() {
+    return interacted_since_flush;
+  }
+
+  /**
+   * Returns true if this instance has broadcast messages or listeners that
+   * will need to be expired by the maintenance task.
+   */
+  boolean hasBroadcastActivity() {
+    if (broadcast_instance != null) {
+      return !getBroadcastInstance().isIdle();
+    }
+    return false;
+  }
+
+  /**
+   * Puts this instance on the process service's maintenance dirty queue if
+   * it isn't already there. This should be called whenever something
+   * happens to this instance that the maintenance task needs to look at (it
+   * was interacted with, terminated, broadcast a message, etc).
+   */
+  void markMaintenanceDirty() {
+    if (maintenance_dirty.compareAndSet(false, true)) {
+      process_service.notifyInstanceDirty(process_id);
+    }
+  }
+
+  /**
+   * Called by the maintenance task before it looks at this instance. Any
+   * change to the instance after this is called will put the instance back
+   * on the dirty queue.
+   */
+  void clearMaintenanceDirty() {
+    maintenance_dirty.set(false);
+  }
+
   /**
    * Returns true if this instance is currently stale (the 'function' method
    * hasn't recently been called on this process).
@@ -425,11 +489,30 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
   /**
    * Adds a lock that prevents this instance from being removed when stale.
+   * This is unconditional and should only be used on an instance that isn't
+   * yet in the process set, or when the caller already holds a lock.
    */
   void preventRemoveLock() {
     prevent_remove.incrementAndGet();
   }
 
+  /**
+   * Tries to add a lock that prevents this instance from being removed when
+   * stale. Returns false if this instance has been evicted, in which case
+   * no lock is added and the instance should no longer be used.
+   */
+  boolean tryPreventRemoveLock() {
+    while (true) {
+      int v = prevent_remove.get();
+      if ((v & EVICTED_BIT) != 0) {
+        return false;
+      }
+      if (prevent_remove.compareAndSet(v, v + 1)) {
+        return true;
+      }
+    }
+  }
+
   /**
    * Removes a lock that prevents this instance from being removed when stale.
    */
@@ -441,7 +524,39 @@ final class ProcessInstanceImpl implements ProcessInstance {
    * False only when this instance has no 'prevent remove' locks.
    */
   boolean isPreventRemoveLocked() {
-    return prevent_remove.get() != 0;
+    return (prevent_remove.get() & ~EVICTED_BIT) != 0;
+  }
+
+  /**
+   * Marks this instance as evicted only if there are no 'prevent remove'
+   * locks on it. Returns true if the instance was evicted by this call.
+   */
+  boolean tryEvict() {
+    return prevent_remove.compareAndSet(0, EVICTED_BIT);
+  }
+
+  /**
+   * Marks this instance as evicted regardless of any 'prevent remove' locks.
+   * Returns true if the instance was evicted by this call, false if it was
+   * already evicted.
+   */
+  boolean forceEvict() {
+    while (true) {
+      int v = prevent_remove.get();
+      if ((v & EVICTED_BIT) != 0) {
+        return false;
+      }
+      if (prevent_remove.compareAndSet(v, v | EVICTED_BIT)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Returns true if this instance has been evicted from the process set.
+   */
+  boolean isEvicted() {
+    return (prevent_remove.get() & EVICTED_BIT) != 0;
   }
 
 
@@ -458,19 +573,22 @@ final class ProcessInstanceImpl implements ProcessInstance {
     // same classloader if it's the same account/application.
 
     synchronized (CL_LOCK) {
-      // Get the class loader from the service,
-      ProcessMckoiAppClassLoader class_loader =
-             process_service.getClassLoaderForApplication(account_application);
-      // If the cached version is null,
+      // If the cached version is null, acquire a reference to the current
+      // class loader from the pool,
       if (cached_process_class_loader == null) {
-        cached_process_class_loader = class_loader;
+        cached_process_class_loader =
+          process_service.acquireClassLoaderForApplication(account_application);
       }
       else {
+        // Get the class loader from the service,
+        ProcessMckoiAppClassLoader class_loader =
+             process_service.getClassLoaderForApplication(account_application);
         // Is it a different class loader?
         if (class_loader != cached_process_class_loader) {
           // Ok, the cached class loader is out of date so we mark the
           // instance as out of date,
           version_out_of_date = true;
+          markMaintenanceDirty();
           process_service.notifyOutOfDateProcessInstances(this);
 //          ProcessServerService.PROCESS_LOG.log(
 //                    Level.INFO, "Instance class loader version out of date");
@@ -548,6 +666,21 @@ final class ProcessInstanceImpl implements ProcessInstance {
     }
   }
 
+  /**
+   * Sets the 'value' field of the process object if it isn't set yet. An id
+   * with a populated 'value' is known to be in use, and is never reclaimed
+   * as an abandoned leased id. Returns true if the field was changed.
+   */
+  boolean setProcessValueIfUnset(ODBObject process_odb)
+                               throws PException, SuspendedProcessException {
+    if (!process_odb.getString("value").equals("")) {
+      return false;
+    }
+    process_odb.setString("value",
+                          createProcessValue(getAccountApplication()));
+    return true;
+  }
+
   /**
    * Adds a broadcast request for the given channel by the given connection.
    * This request should be valid for at least 4 minutes, but ideally for
@@ -567,21 +700,20 @@ final class ProcessInstanceImpl implements ProcessInstance {
     getBroadcastInstance().addBroadcastRequest(
                                   channel_num, connection, min_sequence_val);
 
+    // The connection will need to be expired by maintenance,
+    markMaintenanceDirty();
+
   }
 
   /**
-   * Returns all the broadcast messages between 'min_seq' and 'max_seq'
-   * inclusively in the order they were added to the queue. Will not include
-   * messages with a sequence value that's in the 'sent_sequences' set. If
-   * a message is returned in a list then the sequence value of the message
-   * is also added to the 'sent_sequences' set.
+   * Returns the broadcast message with the given sequence value, or null if
+   * the message isn't in the broadcast queue (it was never published or it
+   * has expired). A message with a sequence value lower than a value passed
+   * to 'notifyNewBroadcastMessage' is always published.
    */
-  List<PMessage> allBroadcastMessagesBetween(
-                long min_seq_val, long max_seq_val, Set<Long> sent_sequences) {
-
-    return getBroadcastInstance().allBroadcastMessagesBetween(
-                                   min_seq_val, max_seq_val, sent_sequences);
-
+  @Override
+  public PMessage getBroadcastMessage(long sequence_val) {
+    return getBroadcastInstance().getBroadcastMessage(sequence_val);
   }
 
   /**
@@ -652,10 +784,12 @@ final class ProcessInstanceImpl implements ProcessInstance {
 //  }
 
   /**
-   * Adds a signal to the start of the function queue.
+   * Adds a signal to the signal lane of the function queue. Throws
+   * ProcessUnavailableException if the function queue is full.
    */
-  void putSignalOnQueue(FunctionQueueItem item) {
-    function_queue.addFirstToFunctionQueue(item);
+  void putSignalOnQueue(FunctionQueueItem item)
+                                        throws ProcessUnavailableException {
+    function_queue.pushToFunctionQueue(item);
   }
 
   /**
@@ -668,18 +802,38 @@ final class ProcessInstanceImpl implements ProcessInstance {
              ProcessInputMessage.Type.SIGNAL_INVOKE, signal_message,
              null, null, null, false);
 
-    putSignalOnQueue(function_item);
+    // Anonymous signals come from the system (eg. kill signals) and are
+    // never rejected,
+    function_queue.forcePushToFunctionQueue(function_item);
 
   }
 
   /**
    * Pushes the given function queue item onto the function queue of this
-   * instance.
+   * instance. Throws ProcessUnavailableException if the function queue is
+   * full.
    */
-  void pushToFunctionQueue(FunctionQueueItem item) {
+  void pushToFunctionQueue(FunctionQueueItem item)
+                                        throws ProcessUnavailableException {
     function_queue.pushToFunctionQueue(item);
   }
 
+  /**
+   * Pushes a TIMED_CALLBACK message to the function queue of this instance,
+   * unless the process is terminated. This does not notify the process
+   * service that the queue changed, so the caller must call
+   * 'notifyMessagesAvailable' if this returns true.
+   */
+  boolean pushTimedCallback(int call_id, ProcessMessage msg) {
+    // If the process is terminated then the callback is dropped,
+    if (isTerminated()) {
+      return false;
+    }
+    function_queue.forcePushToFunctionQueue(new FunctionQueueItem(
+            call_id, Type.TIMED_CALLBACK, msg, null, null, null, false));
+    return true;
+  }
+
   /**
    * Returns true if the function queue of this instance is currently empty.
    */
@@ -696,51 +850,71 @@ final class ProcessInstanceImpl implements ProcessInstance {
               ProcessInputMessage.Type type,
               ChannelSessionState broadcast_session_state,
               int call_id,
-              Collection<ProcessMessage> msgs) {
+              Collection<ProcessMessage> msgs)
+                                        throws ProcessUnavailableException {
 
     if (msgs == null || msgs.isEmpty()) {
       return;
     }
-    for (ProcessMessage msg : msgs) {
+    try {
+      for (ProcessMessage msg : msgs) {
 
-      // Make the queue item and add it,
-      function_queue.pushToFunctionQueue(new FunctionQueueItem(
+        // Make the queue item and add it,
+        function_queue.pushToFunctionQueue(new FunctionQueueItem(
               call_id, type, msg, broadcast_session_state, null, null, false));
 
+      }
+    }
+    finally {
+      // Notify process service that the queue changed (even if the queue
+      // filled up part way through),
+      process_service.notifyMessagesAvailable(process_id);
     }
-
-    // Notify process service that the queue changed,
-    process_service.notifyMessagesAvailable(process_id);
 
   }
 
   private void pushToFunctionQueue(
               ProcessInputMessage.Type type,
               ChannelSessionState broadcast_session_state,
-              Collection<ProcessMessage> msgs) {
+              Collection<ProcessMessage> msgs)
+                                        throws ProcessUnavailableException {
     pushToFunctionQueue(type, broadcast_session_state, -1, msgs);
   }
 
-  private void pushToFunctionQueue(
-              ProcessInputMessage.Type type,
-              int call_id,
-              Collection<ProcessMessage> msgs) {
-    pushToFunctionQueue(type, null, call_id, msgs);
-  }
-
   /**
    * Internal thread-safe method that makes this instance suspended.
    */
   private void internalMakeSuspended() {
     suspended = true;
     synchronized (CL_LOCK) {
-      cached_process_object = null;
-      cached_process_class_loader = null;
+      releaseClassLoader();
       // Reset the version out of date flag,
       version_out_of_date = false;
     }
   }
 
+  /**
+   * Drops the process object and releases the reference to the class
+   * loader back to the pool. Must be called while holding CL_LOCK.
+   */
+  private void releaseClassLoader() {
+    cached_process_object = null;
+    if (cached_process_class_loader != null) {
+      process_service.releaseClassLoader(cached_process_class_loader);
+      cached_process_class_loader = null;
+    }
+  }
+
+  /**
+   * Releases the resources held by this instance after it has been
+   * terminated and removed from the process set.
+   */
+  void dispose() {
+    synchronized (CL_LOCK) {
+      releaseClassLoader();
+    }
+  }
+
   /**
    * Increments a counter on this object that's reset every time we consume
    * message.
@@ -789,8 +963,9 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
     @Override
     public void notifyMessages() {
-      // Delegate this to the thread pool,
-      process_service.getThreadPool().submit(new Runnable() {
+      // Delegate this to the thread pool, (retried later if the pool is
+      // saturated so the wake-up isn't lost)
+      process_service.executeOnThreadPool(new Runnable() {
         @Override
         public void run() {
           try {
@@ -989,6 +1164,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
         // Set the interacted flag,
         interacted_since_flush = true;
+        markMaintenanceDirty();
 
         // Call the user code and return the result,
         return r.run(process_object);
@@ -1050,6 +1226,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
           // Update analytics,
           function_cpu_time_nano += nano_time_taken;
+          process_service.addFunctionCPUTime(nano_time_taken);
           if (function_call_count >= 0) {
             function_call_count += 1;
           }
@@ -1089,22 +1266,10 @@ final class ProcessInstanceImpl implements ProcessInstance {
                     throws PException, IOException, SuspendedProcessException,
                            ProcessUserCodeException {
 
-    // Are we currently executing a user function?
-    function_queue.lock();
-    try {
-      // If not currently executing code and the function queue is empty,
-      if (!currently_executing_code &&
-          !function_queue.isFunctionQueueEmpty()) {
-        currently_executing_code = true;
-      }
-      // Return from this function if currently executing code or function
-      // queue is empty,
-      else {
-        return false;
-      }
-    }
-    finally {
-      function_queue.unlock();
+    // Return from this function if currently executing code or function
+    // queue is empty,
+    if (!function_queue.tryBeginExecution()) {
+      return false;
     }
 
     boolean exception_thrown = false;
@@ -1117,8 +1282,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
         function_queue.lock();
         try {
-          if (function_queue.isFunctionQueueEmpty()) {
-            currently_executing_code = false;
+          if (function_queue.endExecutionIfEmpty()) {
             PROCESS_LOG.log(Level.FINE, "-R:empty queue ({0})", first_try);
             return !first_try;
           }
@@ -1128,7 +1292,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
           // Break of no_consume count is over 16,
           if ((!first_try && no_consume_count > 16)) {
-            currently_executing_code = false;
+            function_queue.endExecution();
             PROCESS_LOG.log(Level.FINE, "-R:no_consume_count > 16");
             return true;
           }
@@ -1198,13 +1362,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
     }
     finally {
       if (exception_thrown) {
-        function_queue.lock();
-        try {
-          currently_executing_code = false;
-        }
-        finally {
-          function_queue.unlock();
-        }
+        function_queue.endExecution();
       }
     }
 
@@ -1253,6 +1411,55 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
   }
   
+  /**
+   * Writes the current state of this instance to the given process object.
+   * This is used to reapply a flush, suspend or reload that was written to a
+   * transaction that failed to commit. Unlike 'executeFlush', this may be
+   * called on a suspended instance.
+   */
+  void executeStateRewrite(final ODBObject process_odb)
+                               throws PException, SuspendedProcessException {
+
+    // Get the account application,
+    AccountApplication account_app = getAccountApplication();
+
+    try {
+      if (!state_map.tryLock(1000)) {
+        throw new PTimeoutException("State rewrite time out");
+      }
+    }
+    catch (InterruptedException e) {
+      throw new PException(e);
+    }
+    try {
+      // Get the state data object for this instance,
+      ODBData state_odbdata = process_odb.getData("state");
+      // Make sure the process object's 'value' is set correctly,
+      if (process_odb.getString("value").equals("")) {
+        process_odb.setString("value", createProcessValue(account_app));
+      }
+      interacted_since_flush = false;
+      // The previous write was never committed, so rewrite the whole map,
+      state_map.invalidateJournal();
+      state_map.serialize(state_odbdata);
+    }
+    finally {
+      state_map.unlock();
+    }
+
+  }
+
+  /**
+   * Flags that changes to the state of this instance were not saved because
+   * the maintenance commit failed. The instance will be written again in a
+   * later maintenance cycle.
+   */
+  void markStateUnsaved() {
+    state_map.invalidateJournal();
+    interacted_since_flush = true;
+    markMaintenanceDirty();
+  }
+
   /**
    * Executes a suspend operation on this process instance. This is called by
    * the system flush dispatcher thread only.
@@ -1448,6 +1655,116 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
   }
 
+  /**
+   * Writes a local snapshot of this instance to the given store. This is
+   * called when a suspended instance is evicted from the process set. A
+   * snapshot is only written if the instance is suspended and its state
+   * is known to be the same as the state committed to the database.
+   * 'version' is the snapshot version read before the instance was
+   * evicted. Returns true if a snapshot was written.
+   */
+  boolean writeSnapshot(ProcessSnapshotStore snapshot_store, long version) {
+
+    AccountApplication account_app = account_application;
+    String pname = process_name;
+    if (!suspended || terminated || interacted_since_flush ||
+        account_app == null || pname == null) {
+      return false;
+    }
+
+    Map<String, String> state;
+    try {
+      if (!state_map.tryLock(100)) {
+        return false;
+      }
+    }
+    catch (InterruptedException e) {
+      return false;
+    }
+    try {
+      state = state_map.copyState();
+    }
+    finally {
+      state_map.unlock();
+    }
+
+    return snapshot_store.write(process_id, version,
+                      account_app, pname, getNextBroadcastSequence(), state);
+
+  }
+
+  /**
+   * Executes a resume operation on this instance from a local snapshot.
+   * This is the same as 'executeResume' except the process information and
+   * state is set from the snapshot rather than a process ODBObject.
+   * <p>
+   * Returns true if the process was resumed. False if the process failed to
+   * resume (this can happen if the instance is not suspended).
+   */
+  boolean executeResume(final ProcessSnapshotStore.Snapshot snapshot)
+                                throws PException, ProcessUserCodeException {
+
+    synchronized (RESUME_LOCK) {
+      if (account_application == null) {
+        // Set the account details for this instance,
+        account_application = snapshot.getAccountApplication();
+        process_name = snapshot.getProcessName();
+      }
+    }
+    seedBroadcastSequence(snapshot.getNextBroadcastSequence());
+
+    // Note we timeout after 10 seconds if we aren't able to resume.
+    try {
+      Boolean resume = (Boolean) executeUserCode(10000, new UserCodeRunner() {
+        @Override
+        public Object run(ProcessOperation process_object)
+                                 throws PException, ProcessUserCodeException {
+
+          // If it's not suspended,
+          if (!suspended) {
+            return false;
+          }
+
+          // Call the user code 'resume' function and return the result,
+          try {
+            // Restore from the snapshot,
+            state_map.restoreState(snapshot.getState());
+            process_object.resume(ProcessInstanceImpl.this);
+          }
+          catch (Throwable e) {
+            // Wrap any exception thrown in a ProcessUserCodeException
+            throw new ProcessUserCodeException(e);
+          }
+
+          // Mark the instance as not suspended,
+          suspended = false;
+          // Log,
+          if (ProcessServerService.PROCESS_LOG.isLoggable(Level.FINER)) {
+            ProcessServerService.PROCESS_LOG.log(Level.FINER,
+                              "Resumed from snapshot: {0}", process_id_str);
+          }
+
+          return true;
+        }
+
+      });
+
+      // Reset the 'interacted_since_flush' flag after a successfull resume
+      interacted_since_flush = false;
+
+      return resume;
+
+    }
+    catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    catch (SuspendedProcessException e) {
+      // Shouldn't be possible,
+      throw new RuntimeException(e);
+    }
+
+  }
+
   /**
    * Executes a reload operation on this process instance. A reload will
    * perform a suspend followed immediately by a resume across a reloaded
@@ -1573,12 +1890,13 @@ final class ProcessInstanceImpl implements ProcessInstance {
   @Override
   public void close() {
     terminated = true;
+    markMaintenanceDirty();
   }
 
   @Override
   public int scheduleCallback(long time_wait, final ProcessMessage msg) {
 
-    // Use the 'process_service' schedule callback timer to push a
+    // Use the 'process_service' callback scheduler to push a
     // 'TIMED_CALLBACK' message into the queue,
 
     // Create a unique call_id,
@@ -1588,29 +1906,16 @@ final class ProcessInstanceImpl implements ProcessInstance {
     final ProcessMessage nullfix_msg =
                   (msg == null) ? ByteArrayProcessMessage.nullMessage() : msg;
 
-    TimerTask callback_task = new TimerTask() {
-      @Override
-      public void run() {
-        try {
-          // If the process is not terminated then do a timed callback,
-          if (!isTerminated()) {
-            pushToFunctionQueue(Type.TIMED_CALLBACK, call_id,
-                                Collections.singleton(nullfix_msg));
-          }
-        }
-        catch (Throwable e) {
-          e.printStackTrace(System.err);
-        }
-      }
-    };
-
     // Immediate callback,
     if (time_wait <= 0) {
-      callback_task.run();
+      if (pushTimedCallback(call_id, nullfix_msg)) {
+        process_service.notifyMessagesAvailable(process_id);
+      }
     }
     else {
-      // Otherwise schedule via a timer,
-      process_service.doScheduleCallback(callback_task, time_wait);
+      // Otherwise schedule on the callback wheel,
+      process_service.doScheduleCallback(
+                                  this, call_id, nullfix_msg, time_wait);
     }
 
     // Return the call id,
@@ -1760,9 +2065,6 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
     BroadcastInstance bci = getBroadcastInstance();
 
-    // Make a unique sequence value for this message,
-    long sequence_uid = bci.createUniqueSequenceValue();
-
     // Copy it into a message,
     byte[] header = ProcessServerService.createHeader(
               process_id, channel_number, CommConstants.BROADCAST_MESSAGE_CC);
@@ -1772,7 +2074,8 @@ final class ProcessInstanceImpl implements ProcessInstance {
     DataOutputStream dout = new DataOutputStream(bout);
     try {
       dout.write(header);
-      dout.writeLong(sequence_uid);
+      // The sequence value is set when the message is published,
+      dout.writeLong(0);
       dout.writeLong(System.currentTimeMillis());
       message.writeTo(new SecureWrappedOutputStream(dout));
       dout.flush();
@@ -1782,18 +2085,73 @@ final class ProcessInstanceImpl implements ProcessInstance {
       throw new PRuntimeException(e);
     }
 
-    // Turn it into a PMessage,
+    // Publish the message on the broadcast queue of the instance, which
+    // gives it a unique sequence value,
     byte[] msg_buf = bout.toByteArray();
-    PMessage msg = new PMessage(msg_buf);
-
-    // Now push the generated PMessage onto the message queue for the channel,
-    bci.pushMessageToBroadcastQueue(msg);
+    long sequence_uid =
+                    bci.pushMessageToBroadcastQueue(channel_number, msg_buf);
 
     // Notify the connections that are interested in this process,
     // We pipe the notification through the 'process_service' so we can buffer
     // the notifications together.
     process_service.notifyNewBroadcastMessage(this, sequence_uid);
 
+    // The message will need to be expired by maintenance,
+    markMaintenanceDirty();
+
+  }
+
+  @Override
+  public void setChannelDurable(int channel_number, boolean durable) {
+    getBroadcastInstance().setChannelDurable(channel_number, durable);
+  }
+
+  /**
+   * Makes sure the broadcast messages of this instance are given sequence
+   * values of at least 'next_seq'. Called when the process is resumed with
+   * the value after the last sequence value logged by a previous run.
+   */
+  void seedBroadcastSequence(long next_seq) {
+    synchronized (RESUME_LOCK) {
+      min_broadcast_seq = Math.max(min_broadcast_seq, next_seq);
+      if (broadcast_instance != null) {
+        broadcast_instance.broadcast_queue.advanceTo(next_seq);
+      }
+    }
+  }
+
+  /**
+   * Returns the lowest sequence value the next broadcast message of this
+   * instance may be given, to be kept with a snapshot of the process.
+   */
+  long getNextBroadcastSequence() {
+    BroadcastInstance bi = broadcast_instance;
+    if (bi != null) {
+      return Math.max(min_broadcast_seq,
+                      bi.broadcast_queue.getNextSequence());
+    }
+    return min_broadcast_seq;
+  }
+
+  /**
+   * Removes and returns the messages broadcast on durable channels of this
+   * instance that need to be written to the channel log, in sequence order.
+   */
+  List<PMessage> takeDurableBroadcastMessages() {
+    if (broadcast_instance != null) {
+      return getBroadcastInstance().takeDurablePending();
+    }
+    return Collections.<PMessage>emptyList();
+  }
+
+  /**
+   * Puts back the messages taken by 'takeDurableBroadcastMessages' after
+   * they failed to be written to the channel log. They are written again by
+   * a later maintenance cycle.
+   */
+  void returnDurableBroadcastMessages(List<PMessage> msgs) {
+    getBroadcastInstance().returnDurablePending(msgs);
+    markMaintenanceDirty();
   }
 
   @Override
@@ -1834,17 +2192,13 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
   private static class BroadcastInstance {
 
-    /**
-     * A unique sequence value. Initialized to System.currentTimeMillis and
-     * incremented for each broadcast message.
-     */
-    private final AtomicLong broadcast_seq_value;
-
     /**
      * The broadcast queue for this process. Every message broadcast will be
-     * put on this queue.
+     * put on this queue. The sequence values start at
+     * System.currentTimeMillis and are incremented for each broadcast
+     * message.
      */
-    private final QueueList broadcast_queue;
+    private final BroadcastRing broadcast_queue;
 
     /**
      * The list of all connections we are sending broadcast messages to for
@@ -1863,20 +2217,26 @@ final class ProcessInstanceImpl implements ProcessInstance {
      */
     private volatile long last_queue_clean = 0;
 
-
-    private BroadcastInstance() {
-      broadcast_seq_value = new AtomicLong(System.currentTimeMillis());
-      broadcast_queue = new QueueList();
-      connection_list = new ArrayList(2);
-      connection_timestamp_list = new ArrayList(2);
-    }
+    /**
+     * The durable channels of this process.
+     */
+    private final Set<Integer> durable_channels =
+         Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 
     /**
-     * Creates a unique sequence value for a broadcast message from this
-     * process instance.
+     * The messages broadcast on durable channels that are not yet written
+     * to the channel log, in sequence order. Messages are published and
+     * added to this list under a lock on 'durable_channels' so the order is
+     * kept.
      */
-    private long createUniqueSequenceValue() {
-      return broadcast_seq_value.incrementAndGet();
+    private List<PMessage> durable_pending = new ArrayList(0);
+
+
+    private BroadcastInstance(long first_seq,
+                              int max_messages, long max_bytes) {
+      broadcast_queue = new BroadcastRing(first_seq, max_messages, max_bytes);
+      connection_list = new ArrayList(2);
+      connection_timestamp_list = new ArrayList(2);
     }
 
     /**
@@ -1932,38 +2292,7 @@ final class ProcessInstanceImpl implements ProcessInstance {
       long time_now = System.currentTimeMillis();
       long two_mins_ago = time_now - (2 * 60 * 1000);
       last_queue_clean = time_now;
-      int count = 0;
-      synchronized (broadcast_queue) {
-        QueueMessage msg = broadcast_queue.getFirst();
-        while (msg != null) {
-
-          ByteBuffer bb = msg.getMessage().asByteBuffer();
-          long bm_timestamp = bb.getLong(28);
-
-          // Preserve all the messages sooner than 2 mins ago,
-          if (bm_timestamp >= two_mins_ago) {
-            // If count is 0 then there's nothing to clear,
-            if (count == 0) {
-              return 0;
-            }
-            // Break the loop,
-            break;
-          }
-
-          msg = msg.getNext();
-          ++count;
-
-        }
-        // If 'msg' is null, we hit the end of the queue so clear the entire
-        // queue,
-        if (msg == null) {
-          broadcast_queue.clear();
-        }
-        else {
-          broadcast_queue.setToTail(msg);
-        }
-      }
-      return count;
+      return broadcast_queue.cleanOlderThan(two_mins_ago);
     }
 
     /**
@@ -1981,99 +2310,78 @@ final class ProcessInstanceImpl implements ProcessInstance {
     }
 
     /**
-     * Returns all the broadcast messages between 'min_seq' and 'max_seq'
-     * inclusively in the order they were added to the queue. Will not include
-     * messages with a sequence value that's in the 'sent_sequences' set. If
-     * a message is returned in a list then the sequence value of the message
-     * is also added to the 'sent_sequences' set.
+     * Returns the broadcast message with the given sequence value, or null
+     * if it's not in the queue.
      */
-    private List<PMessage> allBroadcastMessagesBetween(
-                  long min_seq, long max_seq, Set<Long> sent_sequences) {
-
-      List<PMessage> to_send = new ArrayList();
-      synchronized (broadcast_queue) {
-
-        // Search the queue backwards,
-        QueueMessage msg = broadcast_queue.getLast();
-
-        while (msg != null) {
-          PMessage pmsg = msg.getMessage();
-          // Get the sequence value of the message,
-          long msg_seq_val = pmsg.getSequenceValue();
-
-          // If it's less than we sent all the messages after,
-          if (msg_seq_val < min_seq) {
-            break;
-          }
-
-          // Add the message to send,
-          if ( msg_seq_val <= max_seq &&
-                            ( sent_sequences == null ||
-                              !sent_sequences.contains(msg_seq_val) ) ) {
-            sent_sequences.add(msg_seq_val);
-            to_send.add(pmsg);
-          }
-
-          // Go to the previous message,
-          msg = msg.getPrevious();
-        }
-
-      }
-
-      // Reverse the list,
-      Collections.reverse(to_send);
-      // And return it,
-      return to_send;
-
+    private PMessage getBroadcastMessage(long sequence_val) {
+      return broadcast_queue.get(sequence_val);
     }
 
     /**
      * Returns a list of all PMessage from the broadcast queue with a sequence
-     * number greater than the given. The returned list will be ordered by
-     * newest message first (so read the list in reverse for chronological
-     * order).
+     * number greater than the given, in the order they were added to the
+     * queue.
      */
     private List<PMessage> allBroadcastMessagesAfter(long min_sequence_val) {
+      return broadcast_queue.messagesBetween(
+                                        min_sequence_val + 1, Long.MAX_VALUE);
+    }
 
-      List<PMessage> to_send = new ArrayList();
-      synchronized (broadcast_queue) {
-
-        // Search the queue backwards,
-        QueueMessage msg = broadcast_queue.getLast();
-
-        while (msg != null) {
-          PMessage pmsg = msg.getMessage();
-
-          // Get the sequence value of the message,
-          ByteBuffer bb = pmsg.asByteBuffer();
-          long msg_seq_val = bb.getLong(20);
-          // If it's less than we sent all the messages after,
-          if (msg_seq_val <= min_sequence_val) {
-            break;
-          }
-
-          // Add the message to send,
-          to_send.add(pmsg);
-
-          // Go to the previous message,
-          msg = msg.getPrevious();
+    /**
+     * Puts a message on the broadcast queue and returns the sequence value
+     * given to it.
+     */
+    private long pushMessageToBroadcastQueue(
+                                       int channel_number, byte[] msg_buf) {
+      long sequence_val;
+      if (durable_channels.contains(channel_number)) {
+        synchronized (durable_channels) {
+          sequence_val = broadcast_queue.publish(msg_buf);
+          durable_pending.add(new PMessage(msg_buf));
         }
-
       }
+      else {
+        sequence_val = broadcast_queue.publish(msg_buf);
+      }
+      // Clean the queue if necessary,
+      periodicClean();
+      return sequence_val;
+    }
 
-      return to_send;
+    /**
+     * Sets whether messages broadcast on the channel are written to the
+     * channel log.
+     */
+    private void setChannelDurable(int channel_number, boolean durable) {
+      if (durable) {
+        durable_channels.add(channel_number);
+      }
+      else {
+        durable_channels.remove(channel_number);
+      }
+    }
 
+    /**
+     * Removes and returns the messages broadcast on durable channels that
+     * are not yet written to the channel log.
+     */
+    private List<PMessage> takeDurablePending() {
+      synchronized (durable_channels) {
+        List<PMessage> msgs = durable_pending;
+        if (!msgs.isEmpty()) {
+          durable_pending = new ArrayList();
+        }
+        return msgs;
+      }
     }
 
     /**
-     * Puts a message on the broadcast queue.
+     * Puts back messages returned by 'takeDurablePending' that could not be
+     * written to the channel log.
      */
-    private void pushMessageToBroadcastQueue(PMessage msg) {
-      synchronized (broadcast_queue) {
-        // Add to the broadcast queue,
-        broadcast_queue.add(new QueueMessage(null, msg));
-        // Clean the queue if necessary,
-        periodicClean();
+    private void returnDurablePending(List<PMessage> msgs) {
+      synchronized (durable_channels) {
+        durable_pending.addAll(0, msgs);
       }
     }
 
@@ -2086,11 +2394,9 @@ final class ProcessInstanceImpl implements ProcessInstance {
 
       List<PMessage> to_send = allBroadcastMessagesAfter(min_sequence_val);
 
-      // Send the messages (backwards iteration),
+      // Send the messages,
       if (!to_send.isEmpty()) {
-        ListIterator<PMessage> li = to_send.listIterator(to_send.size());
-        while (li.hasPrevious()) {
-          PMessage msg = li.previous();
+        for (PMessage msg : to_send) {
           connection.sendFirstMessage(msg);
         }
         connection.flushSendMessages();
@@ -2162,6 +2468,24 @@ final class ProcessInstanceImpl implements ProcessInstance {
       }
     }
 
+    /**
+     * Returns true if there are no messages in the broadcast queue and no
+     * connections listening on this instance.
+     */
+    private boolean isIdle() {
+      if (!broadcast_queue.isEmpty()) {
+        return false;
+      }
+      synchronized (durable_channels) {
+        if (!durable_pending.isEmpty()) {
+          return false;
+        }
+      }
+      synchronized (connection_list) {
+        return connection_list.isEmpty();
+      }
+    }
+
   }
 
   /**
@@ -2201,8 +2525,8 @@ final class ProcessInstanceImpl implements ProcessInstance {
       ProcessFunctionError error = result_msg.getError();
       ProcessMessage msg = result_msg.getMessage();
 
-      // Push onto the queue
-      function_queue.pushToFunctionQueue(new FunctionQueueItem(
+      // Push onto the queue (replies are never rejected),
+      function_queue.forcePushToFunctionQueue(new FunctionQueueItem(
                     call_id, result_type, msg, null, error, null, false));
 
       // And notify process service that the queue changed,
@@ -2242,8 +2566,8 @@ final class ProcessInstanceImpl implements ProcessInstance {
           ProcessFunctionError error = result_msg.getError();
           ProcessMessage process_msg = result_msg.getMessage();
 
-          // Push onto the queue
-          function_queue.pushToFunctionQueue(new FunctionQueueItem(
+          // Push onto the queue (replies are never rejected),
+          function_queue.forcePushToFunctionQueue(new FunctionQueueItem(
               call_id, result_type, process_msg, null, error, null, false));
 
           // And notify process service that the queue changed,
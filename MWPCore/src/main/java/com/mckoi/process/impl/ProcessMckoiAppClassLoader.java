@@ -39,6 +39,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The class loader used to run user processes in an application. This uses
@@ -89,6 +90,11 @@ public final class ProcessMckoiAppClassLoader extends URLClassLoader {
    */
   private long last_db_check;
 
+  /**
+   * The number of classes defined by this class loader.
+   */
+  private final AtomicInteger defined_class_count = new AtomicInteger(0);
+
   /**
    * Constructs the class loader using the class loader of this class as the
    * parent.
@@ -135,6 +141,13 @@ public final class ProcessMckoiAppClassLoader extends URLClassLoader {
     return last_db_check;
   }
 
+  /**
+   * Returns the number of classes defined by this class loader.
+   */
+  int getDefinedClassCount() {
+    return defined_class_count.get();
+  }
+
   /**
    * Returns the current version snapshot being used in this class loader.
    * This will always return a recent version of the database that contains
@@ -153,7 +166,9 @@ public final class ProcessMckoiAppClassLoader extends URLClassLoader {
 //    System.out.println("ProcessMckoiAppClassLoader.findClass (" + name + ")");
 
     try {
-      return super.findClass(name);
+      Class<?> c = super.findClass(name);
+      defined_class_count.incrementAndGet();
+      return c;
     }
     catch (ClassNotFoundException ex) {
 //      System.out.println("NOOO, We can't find you!!");
@@ -37,9 +37,12 @@ import com.mckoi.odb.ODBTransaction;
 import com.mckoi.odb.util.FileInfo;
 import com.mckoi.odb.util.FileName;
 import com.mckoi.odb.util.FileSystemImpl;
+import com.mckoi.process.ProcessChannel;
 import com.mckoi.process.ProcessId;
 import com.mckoi.process.ProcessInputMessage;
 import com.mckoi.process.ProcessMessage;
+import com.mckoi.process.ProcessResultNotifier;
+import com.mckoi.process.ProcessUnavailableException;
 import com.mckoi.util.ByteArrayUtil;
 import com.mckoi.webplatform.LogPageEvent;
 import com.mckoi.webplatform.impl.LoggerService;
@@ -55,9 +58,12 @@ import java.security.PrivilegedAction;
 import java.security.SecureRandom;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -95,6 +101,18 @@ public class ProcessServerService implements PEnvironment {
 //  // DEBUG VALUE
 //  public static final int MAINT_FREQUENCY_TIME = 4 * 1000;
 
+  /**
+   * Frequency between load reports sent to the connected clients.
+   */
+  public static final int LOAD_REPORT_FREQUENCY_TIME = 2 * 1000;
+
+  /**
+   * Frequency of the maintenance on the relayed broadcast channels. This
+   * must be less than the 4 minutes after which broadcast queue notifiers
+   * are cleared.
+   */
+  public static final int RELAY_MAINT_FREQUENCY_TIME = 60 * 1000;
+
   /**
    * The timeout since an instance was lasted interacted with that will signal
    * the instance be removed from the process set. This must be a value much
@@ -135,6 +153,37 @@ public class ProcessServerService implements PEnvironment {
    */
   private final ProcessSet process_set;
 
+  /**
+   * The total function CPU time of all the processes run on this server.
+   * Unlike a sum over the managed processes, this never goes down when a
+   * process is removed.
+   */
+  private final AtomicLong function_cpu_time_total = new AtomicLong(0);
+
+  /**
+   * The maximum number of times the maintenance on a process path will try
+   * to commit before giving up until the next cycle.
+   */
+  private static final int MAINT_COMMIT_ATTEMPTS = 4;
+
+  /**
+   * The delay before retrying a maintenance commit (multiplied by the
+   * attempt number). This must be longer than the time a sessions cache
+   * snapshot may be out of date.
+   */
+  private static final int MAINT_COMMIT_RETRY_DELAY = 1200;
+
+  /**
+   * Maintenance on a process path taking longer than this is reported as a
+   * warning in the log.
+   */
+  private static final int MAINT_SLOW_PATH_TIME = 10 * 1000;
+
+  /**
+   * The process instances that the maintenance task needs to look at.
+   */
+  private final MaintenanceSchedule maintenance_schedule;
+
   /**
    * A log of all modifications made to process paths.
    */
@@ -151,20 +200,98 @@ public class ProcessServerService implements PEnvironment {
   private Timer process_timer;
 
   /**
-   * The callback scheduler timer.
+   * The callback scheduler timing wheel.
+   */
+  private CallbackScheduler callback_scheduler;
+
+  /**
+   * The thread pool that performs maintenance on the process paths, and the
+   * number of threads in the pool.
+   */
+  private ProcessExecutor maintenance_pool;
+  private int maintenance_thread_count;
+
+  /**
+   * The thread pool that runs queries and user code on process instances,
+   * and its configuration.
+   */
+  private ProcessExecutor function_pool;
+  private int function_thread_count;
+  private int function_pool_queue_size;
+  private long function_hand_off_ms;
+
+  /**
+   * The capacity and overflow policy of the function queue of each process
+   * instance. Set from the configuration by 'init'.
+   */
+  private int function_queue_capacity = FunctionQueue.DEFAULT_CAPACITY;
+  private FunctionQueue.OverflowPolicy function_queue_overflow =
+                                        FunctionQueue.OverflowPolicy.REJECT;
+
+  /**
+   * The maximum number of broadcast messages (a power of 2), and the
+   * maximum number of bytes of broadcast messages, kept by each process
+   * instance.
+   */
+  private int broadcast_max_messages;
+  private long broadcast_max_bytes;
+
+  /**
+   * The time in milliseconds the messages of a durable channel are kept in
+   * the channel log.
+   */
+  private long channel_log_retention;
+
+  /**
+   * The process paths with channel logs that this server wrote to or
+   * resumed a process from, and the time the logs on the path were last
+   * swept for expired segments.
+   */
+  private final ConcurrentMap<Byte, Long> channel_log_paths =
+                                                    new ConcurrentHashMap<>();
+
+  /**
+   * How often the channel logs of a process path are swept for expired
+   * segments (the logs written to are also expired on append).
+   */
+  private static final long CHANNEL_LOG_SWEEP_TIME = 10 * 60 * 1000;
+
+  /**
+   * The store of local snapshots of evicted processes, or null if local
+   * snapshots are disabled.
+   */
+  private ProcessSnapshotStore snapshot_store;
+
+  /**
+   * The process paths that currently have maintenance running.
    */
-  private Timer callback_scheduler;
+  private final Set<Byte> paths_in_maintenance =
+       Collections.newSetFromMap(new ConcurrentHashMap<Byte, Boolean>());
 
   /**
-   * A thread used to dispatch 'function' calls to process operations.
+   * Dispatches 'function' calls to process operations over a number of
+   * threads. Each process id is always dispatched by the same thread
+   * (chosen by the hash of the process id).
    */
-  private FunctionDispatcherThread function_dispatcher;
+  private FunctionDispatcher function_dispatcher;
+  private int dispatch_thread_count;
+
+  /**
+   * The number of selector loops that read from inbound connections.
+   */
+  private int selector_thread_count;
 
   /**
    * The process thread pool.
    */
   private ExecutorService thread_pool;
 
+  /**
+   * Relays the broadcast messages of processes on other servers to the
+   * clients that ask this server for them.
+   */
+  private BroadcastRelay broadcast_relay;
+
   /**
    * Allowed system classes.
    */
@@ -195,10 +322,9 @@ public class ProcessServerService implements PEnvironment {
   private volatile long last_load_db_time;
 
   /**
-   * The map of application class loaders in this service.
+   * The pool of application class loaders in this service.
    */
-  private final
-    Map<AccountApplication, ProcessMckoiAppClassLoader> app_classloaders_cache;
+  private ClassLoaderPool class_loader_pool;
 
   /**
    * A map used for broadcast event dispatching.
@@ -226,8 +352,8 @@ public class ProcessServerService implements PEnvironment {
   public ProcessServerService() {
     this.allowed_ip_list = new ArrayList(0);
     this.process_set = new ProcessSet();
+    this.maintenance_schedule = new MaintenanceSchedule(MAINT_FREQUENCY_TIME);
     this.process_modify_log = new ArrayList(64);
-    this.app_classloaders_cache = new HashMap();
     this.account_info_cache = new HashMap();
   }
 
@@ -362,6 +488,123 @@ public class ProcessServerService implements PEnvironment {
       String net_interface = web_config.getProperty("net_interface", null);
       process_port = Integer.parseInt(process_port_str);
 
+      // The capacity and overflow policy of process function queues,
+      function_queue_capacity = Integer.parseInt(
+                web_config.getProperty("process_function_queue_capacity",
+                          Integer.toString(FunctionQueue.DEFAULT_CAPACITY)));
+      if (function_queue_capacity < 1) {
+        throw new RuntimeException("'process_function_queue_capacity' < 1");
+      }
+      String overflow_str = web_config.getProperty(
+                          "process_function_queue_overflow", "reject");
+      if (overflow_str.equals("reject")) {
+        function_queue_overflow = FunctionQueue.OverflowPolicy.REJECT;
+      }
+      else if (overflow_str.equals("drop_oldest_signal")) {
+        function_queue_overflow =
+                          FunctionQueue.OverflowPolicy.DROP_OLDEST_SIGNAL;
+      }
+      else {
+        throw new RuntimeException(
+              "Unknown 'process_function_queue_overflow': " + overflow_str);
+      }
+
+      // The limits on the broadcast messages kept by each process (in
+      // addition to the 2 minute age limit),
+      int max_messages = Integer.parseInt(
+                web_config.getProperty("process_broadcast_max_messages",
+                                       "4096"));
+      broadcast_max_bytes = Long.parseLong(
+                web_config.getProperty("process_broadcast_max_bytes",
+                                       Integer.toString(4 * 1024 * 1024)));
+      if (max_messages < 1) {
+        throw new RuntimeException("'process_broadcast_max_messages' < 1");
+      }
+      if (broadcast_max_bytes < 1) {
+        throw new RuntimeException("'process_broadcast_max_bytes' < 1");
+      }
+      // Round up to a power of 2,
+      broadcast_max_messages = Integer.highestOneBit(max_messages);
+      if (broadcast_max_messages < max_messages) {
+        broadcast_max_messages <<= 1;
+      }
+
+      // The time the messages of durable channels are logged for,
+      long retention_minutes = Long.parseLong(
+                web_config.getProperty(
+                        "process_channel_log_retention_minutes", "1440"));
+      if (retention_minutes < 1) {
+        throw new RuntimeException(
+                        "'process_channel_log_retention_minutes' < 1");
+      }
+      channel_log_retention = retention_minutes * 60 * 1000;
+
+      // Local snapshots of evicted processes are kept in the temporary
+      // folder. Setting 'process_snapshot_ttl' to 0 disables them,
+      long snapshot_ttl = Long.parseLong(
+              web_config.getProperty("process_snapshot_ttl", "3600000"));
+      if (snapshot_ttl > 0) {
+        String temporary_dir =
+                      web_config.getProperty("temporary_dir", "./temp/");
+        File snapshot_folder =
+                      new File(temporary_dir, "process_snapshots");
+        snapshot_store = new ProcessSnapshotStore(
+                              snapshot_folder.getCanonicalFile(), snapshot_ttl);
+      }
+
+      // The maximum number of out of date processes reloaded per second,
+      double reload_rate = Double.parseDouble(
+                      web_config.getProperty("process_reload_rate", "20"));
+      if (reload_rate <= 0) {
+        throw new RuntimeException("'process_reload_rate' <= 0");
+      }
+      class_loader_pool = new ClassLoaderPool(reload_rate);
+
+      // The number of function dispatcher threads (defaults to the number
+      // of available processors),
+      dispatch_thread_count = Integer.parseInt(
+                web_config.getProperty("process_dispatch_threads",
+                    Integer.toString(
+                        Runtime.getRuntime().availableProcessors())));
+      if (dispatch_thread_count < 1) {
+        throw new RuntimeException("'process_dispatch_threads' < 1");
+      }
+
+      // The number of selector loops reading from inbound connections
+      // (defaults to the number of available processors),
+      selector_thread_count = Integer.parseInt(
+                web_config.getProperty("process_selector_threads",
+                    Integer.toString(
+                        Runtime.getRuntime().availableProcessors())));
+      if (selector_thread_count < 1) {
+        throw new RuntimeException("'process_selector_threads' < 1");
+      }
+
+      // The number of threads, and the size of the queue, of the pool that
+      // runs queries and user code on process instances,
+      function_thread_count = Integer.parseInt(
+                    web_config.getProperty("process_function_threads", "48"));
+      function_pool_queue_size = Integer.parseInt(
+                web_config.getProperty("process_function_pool_queue", "8192"));
+      if (function_thread_count < 1 || function_pool_queue_size < 1) {
+        throw new RuntimeException(
+          "'process_function_threads' or 'process_function_pool_queue' < 1");
+      }
+      // The time a dispatcher or IO thread waits for space in the function
+      // pool queue before the query is rejected,
+      function_hand_off_ms = Long.parseLong(
+            web_config.getProperty("process_function_hand_off_ms", "2000"));
+      if (function_hand_off_ms < 0) {
+        throw new RuntimeException("'process_function_hand_off_ms' < 0");
+      }
+
+      // The number of threads used for process path maintenance,
+      maintenance_thread_count = Integer.parseInt(
+                    web_config.getProperty("process_maint_threads", "4"));
+      if (maintenance_thread_count < 1) {
+        throw new RuntimeException("'process_maint_threads' < 1");
+      }
+
       // The scope to bind the interface on,
       NetworkInterface to_scope_if = null;
       if (net_interface != null) {
@@ -428,9 +671,22 @@ public class ProcessServerService implements PEnvironment {
 
       this.process_bind_address = ip_addr;
 
-      // The thread pool (max of 256 concurrent threads),
+      // The thread pool for message handling,
       if (shared_thread_pool == null) {
-        this.thread_pool = Executors.newFixedThreadPool(48);
+        int io_thread_count = Integer.parseInt(
+                    web_config.getProperty("process_io_threads", "16"));
+        int io_queue_size = Integer.parseInt(
+                    web_config.getProperty("process_io_queue_size", "8192"));
+        if (io_thread_count < 1 || io_queue_size < 1) {
+          throw new RuntimeException(
+                  "'process_io_threads' or 'process_io_queue_size' < 1");
+        }
+        // This pool is fed by the selector threads which must never block,
+        // so a full queue rejects the task immediately,
+        ProcessExecutor io_pool = new ProcessExecutor("Process IO",
+                                    io_thread_count, io_queue_size, 0);
+        io_pool.registerMBean();
+        this.thread_pool = io_pool;
       }
       else {
         this.thread_pool = shared_thread_pool;
@@ -483,14 +739,80 @@ public class ProcessServerService implements PEnvironment {
 
     // The process timer thread,
     process_timer = new Timer("Mckoi Process Timer");
-    callback_scheduler = new Timer("Mckoi Callback Scheduler");
+    callback_scheduler =
+              new CallbackScheduler(this, CallbackScheduler.DEFAULT_TICK_MS);
+    callback_scheduler.start();
+
+    // Publish the class loader pool metrics,
+    class_loader_pool.registerMBean();
+
+    // Initialize the local snapshot store (deleting any snapshots from a
+    // previous run),
+    if (snapshot_store != null) {
+      try {
+        snapshot_store.init();
+      }
+      catch (IOException e) {
+        PROCESS_LOG.log(Level.WARNING,
+                        "Process snapshots disabled", e);
+        snapshot_store = null;
+      }
+    }
 
-    // Start the function dispatcher thread,
-    function_dispatcher = new FunctionDispatcherThread();
+    // The process path maintenance thread pool. There's never more than one
+    // task per process path so the queue is sized for all the paths,
+    maintenance_pool = new ProcessExecutor("Process Maintenance",
+                                maintenance_thread_count, 256, 0);
+    maintenance_pool.registerMBean();
+
+    // The thread pool that executes queries and user code on instances.
+    // When saturated the submitting thread waits a bounded time for space,
+    // which pushes back on the dispatcher or connection that produced it,
+    function_pool = new ProcessExecutor("Process Function",
+                function_thread_count, function_pool_queue_size,
+                function_hand_off_ms);
+    function_pool.registerMBean();
+
+    // Start the function dispatcher threads,
+    function_dispatcher = new FunctionDispatcher(dispatch_thread_count,
+                                    new FunctionDispatcher.Target() {
+      @Override
+      public void dispatch(ProcessId process_id) {
+        dispatchFunctionOperation(process_id);
+      }
+    });
     function_dispatcher.start();
 
+    // Relays broadcast channels to clients,
+    final ProcessClientService relay_client = process_client_service;
+    BroadcastRelay.Source relay_source = new BroadcastRelay.Source() {
+      @Override
+      public void startRelayingBroadcast(ProcessChannel process_channel) {
+        relay_client.startRelayingBroadcast(process_channel);
+      }
+      @Override
+      public void stopRelayingBroadcast(ProcessChannel process_channel) {
+        relay_client.stopRelayingBroadcast(process_channel);
+      }
+      @Override
+      public boolean isRelayedBroadcastClosed(
+                                        ProcessChannel process_channel) {
+        return relay_client.isRelayedBroadcastClosed(process_channel);
+      }
+      @Override
+      public List<PMessage> getRelayedMessages(
+              ProcessChannel process_channel, long sequence_value,
+              int consume_limit, ProcessResultNotifier notifier) {
+        return relay_client.getRelayedMessages(
+                process_channel, sequence_value, consume_limit, notifier);
+      }
+    };
+    broadcast_relay =
+          new BroadcastRelay(relay_source, thread_pool, process_timer);
+
     // Start the connection thread,
-    server_thread = new NIOServerThread(process_bind_address, process_port, this);
+    server_thread = new NIOServerThread(process_bind_address, process_port,
+                                        this, selector_thread_count);
     server_thread.start();
 
     // Initialize the log flushing mechanism to keep the sysprocess paths up
@@ -498,6 +820,19 @@ public class ProcessServerService implements PEnvironment {
     process_timer.scheduleAtFixedRate(new ProcessMaintenanceTimerTask(),
                                       15 * 1000, MAINT_FREQUENCY_TIME);
 
+    // Periodically tell the connected clients how loaded this server is so
+    // they can place new processes on less loaded servers,
+    process_timer.scheduleAtFixedRate(new LoadReportTimerTask(),
+                   LOAD_REPORT_FREQUENCY_TIME, LOAD_REPORT_FREQUENCY_TIME);
+
+    // Drop relayed channels that no client is listening to any more,
+    process_timer.scheduleAtFixedRate(new TimerTask() {
+      @Override
+      public void run() {
+        broadcast_relay.maintenance();
+      }
+    }, RELAY_MAINT_FREQUENCY_TIME, RELAY_MAINT_FREQUENCY_TIME);
+
   }
 
   /**
@@ -510,18 +845,27 @@ public class ProcessServerService implements PEnvironment {
       throw new RuntimeException("Already stopped");
     }
 
-    // Finish the function dispatcher,
+    // Finish the function dispatchers,
     function_dispatcher.finish();
     function_dispatcher = null;
 
     // Cancel the callback scheduler,
-    callback_scheduler.cancel();
+    callback_scheduler.stop();
     callback_scheduler = null;
 
     // Cancel the process and callback timers
     process_timer.cancel();
     process_timer = null;
 
+    // Stop the maintenance pool (maintenance already running on a path is
+    // allowed to finish),
+    maintenance_pool.shutdown();
+    maintenance_pool = null;
+
+    // Stop the function pool,
+    function_pool.shutdown();
+    function_pool = null;
+
     // Stop the accept thread,
     server_thread.finish();
     server_thread = null;
@@ -981,13 +1325,13 @@ public class ProcessServerService implements PEnvironment {
   ProcessMckoiAppClassLoader getClassLoaderForApplication(
                       final AccountApplication account_app) throws PException {
     // Check the cache
-    synchronized (app_classloaders_cache) {
+    synchronized (class_loader_pool) {
       // Get the class loader if there's one already defined,
-      ProcessMckoiAppClassLoader cl = app_classloaders_cache.get(account_app);
+      ProcessMckoiAppClassLoader cl = class_loader_pool.getCurrent(account_app);
       // If not defined,
       if (cl == null) {
         cl = createClassLoaderForApplication(null, account_app);
-        app_classloaders_cache.put(account_app, cl);
+        class_loader_pool.setCurrent(account_app, cl);
       }
       else {
         // If it is defined, is it time to refresh from the db?
@@ -996,13 +1340,35 @@ public class ProcessServerService implements PEnvironment {
         if (time_now > last_db_check + (4 * 1000)) {
           // Refresh the class loader if necessary,
           cl = createClassLoaderForApplication(cl, account_app);
-          app_classloaders_cache.put(account_app, cl);
+          class_loader_pool.setCurrent(account_app, cl);
         }
       }
       return cl;
     }
   }
 
+  /**
+   * Returns the current class loader for the given account/application
+   * with a reference added to it. The reference must be released with
+   * 'releaseClassLoader' when the caller no longer uses the class loader.
+   */
+  ProcessMckoiAppClassLoader acquireClassLoaderForApplication(
+                      final AccountApplication account_app) throws PException {
+    synchronized (class_loader_pool) {
+      ProcessMckoiAppClassLoader cl = getClassLoaderForApplication(account_app);
+      class_loader_pool.acquire(cl);
+      return cl;
+    }
+  }
+
+  /**
+   * Releases a reference to a class loader acquired with
+   * 'acquireClassLoaderForApplication'.
+   */
+  void releaseClassLoader(ProcessMckoiAppClassLoader cl) {
+    class_loader_pool.release(cl);
+  }
+
   /**
    * Fetches the process instance. This will always return a none-null
    * ProcessInstanceImpl object. Note that the returned process instance may
@@ -1035,6 +1401,21 @@ public class ProcessServerService implements PEnvironment {
                          ProcessInstanceImpl instance)
                                   throws PException, ProcessUserCodeException {
 
+    // If there's a local snapshot of the process, resume from it,
+    if (snapshot_store != null) {
+      ProcessSnapshotStore.Snapshot snapshot = snapshot_store.take(process_id);
+      if (snapshot != null) {
+        instance.executeResume(snapshot);
+        return;
+      }
+    }
+
+    // Resuming from the database, so make sure no snapshot of the process
+    // is left behind (or written by an eviction that's still in progress),
+    if (snapshot_store != null) {
+      snapshot_store.remove(process_id);
+    }
+
     // Get the process path and id string,
     String process_path = process_id.getProcessPath();
     String process_id_string = process_id.getStringValue();
@@ -1057,6 +1438,14 @@ public class ProcessServerService implements PEnvironment {
       throw new PException("Process not found");
     }
 
+    // Continue the broadcast sequence values on from the messages the
+    // process logged on a previous run,
+    long last_logged_seq = ChannelLog.getLastSequenceValue(t, process_id);
+    if (last_logged_seq >= 0) {
+      instance.seedBroadcastSequence(last_logged_seq + 1);
+      channel_log_paths.putIfAbsent(process_id.getPathValue(), 0L);
+    }
+
     // When this returns, the process should be resumed (even
     // if it returns false).
     instance.executeResume(process_odb);
@@ -1124,7 +1513,64 @@ public class ProcessServerService implements PEnvironment {
     }
 
     // Delegate the function,
-    getThreadPool().submit(new Runnable() {
+    try {
+      submitToFunctionPool(connection, process_id, call_id, query);
+    }
+    catch (RejectedExecutionException e) {
+      // The function pool stayed saturated for the hand-off time (counted
+      // by the pool's MXBean),
+      PROCESS_LOG.log(Level.FINE,
+                      "Function pool saturated, query rejected on {0}",
+                      process_id);
+      if (connection == null) {
+        // A function dispatch, so the messages are still on the function
+        // queue. Try the dispatch again a little later,
+        scheduleRedispatch(process_id);
+        return null;
+      }
+      return failMessage(process_id, call_id, "BUSY", e);
+    }
+
+    return null;
+
+  }
+
+  /**
+   * Notifies the function dispatcher about the given process after a
+   * short delay. Used when a dispatch couldn't be run because the function
+   * pool is saturated.
+   */
+  private void scheduleRedispatch(final ProcessId process_id) {
+    Timer timer = process_timer;
+    if (timer == null) {
+      return;
+    }
+    try {
+      timer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          FunctionDispatcher dispatcher = function_dispatcher;
+          if (dispatcher != null) {
+            dispatcher.notifyMessagesAvailable(process_id);
+          }
+        }
+      }, 100);
+    }
+    catch (IllegalStateException e) {
+      // The timer was cancelled (the service is stopping),
+    }
+  }
+
+  /**
+   * Runs the given query on the function pool, resuming the process
+   * instance if necessary. Any reply is sent on the connection.
+   */
+  private void submitToFunctionPool(final NIOConnection connection,
+                                    final ProcessId process_id,
+                                    final int call_id,
+                                    final ProcessQuery query) {
+
+    function_pool.submit(new Runnable() {
 
       /**
        * Thread pool invocation.
@@ -1233,8 +1679,29 @@ public class ProcessServerService implements PEnvironment {
 
     });
 
-    return null;
+  }
+
+  /**
+   * Creates a function queue for a process instance.
+   */
+  FunctionQueue createFunctionQueue() {
+    return new FunctionQueue(function_queue_capacity, function_queue_overflow);
+  }
+
+  /**
+   * Returns the maximum number of broadcast messages kept by a process
+   * instance (a power of 2).
+   */
+  int getBroadcastMaxMessages() {
+    return broadcast_max_messages;
+  }
 
+  /**
+   * Returns the maximum number of bytes of broadcast messages kept by a
+   * process instance.
+   */
+  long getBroadcastMaxBytes() {
+    return broadcast_max_bytes;
   }
 
   /**
@@ -1245,6 +1712,22 @@ public class ProcessServerService implements PEnvironment {
     function_dispatcher.notifyMessagesAvailable(process_id);
   }
 
+  /**
+   * Adds to the total function CPU time of the processes on this server.
+   * Called by an instance after each call of its 'function' method.
+   */
+  void addFunctionCPUTime(long nanos) {
+    function_cpu_time_total.addAndGet(nanos);
+  }
+
+  /**
+   * Notifies the maintenance task that the process instance with the given
+   * id has changed and needs to be looked at in the next maintenance cycle.
+   */
+  void notifyInstanceDirty(ProcessId process_id) {
+    maintenance_schedule.markDirty(process_id);
+  }
+
   // ----- Process functions -----
 
   /**
@@ -1337,7 +1820,13 @@ public class ProcessServerService implements PEnvironment {
         }
 
         // Put this item on the function queue,
-        process_instance.pushToFunctionQueue(function_item);
+        try {
+          process_instance.pushToFunctionQueue(function_item);
+        }
+        catch (ProcessUnavailableException e) {
+          // The function queue is full,
+          return failMessage(process_id, call_id, e.getMessage());
+        }
 
         // Notify that new messages are available to process on this instance,
         notifyMessagesAvailable(process_id);
@@ -1378,8 +1867,14 @@ public class ProcessServerService implements PEnvironment {
                              "process_id is not managed here");
         }
 
-        // Put the signal on to the start of the function queue,
-        process_instance.putSignalOnQueue(function_item);
+        // Put the signal on the signal lane of the function queue,
+        try {
+          process_instance.putSignalOnQueue(function_item);
+        }
+        catch (ProcessUnavailableException e) {
+          // The function queue is full,
+          return failMessage(process_id, call_id, e.getMessage());
+        }
 
         // Notify that new messages are available to process on this instance,
         notifyMessagesAvailable(process_id);
@@ -1462,6 +1957,74 @@ public class ProcessServerService implements PEnvironment {
 
   }
 
+  /**
+   * A request from the client on the other end of this connection to be
+   * sent the broadcast messages of a process through this server. The
+   * process is usually managed by another server. The request has the same
+   * format as a broadcast request and is answered with the same
+   * acknowledgement, or with a terminated notification if the process is
+   * known to be terminated.
+   */
+  private PMessage processRelayBroadcastRequest(
+                      final NIOConnection connection,
+                      final ProcessId process_id, final PMessage msg) {
+
+    // Dispatch it, (starting to receive a channel may query the database)
+    executeOnThreadPool(new Runnable() {
+      @Override
+      public void run() {
+
+        try {
+          // The incoming message is (message size = 32 bytes),
+          // [process_id] [0] [channel] [min_sequence_val]
+          ByteBuffer bb = msg.asByteBuffer();
+          int channel_num = bb.getInt(20);
+          long min_sequence_val = bb.getLong(24);
+
+          ProcessChannel process_channel =
+                                   new ProcessChannel(process_id, channel_num);
+          byte[] msg_buf;
+          if (broadcast_relay.addDownstream(
+                            process_channel, connection, min_sequence_val)) {
+            if (PROCESS_LOG.isLoggable(Level.FINE)) {
+              PROCESS_LOG.log(Level.FINE,
+                              "Relay broadcast request on {0} ( seq: {1} )",
+                              new Object[] { process_id.getStringValue(),
+                                             min_sequence_val });
+            }
+            msg_buf = createHeader(process_id, channel_num,
+                                   CommConstants.ACK_BROADCAST_REQUEST_CC);
+          }
+          else {
+            msg_buf = createHeader(process_id, 0,
+                                   CommConstants.NOTIFY_TERMINATED_CC);
+          }
+
+          try {
+            // Send the reply message,
+            connection.sendFirstMessage(new PMessage(msg_buf));
+            connection.flushSendMessages();
+          }
+          catch (IOException e) {
+            // On IOException, close the connection,
+            PROCESS_LOG.log(Level.SEVERE,
+              "Closed connection due to IOException in delegated task", e);
+            connection.close();
+          }
+
+        }
+        catch (Throwable e) {
+          PROCESS_LOG.log(Level.SEVERE,
+                          "Error during relay broadcast request", e);
+        }
+
+      }
+    });
+
+    return null;
+
+  }
+
   /**
    * A request to receive broadcast messages from the given process by the
    * client on the other end of this connection.
@@ -1509,7 +2072,7 @@ public class ProcessServerService implements PEnvironment {
                       final int call_id, final PMessage msg) {
 
     // Dispatch it,
-    getThreadPool().submit(new Runnable() {
+    executeOnThreadPool(new Runnable() {
 
       @Override
       public void run() {
@@ -1625,6 +2188,11 @@ public class ProcessServerService implements PEnvironment {
         reply_msg = processBroadcastRequest(
                         connection, command_process_id, call_id, msg);
       }
+      // broadcast request to be relayed by this server,
+      else if (command_code == CommConstants.RELAY_BROADCAST_REQUEST_CC) {
+        reply_msg = processRelayBroadcastRequest(
+                        connection, command_process_id, msg);
+      }
       // process query,
       else if (command_code == CommConstants.PROCESS_QUERY) {
         reply_msg = processProcessQueryRequest(
@@ -1640,6 +2208,11 @@ public class ProcessServerService implements PEnvironment {
         reply_msg = processSignalCall(
                         connection, command_process_id, call_id, msg);
       }
+      // load reports request,
+      else if (command_code == CommConstants.LOAD_REPORT_REQUEST_CC) {
+        connection.setLoadReportsRequested(true);
+        reply_msg = null;
+      }
 
       else {
         PROCESS_LOG.log(Level.SEVERE,
@@ -1699,9 +2272,10 @@ public class ProcessServerService implements PEnvironment {
   /**
    * Schedule a callback function on the instance of the given process id.
    */
-  void doScheduleCallback(TimerTask callback_task, long delay_ms) {
+  void doScheduleCallback(ProcessInstanceImpl instance,
+                          int call_id, ProcessMessage msg, long delay_ms) {
 
-    callback_scheduler.schedule(callback_task, delay_ms);
+    callback_scheduler.schedule(instance, call_id, msg, delay_ms);
 
   }
 
@@ -1716,7 +2290,7 @@ public class ProcessServerService implements PEnvironment {
     private PushBroadcastRunnable(NIOConnection conn) {
       this.conn = conn;
     }
-    
+
     @Override
     public void run() {
 
@@ -1726,8 +2300,8 @@ public class ProcessServerService implements PEnvironment {
 
         int update_version = -1;
 
-        // The map to process in the loop,
-        Map<ProcessInstanceImpl, MessagePushValue> local_pmap = new HashMap();
+        // The messages delivered from each instance,
+        Map<ProcessInstanceImpl, DeliveryWatermark> delivered = new HashMap();
 
         while (true) {
 
@@ -1747,34 +2321,25 @@ public class ProcessServerService implements PEnvironment {
             }
             update_version = cur_version;
 
-            // Make a copy of everything we are interested in,
+            // Update the range of messages to deliver from each instance,
             Map<ProcessInstanceImpl, MessagePushValue> global_pmap =
                                                                 container.map;
             for (ProcessInstanceImpl instance : global_pmap.keySet()) {
-              MessagePushValue mpv = local_pmap.get(instance);
-              if (mpv == null) {
-                mpv = new MessagePushValue();
-                mpv.sent_sequences = new HashSet();
-                local_pmap.put(instance, mpv);
+              MessagePushValue mpv = global_pmap.get(instance);
+              DeliveryWatermark dw = delivered.get(instance);
+              if (dw == null) {
+                dw = new DeliveryWatermark(mpv.min_seq_val);
+                delivered.put(instance, dw);
               }
-              mpv.copyFrom(global_pmap.get(instance));
+              dw.setNotifiedRange(mpv.min_seq_val, mpv.max_seq_val);
             }
 
           }
 
           // Push all messages pending across all the instances,
-          for (ProcessInstanceImpl instance : local_pmap.keySet()) {
-            MessagePushValue mpv = local_pmap.get(instance);
-            List<PMessage> msgs = instance.allBroadcastMessagesBetween(
-                         mpv.min_seq_val, mpv.max_seq_val, mpv.sent_sequences);
-
-//            System.out.println("PUSHING (" + mpv.min_seq_val + " to " +
-//                             mpv.max_seq_val + ") size = " + msgs.size() );
-
-            for (PMessage msg : msgs) {
-              // NOTE: can block
-              conn.sendFirstMessage(msg);
-            }
+          for (ProcessInstanceImpl instance : delivered.keySet()) {
+            // NOTE: can block
+            delivered.get(instance).deliver(instance, conn);
           }
 
         }
@@ -1836,16 +2401,24 @@ public class ProcessServerService implements PEnvironment {
             container = new MessageBroadcastContainer();
             // Put into the map,
             broadcast_connect_map.put(conn, container);
-            // Dispatch to the thread pool,
+            // Dispatch to the thread pool, (retried later if the pool is
+            // saturated, so the container stays in the map and collects
+            // the notifications until the push runs)
             // This is a privileged action since we will commonly end up here
             // via user-code.
-            AccessController.doPrivileged(new PrivilegedAction() {
+            Boolean dispatched = AccessController.doPrivileged(
+                                        new PrivilegedAction<Boolean>() {
               @Override
-              public Object run() {
-                thread_pool.submit(new PushBroadcastRunnable(conn));
-                return null;
+              public Boolean run() {
+                return executeOnThreadPool(new PushBroadcastRunnable(conn));
               }
             });
+            if (!dispatched) {
+              // The service is stopping so the push will never run. Take
+              // the container out so the instance isn't locked by it,
+              broadcast_connect_map.remove(conn);
+              continue;
+            }
           }
           container.notifyNewBroadcastMessage(instance, sequence_value);
         }
@@ -1901,6 +2474,15 @@ public class ProcessServerService implements PEnvironment {
     return thread_pool;
   }
 
+  /**
+   * Runs an internal task on the thread pool. If the pool is saturated the
+   * task is submitted again a little later on the process timer. Returns
+   * false if the task won't be run because the service is stopping.
+   */
+  boolean executeOnThreadPool(Runnable task) {
+    return ProcessExecutor.executeOrRetry(thread_pool, process_timer, task);
+  }
+
   /**
    * Initializes the connection.
    */
@@ -2110,124 +2692,132 @@ public class ProcessServerService implements PEnvironment {
   // ---- Scheduled flush events ----
 
   /**
-   * Fetch the ODBTransaction for the process_id. If it's in the
-   * 'process_paths_changed' map then retrieve it from there, otherwise look
-   * it up in the sessions cache and put it into the map.
-   */
-  private ChangeReportedODBTransaction fetchTransaction(
-                 Map<Byte, ChangeReportedODBTransaction> process_paths_changed,
-                 ProcessId process_id) {
-
-    Byte path_b = process_id.getPathValue();
-    ChangeReportedODBTransaction t = process_paths_changed.get(path_b);
-    // If not in the map, create it and put it in the map,
-    if (t == null) {
-      ODBTransaction odbt =
-                 sessions_cache.getODBTransaction(process_id.getProcessPath());
-      t = new ChangeReportedODBTransaction(odbt);
-      process_paths_changed.put(path_b, t);
-    }
-
-    return t;
-  }
-
-  /**
-   * Handles the process modification log.
+   * Removes the process ids that became managed on this server from the
+   * 'available_processIdx' list of the process path. All the process ids
+   * must be in the process path of the given transaction. Returns the list
+   * of process ids that were removed, or that were leased by a client and
+   * so were never in the list.
    */
-  private void flushProcessModifyLog(
-               Map<Byte, ChangeReportedODBTransaction> process_paths_changed) {
+  private List<ProcessId> flushProcessModifyLog(
+                Collection<ProcessId> managed_ids,
+                ChangeReportedODBTransaction crt) {
 
-    List<String> log_entries;
-    synchronized (process_modify_log) {
-      int sz = process_modify_log.size();
-      // Nothing to process, so exit,
-      if (sz == 0) {
-        return;
-      }
-      log_entries = new ArrayList(sz);
-      log_entries.addAll(process_modify_log);
-      // Clear the log,
-      process_modify_log.clear();
-    }
+    List<ProcessId> removed_ids = new ArrayList(managed_ids.size());
 
-    int count = 0;
+    ODBTransaction t = crt.transaction;
+    // Find the process id,
+    ODBObject root_ob = t.getNamedItem("root");
+    ODBList avail_processIdx = root_ob.getList("available_processIdx");
+    ODBList all_processIdx = root_ob.getList("all_processIdx");
 
     // For each entry,
-    for (String entry : log_entries) {
-      // The entry type,
-      char c = entry.charAt(0);
-      // Process id being managed event,
-      if (c == '+') {
-        // Decode the process id information,
-        String process_id_string = entry.substring(1);
-        ProcessId process_id = ProcessId.fromString(process_id_string);
-        // Delete the record from the process path,
-        ChangeReportedODBTransaction crt =
-                           fetchTransaction(process_paths_changed, process_id);
-        ODBTransaction t = crt.transaction;
-        // Find the process id,
-        ODBObject root_ob = t.getNamedItem("root");
-        ODBList avail_processIdx = root_ob.getList("available_processIdx");
-        boolean removed = avail_processIdx.remove(process_id_string);
+    for (ProcessId process_id : managed_ids) {
+      String process_id_string = process_id.getStringValue();
+      // Delete the record from the process path,
+      boolean removed = avail_processIdx.remove(process_id_string);
+      // A leased id was never in the available list,
+      ODBObject process_ob = all_processIdx.getObject(process_id_string);
+      if (removed || process_ob != null) {
         if (removed) {
           crt.changed = true;
-          ++count; 
         }
-        else {
-          // If this happens, it means the client created some process ids
-          // and allocated against one of them, but this view  (the servers)
-          // of the database is not yet consistent with the clients view (we
-          // don't see the process ids yet) because the cleanup happened too
-          // recently after the client created the ids.
-          // In this case, we put the id back onto the modify log so that
-          // it is cleaned in the next cycle. We need to make sure these ids
-          // are cleaned before the process instance is removed from memory.
-          // PENDING: We might want to put these into a priority cleaner that
-          // separately removes the keys.
-          addLogProcessManaged(process_id);
-          PROCESS_LOG.log(Level.FINE,
-                  "Process {0} returned to log to be cleaned next cycle",
-                  process_id_string);
+        removed_ids.add(process_id);
+        // Mark the id as in use so clients don't reclaim it as an abandoned
+        // lease,
+        if (process_ob != null && writeProcessValue(process_id, process_ob)) {
+          crt.changed = true;
         }
       }
       else {
-        PROCESS_LOG.log(Level.SEVERE,
-                        "Discarding log entry. Unknown type: {0}", c);
+        // If this happens, it means the client created some process ids
+        // and allocated against one of them, but this view  (the servers)
+        // of the database is not yet consistent with the clients view (we
+        // don't see the process ids yet) because the cleanup happened too
+        // recently after the client created the ids.
+        // In this case, we put the id back onto the modify log so that
+        // it is cleaned in the next cycle. We need to make sure these ids
+        // are cleaned before the process instance is removed from memory.
+        // PENDING: We might want to put these into a priority cleaner that
+        // separately removes the keys.
+        addLogProcessManaged(process_id);
+        PROCESS_LOG.log(Level.FINE,
+                "Process {0} returned to log to be cleaned next cycle",
+                process_id_string);
       }
     }
 
-    if (count > 0) {
+    if (!removed_ids.isEmpty()) {
       PROCESS_LOG.log(Level.FINE,
-                     "Removed {0} process_ids from the available set", count);
+                     "Removed {0} process_ids from the available set",
+                     removed_ids.size());
     }
 
+    return removed_ids;
+
+  }
+
+  /**
+   * Writes the 'value' field of the process object of a process managed on
+   * this server if it isn't set yet. Returns true if the field was changed.
+   */
+  private boolean writeProcessValue(ProcessId process_id,
+                                    ODBObject process_ob) {
+    if (!process_ob.getString("value").equals("")) {
+      return false;
+    }
+    ProcessInstanceImpl instance = process_set.getInstance(process_id);
+    if (instance == null) {
+      return false;
+    }
+    try {
+      return instance.setProcessValueIfUnset(process_ob);
+    }
+    catch (PException | SuspendedProcessException e) {
+      // The value is written when the instance is next flushed,
+      PROCESS_LOG.log(Level.FINE, "Unable to write process value", e);
+      return false;
+    }
+    finally {
+      instance.preventRemoveUnlock();
+    }
   }
 
   /**
    * Flush any process instances whose state is pending to be flushed to
-   * the database.
+   * the database. Only the instances in 'due_processes' (the instances
+   * that were touched or reached a maintenance deadline) are looked at. All
+   * the process ids must be in the process path of the given transaction.
+   * The ids of the instances whose state was written to the transaction are
+   * added to 'written_processes'.
    */
   private void flushProcessInstances(
+               Collection<ProcessId> due_processes,
                Collection<ProcessId> terminated_processes,
                Collection<ProcessId> stale_processes,
                Collection<ProcessId> suspended_processes,
                Collection<ProcessId> outofdate_processes,
-               Map<Byte, ChangeReportedODBTransaction> process_paths_changed) {
+               Collection<ProcessId> written_processes,
+               Map<ProcessId, List<PMessage>> logged_messages,
+               ChangeReportedODBTransaction crt) {
 
-    // Iterate through each process in the process set and if it's flushable
-    // then flush it. Otherwise, if it's terminated then add to the
-    // terminated set.
+    // Iterate through each due process and if it's flushable then flush it.
+    // Otherwise, if it's terminated then add to the terminated set.
 
     int flush_total = 0;
     int flush_count = 0;
 
 //    StringBuilder flushed_ids_summary = new StringBuilder();
 
-    Iterator<ProcessId> all_processes = process_set.getAllManaged();
-    while (all_processes.hasNext()) {
-      ProcessId process_id = all_processes.next();
+    for (ProcessId process_id : due_processes) {
       ProcessInstanceImpl instance = process_set.getInstance(process_id);
+      // Skip if the instance was removed since it was scheduled,
+      if (instance == null) {
+        continue;
+      }
       instance.preventRemoveUnlock();
+      // Any changes to the instance from here on will put it back on the
+      // dirty queue,
+      instance.clearMaintenanceDirty();
 
       // Clean any expired broadcast messages from the instance,
       int expired_count = instance.cleanExpiredBroadcastMessages();
@@ -2244,14 +2834,30 @@ public class ProcessServerService implements PEnvironment {
                 new Object[] { expired_conn_count });
       }
 
+      // The messages broadcast on durable channels to append to the
+      // channel logs,
+      List<PMessage> durable_msgs = instance.takeDurableBroadcastMessages();
+      if (!durable_msgs.isEmpty()) {
+        logged_messages.put(process_id, durable_msgs);
+      }
+
       // Is it terminated?
       if (instance.isTerminated()) {
         terminated_processes.add(process_id);
       }
       // Is it suspended?
       else if (instance.isSuspended()) {
-        // This makes it eligible for GC
-        suspended_processes.add(process_id);
+        // If a previous commit of the suspended state failed then write the
+        // state again. It isn't eligible for GC until the state is saved,
+        if (instance.isInteractedSinceFlush()) {
+          Set<ProcessId> unsaved = Collections.singleton(process_id);
+          rewriteProcessStates(unsaved, crt);
+          written_processes.add(process_id);
+        }
+        else {
+          // This makes it eligible for GC
+          suspended_processes.add(process_id);
+        }
       }
       // Otherwise (not terminated),
       // Is the instance currently flushable?
@@ -2259,8 +2865,6 @@ public class ProcessServerService implements PEnvironment {
         if (instance.isCurrentlyFlushable()) {
 
           // Yes, so flush it!
-          ChangeReportedODBTransaction crt =
-                           fetchTransaction(process_paths_changed, process_id);
           ODBTransaction t = crt.transaction;
           // The record key,
           String process_id_string = process_id.getStringValue();
@@ -2291,6 +2895,7 @@ public class ProcessServerService implements PEnvironment {
               // If flushed then report in the change reported ODB transaction,
               if (flushed) {
                 crt.changed = true;
+                written_processes.add(process_id);
               }
             }
             catch (SuspendedProcessException e) {
@@ -2345,12 +2950,108 @@ public class ProcessServerService implements PEnvironment {
   }
 
   /**
-   * Attempts to reload the processes in the given set (it is determined the
+   * Appends the messages broadcast on durable channels to the channel logs
+   * in the process path, and removes the channel logs of terminated
+   * processes.
+   */
+  private void writeChannelLogs(
+                Map<ProcessId, List<PMessage>> logged_messages,
+                Collection<ProcessId> terminated_processes,
+                ChangeReportedODBTransaction crt) throws PException {
+
+    ODBTransaction t = crt.transaction;
+    long expire_ts = System.currentTimeMillis() - channel_log_retention;
+    for (ProcessId process_id : logged_messages.keySet()) {
+      int skip_count = ChannelLog.append(
+                        t, logged_messages.get(process_id), expire_ts);
+      crt.changed = true;
+      channel_log_paths.putIfAbsent(process_id.getPathValue(), 0L);
+      if (skip_count > 0) {
+        PROCESS_LOG.log(Level.WARNING,
+                "{0} messages on durable channels of {1} were not logged " +
+                "because their sequence values were already logged",
+                new Object[] { skip_count, process_id.getStringValue() });
+      }
+    }
+    for (ProcessId process_id : terminated_processes) {
+      if (ChannelLog.removeProcess(t, process_id)) {
+        crt.changed = true;
+      }
+    }
+
+  }
+
+  /**
+   * Drops the expired segments of all the channel logs in the process path
+   * of the transaction.
+   */
+  private void sweepChannelLogs(ChangeReportedODBTransaction crt) {
+    long expire_ts = System.currentTimeMillis() - channel_log_retention;
+    int count = ChannelLog.expire(crt.transaction, expire_ts);
+    if (count > 0) {
+      crt.changed = true;
+      PROCESS_LOG.log(Level.FINE,
+                      "Dropped {0} expired channel log segments", count);
+    }
+  }
+
+  /**
+   * Returns the time at or after which the maintenance task next needs to
+   * look at the given instance, assuming nothing else happens to it.
+   */
+  private static long nextMaintenanceDeadline(
+                                ProcessInstanceImpl instance, long time_now) {
+
+    long last_access = instance.lastAccessTimestamp();
+
+    // Suspended instances with unsaved state are looked at in the next cycle,
+    if (instance.isSuspended() && instance.isInteractedSinceFlush()) {
+      return time_now;
+    }
+    // Terminated and suspended instances are next looked at when they
+    // become disposable,
+    if (instance.isTerminated() || instance.isSuspended()) {
+      return Math.max(time_now, last_access + DISPOSABLE_PROCESS_TIMEOUT);
+    }
+    // Instances that still need a flush or reload, or that have broadcast
+    // messages or connections to expire, are looked at in the next cycle,
+    if (instance.isInteractedSinceFlush() ||
+        instance.isOutOfDate() ||
+        instance.hasBroadcastActivity()) {
+      return time_now;
+    }
+    // Otherwise it's next looked at when it becomes stale,
+    return Math.max(time_now, last_access + STALE_PROCESS_TIMEOUT);
+
+  }
+
+  /**
+   * Schedules the next maintenance deadline of all the given processes that
+   * are still in the process set.
+   */
+  private void rescheduleMaintenance(Collection<ProcessId> due_processes) {
+
+    long time_now = System.currentTimeMillis();
+    for (ProcessId process_id : due_processes) {
+      ProcessInstanceImpl instance = process_set.getInstance(process_id);
+      // Removed from the process set,
+      if (instance == null) {
+        continue;
+      }
+      instance.preventRemoveUnlock();
+      maintenance_schedule.schedule(process_id,
+                                  nextMaintenanceDeadline(instance, time_now));
+    }
+
+  }
+
+  /**
+   * Attempts to reload the processes in the given set (it is determined the
    * class loader of the process is out of date).
    */
   private void reloadOutOfDateInstances(Set<ProcessId> outofdate_processes,
-               Map<Byte, ChangeReportedODBTransaction> process_paths_changed)
-                                                            throws PException {
+               Collection<ProcessId> written_processes,
+               ChangeReportedODBTransaction crt) throws PException {
 
     int reload_count = 0;
     int reload_total = 0;
@@ -2358,14 +3059,19 @@ public class ProcessServerService implements PEnvironment {
     // For each out of date process,
     for (ProcessId process_id : outofdate_processes) {
 
+      // Reloads are rate limited so that a new application version doesn't
+      // reload every process at once. The instance stays out of date and is
+      // looked at again in the next maintenance cycle,
+      if (!class_loader_pool.tryAcquireReload()) {
+        continue;
+      }
+
       // Fetch the process instance,
       ProcessInstanceImpl instance = process_set.getInstance(process_id);
       instance.preventRemoveUnlock();
 
       String process_id_string = process_id.getStringValue();
       // Get the transaction for the process
-      ChangeReportedODBTransaction crt =
-                          fetchTransaction(process_paths_changed, process_id);
       ODBTransaction t = crt.transaction;
       // Find the process id,
       ODBObject root_ob = t.getNamedItem("root");
@@ -2396,6 +3102,7 @@ public class ProcessServerService implements PEnvironment {
           // If it was suspended,
           if (is_reloaded) {
             crt.changed = true;
+            written_processes.add(process_id);
           }
         }
         catch (PException ex) {
@@ -2438,8 +3145,8 @@ public class ProcessServerService implements PEnvironment {
    * been accessed recently).
    */
   private void suspendStaleInstances(Set<ProcessId> stale_processes,
-                Map<Byte, ChangeReportedODBTransaction> process_paths_changed)
-                                                            throws PException {
+                Collection<ProcessId> written_processes,
+                ChangeReportedODBTransaction crt) throws PException {
 
     int suspend_count = 0;
     int suspend_total = 0;
@@ -2453,8 +3160,6 @@ public class ProcessServerService implements PEnvironment {
 
       String process_id_string = process_id.getStringValue();
       // Get the transaction for the process
-      ChangeReportedODBTransaction crt =
-                          fetchTransaction(process_paths_changed, process_id);
       ODBTransaction t = crt.transaction;
       // Find the process id,
       ODBObject root_ob = t.getNamedItem("root");
@@ -2491,6 +3196,7 @@ public class ProcessServerService implements PEnvironment {
           // If it was suspended,
           if (db_changed) {
             crt.changed = true;
+            written_processes.add(process_id);
           }
         }
         catch (SuspendedProcessException e) {
@@ -2548,17 +3254,42 @@ public class ProcessServerService implements PEnvironment {
 
     // For each terminated process, remove from the managed set,
     if (!terminated_processes.isEmpty()) {
-      int count = process_set.removeAllManaged(terminated_processes);
+      List<ProcessInstanceImpl> removed =
+                        process_set.removeAllManaged(terminated_processes);
+      // Release the class loaders of the terminated instances,
+      for (ProcessInstanceImpl instance : removed) {
+        instance.dispose();
+      }
+      // A terminated process must never be resumed from a snapshot,
+      if (snapshot_store != null) {
+        for (ProcessId process_id : terminated_processes) {
+          snapshot_store.remove(process_id);
+        }
+      }
       PROCESS_LOG.log(Level.FINE,
-                     "Removed {0} process_ids from the terminated set", count);
+              "Removed {0} process_ids from the terminated set",
+              removed.size());
     }
 
     if (!suspended_processes.isEmpty()) {
-      int count = process_set.removeAllStaleManaged(suspended_processes);
+      // A local snapshot of each removed instance is written while it's
+      // being evicted so it can be resumed without going to the database,
+      ProcessSnapshotStore store = snapshot_store;
+      long writes_before = (store == null) ? 0 : store.getWriteCount();
+      List<ProcessInstanceImpl> removed =
+              process_set.removeAllStaleManaged(suspended_processes, store);
+      int count = removed.size();
       int total = suspended_processes.size();
       PROCESS_LOG.log(Level.FINE,
                 "Removed {0} process_ids (out of {1}) from the suspended set",
                 new Object[] { count, total });
+
+      if (store != null && !removed.isEmpty()) {
+        PROCESS_LOG.log(Level.FINE,
+                "Wrote {0} process snapshots (hits: {1}, misses: {2})",
+                new Object[] { store.getWriteCount() - writes_before,
+                               store.getHitCount(), store.getMissCount() });
+      }
     }
 
 //    if (!terminated_processes.isEmpty() || !suspended_processes.isEmpty()) {
@@ -2593,142 +3324,119 @@ public class ProcessServerService implements PEnvironment {
   }
 
   /**
-   * A thread that keeps track of when a process has queue items that must
-   * be processed, and calls back on them.
+   * Dispatch the function operation of the process on the thread pool.
    */
-  private class FunctionDispatcherThread extends Thread {
-
-    private final Object lock = new Object();
-    private boolean finished = false;
+  private void dispatchFunctionOperation(final ProcessId process_id) {
     
-    private Set<ProcessId> instance_events = new HashSet();
-    
-
-    public FunctionDispatcherThread() {
-      super("Mckoi Function Dispatcher");
-    }
-
-    /**
-     * Notify to this dispatcher thread that events are pending.
-     */
-    void notifyMessagesAvailable(ProcessId id) {
-      synchronized (lock) {
-        instance_events.add(id);
-        lock.notifyAll();
-      }
-    }
-
-    /**
-     * Dispatch the function operation on the thread pool.
-     */
-    private void dispatchFunctionOperation(final ProcessId process_id) {
-      
-      submitQuery(null, process_id, -1, false, new ProcessQuery() {
-        @Override
-        public PMessage execute(ProcessInstanceImpl process_instance)
-                   throws IOException, PException,
-                          SuspendedProcessException, ProcessUserCodeException {
-
-          // We assume user code ran (in the case of an exception being
-          // thrown from user code).
-          boolean user_code_ran = true;
-          boolean is_suspended = false;
-          
-          try {
-            user_code_ran = process_instance.callUserFunctionExecute();
-          }
-          catch (SuspendedProcessException e) {
-            // It's suspended, so set the flag,
-            is_suspended = true;
-            throw e;
-          }
-          finally {
-            // If user code ran and it's not suspended, then we do some
-            // checking. Note that if it is suspended the 'submitQuery'
-            // method will retry this operation once it has resumed.
-            if (!is_suspended && user_code_ran) {
-              // If we didn't consume any messages,
-              int cur_count = process_instance.incNoConsumeCount();
-              PROCESS_LOG.log(Level.FINE, "cur_count = {0}", cur_count);
-              // We tried to dispatch on this process instance but it's not
-              // consuming messages. This means we need to terminate the
-              // instance.
-              if (cur_count > 32) {
-                // Close it,
-                process_instance.close();
-                // Log an exception,
-                logAccountException(process_instance, new PRuntimeException(
-                    "Terminated process because it's not consuming messages."));
-              }
-
-              // If the instance is closed then we don't put any messages on the
-              // function queue,
-              if (process_instance.isTerminated()) {
-                process_instance.cleanFunctionQueue();
-              }
-              else {
-                // If there's still items after user code was run then the
-                // process is still marked as 'dirty',
-                if (user_code_ran && !process_instance.isFunctionQueueEmpty()) {
-                  notifyMessagesAvailable(process_id);
-                }
-              }
-            }
-          }
-
-          return null;
+    submitQuery(null, process_id, -1, false, new ProcessQuery() {
+      @Override
+      public PMessage execute(ProcessInstanceImpl process_instance)
+                 throws IOException, PException,
+                        SuspendedProcessException, ProcessUserCodeException {
 
+        // We assume user code ran (in the case of an exception being
+        // thrown from user code).
+        boolean user_code_ran = true;
+        boolean is_suspended = false;
+        
+        try {
+          user_code_ran = process_instance.callUserFunctionExecute();
         }
-      });
-
-    }
-
-    @Override
-    public void run() {
-      int loop_count_without_sleep = 0;
-      try {
-        synchronized (lock) {
-          while (!finished) {
+        catch (SuspendedProcessException e) {
+          // It's suspended, so set the flag,
+          is_suspended = true;
+          throw e;
+        }
+        finally {
+          // If user code ran and it's not suspended, then we do some
+          // checking. Note that if it is suspended the 'submitQuery'
+          // method will retry this operation once it has resumed.
+          if (!is_suspended && user_code_ran) {
+            // If we didn't consume any messages,
+            int cur_count = process_instance.incNoConsumeCount();
+            PROCESS_LOG.log(Level.FINE, "cur_count = {0}", cur_count);
+            // We tried to dispatch on this process instance but it's not
+            // consuming messages. This means we need to terminate the
+            // instance.
+            if (cur_count > 32) {
+              // Close it,
+              process_instance.close();
+              // Log an exception,
+              logAccountException(process_instance, new PRuntimeException(
+                  "Terminated process because it's not consuming messages."));
+            }
 
-            if (instance_events.isEmpty()) {
-              loop_count_without_sleep = 0;
-              lock.wait();
+            // If the instance is closed then we don't put any messages on the
+            // function queue,
+            if (process_instance.isTerminated()) {
+              process_instance.cleanFunctionQueue();
             }
             else {
-              ++loop_count_without_sleep;
-              if (loop_count_without_sleep > 16) {
-                loop_count_without_sleep = 0;
-                lock.wait(0);
+              // If there's still items after user code was run then the
+              // process is still marked as 'dirty',
+              if (user_code_ran && !process_instance.isFunctionQueueEmpty()) {
+                notifyMessagesAvailable(process_id);
               }
             }
-
-            // Trigger events,
-            for (ProcessId id : instance_events) {
-              dispatchFunctionOperation(id);
-            }
-
-            instance_events.clear();
-
           }
         }
+
+        return null;
+
       }
-      catch (InterruptedException e) {
-        throw new RuntimeException("Interrupted", e);
+    });
+
+  }
+
+  /**
+   * Drains all the entries from the process modification log.
+   */
+  private List<String> drainProcessModifyLog() {
+    synchronized (process_modify_log) {
+      int sz = process_modify_log.size();
+      // Nothing to process,
+      if (sz == 0) {
+        return Collections.emptyList();
       }
+      List<String> log_entries = new ArrayList(sz);
+      log_entries.addAll(process_modify_log);
+      // Clear the log,
+      process_modify_log.clear();
+      return log_entries;
     }
+  }
 
-    private void finish() {
-      synchronized (lock) {
-        finished = true;
-        lock.notifyAll();
-      }
+  /**
+   * Returns the PathMaintenanceTask for the process path of the given
+   * process id from the map, creating it if necessary.
+   */
+  private PathMaintenanceTask getPathTask(
+                              Map<Byte, PathMaintenanceTask> path_tasks,
+                              ProcessId process_id) {
+    Byte path_b = process_id.getPathValue();
+    PathMaintenanceTask task = path_tasks.get(path_b);
+    if (task == null) {
+      task = new PathMaintenanceTask(path_b, process_id.getProcessPath());
+      path_tasks.put(path_b, task);
     }
+    return task;
+  }
 
+  /**
+   * Returns the PathMaintenanceTask for the given process path value from
+   * the map, creating it if necessary.
+   */
+  private PathMaintenanceTask getPathTask(
+                              Map<Byte, PathMaintenanceTask> path_tasks,
+                              byte path_value) {
+    return getPathTask(path_tasks, new ProcessId(path_value, 0, 0));
   }
 
   /**
    * A timer task the periodically flushes any pending state to the system
-   * platform paths.
+   * platform paths. The work on each process path is built and committed by
+   * a PathMaintenanceTask on the maintenance thread pool, so a slow commit on
+   * one process path doesn't hold up maintenance on the other paths.
    */
   private void processMaintenanceAction() {
     try {
@@ -2740,73 +3448,345 @@ public class ProcessServerService implements PEnvironment {
 
       PROCESS_LOG.fine("Maint START");
 
-      // Map of process paths we changed.
-      Map<Byte, ChangeReportedODBTransaction>
-                                       process_paths_changed = new HashMap();
+      // The processes that were touched or reached a deadline since the last
+      // cycle,
+      Set<ProcessId> due_processes =
+                 maintenance_schedule.drainDue(System.currentTimeMillis());
+      // The process modification log entries,
+      List<String> log_entries = drainProcessModifyLog();
+
+      // Group all the work by process path,
+      Map<Byte, PathMaintenanceTask> path_tasks = new HashMap();
+      for (String entry : log_entries) {
+        // The entry type,
+        char c = entry.charAt(0);
+        // Process id being managed event,
+        if (c == '+') {
+          // Decode the process id information,
+          ProcessId process_id = ProcessId.fromString(entry.substring(1));
+          getPathTask(path_tasks, process_id).managed_ids.add(process_id);
+        }
+        else {
+          PROCESS_LOG.log(Level.SEVERE,
+                          "Discarding log entry. Unknown type: {0}", c);
+        }
+      }
+      for (ProcessId process_id : due_processes) {
+        getPathTask(path_tasks, process_id).due_processes.add(process_id);
+      }
+      // The paths with channel logs due to be swept,
+      long sweep_before = System.currentTimeMillis() - CHANNEL_LOG_SWEEP_TIME;
+      for (Map.Entry<Byte, Long> e : channel_log_paths.entrySet()) {
+        if (e.getValue() <= sweep_before) {
+          getPathTask(path_tasks, e.getKey()).sweep_channel_logs = true;
+        }
+      }
+
+      // Dispatch the work on each path,
+      int deferred_count = 0;
+      for (PathMaintenanceTask task : path_tasks.values()) {
+        // If maintenance on the path from a previous cycle is still running
+        // then the work is deferred to the next cycle,
+        if (!paths_in_maintenance.add(task.path_value)) {
+          task.defer();
+          ++deferred_count;
+        }
+        else {
+          try {
+            maintenance_pool.execute(task);
+          }
+          catch (RejectedExecutionException e) {
+            // Happens when the service is stopping,
+            paths_in_maintenance.remove(task.path_value);
+            task.defer();
+            ++deferred_count;
+          }
+        }
+      }
+
+      if (deferred_count > 0) {
+        PROCESS_LOG.log(Level.FINE,
+                "Deferred maintenance on {0} busy process paths",
+                deferred_count);
+      }
 
-      // Flush the process modification log entries,
-      flushProcessModifyLog(process_paths_changed);
+      PROCESS_LOG.fine("Maint END");
+
+    }
+    catch (Exception e) {
+      PROCESS_LOG.log(Level.SEVERE, "Exception during flush task", e);
+      e.printStackTrace(System.err);
+    }
+    finally {
+      // Make sure to reset the flush notification,
+      out_of_date_flush_active.set(false);
+    }
+  }
+
+  /**
+   * Writes the current state of all the given process instances to the
+   * transaction. This is used to reapply the changes of a maintenance
+   * commit that failed.
+   */
+  private void rewriteProcessStates(Collection<ProcessId> written_processes,
+                                    ChangeReportedODBTransaction crt) {
+
+    ODBTransaction t = crt.transaction;
+    ODBObject root_ob = t.getNamedItem("root");
+    ODBList all_processIdx = root_ob.getList("all_processIdx");
+
+    for (ProcessId process_id : written_processes) {
+      ProcessInstanceImpl instance = process_set.getInstance(process_id);
+      if (instance == null) {
+        continue;
+      }
+      instance.preventRemoveUnlock();
+      String process_id_string = process_id.getStringValue();
+      ODBObject process_ob = all_processIdx.getObject(process_id_string);
+      if (process_ob == null) {
+        PROCESS_LOG.log(Level.SEVERE,
+                        "Rewritten process not found: {0}", process_id_string);
+        continue;
+      }
+      Throwable account_th = null;
+      try {
+        instance.executeStateRewrite(process_ob);
+        crt.changed = true;
+      }
+      catch (SuspendedProcessException e) {
+        account_th = e;
+      }
+      catch (PException e) {
+        account_th = e;
+      }
+      if (account_th != null) {
+        logAccountException(instance, account_th);
+      }
+    }
+
+  }
+
+  /**
+   * The maintenance work on a single process path. This flushes the due
+   * process instances on the path, suspends and reloads instances, and
+   * commits the changes. If the commit fails because of a conflict, the
+   * changes are reapplied to a new transaction and the commit is retried.
+   */
+  private class PathMaintenanceTask implements Runnable {
+
+    private final byte path_value;
+    private final String process_path;
+
+    /**
+     * The process ids that became managed on this server and must be removed
+     * from the available process set.
+     */
+    private final List<ProcessId> managed_ids = new ArrayList();
+
+    /**
+     * The process ids to look at.
+     */
+    private final Set<ProcessId> due_processes = new HashSet();
+
+    /**
+     * True if the expired segments of the channel logs on the path are to
+     * be dropped.
+     */
+    private boolean sweep_channel_logs = false;
+
+    private PathMaintenanceTask(byte path_value, String process_path) {
+      this.path_value = path_value;
+      this.process_path = process_path;
+    }
+
+    /**
+     * Puts the work of this task back so that it happens in the next
+     * maintenance cycle.
+     */
+    private void defer() {
+      for (ProcessId process_id : managed_ids) {
+        addLogProcessManaged(process_id);
+      }
+      long time_now = System.currentTimeMillis();
+      for (ProcessId process_id : due_processes) {
+        maintenance_schedule.schedule(process_id, time_now);
+      }
+    }
+
+    /**
+     * Makes sure the changes in 'written_processes', 'removed_ids' and
+     * 'logged_messages' will be written again in a later cycle after we gave
+     * up trying to commit them.
+     */
+    private void abandon(Collection<ProcessId> written_processes,
+                         Collection<ProcessId> removed_ids,
+                         Map<ProcessId, List<PMessage>> logged_messages) {
+      for (ProcessId process_id : logged_messages.keySet()) {
+        ProcessInstanceImpl instance = process_set.getInstance(process_id);
+        if (instance != null) {
+          instance.preventRemoveUnlock();
+          instance.returnDurableBroadcastMessages(
+                                          logged_messages.get(process_id));
+        }
+      }
+      for (ProcessId process_id : removed_ids) {
+        addLogProcessManaged(process_id);
+      }
+      for (ProcessId process_id : written_processes) {
+        ProcessInstanceImpl instance = process_set.getInstance(process_id);
+        if (instance != null) {
+          instance.preventRemoveUnlock();
+          instance.markStateUnsaved();
+        }
+      }
+    }
+
+    private void maintain() throws PException, InterruptedException {
 
       // Processes that have terminated,
-      Set<ProcessId> terminated_processes = new HashSet(128);
+      Set<ProcessId> terminated_processes = new HashSet();
       // Stale processes,
-      Set<ProcessId> stale_processes = new HashSet(128);
+      Set<ProcessId> stale_processes = new HashSet();
       // Suspended processes,
-      Set<ProcessId> suspended_processes = new HashSet(128);
+      Set<ProcessId> suspended_processes = new HashSet();
       // Out of date processes,
-      Set<ProcessId> outofdate_processes = new HashSet(128);
+      Set<ProcessId> outofdate_processes = new HashSet();
+      // Processes whose state was written to the transaction,
+      Set<ProcessId> written_processes = new HashSet();
+      // Messages on durable channels written to the transaction,
+      Map<ProcessId, List<PMessage>> logged_messages = new HashMap();
 
-      // Flush process instances,
-      flushProcessInstances(terminated_processes,
-                            stale_processes,
-                            suspended_processes,
-                            outofdate_processes,
-                            process_paths_changed);
+      List<ProcessId> removed_ids = Collections.emptyList();
 
-      // Reload the out of date processes,
-      if (!outofdate_processes.isEmpty()) {
-        reloadOutOfDateInstances(outofdate_processes,
-                                 process_paths_changed);
-      }
+      // True once the changes are committed (or there was nothing to commit),
+      boolean saved = false;
+      try {
+        int attempt = 0;
+        while (true) {
+          ++attempt;
 
-      // If there are stale instances,
-      if (!stale_processes.isEmpty()) {
-        suspendStaleInstances(stale_processes,
-                              process_paths_changed);
-      }
+          ChangeReportedODBTransaction crt =
+                   new ChangeReportedODBTransaction(
+                               sessions_cache.getODBTransaction(process_path));
 
-      // Commit all the process paths we changed,
-      Collection<ChangeReportedODBTransaction> crts =
-                                              process_paths_changed.values();
-      if (!crts.isEmpty()) {
-        try {
-          for (ChangeReportedODBTransaction crt : crts) {
-            // Commit if the transaction was reported to have changed,
-            if (crt.changed) {
-              crt.transaction.commit();
+          if (attempt == 1) {
+            // Flush the process modification log entries,
+            if (!managed_ids.isEmpty()) {
+              removed_ids = flushProcessModifyLog(managed_ids, crt);
+            }
+            // Flush process instances,
+            flushProcessInstances(due_processes,
+                                  terminated_processes,
+                                  stale_processes,
+                                  suspended_processes,
+                                  outofdate_processes,
+                                  written_processes,
+                                  logged_messages,
+                                  crt);
+            // Reload the out of date processes,
+            if (!outofdate_processes.isEmpty()) {
+              reloadOutOfDateInstances(outofdate_processes,
+                                       written_processes, crt);
             }
+            // If there are stale instances,
+            if (!stale_processes.isEmpty()) {
+              suspendStaleInstances(stale_processes, written_processes, crt);
+            }
+          }
+          else {
+            // Reapply the changes of the failed attempt,
+            if (!removed_ids.isEmpty()) {
+              removed_ids = flushProcessModifyLog(removed_ids, crt);
+            }
+            rewriteProcessStates(written_processes, crt);
+          }
+          // Write the channel logs,
+          writeChannelLogs(logged_messages, terminated_processes, crt);
+          if (sweep_channel_logs) {
+            sweepChannelLogs(crt);
+          }
+
+          // Nothing to commit,
+          if (!crt.changed) {
+            saved = true;
+            break;
+          }
+
+          try {
+            crt.transaction.commit();
+            saved = true;
+            break;
+          }
+          catch (CommitFaultException e) {
+            if (attempt >= MAINT_COMMIT_ATTEMPTS) {
+              PROCESS_LOG.log(Level.SEVERE, MessageFormat.format(
+                      "Gave up committing process path {0} after {1} attempts",
+                      process_path, attempt), e);
+              break;
+            }
+            PROCESS_LOG.log(Level.WARNING,
+                    "Commit fault on process path {0} (attempt {1}), retrying",
+                    new Object[] { process_path, attempt });
+            // Wait for a new snapshot of the path to be available,
+            Thread.sleep(MAINT_COMMIT_RETRY_DELAY * attempt);
           }
         }
-        catch (CommitFaultException e) {
-          // This shouldn't be possible,
-          throw new PRuntimeException(e);
+      }
+      finally {
+        // If the changes weren't committed then make sure they are written
+        // in a later cycle,
+        if (!saved) {
+          abandon(written_processes, removed_ids, logged_messages);
         }
       }
 
+      // Don't remove suspended instances if their state wasn't saved,
+      if (!saved) {
+        suspended_processes.clear();
+      }
+      // The next sweep of the channel logs is due from now,
+      else if (sweep_channel_logs) {
+        channel_log_paths.put(path_value, System.currentTimeMillis());
+      }
+
       // Clean up the process set for terminated processes,
       cleanProcessSet(terminated_processes, suspended_processes);
 
-      PROCESS_LOG.fine("Maint END");
-
     }
-    catch (Exception e) {
-      PROCESS_LOG.log(Level.SEVERE, "Exception during flush task", e);
-      e.printStackTrace(System.err);
-    }
-    finally {
-      // Make sure to reset the flush notification,
-      out_of_date_flush_active.set(false);
+
+    @Override
+    public void run() {
+      long start_ts = System.currentTimeMillis();
+      try {
+        maintain();
+      }
+      catch (Exception e) {
+        PROCESS_LOG.log(Level.SEVERE,
+                        "Exception during maintenance of " + process_path, e);
+        e.printStackTrace(System.err);
+      }
+      finally {
+        try {
+          // Schedule when the processes we looked at next need maintenance,
+          rescheduleMaintenance(due_processes);
+        }
+        finally {
+          paths_in_maintenance.remove(path_value);
+        }
+
+        // Report the time taken,
+        long time_taken = System.currentTimeMillis() - start_ts;
+        Level level = (time_taken > MAINT_SLOW_PATH_TIME) ?
+                                                    Level.WARNING : Level.FINE;
+        if (PROCESS_LOG.isLoggable(level)) {
+          PROCESS_LOG.log(level,
+                  "Maintenance on {0} took {1}ms ({2} processes)",
+                  new Object[] { process_path, time_taken,
+                                 due_processes.size() });
+        }
+      }
     }
+
   }
 
   private class ProcessMaintenanceTimerTask extends TimerTask {
@@ -2816,6 +3796,78 @@ public class ProcessServerService implements PEnvironment {
     }
   };
 
+  /**
+   * Sends a load report to every validated client connection.
+   */
+  private class LoadReportTimerTask extends TimerTask {
+
+    private long last_cpu_total = -1;
+    private long last_report_ns;
+
+    @Override
+    public void run() {
+      NIOServerThread st = server_thread;
+      FunctionDispatcher dispatcher = function_dispatcher;
+      if (st == null || dispatcher == null) {
+        return;
+      }
+
+      // The function CPU time used since the last report, per second,
+      long now_ns = System.nanoTime();
+      long cpu_total = function_cpu_time_total.get();
+      long cpu_per_second = 0;
+      if (last_cpu_total >= 0 && now_ns > last_report_ns) {
+        long cpu_delta = cpu_total - last_cpu_total;
+        cpu_per_second = (long) (cpu_delta *
+                                 (1000000000d / (now_ns - last_report_ns)));
+      }
+      last_cpu_total = cpu_total;
+      last_report_ns = now_ns;
+
+      // The dispatches waiting to run,
+      int queue_length = function_pool.getQueuedCount() +
+                         dispatcher.getPendingCount();
+
+      MachineLoadReport report = new MachineLoadReport(
+                  process_set.getManagedCount(), queue_length,
+                  Runtime.getRuntime().availableProcessors(),
+                  cpu_per_second, 0);
+      final PMessage msg = report.asMessage();
+
+      // Send on the thread pool because a send may block,
+      for (final NIOConnection conn : st.getConnections()) {
+        // Only clients that asked for reports understand the message,
+        Long state_long = conn.getStateLong();
+        if (state_long == null || state_long != 0 ||
+            !conn.isLoadReportsRequested()) {
+          continue;
+        }
+        try {
+          thread_pool.submit(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                conn.sendFirstMessage(msg);
+                conn.flushSendMessages();
+              }
+              catch (IOException e) {
+                PROCESS_LOG.log(Level.FINE,
+                                "Failed to send load report", e);
+                conn.close();
+              }
+            }
+          });
+        }
+        catch (RejectedExecutionException e) {
+          // The pool is saturated so skip this report, the next report
+          // will be sent in a couple of seconds,
+          return;
+        }
+      }
+    }
+
+  }
+
   // -----
 
   /**
@@ -2824,15 +3876,10 @@ public class ProcessServerService implements PEnvironment {
   private static class MessagePushValue {
     private long min_seq_val;
     private long max_seq_val;
-    private Set<Long> sent_sequences;
     MessagePushValue(long sequence_value) {
       this.min_seq_val = sequence_value;
       this.max_seq_val = sequence_value;
     }
-    MessagePushValue() {
-      this.min_seq_val = Long.MAX_VALUE;
-      this.max_seq_val = -1;
-    }
     private void updateSequenceValue(long new_seq) {
       if (new_seq < min_seq_val) {
         min_seq_val = new_seq;
@@ -2841,14 +3888,6 @@ public class ProcessServerService implements PEnvironment {
         max_seq_val = new_seq;
       }
     }
-    private void copyFrom(MessagePushValue src) {
-      if (src.min_seq_val < min_seq_val) {
-        min_seq_val = src.min_seq_val;
-      }
-      if (src.max_seq_val > max_seq_val) {
-        max_seq_val = src.max_seq_val;
-      }
-    }
   }
 
   /**
@@ -26,9 +26,11 @@
 package com.mckoi.process.impl;
 
 import com.mckoi.process.ProcessId;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -36,17 +38,19 @@ import java.util.concurrent.ConcurrentMap;
  * An in-memory map of all process_ids managed on the process service. This
  * can be queried quickly to determine if a process is currently active or
  * not. The data in this set is fetched from the database at start-up.
+ * <p>
+ * This object does not use a shared lock. The race between fetching an
+ * instance and removing it is resolved by atomic transitions on the
+ * instance's 'prevent remove' state. A fetch succeeds only if it can add a
+ * lock to an instance that isn't evicted, and a remove succeeds only if it
+ * can mark the instance as evicted. An evicted instance found in the map is
+ * removed by whichever thread sees it first.
  *
  * @author Tobias Downer
  */
 
 class ProcessSet {
 
-  /**
-   * The lock.
-   */
-  private final Object CHANGE_LOCK = new Object();
-
   /**
    * The map of all processes to ProcessInstanceImpl objects.
    */
@@ -65,14 +69,25 @@ class ProcessSet {
    * the process_id is allocated against this process set and returns true.
    */
   boolean setManaged(ProcessId process_id, ProcessInstanceImpl instance) {
-    synchronized (CHANGE_LOCK) {
+    // Lock the instance before it's visible to other threads,
+    instance.preventRemoveLock();
+    while (true) {
       // Put if absent. If this returns null it means there was no element
       // there before.
-      boolean was_set = (process_map.putIfAbsent(process_id, instance) == null);
-      if (was_set) {
-        instance.preventRemoveLock();
+      ProcessInstanceImpl inst = process_map.putIfAbsent(process_id, instance);
+      if (inst == null) {
+        // New instances are looked at in the next maintenance cycle,
+        instance.markMaintenanceDirty();
+        return true;
+      }
+      // If the current instance is evicted then remove it and try again,
+      if (inst.isEvicted()) {
+        process_map.remove(process_id, inst);
+      }
+      else {
+        instance.preventRemoveUnlock();
+        return false;
       }
-      return was_set;
     }
   }
 
@@ -82,13 +97,22 @@ class ProcessSet {
    */
   ProcessInstanceImpl setManagedIfAbsent(
                           ProcessId process_id, ProcessInstanceImpl instance) {
-    synchronized (CHANGE_LOCK) {
+    // Lock the instance before it's visible to other threads,
+    instance.preventRemoveLock();
+    while (true) {
       ProcessInstanceImpl inst = process_map.putIfAbsent(process_id, instance);
       if (inst == null) {
-        inst = instance;
+        // New instances are looked at in the next maintenance cycle,
+        instance.markMaintenanceDirty();
+        return instance;
+      }
+      // Lock the current instance. If it's evicted then remove it and try
+      // again,
+      if (inst.tryPreventRemoveLock()) {
+        instance.preventRemoveUnlock();
+        return inst;
       }
-      inst.preventRemoveLock();
-      return inst;
+      process_map.remove(process_id, inst);
     }
   }
 
@@ -97,15 +121,18 @@ class ProcessSet {
    * the process isn't being managed.
    */
   ProcessInstanceImpl getInstance(ProcessId process_id) {
-    // NOTE, it's important we synchronize here because we don't want to
-    //  deal with any inconsistencies in fetching while removing
-    synchronized (CHANGE_LOCK) {
+    while (true) {
       ProcessInstanceImpl inst = process_map.get(process_id);
-      if (inst != null) {
-        // Set the fetch timestamp so we can't remove recent instances,
-        inst.preventRemoveLock();
+      if (inst == null) {
+        return null;
+      }
+      // Lock the instance so it can't be removed. This fails if the instance
+      // was evicted between the 'get' and here, in which case we finish the
+      // removal and look again,
+      if (inst.tryPreventRemoveLock()) {
+        return inst;
       }
-      return inst;
+      process_map.remove(process_id, inst);
     }
   }
 
@@ -113,59 +140,72 @@ class ProcessSet {
 //   * Returns true if the given process is managed by this process set.
 //   */
 //  boolean isManaged(ProcessId process_id) {
-//    synchronized (CHANGE_LOCK) {
-//      return process_map.containsKey(process_id);
-//    }
+//    return process_map.containsKey(process_id);
 //  }
 
   /**
    * Removes the process from being managed.
    */
   void removeManaged(ProcessId process_id) {
-    synchronized (CHANGE_LOCK) {
-      process_map.remove(process_id);
+    ProcessInstanceImpl inst = process_map.get(process_id);
+    if (inst != null) {
+      inst.forceEvict();
+      process_map.remove(process_id, inst);
     }
   }
 
   /**
-   * Removes all the process from being managed. Returns the number of
-   * processes removed.
+   * Removes all the process from being managed. Returns the list of
+   * instances removed.
    */
-  int removeAllManaged(Collection<ProcessId> process_ids) {
-    int count = 0;
+  List<ProcessInstanceImpl> removeAllManaged(
+                                        Collection<ProcessId> process_ids) {
+    List<ProcessInstanceImpl> removed = new ArrayList<>();
     for (ProcessId process_id : process_ids) {
-      ProcessInstanceImpl instance;
-      synchronized (CHANGE_LOCK) {
-        instance = process_map.get(process_id);
-        // Check the instance is disposable,
-        if (instance.isDisposable()) {
-          process_map.remove(process_id);
-          ++count;
-        }
+      ProcessInstanceImpl instance = process_map.get(process_id);
+      // Check the instance is disposable. Terminated instances are evicted
+      // even when locked,
+      if (instance != null && instance.isDisposable() &&
+          instance.forceEvict()) {
+        process_map.remove(process_id, instance);
+        removed.add(instance);
       }
     }
-    return count;
+    return removed;
   }
 
   /**
    * Removes all the process from being managed that haven't recently been
-   * accessed. Returns the number of processes removed.
+   * accessed and have nothing on their function queue. If 'snapshot_store'
+   * is not null, a snapshot of each removed instance is written to it.
+   * Returns the list of instances removed.
    */
-  int removeAllStaleManaged(Collection<ProcessId> process_ids) {
-    int count = 0;
+  List<ProcessInstanceImpl> removeAllStaleManaged(
+                                  Collection<ProcessId> process_ids,
+                                  ProcessSnapshotStore snapshot_store) {
+    List<ProcessInstanceImpl> removed = new ArrayList<>();
     for (ProcessId process_id : process_ids) {
-      ProcessInstanceImpl instance;
-      synchronized (CHANGE_LOCK) {
-        instance = process_map.get(process_id);
-        // If it wasn't recently fetched then we can safely remove it,
-        if (instance.isDisposable() &&
-            !instance.isPreventRemoveLocked() && instance.isCurrentlyStale()) {
-          process_map.remove(process_id);
-          ++count;
+      ProcessInstanceImpl instance = process_map.get(process_id);
+      // If it isn't locked and wasn't recently accessed then we can safely
+      // remove it,
+      if (instance != null && instance.isDisposable() &&
+          instance.isCurrentlyStale() && instance.isFunctionQueueEmpty()) {
+        // The snapshot version must be read before the eviction so that a
+        // resume of a new instance after the eviction invalidates the
+        // snapshot written here,
+        long snapshot_version = (snapshot_store == null) ? 0 :
+                                      snapshot_store.getVersion(process_id);
+        // 'tryEvict' fails if a lock was taken since the check,
+        if (instance.tryEvict()) {
+          if (snapshot_store != null) {
+            instance.writeSnapshot(snapshot_store, snapshot_version);
+          }
+          process_map.remove(process_id, instance);
+          removed.add(instance);
         }
       }
     }
-    return count;
+    return removed;
   }
 
   /**
@@ -178,5 +218,12 @@ class ProcessSet {
     return Collections.unmodifiableSet(process_map.keySet()).iterator();
   }
 
+  /**
+   * Returns the number of processes currently being managed.
+   */
+  int getManagedCount() {
+    return process_map.size();
+  }
+
 
 }
@@ -0,0 +1,376 @@
+/**
+ * com.mckoi.process.impl.ProcessSnapshotStore  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * A store of compact snapshots of evicted process instances in a local
+ * folder. When a suspended process instance is evicted from the process set
+ * its account, application, process name and state map are written to a
+ * snapshot file. When the process is next accessed it's resumed from the
+ * snapshot instead of from the sysprocess path in the database.
+ * <p>
+ * The database is always the authority for process state. A snapshot is
+ * only written for an instance whose state was committed by the maintenance
+ * task, a snapshot is consumed (deleted) when it's read, and snapshots
+ * older than the time-to-live or left over from a previous run of the
+ * service are ignored. This means a process that was moved to another
+ * server while evicted will at worst resume from a snapshot that's no
+ * older than the time-to-live.
+ * <p>
+ * Snapshots are versioned so a slow write can't replace newer state. The
+ * evictor reads the version of a process before it evicts the instance,
+ * and every 'take' or 'remove' of the process moves the version on. A write
+ * only becomes visible if the version is unchanged, so if the process was
+ * resumed (from the database or a snapshot) or terminated after the
+ * evictor looked, the snapshot is discarded. Versions are kept per stripe
+ * of process ids rather than per process, so a write may occasionally be
+ * discarded because of activity on an unrelated process. This is safe
+ * because the process is then resumed from the database.
+ *
+ * @author Tobias Downer
+ */
+
+class ProcessSnapshotStore {
+
+  /**
+   * The snapshot file format magic value and version.
+   */
+  private static final int SNAPSHOT_MAGIC = 0x504d5353;
+  private static final int SNAPSHOT_VERSION = 2;
+
+  /**
+   * The number of version stripes (must be a power of 2).
+   */
+  private static final int STRIPE_COUNT = 1024;
+
+  /**
+   * The folder the snapshots are stored in.
+   */
+  private final File snapshot_folder;
+
+  /**
+   * The time-to-live of a snapshot in milliseconds.
+   */
+  private final long snapshot_ttl;
+
+  /**
+   * Counters.
+   */
+  private final AtomicLong write_count = new AtomicLong(0);
+  private final AtomicLong hit_count = new AtomicLong(0);
+  private final AtomicLong miss_count = new AtomicLong(0);
+
+  /**
+   * The version of each stripe of process ids, and the locks guarding the
+   * version and the snapshot files of the processes in the stripe.
+   */
+  private final long[] stripe_versions = new long[STRIPE_COUNT];
+  private final Object[] stripe_locks = new Object[STRIPE_COUNT];
+
+  /**
+   * Constructor.
+   */
+  ProcessSnapshotStore(File snapshot_folder, long snapshot_ttl) {
+    this.snapshot_folder = snapshot_folder;
+    this.snapshot_ttl = snapshot_ttl;
+    for (int i = 0; i < STRIPE_COUNT; ++i) {
+      stripe_locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Creates the snapshot folder and deletes any snapshots left over from a
+   * previous run.
+   */
+  void init() throws IOException {
+    if (!snapshot_folder.exists() && !snapshot_folder.mkdirs()) {
+      throw new IOException("Unable to create: " + snapshot_folder);
+    }
+    File[] path_folders = snapshot_folder.listFiles();
+    if (path_folders != null) {
+      for (File path_folder : path_folders) {
+        File[] files = path_folder.listFiles();
+        if (files != null) {
+          for (File f : files) {
+            f.delete();
+          }
+        }
+        path_folder.delete();
+      }
+    }
+  }
+
+  /**
+   * Returns the snapshot file for the given process id.
+   */
+  private File getSnapshotFile(ProcessId process_id) {
+    File path_folder = new File(snapshot_folder, process_id.getProcessPath());
+    String file_name = Long.toHexString(process_id.getHighLong()) + "_" +
+                       Long.toHexString(process_id.getLowLong()) + ".snap";
+    return new File(path_folder, file_name);
+  }
+
+  /**
+   * Returns the stripe of the given process id.
+   */
+  private static int getStripe(ProcessId process_id) {
+    int h = process_id.hashCode();
+    h ^= (h >>> 16);
+    return h & (STRIPE_COUNT - 1);
+  }
+
+  /**
+   * Returns the current version of the snapshot of the given process. This
+   * must be read before the instance is evicted, and passed to 'write'.
+   */
+  long getVersion(ProcessId process_id) {
+    int stripe = getStripe(process_id);
+    synchronized (stripe_locks[stripe]) {
+      return stripe_versions[stripe];
+    }
+  }
+
+  /**
+   * Writes a snapshot of the given process. The snapshot is written to a
+   * temporary file first and renamed, so a reader never sees a partially
+   * written snapshot. The rename only happens if the version of the
+   * process is still 'version'. 'next_broadcast_seq' is the lowest
+   * sequence value the process may give its next broadcast message. Returns
+   * false if the snapshot couldn't be written or was out of date.
+   */
+  boolean write(ProcessId process_id, long version,
+                AccountApplication account_app, String process_name,
+                long next_broadcast_seq, Map<String, String> state) {
+
+    File snapshot_file = getSnapshotFile(process_id);
+    File path_folder = snapshot_file.getParentFile();
+    File temp_file = new File(path_folder, snapshot_file.getName() + ".tmp");
+
+    try {
+      if (!path_folder.exists()) {
+        path_folder.mkdirs();
+      }
+      DataOutputStream dout = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(temp_file)));
+      try {
+        dout.writeInt(SNAPSHOT_MAGIC);
+        dout.writeInt(SNAPSHOT_VERSION);
+        dout.writeLong(System.currentTimeMillis());
+        writeString(dout, account_app.getAccountName());
+        writeString(dout, account_app.getApplicationName());
+        writeString(dout, process_name);
+        dout.writeLong(next_broadcast_seq);
+        dout.writeInt(state.size());
+        for (Map.Entry<String, String> entry : state.entrySet()) {
+          writeString(dout, entry.getKey());
+          writeString(dout, entry.getValue());
+        }
+      }
+      finally {
+        dout.close();
+      }
+      int stripe = getStripe(process_id);
+      synchronized (stripe_locks[stripe]) {
+        // If the process was resumed or removed since the version was read
+        // then this snapshot is out of date,
+        if (stripe_versions[stripe] != version) {
+          temp_file.delete();
+          return false;
+        }
+        // Replace any existing snapshot,
+        snapshot_file.delete();
+        if (!temp_file.renameTo(snapshot_file)) {
+          temp_file.delete();
+          return false;
+        }
+      }
+      write_count.incrementAndGet();
+      return true;
+    }
+    catch (IOException e) {
+      ProcessServerService.PROCESS_LOG.log(Level.WARNING,
+                              "Unable to write process snapshot", e);
+      temp_file.delete();
+      return false;
+    }
+
+  }
+
+  /**
+   * Reads and deletes the snapshot of the given process. Returns null if
+   * there is no snapshot, or the snapshot is expired or unreadable.
+   */
+  Snapshot take(ProcessId process_id) {
+    int stripe = getStripe(process_id);
+    synchronized (stripe_locks[stripe]) {
+      ++stripe_versions[stripe];
+      return readAndDelete(process_id);
+    }
+  }
+
+  /**
+   * Reads and deletes the snapshot file of the given process.
+   */
+  private Snapshot readAndDelete(ProcessId process_id) {
+
+    File snapshot_file = getSnapshotFile(process_id);
+    if (!snapshot_file.exists()) {
+      miss_count.incrementAndGet();
+      return null;
+    }
+
+    try {
+      DataInputStream din = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(snapshot_file)));
+      try {
+        if (din.readInt() != SNAPSHOT_MAGIC ||
+            din.readInt() != SNAPSHOT_VERSION) {
+          miss_count.incrementAndGet();
+          return null;
+        }
+        long timestamp = din.readLong();
+        if (System.currentTimeMillis() > timestamp + snapshot_ttl) {
+          miss_count.incrementAndGet();
+          return null;
+        }
+        String account_name = readString(din);
+        String app_name = readString(din);
+        String process_name = readString(din);
+        long next_broadcast_seq = din.readLong();
+        int size = din.readInt();
+        Map<String, String> state = new HashMap<>();
+        for (int i = 0; i < size; ++i) {
+          String key = readString(din);
+          String value = readString(din);
+          state.put(key, value);
+        }
+        hit_count.incrementAndGet();
+        return new Snapshot(new AccountApplication(account_name, app_name),
+                            process_name, next_broadcast_seq, state);
+      }
+      finally {
+        din.close();
+        // A snapshot is only ever used once,
+        snapshot_file.delete();
+      }
+    }
+    catch (IOException e) {
+      ProcessServerService.PROCESS_LOG.log(Level.WARNING,
+                              "Unable to read process snapshot", e);
+      miss_count.incrementAndGet();
+      return null;
+    }
+
+  }
+
+  /**
+   * Deletes the snapshot of the given process, if there is one, and stops
+   * any snapshot being written for it by an eviction already in progress.
+   * Called when the process is terminated or resumed from the database.
+   */
+  void remove(ProcessId process_id) {
+    int stripe = getStripe(process_id);
+    synchronized (stripe_locks[stripe]) {
+      ++stripe_versions[stripe];
+      getSnapshotFile(process_id).delete();
+    }
+  }
+
+  /**
+   * Returns the number of snapshots written, and the number of resumes
+   * that found, or didn't find, a usable snapshot.
+   */
+  long getWriteCount() {
+    return write_count.get();
+  }
+
+  long getHitCount() {
+    return hit_count.get();
+  }
+
+  long getMissCount() {
+    return miss_count.get();
+  }
+
+  private static void writeString(DataOutputStream dout, String str)
+                                                          throws IOException {
+    byte[] b = str.getBytes(StandardCharsets.UTF_8);
+    dout.writeInt(b.length);
+    dout.write(b);
+  }
+
+  private static String readString(DataInputStream din) throws IOException {
+    int sz = din.readInt();
+    byte[] b = new byte[sz];
+    din.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A snapshot of a process read from the store.
+   */
+  static class Snapshot {
+
+    private final AccountApplication account_app;
+    private final String process_name;
+    private final long next_broadcast_seq;
+    private final Map<String, String> state;
+
+    private Snapshot(AccountApplication account_app, String process_name,
+                     long next_broadcast_seq, Map<String, String> state) {
+      this.account_app = account_app;
+      this.process_name = process_name;
+      this.next_broadcast_seq = next_broadcast_seq;
+      this.state = state;
+    }
+
+    AccountApplication getAccountApplication() {
+      return account_app;
+    }
+
+    String getProcessName() {
+      return process_name;
+    }
+
+    long getNextBroadcastSequence() {
+      return next_broadcast_seq;
+    }
+
+    Map<String, String> getState() {
+      return state;
+    }
+
+  }
+
+}
@@ -35,30 +35,134 @@ import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of StateMap.
+ * <p>
+ * The map keeps a journal of the keys that were changed since it was last
+ * serialized, so a serialize only needs to write the changed keys to the
+ * DataFile. This assumes the DataFile given to 'serialize' contains the data
+ * written by the previous serialize. When that isn't the case (the
+ * transaction written to was never committed), 'invalidateJournal' must be
+ * called so the next serialize rewrites the whole map.
  *
  * @author Tobias Downer
  */
 
 class StateMapImpl implements StateMap {
 
+  /**
+   * The minimum journal size before a full rewrite is preferred over
+   * writing the changed keys.
+   */
+  private static final int MIN_JOURNAL_THRESHOLD = 64;
+
   private final Map<String, String> java_map;
 
   private final ReentrantLock modify_lock = new ReentrantLock();
 
+  /**
+   * The keys put or removed since the last serialize.
+   */
+  private final Set<String> changed_keys;
+
+  /**
+   * True if the next serialize must compare the whole map against the
+   * DataFile.
+   */
+  private boolean full_rewrite = true;
+
   /**
    * Constructor.
    */
   StateMapImpl() {
     java_map = new HashMap();
+    changed_keys = new HashSet();
+  }
+
+  /**
+   * Records that the given key was changed. Once the journal becomes larger
+   * than half the map, the journal is dropped and the next serialize is a
+   * full rewrite.
+   */
+  private void journalKey(String key) {
+    if (!full_rewrite) {
+      changed_keys.add(key);
+      int sz = changed_keys.size();
+      if (sz > MIN_JOURNAL_THRESHOLD && sz > (java_map.size() / 2)) {
+        changed_keys.clear();
+        full_rewrite = true;
+      }
+    }
+  }
+
+  /**
+   * Forces the next serialize to rewrite the entire map. This must be called
+   * when the data written by the previous serialize was not committed.
+   */
+  void invalidateJournal() {
+    modify_lock.lock();
+    try {
+      changed_keys.clear();
+      full_rewrite = true;
+    }
+    finally {
+      modify_lock.unlock();
+    }
   }
 
   /**
    * Attempts to serialize the content of the state map to the given DataFile
-   * object. Note that a lock must be aquired on this map before this method
-   * is called.
+   * object. Only the keys changed since the last serialize are written,
+   * unless a full rewrite is necessary. Note that a lock must be aquired on
+   * this map before this method is called.
    */
   boolean serialize(DataFile df) {
 
+    boolean changed;
+    if (full_rewrite) {
+      changed = serializeFull(df);
+    }
+    else {
+      changed = serializeJournal(df);
+    }
+    // The DataFile is now consistent with the map,
+    changed_keys.clear();
+    full_rewrite = false;
+    return changed;
+
+  }
+
+  /**
+   * Writes the keys in the journal to the DataFile.
+   */
+  private boolean serializeJournal(DataFile df) {
+
+    // Nothing changed,
+    if (changed_keys.isEmpty()) {
+      return false;
+    }
+
+    boolean changed = false;
+
+    PropertySet pset = new PropertySet(df);
+    for (String key : changed_keys) {
+      // Null if the key was removed,
+      String value = java_map.get(key);
+      String s_value = pset.getProperty(key);
+      if (value == null ? s_value != null : !value.equals(s_value)) {
+        pset.setProperty(key, value);
+        changed = true;
+      }
+    }
+
+    return changed;
+
+  }
+
+  /**
+   * Compares every key in the map with the DataFile and writes the
+   * differences.
+   */
+  private boolean serializeFull(DataFile df) {
+
     boolean changed = false;
 
     // We have the lock, so serialize the map,
@@ -100,6 +204,9 @@ class StateMapImpl implements StateMap {
 
     // make sure the internal state is cleared,
     java_map.clear();
+    // The next serialize is a full rewrite,
+    changed_keys.clear();
+    full_rewrite = true;
     // Read all the properties from the data file,
     PropertySet pset = new PropertySet(df);
     // For each stored key,
@@ -111,6 +218,25 @@ class StateMapImpl implements StateMap {
 
   }
 
+  /**
+   * Returns a copy of the content of this map. Used to write a local
+   * snapshot of the state.
+   */
+  Map<String, String> copyState() {
+    return new HashMap<>(java_map);
+  }
+
+  /**
+   * Sets the content of this map from a local snapshot of the state. As
+   * with 'deserialize', the next serialize is a full rewrite.
+   */
+  void restoreState(Map<String, String> state) {
+    java_map.clear();
+    changed_keys.clear();
+    full_rewrite = true;
+    java_map.putAll(state);
+  }
+
   /**
    * Tries to aquire a lock on this map within the given period of
    * milliseconds. If it's unable to then returns false. If successful then
@@ -149,6 +275,9 @@ class StateMapImpl implements StateMap {
   public String remove(Object key) {
     modify_lock.lock();
     try {
+      if (key instanceof String) {
+        journalKey((String) key);
+      }
       return java_map.remove(key);
     }
     finally {
@@ -160,6 +289,9 @@ class StateMapImpl implements StateMap {
   public void putAll(Map<? extends String, ? extends String> m) {
     modify_lock.lock();
     try {
+      for (String key : m.keySet()) {
+        journalKey(key);
+      }
       java_map.putAll(m);
     }
     finally {
@@ -171,6 +303,7 @@ class StateMapImpl implements StateMap {
   public String put(String key, String value) {
     modify_lock.lock();
     try {
+      journalKey(key);
       return java_map.put(key, value);
     }
     finally {
@@ -215,6 +348,9 @@ class StateMapImpl implements StateMap {
     modify_lock.lock();
     try {
       java_map.clear();
+      // Rewrite everything on the next serialize,
+      changed_keys.clear();
+      full_rewrite = true;
     }
     finally {
       modify_lock.unlock();
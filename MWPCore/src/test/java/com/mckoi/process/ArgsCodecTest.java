@@ -0,0 +1,193 @@
+/**
+ * com.mckoi.process.ArgsCodecTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that ArgsCodec decodes what it encodes, and that it stays
+ * compatible with the original format, which wrote the arguments list
+ * with a DataOutputStream (a short count, then each argument as a tag of
+ * 0 null, 1 int, 2 long or 3 'writeUTF' string).
+ *
+ * @author Tobias Downer
+ */
+
+public class ArgsCodecTest {
+
+  private static final byte[] HEADER = new byte[] { 9, 8, 7, 6, 5 };
+
+  /**
+   * Encodes the arguments list in the original format.
+   */
+  private static byte[] encodeOldFormat(Object[] args) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream dout = new DataOutputStream(bout);
+    dout.writeShort(args.length);
+    for (Object arg : args) {
+      if (arg == null) {
+        dout.writeByte(0);
+      }
+      else if (arg instanceof Integer) {
+        dout.writeByte(1);
+        dout.writeInt((Integer) arg);
+      }
+      else if (arg instanceof Long) {
+        dout.writeByte(2);
+        dout.writeLong((Long) arg);
+      }
+      else {
+        dout.writeByte(3);
+        dout.writeUTF((String) arg);
+      }
+    }
+    dout.flush();
+    return bout.toByteArray();
+  }
+
+  private static Object[] roundTrip(Object[] args) {
+    byte[] buf = ArgsCodec.encode(HEADER, args);
+    assertArrayEquals(HEADER, Arrays.copyOf(buf, HEADER.length));
+    return ArgsCodec.decode(buf, HEADER.length, buf.length - HEADER.length);
+  }
+
+  private static String longString(int length) {
+    StringBuilder b = new StringBuilder(length);
+    for (int i = 0; i < length; ++i) {
+      b.append((char) ('a' + (i % 26)));
+    }
+    return b.toString();
+  }
+
+  /**
+   * Version 1 values, including strings that need the modified UTF-8
+   * special cases (the null char and surrogate pairs).
+   */
+  private static final Object[] V1_ARGS = new Object[] {
+    null, 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+    0L, Long.MIN_VALUE, 9000000000L,
+    "", "plain", "\u0000nul", "été 中", "😀",
+    longString(65535)
+  };
+
+  @Test
+  public void versionOneRoundTrip() {
+    assertArrayEquals(V1_ARGS, roundTrip(V1_ARGS));
+  }
+
+  @Test
+  public void versionTwoRoundTrip() {
+    Map<Object, Object> map = new LinkedHashMap<>();
+    map.put("k", 1);
+    map.put(2L, Arrays.asList("x", null));
+    map.put(null, Boolean.FALSE);
+    Object[] args = new Object[] {
+      Boolean.TRUE, Boolean.FALSE, 1.5d, -0.0d, Double.NaN,
+      new byte[0], new byte[] { 1, -2, 3 },
+      Arrays.asList(), Arrays.asList(1, "two", Arrays.asList(3L)), map,
+      longString(70000)
+    };
+    Object[] out = roundTrip(args);
+    assertEquals(args.length, out.length);
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i] instanceof byte[]) {
+        assertArrayEquals((byte[]) args[i], (byte[]) out[i]);
+      }
+      else {
+        assertEquals(args[i], out[i]);
+      }
+    }
+    // Map entries keep their order,
+    assertEquals(Arrays.asList("k", 2L, null),
+                 Arrays.asList(((Map<?, ?>) out[9]).keySet().toArray()));
+  }
+
+  @Test
+  public void floatIsDecodedAsDouble() {
+    Object[] out = roundTrip(new Object[] { 2.25f });
+    assertEquals(2.25d, out[0]);
+  }
+
+  @Test
+  public void decodesOldFormat() throws IOException {
+    byte[] old = encodeOldFormat(V1_ARGS);
+    assertArrayEquals(V1_ARGS, ArgsCodec.decode(old, 0, old.length));
+
+    // At an offset in a larger array,
+    byte[] buf = new byte[old.length + 20];
+    System.arraycopy(old, 0, buf, 12, old.length);
+    assertArrayEquals(V1_ARGS, ArgsCodec.decode(buf, 12, old.length));
+  }
+
+  @Test
+  public void versionOneValuesEncodeInOldFormat() throws IOException {
+    // Older versions can decode messages that only use version 1 values,
+    byte[] buf = ArgsCodec.encode(null, V1_ARGS);
+    assertArrayEquals(encodeOldFormat(V1_ARGS), buf);
+  }
+
+  @Test
+  public void decodeStringsOfOldFormat() throws IOException {
+    String[] args = new String[] { "a", null, "été", "" };
+    byte[] old = encodeOldFormat(args);
+    assertArrayEquals(args, ArgsCodec.decodeStrings(old, 0, old.length));
+  }
+
+  @Test
+  public void unknownTagFails() {
+    byte[] buf = new byte[] { 0, 1, 99 };
+    try {
+      ArgsCodec.decode(buf, 0, buf.length);
+      fail("Expected an unknown type error");
+    }
+    catch (RuntimeException e) {
+      assertTrue(e.getMessage().startsWith("Unknown type"));
+    }
+  }
+
+  @Test
+  public void truncatedListFails() {
+    byte[] buf = ArgsCodec.encode(null, new Object[] { 5L, "abc" });
+    try {
+      ArgsCodec.decode(buf, 0, buf.length - 1);
+      fail("Expected an end of list error");
+    }
+    catch (RuntimeException e) {
+      assertEquals("Unexpected end of arguments list", e.getMessage());
+    }
+    List<Object> args = Arrays.asList(ArgsCodec.decode(buf, 0, buf.length));
+    assertEquals(Arrays.<Object>asList(5L, "abc"), args);
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * com.mckoi.process.ChannelEventSourceServletTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.servlet.http.HttpServletRequest;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that ChannelEventSourceServlet.getLastEventState only accepts a
+ * 'Last-Event-ID' header for the expected channel.
+ *
+ * @author Tobias Downer
+ */
+
+public class ChannelEventSourceServletTest {
+
+  private static final ProcessChannel CHANNEL =
+                    new ProcessChannel(new ProcessId((byte) 2, 30, 400), 5);
+
+  /**
+   * Returns a request with the given 'Last-Event-ID' header.
+   */
+  private static HttpServletRequest request(final String last_event_id) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getHeader") &&
+                args[0].equals("Last-Event-ID")) {
+              return last_event_id;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static ChannelSessionState lastEventState(String last_event_id) {
+    return ChannelEventSourceServlet.getLastEventState(
+                                          request(last_event_id), CHANNEL);
+  }
+
+  @Test
+  public void acceptsStateOnChannel() {
+    String id = ChannelSessionState.encodeSessionState(
+                                            CHANNEL, 0x1234L).toString();
+    ChannelSessionState state = lastEventState(id);
+    assertNotNull(state);
+    assertEquals(CHANNEL, state.getProcessChannel());
+    assertEquals(0x1234L, state.getSequenceValue());
+  }
+
+  @Test
+  public void noHeader() {
+    assertNull(lastEventState(null));
+    assertNull(lastEventState(""));
+  }
+
+  @Test
+  public void rejectsOtherChannel() {
+    ProcessChannel other = new ProcessChannel(CHANNEL.getProcessId(), 6);
+    assertNull(lastEventState(
+              ChannelSessionState.encodeSessionState(other, 10).toString()));
+    ProcessChannel other_process =
+                    new ProcessChannel(new ProcessId((byte) 2, 30, 401), 5);
+    assertNull(lastEventState(ChannelSessionState.encodeSessionState(
+                                          other_process, 10).toString()));
+  }
+
+  @Test
+  public void rejectsMalformedId() {
+    String prefix = CHANNEL.toString();
+    assertNull(lastEventState(prefix));
+    assertNull(lastEventState(prefix + ":"));
+    assertNull(lastEventState(prefix + ":xyz"));
+    assertNull(lastEventState(prefix + ":-1"));
+    assertNull(lastEventState(prefix + ":10:20"));
+    assertNull(lastEventState("garbage"));
+  }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * com.mckoi.process.impl.AsyncProcessCreateTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessCallback;
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessServiceAddress;
+import com.mckoi.process.ProcessUnavailableException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests AsyncProcessCreate against a fake target whose init replies are
+ * routed through PendingReplies, the same as ProcessClientService.
+ *
+ * @author Tobias Downer
+ */
+
+public class AsyncProcessCreateTest {
+
+  private static final ProcessServiceAddress MACHINE =
+                                  new ProcessServiceAddress("127.0.0.1");
+
+  private final ExecutorService thread_pool = Executors.newFixedThreadPool(2);
+
+  @After
+  public void shutdown() {
+    thread_pool.shutdownNow();
+  }
+
+  /**
+   * How the fake process server responds to an init message.
+   */
+  private static enum Response { SUCCESS, FAIL, SILENT }
+
+  /**
+   * A target with a scripted pool of leases and scripted responses. Replies
+   * are delivered from the thread pool.
+   */
+  private class FakeTarget implements AsyncProcessCreate.Target {
+
+    final PendingReplies replies = new PendingReplies(1000);
+    final Deque<ProcessIdPool.Lease> pool = new ArrayDeque<>();
+    final List<ProcessIdPool.Lease> block = new ArrayList<>();
+    final Map<ProcessId, Response> responses = new HashMap<>();
+    final List<ProcessId> sent = new ArrayList<>();
+    volatile Thread block_thread = null;
+    int call_id = 0;
+
+    ProcessId add(Deque<ProcessIdPool.Lease> leases, int n,
+                  Response response) {
+      ProcessId pid = new ProcessId((byte) 1, 10, n);
+      responses.put(pid, response);
+      leases.add(new ProcessIdPool.Lease(pid, MACHINE, Long.MAX_VALUE));
+      return pid;
+    }
+
+    @Override
+    public synchronized ProcessIdPool.Lease takeLease() {
+      return pool.poll();
+    }
+
+    @Override
+    public synchronized void leaseBlock() {
+      block_thread = Thread.currentThread();
+      pool.addAll(block);
+    }
+
+    @Override
+    public synchronized void sendInit(ProcessIdPool.Lease lease,
+                           ProcessClientService.ReplyCallback callback) {
+      final ProcessId pid = lease.getProcessId();
+      final int id = ++call_id;
+      sent.add(pid);
+      replies.register(MACHINE, pid, id, callback);
+      final Response response = responses.get(pid);
+      if (response == Response.SILENT) {
+        return;
+      }
+      thread_pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          PMessage reply = (response == Response.SUCCESS) ?
+                  ProcessServerService.successMessage(pid, id) :
+                  ProcessServerService.failMessage(pid, id, "UNAVAILABLE",
+                                        new RuntimeException("init failed"));
+          replies.complete(MACHINE, pid, id, reply);
+        }
+      });
+    }
+
+  }
+
+  /**
+   * Records the outcome of the creation.
+   */
+  private static class Result implements ProcessCallback<ProcessId> {
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile ProcessId process_id;
+    volatile Throwable error;
+    volatile Thread thread;
+    @Override
+    public void completed(ProcessId result) {
+      process_id = result;
+      thread = Thread.currentThread();
+      done.countDown();
+    }
+    @Override
+    public void failed(Throwable e) {
+      error = e;
+      thread = Thread.currentThread();
+      done.countDown();
+    }
+    void await() throws InterruptedException {
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void firstLeaseSucceeds() throws Exception {
+    FakeTarget target = new FakeTarget();
+    ProcessId pid = target.add(target.pool, 1, Response.SUCCESS);
+    Result result = new Result();
+    new AsyncProcessCreate(target, thread_pool, result).start();
+    result.await();
+    assertEquals(pid, result.process_id);
+    assertNull(result.error);
+    assertNotSame(Thread.currentThread(), result.thread);
+    assertEquals(1, target.sent.size());
+  }
+
+  @Test
+  public void failedInitTriesNextLease() throws Exception {
+    FakeTarget target = new FakeTarget();
+    target.add(target.pool, 1, Response.FAIL);
+    target.add(target.pool, 2, Response.FAIL);
+    ProcessId pid = target.add(target.pool, 3, Response.SUCCESS);
+    Result result = new Result();
+    new AsyncProcessCreate(target, thread_pool, result).start();
+    result.await();
+    assertEquals(pid, result.process_id);
+    assertEquals(3, target.sent.size());
+  }
+
+  @Test
+  public void timedOutInitTriesNextLease() throws Exception {
+    FakeTarget target = new FakeTarget();
+    target.add(target.pool, 1, Response.SILENT);
+    ProcessId pid = target.add(target.pool, 2, Response.SUCCESS);
+    Result result = new Result();
+    new AsyncProcessCreate(target, thread_pool, result).start();
+
+    // Nothing happens until the reply times out, and no thread waits,
+    assertFalse(result.done.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(1, target.replies.size());
+
+    // The timeout task fails the pending reply,
+    assertEquals(1, target.replies.expire(
+                                  System.currentTimeMillis() + 5000));
+    result.await();
+    assertEquals(pid, result.process_id);
+    assertEquals(2, target.sent.size());
+  }
+
+  @Test
+  public void emptyPoolLeasesBlockOnThreadPool() throws Exception {
+    FakeTarget target = new FakeTarget();
+    Deque<ProcessIdPool.Lease> block = new ArrayDeque<>();
+    ProcessId pid = target.add(block, 1, Response.SUCCESS);
+    target.block.addAll(block);
+    Result result = new Result();
+    new AsyncProcessCreate(target, thread_pool, result).start();
+    result.await();
+    assertEquals(pid, result.process_id);
+    assertNotNull(target.block_thread);
+    assertNotSame(Thread.currentThread(), target.block_thread);
+  }
+
+  @Test
+  public void emptyBlockFails() throws Exception {
+    FakeTarget target = new FakeTarget();
+    Result result = new Result();
+    new AsyncProcessCreate(target, thread_pool, result).start();
+    result.await();
+    assertNull(result.process_id);
+    assertTrue(result.error instanceof ProcessUnavailableException);
+  }
+
+  @Test
+  public void givesUpAfterMaxAttempts() throws Exception {
+    FakeTarget target = new FakeTarget();
+    for (int i = 0; i < AsyncProcessCreate.MAX_ATTEMPTS + 4; ++i) {
+      target.add(target.pool, i, Response.FAIL);
+    }
+    Result result = new Result();
+    new AsyncProcessCreate(target, thread_pool, result).start();
+    result.await();
+    assertTrue(result.error instanceof ProcessUnavailableException);
+    assertEquals(AsyncProcessCreate.MAX_ATTEMPTS, target.sent.size());
+  }
+
+}
@@ -0,0 +1,316 @@
+/**
+ * com.mckoi.process.impl.BroadcastRelayTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessChannel;
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessResultNotifier;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests BroadcastRelay against a fake source of relayed messages and fake
+ * client connections.
+ *
+ * @author Tobias Downer
+ */
+
+public class BroadcastRelayTest {
+
+  private static final ProcessChannel CHANNEL =
+                      new ProcessChannel(new ProcessId((byte) 1, 2, 3), 0);
+
+  private final ExecutorService thread_pool = Executors.newFixedThreadPool(4);
+  private final Timer timer = new Timer(true);
+
+  @After
+  public void shutdown() {
+    thread_pool.shutdownNow();
+    timer.cancel();
+  }
+
+  /**
+   * Returns a broadcast message with the given sequence value.
+   */
+  private static PMessage message(long sequence_val) {
+    byte[] buf = new byte[40];
+    ByteBuffer.wrap(buf).putLong(20, sequence_val);
+    buf[0] = CommConstants.BROADCAST_MESSAGE_CC;
+    return new PMessage(buf);
+  }
+
+  /**
+   * A source of relayed messages held in a list.
+   */
+  private static class FakeSource implements BroadcastRelay.Source {
+
+    final List<PMessage> messages = new ArrayList<>();
+    final AtomicInteger start_count = new AtomicInteger();
+    final AtomicInteger stop_count = new AtomicInteger();
+    volatile boolean closed = false;
+    ProcessResultNotifier notifier;
+    long notifier_seq;
+
+    @Override
+    public void startRelayingBroadcast(ProcessChannel process_channel) {
+      start_count.incrementAndGet();
+    }
+
+    @Override
+    public void stopRelayingBroadcast(ProcessChannel process_channel) {
+      stop_count.incrementAndGet();
+    }
+
+    @Override
+    public boolean isRelayedBroadcastClosed(ProcessChannel process_channel) {
+      return closed;
+    }
+
+    @Override
+    public synchronized List<PMessage> getRelayedMessages(
+            ProcessChannel process_channel, long sequence_value,
+            int consume_limit, ProcessResultNotifier notifier) {
+      List<PMessage> out = new ArrayList<>();
+      for (PMessage msg : messages) {
+        if (msg.getSequenceValue() > sequence_value &&
+            out.size() < consume_limit) {
+          out.add(msg);
+        }
+      }
+      if (!out.isEmpty()) {
+        return out;
+      }
+      if (notifier != null) {
+        this.notifier = notifier;
+        this.notifier_seq = sequence_value;
+      }
+      return null;
+    }
+
+    void publish(long sequence_val) {
+      ProcessResultNotifier to_notify = null;
+      synchronized (this) {
+        messages.add(message(sequence_val));
+        if (notifier != null && sequence_val > notifier_seq) {
+          to_notify = notifier;
+          notifier = null;
+        }
+      }
+      if (to_notify != null) {
+        to_notify.notifyMessages();
+      }
+    }
+
+  }
+
+  /**
+   * A client connection that records the messages sent to it. The sends
+   * block while 'gate' is closed.
+   */
+  private static class FakeConnection extends NIOConnection {
+
+    final List<PMessage> received = new CopyOnWriteArrayList<>();
+    final CountDownLatch gate;
+    volatile boolean valid = true;
+
+    FakeConnection(CountDownLatch gate) {
+      super(null, null, null, null);
+      this.gate = gate;
+    }
+
+    @Override
+    boolean isValid() {
+      return valid;
+    }
+
+    @Override
+    public boolean sendFirstMessage(PMessage msg) throws IOException {
+      try {
+        gate.await();
+      }
+      catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      received.add(msg);
+      return false;
+    }
+
+    @Override
+    public void flushSendMessages() {
+    }
+
+    void awaitReceived(int count) throws InterruptedException {
+      long end = System.currentTimeMillis() + 10000;
+      while (received.size() < count) {
+        assertTrue("timed out", System.currentTimeMillis() < end);
+        Thread.sleep(5);
+      }
+    }
+
+  }
+
+  /**
+   * An executor that rejects a number of tasks before running them on the
+   * thread pool.
+   */
+  private class RejectingExecutor extends AbstractExecutorService {
+    final AtomicInteger reject_count;
+    RejectingExecutor(int reject_count) {
+      this.reject_count = new AtomicInteger(reject_count);
+    }
+    @Override
+    public void execute(Runnable task) {
+      if (reject_count.getAndDecrement() > 0) {
+        throw new RejectedExecutionException();
+      }
+      thread_pool.execute(task);
+    }
+    @Override
+    public void shutdown() {
+    }
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+
+  private static CountDownLatch open() {
+    return new CountDownLatch(0);
+  }
+
+  @Test
+  public void messagesAreForwarded() throws Exception {
+    FakeSource source = new FakeSource();
+    BroadcastRelay relay = new BroadcastRelay(source, thread_pool, timer);
+    FakeConnection conn = new FakeConnection(open());
+    source.publish(10);
+    assertTrue(relay.addDownstream(CHANNEL, conn, 0));
+    conn.awaitReceived(1);
+
+    // Messages after the client is caught up are forwarded on notify,
+    source.publish(11);
+    source.publish(12);
+    conn.awaitReceived(3);
+    assertEquals(12, conn.received.get(2).getSequenceValue());
+    assertEquals(1, source.start_count.get());
+  }
+
+  @Test
+  public void slowClientDoesNotBlockOthers() throws Exception {
+    FakeSource source = new FakeSource();
+    BroadcastRelay relay = new BroadcastRelay(source, thread_pool, timer);
+    CountDownLatch gate = new CountDownLatch(1);
+    FakeConnection slow = new FakeConnection(gate);
+    FakeConnection fast = new FakeConnection(open());
+    relay.addDownstream(CHANNEL, slow, 0);
+    relay.addDownstream(CHANNEL, fast, 0);
+
+    source.publish(1);
+    source.publish(2);
+    source.publish(3);
+    // The fast client gets everything while a send to the slow one blocks,
+    fast.awaitReceived(3);
+    assertEquals(0, slow.received.size());
+
+    gate.countDown();
+    slow.awaitReceived(3);
+    assertEquals(3, slow.received.get(2).getSequenceValue());
+  }
+
+  @Test
+  public void rejectedForwardIsRetried() throws Exception {
+    FakeSource source = new FakeSource();
+    BroadcastRelay relay = new BroadcastRelay(
+                              source, new RejectingExecutor(3), timer);
+    FakeConnection conn = new FakeConnection(open());
+    source.publish(5);
+    relay.addDownstream(CHANNEL, conn, 0);
+    conn.awaitReceived(1);
+  }
+
+  @Test
+  public void channelStopsWithNoClients() throws Exception {
+    FakeSource source = new FakeSource();
+    BroadcastRelay relay = new BroadcastRelay(source, thread_pool, timer);
+    FakeConnection conn1 = new FakeConnection(open());
+    FakeConnection conn2 = new FakeConnection(open());
+    relay.addDownstream(CHANNEL, conn1, 0);
+    relay.addDownstream(CHANNEL, conn2, 0);
+    assertEquals(1, source.start_count.get());
+
+    relay.maintenance();
+    assertEquals(0, source.stop_count.get());
+
+    conn1.valid = false;
+    conn2.valid = false;
+    relay.maintenance();
+    assertEquals(1, source.stop_count.get());
+  }
+
+  @Test
+  public void closedChannelNotifiesClients() throws Exception {
+    FakeSource source = new FakeSource();
+    BroadcastRelay relay = new BroadcastRelay(source, thread_pool, timer);
+    FakeConnection conn = new FakeConnection(open());
+    relay.addDownstream(CHANNEL, conn, 0);
+
+    source.closed = true;
+    relay.maintenance();
+    conn.awaitReceived(1);
+    PMessage msg = conn.received.get(conn.received.size() - 1);
+    assertEquals(CommConstants.NOTIFY_TERMINATED_CC,
+                 msg.asByteBuffer().get(0));
+    assertEquals(1, source.stop_count.get());
+  }
+
+}
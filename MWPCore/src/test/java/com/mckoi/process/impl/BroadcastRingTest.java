@@ -0,0 +1,386 @@
+/**
+ * com.mckoi.process.impl.BroadcastRingTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.util.ByteArrayUtil;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests of BroadcastRing. The single threaded tests check the sequence
+ * values given to published messages and the eviction rules, and the
+ * multi-threaded tests check that readers racing with a writer only ever
+ * see the messages they asked for, and see every message published before
+ * the tail they read.
+ *
+ * @author Tobias Downer
+ */
+
+public class BroadcastRingTest {
+
+  private static final int MESSAGE_SIZE = 44;
+  private static final int TIMESTAMP_OFFSET = 28;
+  private static final int MARKER_OFFSET = 36;
+
+  private static final int READER_COUNT = 4;
+  private static final int PUBLISH_COUNT = 200000;
+
+  /**
+   * Returns a broadcast message with the given timestamp and marker. The
+   * marker is the sequence value the message is expected to be given.
+   */
+  private static byte[] message(long timestamp, long marker) {
+    byte[] buf = new byte[MESSAGE_SIZE];
+    ByteArrayUtil.setLong(timestamp, buf, TIMESTAMP_OFFSET);
+    ByteArrayUtil.setLong(marker, buf, MARKER_OFFSET);
+    return buf;
+  }
+
+  private static long markerOf(PMessage msg) {
+    return msg.asByteBuffer().getLong(MARKER_OFFSET);
+  }
+
+  /**
+   * Returns the number of slots in the ring.
+   */
+  private static int capacityOf(BroadcastRing ring) {
+    try {
+      Field f = BroadcastRing.class.getDeclaredField("slots");
+      f.setAccessible(true);
+      return ((AtomicReferenceArray<?>) f.get(ring)).length();
+    }
+    catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void assertSequences(List<PMessage> msgs,
+                                      long first_seq, long last_seq) {
+    assertEquals(last_seq - first_seq + 1, msgs.size());
+    long seq = first_seq;
+    for (PMessage msg : msgs) {
+      assertEquals(seq, msg.getSequenceValue());
+      assertEquals(seq, markerOf(msg));
+      ++seq;
+    }
+  }
+
+  @Test
+  public void publishGivesContiguousSequences() {
+    BroadcastRing ring = new BroadcastRing(100, 64, Long.MAX_VALUE);
+    assertTrue(ring.isEmpty());
+    for (long seq = 100; seq < 110; ++seq) {
+      assertEquals(seq, ring.getNextSequence());
+      assertEquals(seq, ring.publish(message(0, seq)));
+    }
+    assertFalse(ring.isEmpty());
+    assertEquals(110, ring.getNextSequence());
+
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 100, 109);
+    assertSequences(ring.messagesBetween(103, 105), 103, 105);
+    assertTrue(ring.messagesBetween(110, 200).isEmpty());
+    assertTrue(ring.messagesBetween(105, 104).isEmpty());
+    assertEquals(107, ring.get(107).getSequenceValue());
+    assertNull(ring.get(99));
+    assertNull(ring.get(110));
+  }
+
+  @Test
+  public void ringGrowsToMaxCapacityThenEvictsOldest() {
+    BroadcastRing ring = new BroadcastRing(0, 64, Long.MAX_VALUE);
+    assertEquals(16, capacityOf(ring));
+
+    // Growing keeps every message,
+    for (long seq = 0; seq < 64; ++seq) {
+      ring.publish(message(0, seq));
+    }
+    assertEquals(64, capacityOf(ring));
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 0, 63);
+
+    // A full ring at the maximum capacity evicts from the head,
+    for (long seq = 64; seq < 100; ++seq) {
+      ring.publish(message(0, seq));
+    }
+    assertEquals(64, capacityOf(ring));
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 36, 99);
+    assertNull(ring.get(35));
+  }
+
+  @Test
+  public void maxBytesEvictsOldest() {
+    BroadcastRing ring = new BroadcastRing(0, 64, MESSAGE_SIZE * 3);
+    for (long seq = 0; seq < 10; ++seq) {
+      ring.publish(message(0, seq));
+    }
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 7, 9);
+
+    // A message larger than the limit is still kept on its own,
+    ring = new BroadcastRing(0, 64, MESSAGE_SIZE / 2);
+    ring.publish(message(0, 0));
+    ring.publish(message(0, 1));
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 1, 1);
+  }
+
+  @Test
+  public void cleanOlderThanEvictsByTimestamp() {
+    BroadcastRing ring = new BroadcastRing(0, 64, Long.MAX_VALUE);
+    for (long seq = 0; seq < 10; ++seq) {
+      ring.publish(message(1000 + seq, seq));
+    }
+    assertEquals(0, ring.cleanOlderThan(1000));
+    assertEquals(4, ring.cleanOlderThan(1004));
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 4, 9);
+    assertEquals(16, capacityOf(ring));
+  }
+
+  @Test
+  public void cleanOlderThanReleasesGrownRing() {
+    BroadcastRing ring = new BroadcastRing(0, 256, Long.MAX_VALUE);
+    for (long seq = 0; seq < 100; ++seq) {
+      ring.publish(message(seq, seq));
+    }
+    assertEquals(128, capacityOf(ring));
+
+    // Not empty, so the ring isn't released,
+    assertEquals(50, ring.cleanOlderThan(50));
+    assertEquals(128, capacityOf(ring));
+
+    // Empty, so the ring goes back to the initial size,
+    assertEquals(50, ring.cleanOlderThan(Long.MAX_VALUE));
+    assertTrue(ring.isEmpty());
+    assertEquals(16, capacityOf(ring));
+
+    // The sequence carries on from where it was,
+    assertEquals(100, ring.publish(message(0, 100)));
+    for (long seq = 101; seq < 140; ++seq) {
+      ring.publish(message(0, seq));
+    }
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 100, 139);
+  }
+
+  @Test
+  public void advanceToEvictsAndMovesSequence() {
+    BroadcastRing ring = new BroadcastRing(0, 64, Long.MAX_VALUE);
+    for (long seq = 0; seq < 5; ++seq) {
+      ring.publish(message(0, seq));
+    }
+
+    // Moving backwards or to the current position changes nothing,
+    ring.advanceTo(3);
+    ring.advanceTo(5);
+    assertEquals(5, ring.getNextSequence());
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 0, 4);
+
+    // Moving forwards evicts everything,
+    ring.advanceTo(1000);
+    assertTrue(ring.isEmpty());
+    assertEquals(1000, ring.getNextSequence());
+    assertNull(ring.get(4));
+    assertTrue(ring.messagesBetween(0, Long.MAX_VALUE).isEmpty());
+
+    assertEquals(1000, ring.publish(message(0, 1000)));
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE), 1000, 1000);
+  }
+
+  /**
+   * Runs a writer that publishes PUBLISH_COUNT messages while the readers
+   * check the ring. The writer calls 'between' after each message it
+   * publishes. The marker of each message is the sequence value it's
+   * expected to be given.
+   */
+  private static void runConcurrent(final BroadcastRing ring,
+                          final Runnable between, final ReaderCheck check)
+                                                  throws InterruptedException {
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final CountDownLatch start = new CountDownLatch(1);
+
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          start.await();
+          for (int n = 0; n < PUBLISH_COUNT; ++n) {
+            long expected = ring.getNextSequence();
+            long seq = ring.publish(message(n, expected));
+            if (seq != expected) {
+              failure.compareAndSet(null, "Sequence out of order");
+            }
+            between.run();
+          }
+        }
+        catch (Throwable e) {
+          failure.compareAndSet(null, e.toString());
+        }
+        finally {
+          writing.set(false);
+        }
+      }
+    };
+
+    Thread[] readers = new Thread[READER_COUNT];
+    for (int t = 0; t < READER_COUNT; ++t) {
+      final long seed = t;
+      readers[t] = new Thread() {
+        @Override
+        public void run() {
+          Random r = new Random(seed);
+          try {
+            start.await();
+            while (writing.get() && failure.get() == null) {
+              String error = check.check(ring, r);
+              if (error != null) {
+                failure.compareAndSet(null, error);
+              }
+            }
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e.toString());
+          }
+        }
+      };
+    }
+
+    writer.start();
+    for (Thread t : readers) {
+      t.start();
+    }
+    start.countDown();
+    writer.join();
+    for (Thread t : readers) {
+      t.join();
+    }
+    assertNull(failure.get(), failure.get());
+  }
+
+  /**
+   * A check a reader thread makes on the ring. Returns an error message,
+   * or null if the check passes.
+   */
+  private static interface ReaderCheck {
+    String check(BroadcastRing ring, Random r);
+  }
+
+  /**
+   * Checks that the messages read are in sequence order, are in the range
+   * asked for, and are the messages given those sequence values.
+   */
+  private static String checkMessages(
+                      List<PMessage> msgs, long min_seq, long max_seq) {
+    long last = -1;
+    for (PMessage msg : msgs) {
+      long seq = msg.getSequenceValue();
+      if (seq < min_seq || seq > max_seq) {
+        return "Message out of range";
+      }
+      if (seq <= last) {
+        return "Messages out of order";
+      }
+      if (markerOf(msg) != seq) {
+        return "Wrong message for sequence";
+      }
+      last = seq;
+    }
+    return null;
+  }
+
+  @Test
+  public void readersSeeEveryMessageBeforeTail() throws Exception {
+    // Nothing is ever evicted, so the ring grows while it's read,
+    final BroadcastRing ring =
+                      new BroadcastRing(0, 1 << 18, Long.MAX_VALUE);
+    runConcurrent(ring, new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, new ReaderCheck() {
+      @Override
+      public String check(BroadcastRing ring, Random r) {
+        long tail = ring.getNextSequence();
+        long min_seq = Math.max(0, tail - 1 - r.nextInt(64));
+        List<PMessage> msgs = ring.messagesBetween(min_seq, tail - 1);
+        if (msgs.size() != tail - min_seq) {
+          return "Published message not visible";
+        }
+        if (tail > 0 && ring.get(tail - 1) == null) {
+          return "Last message not visible";
+        }
+        return checkMessages(msgs, min_seq, tail - 1);
+      }
+    });
+    assertSequences(ring.messagesBetween(0, Long.MAX_VALUE),
+                    0, PUBLISH_COUNT - 1);
+  }
+
+  @Test
+  public void readersRacingEvictionSeeConsistentMessages() throws Exception {
+    // The ring is small, and is regularly cleaned, released and advanced,
+    final BroadcastRing ring =
+                      new BroadcastRing(0, 64, MESSAGE_SIZE * 48);
+    final int[] count = new int[1];
+    runConcurrent(ring, new Runnable() {
+      @Override
+      public void run() {
+        int n = ++count[0];
+        if ((n % 97) == 0) {
+          ring.cleanOlderThan(n - 8);
+        }
+        if ((n % 1009) == 0) {
+          ring.cleanOlderThan(Long.MAX_VALUE);
+        }
+        if ((n % 4999) == 0) {
+          ring.advanceTo(ring.getNextSequence() + 10);
+        }
+      }
+    }, new ReaderCheck() {
+      @Override
+      public String check(BroadcastRing ring, Random r) {
+        long tail = ring.getNextSequence();
+        long min_seq = Math.max(0, tail - r.nextInt(128));
+        long max_seq = min_seq + r.nextInt(128);
+        List<PMessage> msgs = ring.messagesBetween(min_seq, max_seq);
+        String error = checkMessages(msgs, min_seq, max_seq);
+        if (error != null) {
+          return error;
+        }
+        PMessage msg = ring.get(max_seq);
+        if (msg != null && markerOf(msg) != max_seq) {
+          return "Wrong message for sequence";
+        }
+        return null;
+      }
+    });
+    assertTrue(ring.messagesBetween(0, Long.MAX_VALUE).size() <= 48);
+  }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * com.mckoi.process.impl.CallbackSchedulerTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ByteArrayProcessMessage;
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessMessage;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests of the CallbackScheduler timing wheel. The wheel thread isn't
+ * started, the tests advance the wheel one tick at a time and check which
+ * instances are notified at each tick.
+ *
+ * @author Tobias Downer
+ */
+
+public class CallbackSchedulerTest {
+
+  private static final long TICK_MS = 10;
+  private static final long TICK_NANOS = TICK_MS * 1000 * 1000;
+
+  private static final ProcessMessage MSG =
+                                      ByteArrayProcessMessage.emptyMessage();
+
+  private final ProcessServerService service = new ProcessServerService();
+
+  /**
+   * A scheduler that records the instances it notifies instead of notifying
+   * the function dispatcher.
+   */
+  private class TestScheduler extends CallbackScheduler {
+
+    private final List<ProcessInstanceImpl> notified = new ArrayList<>();
+
+    TestScheduler() {
+      super(service, TICK_MS);
+    }
+
+    @Override
+    void notifyMessagesAvailable(ProcessInstanceImpl instance) {
+      notified.add(instance);
+    }
+
+    /**
+     * Advances the wheel through the ticks from 'from' to 'to' inclusive.
+     */
+    void advanceThrough(long from, long to) {
+      for (long tick = from; tick <= to; ++tick) {
+        advance(tick);
+      }
+    }
+
+  }
+
+  private ProcessInstanceImpl createInstance(long n) {
+    return new ProcessInstanceImpl(service, new ProcessId((byte) 1, 3, n));
+  }
+
+  @Test
+  public void callbackExpiresAtItsTick() {
+    TestScheduler scheduler = new TestScheduler();
+    ProcessInstanceImpl instance = createInstance(1);
+    scheduler.scheduleAt(instance, 1, MSG, 20 * TICK_NANOS);
+    assertEquals(1, scheduler.scheduledCount());
+
+    scheduler.advanceThrough(0, 19);
+    assertTrue(scheduler.notified.isEmpty());
+    scheduler.advance(20);
+    assertEquals(1, scheduler.notified.size());
+    assertSame(instance, scheduler.notified.get(0));
+    assertEquals(0, scheduler.scheduledCount());
+  }
+
+  @Test
+  public void deadlineInThePastExpiresOnNextTick() {
+    TestScheduler scheduler = new TestScheduler();
+    scheduler.advanceThrough(0, 99);
+    scheduler.scheduleAt(createInstance(1), 1, MSG, 5 * TICK_NANOS);
+    scheduler.advance(100);
+    assertEquals(1, scheduler.notified.size());
+    assertEquals(0, scheduler.scheduledCount());
+  }
+
+  @Test
+  public void multiRoundDeadlineWaitsForItsRound() {
+    int wheel = CallbackScheduler.WHEEL_SIZE;
+    TestScheduler scheduler = new TestScheduler();
+    ProcessInstanceImpl instance = createInstance(1);
+    // Shares a bucket with ticks 5 and 5 + wheel, but is due two rounds
+    // later,
+    long due_tick = (2 * wheel) + 5;
+    scheduler.scheduleAt(instance, 1, MSG, due_tick * TICK_NANOS);
+    scheduler.scheduleAt(createInstance(2), 2, MSG, 5 * TICK_NANOS);
+
+    scheduler.advanceThrough(0, 5);
+    assertEquals(1, scheduler.notified.size());
+    assertEquals(1, scheduler.scheduledCount());
+
+    scheduler.advanceThrough(6, due_tick - 1);
+    assertEquals(1, scheduler.notified.size());
+    assertEquals(1, scheduler.scheduledCount());
+
+    scheduler.advance(due_tick);
+    assertEquals(2, scheduler.notified.size());
+    assertSame(instance, scheduler.notified.get(1));
+    assertEquals(0, scheduler.scheduledCount());
+  }
+
+  @Test
+  public void pendingTransferIsLimitedPerTick() {
+    TestScheduler scheduler = new TestScheduler();
+    ProcessInstanceImpl instance = createInstance(1);
+    int count = 100000 + 10;
+    for (int i = 0; i < count; ++i) {
+      scheduler.scheduleAt(instance, i, MSG, 0);
+    }
+    assertEquals(count, scheduler.scheduledCount());
+
+    // The first tick only takes the first 100000,
+    scheduler.advance(0);
+    assertEquals(10, scheduler.scheduledCount());
+    scheduler.advance(1);
+    assertEquals(0, scheduler.scheduledCount());
+  }
+
+  @Test
+  public void terminatedCallbacksAreReleasedWithinOneRotation() {
+    int wheel = CallbackScheduler.WHEEL_SIZE;
+    TestScheduler scheduler = new TestScheduler();
+    ProcessInstanceImpl instance = createInstance(1);
+    ProcessInstanceImpl live_instance = createInstance(2);
+    // Due many rounds from now,
+    for (int i = 0; i < 8; ++i) {
+      scheduler.scheduleAt(instance, i, MSG, (10 * wheel + i) * TICK_NANOS);
+    }
+    scheduler.scheduleAt(live_instance, 9, MSG, 10 * wheel * TICK_NANOS);
+    scheduler.advance(0);
+    assertEquals(9, scheduler.scheduledCount());
+
+    instance.close();
+    scheduler.advanceThrough(1, wheel);
+    assertEquals(1, scheduler.scheduledCount());
+    assertTrue(scheduler.notified.isEmpty());
+
+    // A callback of a process that terminates when it's due is dropped,
+    scheduler.scheduleAt(instance, 10, MSG, 0);
+    scheduler.advance(wheel + 1);
+    assertEquals(1, scheduler.scheduledCount());
+    assertTrue(scheduler.notified.isEmpty());
+  }
+
+}
@@ -0,0 +1,190 @@
+/**
+ * com.mckoi.process.impl.ChannelLogTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests of the segment format and retention rules of ChannelLog. Messages
+ * appended to a log are encoded as a batch, and merged into or added as a
+ * segment. Reads decode the segments after a sequence value.
+ *
+ * @author Tobias Downer
+ */
+
+public class ChannelLogTest {
+
+  private static final ProcessId PID = new ProcessId((byte) 3, 77, 1234);
+
+  /**
+   * Returns a broadcast message on channel 2 with the given sequence value
+   * and a payload of 'payload_size' bytes.
+   */
+  private static PMessage message(long seq, int payload_size) {
+    byte[] header = ProcessServerService.createHeader(
+                              PID, 2, CommConstants.BROADCAST_MESSAGE_CC);
+    byte[] buf = new byte[36 + payload_size];
+    System.arraycopy(header, 0, buf, 0, header.length);
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    bb.putLong(20, seq);
+    for (int i = 36; i < buf.length; ++i) {
+      buf[i] = (byte) (seq + i);
+    }
+    return new PMessage(buf);
+  }
+
+  private static List<PMessage> messages(long from_seq, long to_seq) {
+    List<PMessage> msgs = new ArrayList<>();
+    for (long seq = from_seq; seq <= to_seq; ++seq) {
+      msgs.add(message(seq, (int) (seq % 7) * 5));
+    }
+    return msgs;
+  }
+
+  private static byte[] segment(ChannelLog.Batch batch) {
+    return Arrays.copyOf(batch.buf, batch.size);
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] out = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, out, a.length, b.length);
+    return out;
+  }
+
+  private static void assertMessages(List<PMessage> expected,
+                                     List<PMessage> msgs) {
+    assertEquals(expected.size(), msgs.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      PMessage e = expected.get(i);
+      PMessage m = msgs.get(i);
+      assertEquals(e.getSequenceValue(), m.getSequenceValue());
+      assertEquals(PID, m.getProcessId());
+      assertEquals(e.asByteBuffer(), m.asByteBuffer());
+    }
+  }
+
+  @Test
+  public void appendedMessagesReadBack() {
+    List<PMessage> msgs = messages(10, 29);
+    ChannelLog.Batch batch = ChannelLog.encodeBatch(msgs, -1);
+    assertEquals(29, batch.last_seq);
+    assertEquals(0, batch.skip_count);
+
+    List<PMessage> out = new ArrayList<>();
+    assertFalse(ChannelLog.decodeSegment(segment(batch), -1, 100, out));
+    assertMessages(msgs, out);
+
+    // Only the messages after the sequence value,
+    out.clear();
+    assertFalse(ChannelLog.decodeSegment(segment(batch), 24, 100, out));
+    assertMessages(msgs.subList(15, 20), out);
+
+    // Nothing after the last,
+    out.clear();
+    assertFalse(ChannelLog.decodeSegment(segment(batch), 29, 100, out));
+    assertTrue(out.isEmpty());
+  }
+
+  @Test
+  public void readStopsAtLimit() {
+    List<PMessage> msgs = messages(0, 19);
+    byte[] seg = segment(ChannelLog.encodeBatch(msgs, -1));
+    List<PMessage> out = new ArrayList<>();
+    assertTrue(ChannelLog.decodeSegment(seg, 3, 5, out));
+    assertMessages(msgs.subList(4, 9), out);
+  }
+
+  @Test
+  public void mergedSegmentsReadInOrder() {
+    List<PMessage> first = messages(0, 9);
+    ChannelLog.Batch b1 = ChannelLog.encodeBatch(first, -1);
+    List<PMessage> second = messages(10, 14);
+    ChannelLog.Batch b2 = ChannelLog.encodeBatch(second, b1.last_seq);
+    assertEquals(14, b2.last_seq);
+
+    // A batch merged into the newest segment is appended to its data,
+    List<PMessage> out = new ArrayList<>();
+    ChannelLog.decodeSegment(concat(segment(b1), segment(b2)), 7, 100, out);
+    List<PMessage> expected = new ArrayList<>(first.subList(8, 10));
+    expected.addAll(second);
+    assertMessages(expected, out);
+  }
+
+  @Test
+  public void overlappingSequencesAreNotAppended() {
+    // A restarted process publishes from 5 when 9 is already logged,
+    ChannelLog.Batch batch = ChannelLog.encodeBatch(messages(5, 12), 9);
+    assertEquals(5, batch.skip_count);
+    assertEquals(12, batch.last_seq);
+    List<PMessage> out = new ArrayList<>();
+    ChannelLog.decodeSegment(segment(batch), -1, 100, out);
+    assertMessages(messages(10, 12), out);
+
+    // Nothing new,
+    batch = ChannelLog.encodeBatch(messages(3, 8), 9);
+    assertEquals(6, batch.skip_count);
+    assertEquals(0, batch.size);
+    assertEquals(9, batch.last_seq);
+  }
+
+  @Test
+  public void segmentKeysSortInSequenceOrder() {
+    long[] seqs = new long[] {
+      0, 1, 15, 16, 255, 4096, 1L << 32, Long.MAX_VALUE
+    };
+    for (int i = 1; i < seqs.length; ++i) {
+      String a = ChannelLog.seqKey(seqs[i - 1]);
+      String b = ChannelLog.seqKey(seqs[i]);
+      assertEquals(16, b.length());
+      assertTrue(a.compareTo(b) < 0);
+      assertEquals(seqs[i], Long.parseLong(b, 16));
+    }
+  }
+
+  @Test
+  public void retentionKeepsNewestAndRecentSegments() {
+    String newest = ChannelLog.seqKey(100);
+    String older = ChannelLog.seqKey(50);
+    long expire_ts = 5000;
+    String old_time = Long.toHexString(expire_ts - 1);
+    String recent_time = Long.toHexString(expire_ts);
+
+    assertTrue(ChannelLog.isSegmentExpired(
+                                  older, old_time, newest, expire_ts));
+    assertFalse(ChannelLog.isSegmentExpired(
+                                  older, recent_time, newest, expire_ts));
+    // The newest segment is kept however old it is,
+    assertFalse(ChannelLog.isSegmentExpired(
+                                  newest, old_time, newest, expire_ts));
+  }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * com.mckoi.process.impl.ClassLoaderPoolTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the reference counting of ClassLoaderPool, which releases a class
+ * loader once it's no longer current and has no references, and the rate
+ * limit on process reloads.
+ *
+ * @author Tobias Downer
+ */
+
+public class ClassLoaderPoolTest {
+
+  private static final AccountApplication APP =
+                                  new AccountApplication("acc", "app");
+  private static final AccountApplication OTHER_APP =
+                                  new AccountApplication("acc", "other");
+
+  private static ProcessMckoiAppClassLoader createLoader(String version)
+                                                          throws IOException {
+    return new ProcessMckoiAppClassLoader(null, version, null, null);
+  }
+
+  @Test
+  public void currentLoaderIsKeptWithoutReferences() throws IOException {
+    ClassLoaderPool pool = new ClassLoaderPool(10);
+    ProcessMckoiAppClassLoader cl = createLoader("1");
+    pool.setCurrent(APP, cl);
+    assertSame(cl, pool.getCurrent(APP));
+    assertNull(pool.getCurrent(OTHER_APP));
+
+    pool.acquire(cl);
+    pool.acquire(cl);
+    pool.release(cl);
+    pool.release(cl);
+    assertEquals(1, pool.getLiveLoaderCount());
+    assertEquals(0, pool.getReleasedLoaderCount());
+
+    // Setting the same loader again changes nothing,
+    pool.setCurrent(APP, cl);
+    assertEquals(1, pool.getLiveLoaderCount());
+  }
+
+  @Test
+  public void replacedLoaderIsReleasedByLastReference() throws IOException {
+    ClassLoaderPool pool = new ClassLoaderPool(10);
+    ProcessMckoiAppClassLoader old_cl = createLoader("1");
+    pool.setCurrent(APP, old_cl);
+    pool.acquire(old_cl);
+    pool.acquire(old_cl);
+
+    ProcessMckoiAppClassLoader new_cl = createLoader("2");
+    pool.setCurrent(APP, new_cl);
+    assertSame(new_cl, pool.getCurrent(APP));
+    assertEquals(2, pool.getLiveLoaderCount());
+
+    pool.release(old_cl);
+    assertEquals(2, pool.getLiveLoaderCount());
+    pool.release(old_cl);
+    assertEquals(1, pool.getLiveLoaderCount());
+    assertEquals(1, pool.getReleasedLoaderCount());
+
+    // Releasing a loader that's gone from the pool is ignored,
+    pool.release(old_cl);
+    assertEquals(1, pool.getLiveLoaderCount());
+    assertEquals(1, pool.getReleasedLoaderCount());
+  }
+
+  @Test
+  public void unreferencedLoaderIsReleasedWhenReplaced() throws IOException {
+    ClassLoaderPool pool = new ClassLoaderPool(10);
+    pool.setCurrent(APP, createLoader("1"));
+    pool.setCurrent(APP, createLoader("2"));
+    pool.setCurrent(APP, createLoader("3"));
+    assertEquals(1, pool.getLiveLoaderCount());
+    assertEquals(2, pool.getReleasedLoaderCount());
+    assertEquals("3", pool.getCurrent(APP).getAppVersion());
+  }
+
+  @Test
+  public void liveLoadersByApp() throws IOException {
+    ClassLoaderPool pool = new ClassLoaderPool(10);
+    ProcessMckoiAppClassLoader cl = createLoader("1");
+    pool.setCurrent(APP, cl);
+    pool.acquire(cl);
+    pool.setCurrent(APP, createLoader("2"));
+    pool.setCurrent(OTHER_APP, createLoader("1"));
+
+    Map<String, Integer> by_app = pool.getLiveLoadersByApp();
+    assertEquals(2, by_app.size());
+    assertEquals(Integer.valueOf(2), by_app.get("acc/app"));
+    assertEquals(Integer.valueOf(1), by_app.get("acc/other"));
+    assertEquals(Integer.valueOf(0),
+                 pool.getLoadedClassesByApp().get("acc/app"));
+  }
+
+  @Test
+  public void reloadsAreRateLimited() throws InterruptedException {
+    ClassLoaderPool pool = new ClassLoaderPool(2);
+    assertTrue(pool.tryAcquireReload());
+    assertTrue(pool.tryAcquireReload());
+    assertFalse(pool.tryAcquireReload());
+    assertFalse(pool.tryAcquireReload());
+    assertEquals(2, pool.getDeferredReloadCount());
+
+    // A token is refilled after half a second,
+    Thread.sleep(600);
+    assertTrue(pool.tryAcquireReload());
+  }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * com.mckoi.process.impl.DeliveryWatermarkBenchmark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures broadcast delivery to 1,000 listeners on one channel. Each
+ * invocation publishes 'batch' messages to a BroadcastRing, then every
+ * listener's DeliveryWatermark is given the notified range and delivers
+ * the new messages to the listener's connection, as PushBroadcastRunnable
+ * does. Each operation is the push to one listener, so the score times
+ * 'batch' is the messages delivered per millisecond. A larger 'batch' is a
+ * higher message rate, where more messages are published between the
+ * pushes to a connection.
+ *
+ * @author Tobias Downer
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeliveryWatermarkBenchmark {
+
+  private static final int LISTENER_COUNT = 1000;
+  private static final int MESSAGE_SIZE = 64;
+
+  @Param({"1", "16", "256"})
+  public int batch;
+
+  private BroadcastRing ring;
+  private DeliveryWatermark.Source source;
+  private DeliveryWatermark[] watermarks;
+  private CountingConnection[] listeners;
+
+  /**
+   * A connection that counts the messages sent to it.
+   */
+  private static class CountingConnection extends NIOConnection {
+
+    private long sent = 0;
+
+    CountingConnection() {
+      super(null, null, null, null);
+    }
+
+    @Override
+    public boolean sendFirstMessage(PMessage msg) throws IOException {
+      ++sent;
+      return false;
+    }
+
+  }
+
+  @Setup
+  public void setup() {
+    ring = new BroadcastRing(1, 4096, 64 * 1024 * 1024);
+    source = new DeliveryWatermark.Source() {
+      @Override
+      public PMessage getBroadcastMessage(long sequence_val) {
+        return ring.get(sequence_val);
+      }
+    };
+    watermarks = new DeliveryWatermark[LISTENER_COUNT];
+    listeners = new CountingConnection[LISTENER_COUNT];
+    for (int i = 0; i < LISTENER_COUNT; ++i) {
+      watermarks[i] = new DeliveryWatermark(1);
+      listeners[i] = new CountingConnection();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LISTENER_COUNT)
+  public int publishAndDeliver() throws IOException {
+    long min_seq = ring.getNextSequence();
+    long max_seq = min_seq;
+    for (int i = 0; i < batch; ++i) {
+      max_seq = ring.publish(new byte[MESSAGE_SIZE]);
+    }
+    int delivered = 0;
+    for (int i = 0; i < LISTENER_COUNT; ++i) {
+      DeliveryWatermark dw = watermarks[i];
+      dw.setNotifiedRange(min_seq, max_seq);
+      delivered += dw.deliver(source, listeners[i]);
+    }
+    return delivered;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+              .include(DeliveryWatermarkBenchmark.class.getSimpleName())
+              .build()).run();
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * com.mckoi.process.impl.DirectBufferPoolTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that DirectBufferPool hands out cleared direct buffers, reuses
+ * released buffers, retains no more than its limit, and never hands the
+ * same buffer to two borrowers.
+ *
+ * @author Tobias Downer
+ */
+
+public class DirectBufferPoolTest {
+
+  private static Set<ByteBuffer> identitySet() {
+    return Collections.newSetFromMap(
+                              new IdentityHashMap<ByteBuffer, Boolean>());
+  }
+
+  @Test
+  public void acquireAllocatesDirectBuffers() {
+    DirectBufferPool pool = new DirectBufferPool(4096, 4);
+    assertEquals(4096, pool.getBufferSize());
+    ByteBuffer bb = pool.acquire();
+    assertTrue(bb.isDirect());
+    assertEquals(4096, bb.capacity());
+    assertEquals(0, bb.position());
+    assertEquals(4096, bb.limit());
+    assertNotSame(bb, pool.acquire());
+  }
+
+  @Test
+  public void releasedBufferIsReusedCleared() {
+    DirectBufferPool pool = new DirectBufferPool(1024, 4);
+    ByteBuffer bb = pool.acquire();
+    bb.putLong(99);
+    bb.flip();
+    pool.release(bb);
+
+    ByteBuffer again = pool.acquire();
+    assertSame(bb, again);
+    assertEquals(0, again.position());
+    assertEquals(1024, again.limit());
+  }
+
+  @Test
+  public void retainsAtMostTheLimit() {
+    DirectBufferPool pool = new DirectBufferPool(256, 3);
+    List<ByteBuffer> acquired = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      acquired.add(pool.acquire());
+    }
+    Set<ByteBuffer> released = identitySet();
+    for (ByteBuffer bb : acquired) {
+      pool.release(bb);
+      released.add(bb);
+    }
+
+    // The first three acquired come from the pool, then it's empty,
+    for (int i = 0; i < 3; ++i) {
+      assertTrue(released.remove(pool.acquire()));
+    }
+    ByteBuffer bb = pool.acquire();
+    for (ByteBuffer b : acquired) {
+      assertNotSame(b, bb);
+    }
+  }
+
+  @Test
+  public void concurrentBorrowersNeverShareABuffer() throws Exception {
+    final DirectBufferPool pool = new DirectBufferPool(64, 4);
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; ++t) {
+      final long marker = t + 1;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int n = 0; n < 100000; ++n) {
+              ByteBuffer bb = pool.acquire();
+              if (bb.position() != 0 || bb.limit() != 64) {
+                failure.compareAndSet(null, "Buffer not cleared");
+              }
+              bb.putLong(0, marker);
+              Thread.yield();
+              if (bb.getLong(0) != marker) {
+                failure.compareAndSet(null, "Buffer shared");
+              }
+              bb.position(8);
+              pool.release(bb);
+            }
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e.toString());
+          }
+        }
+      });
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertNull(failure.get(), failure.get());
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * com.mckoi.process.impl.EchoDispatchHarness  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ByteArrayProcessMessage;
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessInputMessage;
+import com.mckoi.process.ProcessMessage;
+import com.mckoi.process.ProcessUnavailableException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A FunctionDispatcher feeding a set of synthetic echo processes. Each
+ * process has a real FunctionQueue, and its 'function' consumes every
+ * message on the queue and counts a reply for each, in the same way as
+ * ProcessServerService.dispatchFunctionOperation and
+ * ProcessInstanceImpl.callUserFunctionExecute drive a JavaProcessOperation.
+ * <p>
+ * The harness records a failure if a process runs two functions at once,
+ * or consumes the messages from one producer out of order (the call_id of
+ * each message is its sequence number).
+ *
+ * @author Tobias Downer
+ */
+
+class EchoDispatchHarness {
+
+  private static final ProcessMessage ECHO_MESSAGE =
+                        new ByteArrayProcessMessage(new byte[] { 1, 2, 3 });
+
+  /**
+   * A synthetic process.
+   */
+  final class EchoProcess {
+
+    final ProcessId process_id;
+    final FunctionQueue queue =
+          new FunctionQueue(1 << 20, FunctionQueue.OverflowPolicy.REJECT);
+    private final AtomicInteger running = new AtomicInteger();
+    private int next_call_id = 0;
+    private int expected_call_id = 0;
+
+    private EchoProcess(ProcessId process_id) {
+      this.process_id = process_id;
+    }
+
+    /**
+     * Pushes the next message from the producer thread that owns this
+     * process, and notifies the dispatcher.
+     */
+    void push() throws ProcessUnavailableException {
+      queue.pushToFunctionQueue(new FunctionQueueItem(next_call_id,
+                  ProcessInputMessage.Type.FUNCTION_INVOKE, ECHO_MESSAGE,
+                  null, null, null, true));
+      ++next_call_id;
+      dispatcher.notifyMessagesAvailable(process_id);
+    }
+
+    /**
+     * The synthetic 'function' method.
+     */
+    private void function() {
+      if (running.incrementAndGet() != 1) {
+        fail("Two functions ran at once on " + process_id);
+      }
+      try {
+        while (true) {
+          FunctionQueueItem item = queue.removeFirst();
+          if (item == null) {
+            break;
+          }
+          if (item.getCallId() != expected_call_id) {
+            fail("Out of order on " + process_id + ": expected " +
+                 expected_call_id + " but was " + item.getCallId());
+          }
+          expected_call_id = item.getCallId() + 1;
+          replies.incrementAndGet();
+        }
+      }
+      finally {
+        running.decrementAndGet();
+      }
+    }
+
+    /**
+     * Runs the function until the queue is empty.
+     */
+    private void execute() {
+      if (!queue.tryBeginExecution()) {
+        return;
+      }
+      while (!queue.endExecutionIfEmpty()) {
+        function();
+      }
+    }
+
+  }
+
+  private final FunctionDispatcher dispatcher;
+  private final ExecutorService pool;
+  private final EchoProcess[] processes;
+  private final AtomicLong replies = new AtomicLong();
+  private final AtomicReference<String> failure = new AtomicReference<>();
+
+  /**
+   * Constructor.
+   */
+  EchoDispatchHarness(int dispatch_threads, int pool_threads,
+                      int process_count) {
+    pool = Executors.newFixedThreadPool(pool_threads);
+    processes = new EchoProcess[process_count];
+    for (int i = 0; i < process_count; ++i) {
+      processes[i] = new EchoProcess(new ProcessId((byte) 1, 5, i));
+    }
+    dispatcher = new FunctionDispatcher(dispatch_threads,
+                                        new FunctionDispatcher.Target() {
+      @Override
+      public void dispatch(ProcessId process_id) {
+        final EchoProcess process =
+                            processes[(int) process_id.getLowLong()];
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            process.execute();
+          }
+        });
+      }
+    });
+    dispatcher.start();
+  }
+
+  private void fail(String message) {
+    failure.compareAndSet(null, message);
+  }
+
+  EchoProcess getProcess(int i) {
+    return processes[i];
+  }
+
+  int getProcessCount() {
+    return processes.length;
+  }
+
+  long getReplyCount() {
+    return replies.get();
+  }
+
+  String getFailure() {
+    return failure.get();
+  }
+
+  /**
+   * Waits until the given number of replies have been counted. Returns
+   * false if that doesn't happen within the timeout.
+   */
+  boolean awaitReplies(long count, long timeout_ms)
+                                                throws InterruptedException {
+    long end = System.currentTimeMillis() + timeout_ms;
+    while (replies.get() < count) {
+      if (System.currentTimeMillis() > end) {
+        return false;
+      }
+      Thread.sleep(1);
+    }
+    return true;
+  }
+
+  void shutdown() throws InterruptedException {
+    dispatcher.finish();
+    pool.shutdown();
+    pool.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * com.mckoi.process.impl.FunctionDispatchBenchmark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessUnavailableException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the message throughput of the function dispatcher with one and
+ * with several dispatcher threads. Each operation is one message pushed to
+ * a synthetic echo process, dispatched, and consumed (see
+ * EchoDispatchHarness). Compare the 'dispatch_threads' results on a machine
+ * with at least as many cores as the largest value.
+ *
+ * @author Tobias Downer
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FunctionDispatchBenchmark {
+
+  private static final int BATCH_SIZE = 10000;
+
+  @Param({"1", "2", "4", "8"})
+  public int dispatch_threads;
+
+  @Param({"1000"})
+  public int process_count;
+
+  private EchoDispatchHarness harness;
+  private long expected_replies;
+  private int next_process;
+
+  @Setup
+  public void setup() {
+    harness = new EchoDispatchHarness(dispatch_threads,
+                  Runtime.getRuntime().availableProcessors() * 2,
+                  process_count);
+    expected_replies = 0;
+    next_process = 0;
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    harness.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public long pushAndConsume()
+                throws ProcessUnavailableException, InterruptedException {
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      harness.getProcess(next_process).push();
+      next_process = (next_process + 1) % process_count;
+    }
+    expected_replies += BATCH_SIZE;
+    if (!harness.awaitReplies(expected_replies, 60000)) {
+      throw new IllegalStateException("Messages were not consumed");
+    }
+    return expected_replies;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+              .include(FunctionDispatchBenchmark.class.getSimpleName())
+              .build()).run();
+  }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * com.mckoi.process.impl.FunctionDispatcherTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that the sharded FunctionDispatcher keeps dispatch in order for
+ * each process, and never runs two functions on one process at once.
+ *
+ * @author Tobias Downer
+ */
+
+public class FunctionDispatcherTest {
+
+  private static void run(int dispatch_threads, int pool_threads,
+                          int producer_threads, int process_count,
+                          final int messages_per_process) throws Exception {
+
+    final EchoDispatchHarness harness = new EchoDispatchHarness(
+                        dispatch_threads, pool_threads, process_count);
+    final AtomicReference<Throwable> producer_error =
+                                                    new AtomicReference<>();
+    try {
+      // Each producer owns the processes i where i % producer_threads == n,
+      List<Thread> producers = new ArrayList<>();
+      for (int n = 0; n < producer_threads; ++n) {
+        final int first = n;
+        final int step = producer_threads;
+        producers.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int m = 0; m < messages_per_process; ++m) {
+                for (int i = first; i < harness.getProcessCount();
+                     i += step) {
+                  harness.getProcess(i).push();
+                }
+              }
+            }
+            catch (Throwable e) {
+              producer_error.compareAndSet(null, e);
+            }
+          }
+        });
+      }
+      for (Thread t : producers) {
+        t.start();
+      }
+      for (Thread t : producers) {
+        t.join();
+      }
+      assertNull(producer_error.get());
+
+      long expected = (long) process_count * messages_per_process;
+      assertTrue("Messages were not all consumed",
+                 harness.awaitReplies(expected, 60000));
+      assertNull(harness.getFailure(), harness.getFailure());
+      assertEquals(expected, harness.getReplyCount());
+      for (int i = 0; i < process_count; ++i) {
+        assertTrue(harness.getProcess(i).queue.isFunctionQueueEmpty());
+      }
+    }
+    finally {
+      harness.shutdown();
+    }
+
+  }
+
+  @Test
+  public void singleDispatcherThread() throws Exception {
+    run(1, 4, 2, 32, 2000);
+  }
+
+  @Test
+  public void manyDispatcherThreads() throws Exception {
+    run(4, 8, 4, 64, 2000);
+  }
+
+  @Test
+  public void moreDispatcherThreadsThanProcesses() throws Exception {
+    run(8, 8, 1, 3, 20000);
+  }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * com.mckoi.process.impl.LoadingCacheTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessUnavailableException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the LoadingCache counters, invalidation during a load, and
+ * interruption of a thread waiting on another thread's load.
+ *
+ * @author Tobias Downer
+ */
+
+public class LoadingCacheTest {
+
+  /**
+   * A loader that returns the key followed by the number of loads so far.
+   */
+  private static class CountingLoader
+                          implements LoadingCache.Loader<String, String> {
+    final AtomicInteger loads = new AtomicInteger(0);
+    @Override
+    public String load(String key) {
+      return key + loads.incrementAndGet();
+    }
+  }
+
+  /**
+   * A loader that blocks until it's released.
+   */
+  private static class BlockingLoader
+                          implements LoadingCache.Loader<String, String> {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    @Override
+    public String load(String key) {
+      started.countDown();
+      try {
+        release.await();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return key + "-loaded";
+    }
+  }
+
+  @Test
+  public void getIfPresentCountsHitsAndMisses()
+                                  throws ProcessUnavailableException {
+    LoadingCache<String, String> cache =
+                              new LoadingCache<>("test", 100, 60000);
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(1, cache.getMissCount());
+
+    CountingLoader loader = new CountingLoader();
+    assertEquals("a1", cache.get("a", loader));
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0, cache.getHitCount());
+
+    assertEquals("a1", cache.getIfPresent("a"));
+    assertEquals("a1", cache.get("a", loader));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0.5d, cache.getHitRatio(), 0.0001d);
+  }
+
+  @Test
+  public void invalidateDuringLoadIsNotOverwritten()
+                  throws InterruptedException, ProcessUnavailableException {
+    final LoadingCache<String, String> cache =
+                              new LoadingCache<>("test", 100, 60000);
+    final BlockingLoader loader = new BlockingLoader();
+    final AtomicReference<String> result = new AtomicReference<>();
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.set(cache.get("k", loader));
+        }
+        catch (ProcessUnavailableException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    t.start();
+    assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+    // Invalidate while the load is in progress,
+    cache.invalidate("k");
+    loader.release.countDown();
+    t.join(5000);
+
+    // The loader's caller gets the value but it isn't cached,
+    assertEquals("k-loaded", result.get());
+    assertNull(cache.getIfPresent("k"));
+    assertEquals(0, cache.getSize());
+
+    // A load after the invalidation is cached,
+    CountingLoader next = new CountingLoader();
+    assertEquals("k1", cache.get("k", next));
+    assertEquals("k1", cache.getIfPresent("k"));
+  }
+
+  @Test
+  public void interruptedWaiterKeepsInterruptStatus() throws Exception {
+    final LoadingCache<String, String> cache =
+                              new LoadingCache<>("test", 100, 60000);
+    final BlockingLoader loader = new BlockingLoader();
+    Thread loading = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cache.get("k", loader);
+        }
+        catch (ProcessUnavailableException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    loading.start();
+    assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    final AtomicReference<Boolean> interrupted = new AtomicReference<>();
+    Thread waiting = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cache.get("k", loader);
+        }
+        catch (ProcessUnavailableException | RuntimeException e) {
+          thrown.set(e);
+        }
+        interrupted.set(Thread.currentThread().isInterrupted());
+      }
+    });
+    waiting.start();
+    // Wait for the thread to block on the load,
+    while (waiting.getState() != Thread.State.WAITING) {
+      Thread.sleep(5);
+    }
+    waiting.interrupt();
+    waiting.join(5000);
+
+    assertTrue(thrown.get() instanceof PRuntimeException);
+    assertEquals(Boolean.TRUE, interrupted.get());
+
+    loader.release.countDown();
+    loading.join(5000);
+  }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * com.mckoi.process.impl.MachineLoadReportTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the encoding of MachineLoadReport messages and the load score.
+ *
+ * @author Tobias Downer
+ */
+
+public class MachineLoadReportTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void encodesAndDecodes() {
+    MachineLoadReport report = new MachineLoadReport(
+                            1234, 56, 8, 3000000000L, 0);
+    PMessage msg = report.asMessage();
+    assertEquals(40, msg.sizeInBytes());
+    assertEquals(CommConstants.LOAD_REPORT_CC, msg.asByteBuffer().get(0));
+
+    MachineLoadReport decoded = MachineLoadReport.fromMessage(msg, 777);
+    assertEquals(777, decoded.getReceivedTimestamp());
+    assertEquals(report.toString(), decoded.toString());
+    assertEquals(report.getScore(), decoded.getScore(), DELTA);
+  }
+
+  @Test
+  public void decodesFromOffsetView() {
+    // Messages are framed as views over the read chunk of a connection,
+    byte[] encoded = new MachineLoadReport(7, 3, 4, Long.MAX_VALUE, 0)
+                                        .asMessage().asByteBuffer().array();
+    byte[] buf = new byte[13 + encoded.length + 9];
+    Arrays.fill(buf, (byte) 0x07F);
+    System.arraycopy(encoded, 0, buf, 13, encoded.length);
+
+    MachineLoadReport decoded = MachineLoadReport.fromMessage(
+                            new PMessage(buf, 13, encoded.length), 5);
+    assertEquals("[resident = 7, queued = 3, cpu_ns/s = " + Long.MAX_VALUE +
+                 ", processors = 4]", decoded.toString());
+  }
+
+  @Test
+  public void scoreOfLoad() {
+    // Half the CPU of 4 processors, 2 queued per processor,
+    MachineLoadReport report =
+                    new MachineLoadReport(0, 8, 4, 2000000000L, 0);
+    assertEquals(2.5d, report.getScore(), DELTA);
+
+    // Resident processes only break ties,
+    MachineLoadReport idle_a = new MachineLoadReport(10, 0, 4, 0, 0);
+    MachineLoadReport idle_b = new MachineLoadReport(20, 0, 4, 0, 0);
+    assertTrue(idle_a.getScore() < idle_b.getScore());
+    assertTrue(idle_b.getScore() <
+               new MachineLoadReport(0, 1, 4, 0, 0).getScore());
+  }
+
+  @Test
+  public void processorsAreAtLeastOne() {
+    MachineLoadReport report = new MachineLoadReport(0, 3, 0, 0, 0);
+    assertEquals(3d, report.getScore(), DELTA);
+    MachineLoadReport decoded =
+                  MachineLoadReport.fromMessage(report.asMessage(), 0);
+    assertEquals(3d, decoded.getScore(), DELTA);
+  }
+
+}
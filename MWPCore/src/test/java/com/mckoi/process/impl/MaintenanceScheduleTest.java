@@ -0,0 +1,190 @@
+/**
+ * com.mckoi.process.impl.MaintenanceScheduleTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests of the MaintenanceSchedule time wheel. Checks that ids are only
+ * drained once their deadline has passed (including deadlines more than a
+ * rotation of the wheel away), and that scheduling an id again supersedes
+ * its previous deadline.
+ *
+ * @author Tobias Downer
+ */
+
+public class MaintenanceScheduleTest {
+
+  private static final long TICK_MS = 1000;
+  private static final int WHEEL_SIZE = 64;
+
+  /**
+   * A time at the start of a tick after the schedule is created.
+   */
+  private final long base =
+                  ((System.currentTimeMillis() / TICK_MS) + 1) * TICK_MS;
+
+  private final MaintenanceSchedule schedule =
+                                          new MaintenanceSchedule(TICK_MS);
+
+  private static ProcessId id(long n) {
+    return new ProcessId((byte) 1, 5, n);
+  }
+
+  /**
+   * Drains every tick up to (but not including) the given time, and checks
+   * nothing is due.
+   */
+  private void assertNothingDueBefore(long time) {
+    for (long t = base; t < time; t += TICK_MS) {
+      assertTrue(schedule.drainDue(t).isEmpty());
+    }
+    assertTrue(schedule.drainDue(time - 1).isEmpty());
+  }
+
+  @Test
+  public void dirtyIdsAreDrainedOnce() {
+    schedule.markDirty(id(1));
+    schedule.markDirty(id(2));
+    schedule.markDirty(id(1));
+    Set<ProcessId> due = schedule.drainDue(base);
+    assertEquals(2, due.size());
+    assertTrue(due.contains(id(1)));
+    assertTrue(due.contains(id(2)));
+    assertTrue(schedule.drainDue(base).isEmpty());
+  }
+
+  @Test
+  public void deadlineIsDueOncePassed() {
+    long deadline = base + (5 * TICK_MS) + 300;
+    schedule.schedule(id(1), deadline);
+    assertEquals(1, schedule.scheduledCount());
+    assertNothingDueBefore(deadline);
+
+    Set<ProcessId> due = schedule.drainDue(deadline);
+    assertEquals(1, due.size());
+    assertTrue(due.contains(id(1)));
+    assertEquals(0, schedule.scheduledCount());
+    assertTrue(schedule.drainDue(deadline + TICK_MS).isEmpty());
+  }
+
+  @Test
+  public void deadlineMoreThanARotationAway() {
+    // In the same bucket as 'base + 3 ticks', two rotations later,
+    long deadline = base + ((2 * WHEEL_SIZE + 3) * TICK_MS);
+    schedule.schedule(id(1), deadline);
+    schedule.schedule(id(2), base + (3 * TICK_MS));
+
+    Set<ProcessId> due = schedule.drainDue(base + (3 * TICK_MS));
+    assertEquals(1, due.size());
+    assertTrue(due.contains(id(2)));
+
+    assertNothingDueBefore(deadline);
+    assertEquals(1, schedule.scheduledCount());
+    assertTrue(schedule.drainDue(deadline).contains(id(1)));
+    assertEquals(0, schedule.scheduledCount());
+  }
+
+  @Test
+  public void deadlineInThePastIsDueNextDrain() {
+    schedule.drainDue(base + (10 * TICK_MS));
+    schedule.schedule(id(1), base);
+    assertTrue(schedule.drainDue(base + (10 * TICK_MS)).contains(id(1)));
+  }
+
+  @Test
+  public void reschedulingEarlierSupersedesLater() {
+    long later = base + (30 * TICK_MS);
+    long earlier = base + (10 * TICK_MS);
+    schedule.schedule(id(1), later);
+    schedule.schedule(id(1), earlier);
+    assertEquals(1, schedule.scheduledCount());
+
+    assertNothingDueBefore(earlier);
+    assertTrue(schedule.drainDue(earlier).contains(id(1)));
+    assertEquals(0, schedule.scheduledCount());
+
+    // The entry for the later deadline is discarded,
+    for (long t = earlier; t <= later + TICK_MS; t += TICK_MS) {
+      assertTrue(schedule.drainDue(t).isEmpty());
+    }
+  }
+
+  @Test
+  public void reschedulingLaterSupersedesEarlier() {
+    long earlier = base + (10 * TICK_MS);
+    long later = base + (30 * TICK_MS);
+    schedule.schedule(id(1), earlier);
+    schedule.schedule(id(1), later);
+    assertEquals(1, schedule.scheduledCount());
+
+    assertNothingDueBefore(later);
+    assertEquals(1, schedule.scheduledCount());
+    assertTrue(schedule.drainDue(later).contains(id(1)));
+    assertEquals(0, schedule.scheduledCount());
+  }
+
+  @Test
+  public void reschedulingToTheSameBucketARotationLater() {
+    long earlier = base + (10 * TICK_MS);
+    long later = earlier + (WHEEL_SIZE * TICK_MS);
+    schedule.schedule(id(1), earlier);
+    schedule.schedule(id(1), later);
+
+    assertNothingDueBefore(later);
+    assertTrue(schedule.drainDue(later).contains(id(1)));
+  }
+
+  @Test
+  public void unscheduleAndDirtyClearDeadlines() {
+    long deadline = base + (10 * TICK_MS);
+    schedule.schedule(id(1), deadline);
+    schedule.schedule(id(2), deadline);
+    schedule.unschedule(id(1));
+    assertEquals(1, schedule.scheduledCount());
+
+    // A dirty id is drained now and loses its deadline,
+    schedule.markDirty(id(2));
+    assertTrue(schedule.drainDue(base).contains(id(2)));
+    assertEquals(0, schedule.scheduledCount());
+    assertTrue(schedule.drainDue(deadline).isEmpty());
+  }
+
+  @Test
+  public void fallingBehindMoreThanARotation() {
+    for (int i = 0; i < WHEEL_SIZE; ++i) {
+      schedule.schedule(id(i), base + (i * TICK_MS) + 1);
+    }
+    Set<ProcessId> due =
+                  schedule.drainDue(base + (3 * WHEEL_SIZE * TICK_MS));
+    assertEquals(WHEEL_SIZE, due.size());
+    assertEquals(0, schedule.scheduledCount());
+  }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * com.mckoi.process.impl.MemoryDataFile  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.data.DataFile;
+import java.util.Arrays;
+
+/**
+ * A DataFile backed by a byte array in memory, used by the tests and
+ * benchmarks to serialize state without a database.
+ *
+ * @author Tobias Downer
+ */
+
+public class MemoryDataFile implements DataFile {
+
+  private byte[] buf = new byte[64];
+  private int size = 0;
+  private int position = 0;
+
+  /**
+   * Ensures the array can hold 'new_size' bytes.
+   */
+  private void ensureCapacity(long new_size) {
+    if (new_size > buf.length) {
+      buf = Arrays.copyOf(buf, (int) Math.max(new_size, buf.length * 2L));
+    }
+  }
+
+  /**
+   * Returns a copy of the content of this file.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, size);
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public void shift(long offset) {
+    int new_size = (int) (size + offset);
+    ensureCapacity(new_size);
+    int dest = (int) (position + offset);
+    System.arraycopy(buf, position, buf, dest, size - position);
+    if (offset > 0) {
+      Arrays.fill(buf, position, dest, (byte) 0);
+    }
+    size = new_size;
+  }
+
+  @Override
+  public void setSize(long new_size) {
+    ensureCapacity(new_size);
+    if (new_size > size) {
+      Arrays.fill(buf, size, (int) new_size, (byte) 0);
+    }
+    size = (int) new_size;
+  }
+
+  @Override
+  public void replicateTo(DataFile target) {
+    target.replicateFrom(this);
+  }
+
+  @Override
+  public void replicateFrom(DataFile from) {
+    delete();
+    long from_pos = from.position();
+    from.position(0);
+    copyFrom(from, from.size());
+    from.position(from_pos);
+    position = 0;
+  }
+
+  @Override
+  public void putShort(short s) {
+    put((byte) (s >> 8));
+    put((byte) s);
+  }
+
+  @Override
+  public void putLong(long l) {
+    putInt((int) (l >> 32));
+    putInt((int) l);
+  }
+
+  @Override
+  public void putInt(int i) {
+    putShort((short) (i >> 16));
+    putShort((short) i);
+  }
+
+  @Override
+  public void putChar(char c) {
+    putShort((short) c);
+  }
+
+  @Override
+  public void put(byte[] b) {
+    put(b, 0, b.length);
+  }
+
+  @Override
+  public void put(byte[] b, int off, int len) {
+    ensureCapacity(position + len);
+    System.arraycopy(b, off, buf, position, len);
+    position += len;
+    size = Math.max(size, position);
+  }
+
+  @Override
+  public void put(byte b) {
+    ensureCapacity(position + 1);
+    buf[position] = b;
+    ++position;
+    size = Math.max(size, position);
+  }
+
+  @Override
+  public long position() {
+    return position;
+  }
+
+  @Override
+  public void position(long p) {
+    position = (int) p;
+  }
+
+  @Override
+  public short getShort() {
+    int v = ((get() & 0x0FF) << 8) | (get() & 0x0FF);
+    return (short) v;
+  }
+
+  @Override
+  public long getLong() {
+    long high = getInt() & 0x0FFFFFFFFL;
+    long low = getInt() & 0x0FFFFFFFFL;
+    return (high << 32) | low;
+  }
+
+  @Override
+  public int getInt() {
+    int high = getShort() & 0x0FFFF;
+    int low = getShort() & 0x0FFFF;
+    return (high << 16) | low;
+  }
+
+  @Override
+  public char getChar() {
+    return (char) getShort();
+  }
+
+  @Override
+  public void get(byte[] b, int off, int len) {
+    if (position + len > size) {
+      throw new IndexOutOfBoundsException();
+    }
+    System.arraycopy(buf, position, b, off, len);
+    position += len;
+  }
+
+  @Override
+  public byte get() {
+    if (position >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+    byte b = buf[position];
+    ++position;
+    return b;
+  }
+
+  @Override
+  public void delete() {
+    size = 0;
+    position = 0;
+  }
+
+  @Override
+  public void copyTo(DataFile target, long len) {
+    target.copyFrom(this, len);
+  }
+
+  @Override
+  public void copyFrom(DataFile from, long len) {
+    byte[] b = new byte[(int) len];
+    from.get(b, 0, b.length);
+    ensureCapacity(position + len);
+    shift(len);
+    put(b, 0, b.length);
+  }
+
+}
@@ -0,0 +1,250 @@
+/**
+ * com.mckoi.process.impl.NIOServerLoadBenchmark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * A load generator for the NIOServerThread. Many clients connect over
+ * loopback to a server whose environment echoes every message back on the
+ * same connection. Each operation is one message sent by a client and its
+ * echo read back. Every client sends 'PIPELINE' messages in one write and
+ * then reads the replies, so the selector loops see many busy connections
+ * at once. Compare the 'selector_threads' results to see how reads scale
+ * over the selector loops.
+ *
+ * @author Tobias Downer
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NIOServerLoadBenchmark {
+
+  private static final int CLIENT_COUNT = 64;
+  private static final int PIPELINE = 32;
+  private static final int MESSAGE_SIZE = 64;
+
+  @Param({"1", "2", "4"})
+  public int selector_threads;
+
+  private ExecutorService server_pool;
+  private NIOServerThread server;
+  private ExecutorService client_pool;
+  private List<Client> clients;
+
+  /**
+   * An environment that echoes each message back to the connection it
+   * came from.
+   */
+  private static class EchoEnvironment implements PEnvironment {
+
+    private final ExecutorService thread_pool;
+
+    EchoEnvironment(ExecutorService thread_pool) {
+      this.thread_pool = thread_pool;
+    }
+
+    @Override
+    public ExecutorService getThreadPool() {
+      return thread_pool;
+    }
+
+    @Override
+    public boolean channelConnectionValid(SocketChannel sc) {
+      return true;
+    }
+
+    @Override
+    public void initializeConnection(NIOConnection connection) {
+    }
+
+    @Override
+    public void connectionClosed(NIOConnection connection) {
+    }
+
+    @Override
+    public void handleMessages(NIOConnection connection) {
+      try {
+        for (PMessage msg : connection.consumeAllFromQueue()) {
+          connection.sendFirstMessage(msg);
+        }
+        connection.flushSendMessages();
+      }
+      catch (IOException e) {
+        connection.close();
+      }
+    }
+
+  }
+
+  /**
+   * A client connection. Sends a pipeline of messages and reads back the
+   * echoes.
+   */
+  private static class Client implements Callable<Integer> {
+
+    private final SocketChannel sc;
+    private final ByteBuffer out;
+    private final ByteBuffer in;
+
+    Client(SocketChannel sc) {
+      this.sc = sc;
+      int frame_size = 4 + MESSAGE_SIZE;
+      this.out = ByteBuffer.allocate(frame_size * PIPELINE);
+      for (int i = 0; i < PIPELINE; ++i) {
+        out.putInt(MESSAGE_SIZE);
+        for (int n = 0; n < MESSAGE_SIZE; ++n) {
+          out.put((byte) n);
+        }
+      }
+      this.in = ByteBuffer.allocate(frame_size * PIPELINE);
+    }
+
+    @Override
+    public Integer call() throws IOException {
+      out.clear();
+      while (out.hasRemaining()) {
+        sc.write(out);
+      }
+      in.clear();
+      while (in.hasRemaining()) {
+        if (sc.read(in) < 0) {
+          throw new IOException("Server closed the connection");
+        }
+      }
+      return PIPELINE;
+    }
+
+    void close() throws IOException {
+      sc.close();
+    }
+
+  }
+
+  @Setup
+  public void setup() throws IOException, InterruptedException {
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    int port;
+    try (ServerSocket ss = new ServerSocket(0, 1, loopback)) {
+      port = ss.getLocalPort();
+    }
+
+    server_pool = Executors.newFixedThreadPool(
+                      Runtime.getRuntime().availableProcessors() * 2);
+    server = new NIOServerThread(loopback, port,
+                      new EchoEnvironment(server_pool), selector_threads);
+    server.setDaemon(true);
+    server.start();
+
+    client_pool = Executors.newFixedThreadPool(CLIENT_COUNT);
+    clients = new ArrayList<>(CLIENT_COUNT);
+    for (int i = 0; i < CLIENT_COUNT; ++i) {
+      clients.add(new Client(connect(new InetSocketAddress(loopback, port))));
+    }
+  }
+
+  /**
+   * Connects to the server, retrying while the server thread starts.
+   */
+  private static SocketChannel connect(InetSocketAddress addr)
+                                throws IOException, InterruptedException {
+    int tries = 0;
+    while (true) {
+      try {
+        SocketChannel sc = SocketChannel.open(addr);
+        sc.socket().setTcpNoDelay(true);
+        return sc;
+      }
+      catch (IOException e) {
+        if (++tries >= 50) {
+          throw e;
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    for (Client c : clients) {
+      c.close();
+    }
+    client_pool.shutdownNow();
+    server.finish();
+    server_pool.shutdownNow();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CLIENT_COUNT * PIPELINE)
+  public int sendAndEcho() throws InterruptedException, ExecutionException {
+    List<Future<Integer>> results = client_pool.invokeAll(clients);
+    int count = 0;
+    for (Future<Integer> f : results) {
+      count += f.get();
+    }
+    return count;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+              .include(NIOServerLoadBenchmark.class.getSimpleName())
+              .build()).run();
+  }
+
+}
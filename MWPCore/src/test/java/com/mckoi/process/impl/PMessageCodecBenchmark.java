@@ -0,0 +1,129 @@
+/**
+ * com.mckoi.process.impl.PMessageCodecBenchmark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures PMessage codec round-trips for a small and a large arguments
+ * list. In 'roundTrip' each operation encodes the arguments, copies the
+ * message into a read chunk at a non-zero offset (as NIOConnection does
+ * when several messages arrive in one read), and decodes the arguments
+ * from a PMessage view over the chunk. 'decodeView' measures the decode
+ * alone.
+ *
+ * @author Tobias Downer
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PMessageCodecBenchmark {
+
+  private static final int CHUNK_OFFSET = 13;
+
+  @Param({"small", "large"})
+  public String payload;
+
+  private byte[] header;
+  private Object[] args;
+  private byte[] chunk;
+  private PMessage view;
+
+  @Setup
+  public void setup() {
+    header = ProcessServerService.createHeader(
+                  new ProcessId((byte) 1, 10, 20), 1,
+                  CommConstants.CALL_RET_EXPECTED_CC);
+    if (payload.equals("small")) {
+      // A typical short function call,
+      args = new Object[] { "get", 12, Boolean.TRUE };
+    }
+    else {
+      // Many strings of mixed content, a binary blob and a list,
+      StringBuilder b = new StringBuilder();
+      for (int i = 0; i < 200; ++i) {
+        b.append("line ").append(i).append(" été ");
+      }
+      List<Object> list = new ArrayList<>();
+      for (int i = 0; i < 100; ++i) {
+        list.add("item " + i);
+        list.add((long) i * 1000000007L);
+      }
+      byte[] blob = new byte[16384];
+      for (int i = 0; i < blob.length; ++i) {
+        blob[i] = (byte) i;
+      }
+      args = new Object[] { "put", b.toString(), blob, list, 3.25d };
+    }
+
+    int size = PMessage.encodeArgsList(header, args).sizeInBytes();
+    chunk = new byte[CHUNK_OFFSET + size + 64];
+    view = new PMessage(chunk, CHUNK_OFFSET, size);
+    view.asByteBuffer().put(
+                  PMessage.encodeArgsList(header, args).asByteBuffer());
+  }
+
+  @Benchmark
+  public Object[] roundTrip() {
+    PMessage msg = PMessage.encodeArgsList(header, args);
+    int size = msg.sizeInBytes();
+    msg.asByteBuffer().get(chunk, CHUNK_OFFSET, size);
+    return new PMessage(chunk, CHUNK_OFFSET, size).asArgsList(20);
+  }
+
+  @Benchmark
+  public Object[] decodeView() {
+    return view.asArgsList(20);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+              .include(PMessageCodecBenchmark.class.getSimpleName())
+              .build()).run();
+  }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * com.mckoi.process.impl.PMessageTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ByteArrayProcessMessage;
+import com.mckoi.process.ProcessId;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that a PMessage that's a view over part of a larger array (as made
+ * by NIOConnection when it frames the messages in a read chunk) decodes the
+ * same as a message that covers its whole array.
+ *
+ * @author Tobias Downer
+ */
+
+public class PMessageTest {
+
+  private static final ProcessId PID = new ProcessId((byte) 3, 77, 1234);
+
+  private static final Object[] ARGS = new Object[] {
+    null, 42, -9000000000L, "plain", "été 中", Boolean.TRUE,
+    1.5d, new byte[] { 1, 2, 3 }, Arrays.asList("a", 7)
+  };
+
+  /**
+   * Returns the encoded message copied into a larger array at 'offset',
+   * with junk bytes before and after it.
+   */
+  private static byte[] embed(byte[] msg, int offset, int trailing) {
+    byte[] buf = new byte[offset + msg.length + trailing];
+    Arrays.fill(buf, (byte) 0x0E5);
+    System.arraycopy(msg, 0, buf, offset, msg.length);
+    return buf;
+  }
+
+  private static void assertArgs(Object[] args) {
+    assertEquals(ARGS.length, args.length);
+    for (int i = 0; i < ARGS.length; ++i) {
+      if (ARGS[i] instanceof byte[]) {
+        assertArrayEquals((byte[]) ARGS[i], (byte[]) args[i]);
+      }
+      else {
+        assertEquals(ARGS[i], args[i]);
+      }
+    }
+  }
+
+  @Test
+  public void decodeFromOffsetView() {
+    byte[] header = ProcessServerService.createHeader(
+                                    PID, 99, CommConstants.CALL_REPLY_CC);
+    byte[] msg = PMessage.encodeArgsList(header, ARGS)
+                                            .asByteBuffer().array();
+    byte[] buf = embed(msg, 37, 11);
+
+    PMessage view = new PMessage(buf, 37, msg.length);
+    assertEquals(msg.length, view.sizeInBytes());
+    assertEquals(PID, view.getProcessId());
+    assertEquals(99, view.getCallId());
+    assertArgs(view.asArgsList(20));
+
+    // The ProcessMessage form of the view,
+    ByteArrayProcessMessage pm =
+                        (ByteArrayProcessMessage) view.asProcessMessage(20);
+    assertEquals(msg.length - 20, pm.size());
+    assertArgs(ByteArrayProcessMessage.decodeArgsList(pm));
+
+    // Decoding from the array directly,
+    assertArgs(ByteArrayProcessMessage.decodeArgsList(
+                                    buf, 37 + 20, msg.length - 20));
+  }
+
+  @Test
+  public void sequenceValueFromOffsetView() {
+    byte[] msg = new byte[28];
+    ByteBuffer.wrap(msg).putInt(16, -1).putLong(20, 0x0102030405060708L);
+    byte[] buf = embed(msg, 5, 3);
+
+    PMessage view = new PMessage(buf, 5, msg.length);
+    assertEquals(-1, view.getCallId());
+    assertEquals(0x0102030405060708L, view.getSequenceValue());
+  }
+
+  @Test
+  public void unsharedCopiesOnlyTheView() {
+    byte[] msg = PMessage.encodeArgsList(
+                          new byte[20], ARGS).asByteBuffer().array();
+    byte[] buf = embed(msg, 64, 64);
+
+    PMessage view = new PMessage(buf, 64, msg.length);
+    PMessage copy = view.unshared();
+    assertNotSame(view, copy);
+    assertArrayEquals(msg, copy.asByteBuffer().array());
+    assertSame(copy, copy.unshared());
+
+    // The copy doesn't change when the shared array is reused,
+    Arrays.fill(buf, (byte) 0);
+    assertArgs(copy.asArgsList(20));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void decodeDoesNotReadPastView() {
+    byte[] msg = PMessage.encodeArgsList(
+                          new byte[20], ARGS).asByteBuffer().array();
+    // The view stops short of the last bytes of the message, which are
+    // still in the array after it,
+    new PMessage(msg, 0, msg.length - 4).asArgsList(20);
+  }
+
+}
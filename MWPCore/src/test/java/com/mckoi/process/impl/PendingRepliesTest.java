@@ -0,0 +1,180 @@
+/**
+ * com.mckoi.process.impl.PendingRepliesTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessServiceAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the reply routing of PendingReplies, for both blocked callers and
+ * callbacks, and the timeout of callback replies.
+ *
+ * @author Tobias Downer
+ */
+
+public class PendingRepliesTest {
+
+  private static final ProcessServiceAddress MACHINE =
+                                  new ProcessServiceAddress("127.0.0.1");
+  private static final ProcessServiceAddress OTHER_MACHINE =
+                                  new ProcessServiceAddress("127.0.0.2");
+  private static final ProcessId PID = new ProcessId((byte) 2, 100, 200);
+
+  /**
+   * A callback that records the replies it's given.
+   */
+  private static class RecordingCallback
+                              implements ProcessClientService.ReplyCallback {
+    final AtomicInteger count = new AtomicInteger();
+    final AtomicReference<PMessage> reply = new AtomicReference<>();
+    @Override
+    public void replyReceived(PMessage msg) {
+      count.incrementAndGet();
+      reply.set(msg);
+    }
+  }
+
+  @Test
+  public void callbackReceivesReply() {
+    PendingReplies replies = new PendingReplies(15000);
+    RecordingCallback callback = new RecordingCallback();
+    replies.register(MACHINE, PID, 10, callback);
+    assertEquals(1, replies.size());
+
+    PMessage reply = ProcessServerService.successMessage(PID, 10);
+    assertTrue(replies.complete(MACHINE, PID, 10, reply));
+    assertEquals(1, callback.count.get());
+    assertSame(reply, callback.reply.get());
+    assertEquals(0, replies.size());
+
+    // A second reply with the same key isn't routed,
+    assertFalse(replies.complete(MACHINE, PID, 10, reply));
+    assertEquals(1, callback.count.get());
+  }
+
+  @Test
+  public void replyIsMatchedOnMachineAndCallId() {
+    PendingReplies replies = new PendingReplies(15000);
+    RecordingCallback callback = new RecordingCallback();
+    replies.register(MACHINE, PID, 11, callback);
+
+    PMessage reply = ProcessServerService.successMessage(PID, 11);
+    assertFalse(replies.complete(OTHER_MACHINE, PID, 11, reply));
+    assertFalse(replies.complete(MACHINE, PID, 12, reply));
+    assertEquals(0, callback.count.get());
+    assertTrue(replies.complete(MACHINE, PID, 11, reply));
+    assertEquals(1, callback.count.get());
+  }
+
+  @Test
+  public void blockedCallerReceivesReply() throws Exception {
+    final PendingReplies replies = new PendingReplies(15000);
+    PendingReplies.PendingReply pending =
+                                replies.register(MACHINE, PID, 20, null);
+    final PMessage reply = ProcessServerService.successMessage(PID, 20);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        }
+        catch (InterruptedException e) {
+          // Ignore,
+        }
+        replies.complete(MACHINE, PID, 20, reply);
+      }
+    };
+    t.start();
+    assertSame(reply, pending.await(10000));
+    t.join();
+  }
+
+  @Test
+  public void blockedCallerTimesOut() throws Exception {
+    PendingReplies replies = new PendingReplies(15000);
+    PendingReplies.PendingReply pending =
+                                replies.register(MACHINE, PID, 21, null);
+    assertNull(pending.await(50));
+    replies.remove(pending);
+    assertEquals(0, replies.size());
+  }
+
+  @Test
+  public void expireFailsTimedOutCallbacks() {
+    PendingReplies replies = new PendingReplies(1000);
+    RecordingCallback callback = new RecordingCallback();
+    replies.register(MACHINE, PID, 30, callback);
+
+    // Not timed out yet,
+    long now = System.currentTimeMillis();
+    assertEquals(0, replies.expire(now));
+    assertEquals(0, callback.count.get());
+
+    // Timed out,
+    assertEquals(1, replies.expire(now + 5000));
+    assertEquals(1, callback.count.get());
+    PMessage fail = callback.reply.get();
+    assertTrue(fail.isFailMessage());
+    assertEquals(30, fail.getCallId());
+    assertEquals("UNAVAILABLE-TIMEOUT",
+                 fail.messageFailError().getErrorType());
+
+    // A late reply is dropped,
+    PMessage reply = ProcessServerService.successMessage(PID, 30);
+    assertFalse(replies.complete(MACHINE, PID, 30, reply));
+    assertEquals(1, callback.count.get());
+  }
+
+  @Test
+  public void expireIgnoresBlockedCallers() {
+    PendingReplies replies = new PendingReplies(1000);
+    PendingReplies.PendingReply pending =
+                                replies.register(MACHINE, PID, 31, null);
+    assertEquals(0, replies.expire(System.currentTimeMillis() + 5000));
+    assertEquals(1, replies.size());
+    replies.remove(pending);
+  }
+
+  @Test
+  public void callbackExceptionIsContained() {
+    PendingReplies replies = new PendingReplies(15000);
+    replies.register(MACHINE, PID, 40,
+                     new ProcessClientService.ReplyCallback() {
+      @Override
+      public void replyReceived(PMessage reply) {
+        throw new IllegalStateException("callback failure");
+      }
+    });
+    assertTrue(replies.complete(MACHINE, PID, 40,
+                      ProcessServerService.successMessage(PID, 40)));
+    assertEquals(0, replies.size());
+  }
+
+}
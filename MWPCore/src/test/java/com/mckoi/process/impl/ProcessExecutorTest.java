@@ -0,0 +1,210 @@
+/**
+ * com.mckoi.process.impl.ProcessExecutorTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the saturation behaviour of ProcessExecutor.
+ *
+ * @author Tobias Downer
+ */
+
+public class ProcessExecutorTest {
+
+  /**
+   * A task that blocks until the latch is released, and records the
+   * thread it ran on.
+   */
+  private static Runnable blockingTask(final CountDownLatch release,
+                                       final AtomicReference<Thread> ran_on) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran_on.set(Thread.currentThread());
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  @Test
+  public void saturatedRejectsWithoutRunningOnCaller() throws Exception {
+    ProcessExecutor executor = new ProcessExecutor("Test", 1, 1, 0);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> ran_on = new AtomicReference<>();
+    try {
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      try {
+        executor.execute(blockingTask(release, ran_on));
+        fail("Expected RejectedExecutionException");
+      }
+      catch (RejectedExecutionException e) {
+        // Expected,
+      }
+      assertNull("Task ran on the submitting thread", ran_on.get());
+      assertEquals(1, executor.getSaturatedCount());
+    }
+    finally {
+      release.countDown();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void handOffWaitsForSpace() throws Exception {
+    ProcessExecutor executor = new ProcessExecutor("Test", 1, 1, 10000);
+    final CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> ran_on = new AtomicReference<>();
+    try {
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      // Free the pool a little later,
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(200);
+          }
+          catch (InterruptedException e) {
+            // Ignore,
+          }
+          release.countDown();
+        }
+      }.start();
+      long start = System.currentTimeMillis();
+      executor.execute(blockingTask(release, ran_on));
+      assertTrue(System.currentTimeMillis() - start >= 100);
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      assertNotNull(ran_on.get());
+      assertNotSame(Thread.currentThread(), ran_on.get());
+    }
+    finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void handOffTimesOut() throws Exception {
+    ProcessExecutor executor = new ProcessExecutor("Test", 1, 1, 100);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> ran_on = new AtomicReference<>();
+    try {
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      long start = System.currentTimeMillis();
+      try {
+        executor.execute(blockingTask(release, ran_on));
+        fail("Expected RejectedExecutionException");
+      }
+      catch (RejectedExecutionException e) {
+        // Expected,
+      }
+      assertTrue(System.currentTimeMillis() - start >= 90);
+      assertNull(ran_on.get());
+    }
+    finally {
+      release.countDown();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void executeOrRetryRunsRejectedTaskLater() throws Exception {
+    ProcessExecutor executor = new ProcessExecutor("Test", 1, 1, 0);
+    Timer timer = new Timer(true);
+    final CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> ran_on = new AtomicReference<>();
+    try {
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      // Rejected now, so it's retried on the timer,
+      assertTrue(ProcessExecutor.executeOrRetry(
+                            executor, timer, blockingTask(release, ran_on)));
+      assertNull(ran_on.get());
+      Thread.sleep(ProcessExecutor.RETRY_DELAY_MS * 3);
+      assertNull(ran_on.get());
+      // Once the pool has space the task runs on a pool thread,
+      release.countDown();
+      long end = System.currentTimeMillis() + 5000;
+      while (ran_on.get() == null && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      assertNotNull(ran_on.get());
+      assertTrue(ran_on.get().getName().startsWith("Mckoi Test"));
+    }
+    finally {
+      release.countDown();
+      timer.cancel();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void executeOrRetryFailsWhenStopping() throws Exception {
+    ProcessExecutor executor = new ProcessExecutor("Test", 1, 1, 0);
+    Timer timer = new Timer(true);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> ran_on = new AtomicReference<>();
+    try {
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      executor.execute(blockingTask(release, new AtomicReference<Thread>()));
+      // No retry with a cancelled timer,
+      timer.cancel();
+      assertFalse(ProcessExecutor.executeOrRetry(
+                            executor, timer, blockingTask(release, ran_on)));
+      // No retry on a pool that's shut down,
+      executor.shutdown();
+      Timer running_timer = new Timer(true);
+      assertFalse(ProcessExecutor.executeOrRetry(
+                  executor, running_timer, blockingTask(release, ran_on)));
+      running_timer.cancel();
+      assertNull(ran_on.get());
+    }
+    finally {
+      release.countDown();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+}
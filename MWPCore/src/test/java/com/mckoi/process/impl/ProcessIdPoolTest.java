@@ -0,0 +1,106 @@
+/**
+ * com.mckoi.process.impl.ProcessIdPoolTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import com.mckoi.process.ProcessServiceAddress;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that the leases in a ProcessIdPool are handed out once, and that
+ * expired leases are kept to be returned to the process path.
+ *
+ * @author Tobias Downer
+ */
+
+public class ProcessIdPoolTest {
+
+  private static final ProcessServiceAddress MACHINE =
+                                  new ProcessServiceAddress("127.0.0.1");
+
+  private static List<ProcessIdPool.Lease> block(int start, int count,
+                                                 long expires_at) {
+    List<ProcessIdPool.Lease> block = new ArrayList<>();
+    for (int i = start; i < start + count; ++i) {
+      block.add(new ProcessIdPool.Lease(
+                    new ProcessId((byte) 1, 10, i), MACHINE, expires_at));
+    }
+    return block;
+  }
+
+  @Test
+  public void takeSkipsExpiredLeases() {
+    ProcessIdPool pool = new ProcessIdPool();
+    pool.addAll(block(0, 4, 1000));
+    pool.addAll(block(4, 2, 5000));
+    assertEquals(6, pool.size());
+
+    ProcessIdPool.Lease lease = pool.take(2000);
+    assertEquals(new ProcessId((byte) 1, 10, 4), lease.getProcessId());
+    assertEquals(1, pool.size());
+
+    // The skipped leases are on the expired list,
+    List<ProcessIdPool.Lease> expired = pool.takeExpired(2000);
+    assertEquals(4, expired.size());
+    assertTrue(pool.takeExpired(2000).isEmpty());
+  }
+
+  @Test
+  public void takeExpiredSweepsThePool() {
+    ProcessIdPool pool = new ProcessIdPool();
+    pool.addAll(block(0, 3, 1000));
+    pool.addAll(block(3, 3, 5000));
+
+    List<ProcessIdPool.Lease> expired = pool.takeExpired(2000);
+    assertEquals(3, expired.size());
+    assertEquals(3, pool.size());
+
+    // Expired leases that failed to be returned are kept,
+    pool.addExpired(expired);
+    assertEquals(3, pool.takeExpired(2000).size());
+  }
+
+  @Test
+  public void leasesAreHandedOutOnce() {
+    ProcessIdPool pool = new ProcessIdPool();
+    pool.addAll(block(0, 100, 5000));
+    List<ProcessId> seen = new ArrayList<>();
+    while (true) {
+      ProcessIdPool.Lease lease = pool.take(1000);
+      if (lease == null) {
+        break;
+      }
+      assertFalse(seen.contains(lease.getProcessId()));
+      seen.add(lease.getProcessId());
+    }
+    assertEquals(100, seen.size());
+    assertTrue(pool.takeExpired(10000).isEmpty());
+  }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * com.mckoi.process.impl.ProcessSetBenchmark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of ProcessSet lookups from several threads, on
+ * their own and while another thread replaces instances in the set.
+ *
+ * @author Tobias Downer
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessSetBenchmark {
+
+  @Param({"1000", "100000"})
+  public int process_count;
+
+  private ProcessServerService service;
+  private ProcessSet set;
+  private ProcessId[] ids;
+
+  @Setup
+  public void setup() {
+    service = new ProcessServerService();
+    set = new ProcessSet();
+    ids = new ProcessId[process_count];
+    for (int i = 0; i < process_count; ++i) {
+      ids[i] = new ProcessId((byte) 1, 3, i);
+      ProcessInstanceImpl instance = new ProcessInstanceImpl(service, ids[i]);
+      set.setManaged(ids[i], instance);
+      instance.preventRemoveUnlock();
+    }
+  }
+
+  private ProcessId randomId() {
+    return ids[ThreadLocalRandom.current().nextInt(process_count)];
+  }
+
+  private Object lookup() {
+    ProcessInstanceImpl instance = set.getInstance(randomId());
+    if (instance != null) {
+      instance.preventRemoveUnlock();
+    }
+    return instance;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object lookupOnly() {
+    return lookup();
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(3)
+  public Object lookupWithChurn() {
+    return lookup();
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(1)
+  public boolean replace() {
+    ProcessId process_id = randomId();
+    set.removeManaged(process_id);
+    ProcessInstanceImpl instance = new ProcessInstanceImpl(service, process_id);
+    boolean added = set.setManaged(process_id, instance);
+    if (added) {
+      instance.preventRemoveUnlock();
+    }
+    return added;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+              .include(ProcessSetBenchmark.class.getSimpleName())
+              .build()).run();
+  }
+
+}
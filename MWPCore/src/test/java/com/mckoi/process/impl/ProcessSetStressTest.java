@@ -0,0 +1,279 @@
+/**
+ * com.mckoi.process.impl.ProcessSetStressTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Multi-threaded tests of ProcessSet. Lookups, inserts and evictions of the
+ * same small set of process ids run concurrently, and the test checks that
+ * an instance held with a 'prevent remove' lock is never evicted and is
+ * the only instance handed out for its id while it's held.
+ *
+ * @author Tobias Downer
+ */
+
+public class ProcessSetStressTest {
+
+  private static final int THREAD_COUNT = 8;
+  private static final int ID_COUNT = 16;
+  private static final int OPERATIONS_PER_THREAD = 200000;
+
+  private final ProcessServerService service = new ProcessServerService();
+
+  /**
+   * The instance currently held (locked) by the test threads for each id,
+   * and how many threads hold it.
+   */
+  private static class Slot {
+    private ProcessInstanceImpl instance;
+    private int holders;
+  }
+
+  private static ProcessId[] createIds() {
+    ProcessId[] ids = new ProcessId[ID_COUNT];
+    for (int i = 0; i < ID_COUNT; ++i) {
+      ids[i] = new ProcessId((byte) 1, 7, i);
+    }
+    return ids;
+  }
+
+  /**
+   * Creates an instance that the process set will consider stale.
+   */
+  private ProcessInstanceImpl createStaleInstance(ProcessId process_id) {
+    ProcessInstanceImpl instance =
+                              new ProcessInstanceImpl(service, process_id);
+    try {
+      Field f = ProcessInstanceImpl.class.getDeclaredField(
+                                                    "time_of_last_function");
+      f.setAccessible(true);
+      f.setLong(instance, 0);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+    return instance;
+  }
+
+  /**
+   * Records that the current thread holds a lock on the instance, and fails
+   * if another thread holds a different instance for the same id.
+   */
+  private static void acquired(Slot slot, ProcessInstanceImpl instance,
+                               AtomicReference<String> failure) {
+    if (instance.isEvicted()) {
+      failure.compareAndSet(null, "Locked instance is evicted");
+    }
+    synchronized (slot) {
+      if (slot.holders > 0 && slot.instance != instance) {
+        failure.compareAndSet(null, "Two live instances for one id");
+      }
+      slot.instance = instance;
+      ++slot.holders;
+    }
+  }
+
+  private static void released(Slot slot, ProcessInstanceImpl instance,
+                               AtomicReference<String> failure) {
+    if (instance.isEvicted()) {
+      failure.compareAndSet(null, "Instance evicted while locked");
+    }
+    synchronized (slot) {
+      --slot.holders;
+    }
+    instance.preventRemoveUnlock();
+  }
+
+  @Test
+  public void lookupsNeverSeeEvictedInstances() throws Exception {
+
+    final ProcessSet set = new ProcessSet();
+    final ProcessId[] ids = createIds();
+    final Slot[] slots = new Slot[ID_COUNT];
+    for (int i = 0; i < ID_COUNT; ++i) {
+      slots[i] = new Slot();
+    }
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final AtomicInteger evicted_count = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch workers_done = new CountDownLatch(THREAD_COUNT);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; ++t) {
+      final long seed = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          Random r = new Random(seed);
+          try {
+            start.await();
+            for (int n = 0; n < OPERATIONS_PER_THREAD; ++n) {
+              int i = r.nextInt(ID_COUNT);
+              ProcessInstanceImpl instance;
+              int op = r.nextInt(4);
+              if (op == 0) {
+                ProcessInstanceImpl created = createStaleInstance(ids[i]);
+                if (set.setManaged(ids[i], created)) {
+                  instance = created;
+                }
+                else {
+                  instance = null;
+                }
+              }
+              else if (op == 1) {
+                instance = set.setManagedIfAbsent(
+                                        ids[i], createStaleInstance(ids[i]));
+              }
+              else {
+                instance = set.getInstance(ids[i]);
+              }
+              if (instance != null) {
+                acquired(slots[i], instance, failure);
+                Thread.yield();
+                released(slots[i], instance, failure);
+              }
+            }
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e.toString());
+          }
+          finally {
+            workers_done.countDown();
+          }
+        }
+      });
+    }
+
+    // Evicts every stale instance that isn't locked,
+    final List<ProcessId> id_list = new ArrayList<>();
+    for (ProcessId id : ids) {
+      id_list.add(id);
+    }
+    Thread evictor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          start.await();
+          while (workers_done.getCount() > 0) {
+            for (ProcessInstanceImpl instance :
+                                    set.removeAllStaleManaged(id_list, null)) {
+              evicted_count.incrementAndGet();
+              if (!instance.isEvicted()) {
+                failure.compareAndSet(null, "Removed instance not evicted");
+              }
+              Slot slot = slots[(int) instance.getId().getLowLong()];
+              synchronized (slot) {
+                if (slot.holders > 0 && slot.instance == instance) {
+                  failure.compareAndSet(null, "Evicted a held instance");
+                }
+              }
+            }
+          }
+        }
+        catch (Throwable e) {
+          failure.compareAndSet(null, e.toString());
+        }
+      }
+    };
+    threads.add(evictor);
+
+    for (Thread t : threads) {
+      t.start();
+    }
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    assertNull(failure.get(), failure.get());
+    assertTrue("Nothing was evicted", evicted_count.get() > 0);
+
+    // No locks were leaked, so everything left can be evicted,
+    set.removeAllStaleManaged(id_list, null);
+    assertEquals(0, set.getManagedCount());
+    for (ProcessId id : ids) {
+      assertNull(set.getInstance(id));
+    }
+
+  }
+
+  @Test
+  public void onlyOneConcurrentSetManagedSucceeds() throws Exception {
+
+    final ProcessSet set = new ProcessSet();
+    final ProcessId process_id = new ProcessId((byte) 1, 9, 9);
+
+    for (int round = 0; round < 500; ++round) {
+      final AtomicInteger winners = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < THREAD_COUNT; ++t) {
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            ProcessInstanceImpl instance =
+                                new ProcessInstanceImpl(service, process_id);
+            try {
+              start.await();
+            }
+            catch (InterruptedException e) {
+              return;
+            }
+            if (set.setManaged(process_id, instance)) {
+              winners.incrementAndGet();
+              instance.preventRemoveUnlock();
+            }
+          }
+        });
+      }
+      for (Thread t : threads) {
+        t.start();
+      }
+      start.countDown();
+      for (Thread t : threads) {
+        t.join();
+      }
+      assertEquals(1, winners.get());
+      assertEquals(1, set.getManagedCount());
+
+      // Forced removal makes the id available again,
+      set.removeManaged(process_id);
+      assertNull(set.getInstance(process_id));
+    }
+
+  }
+
+}
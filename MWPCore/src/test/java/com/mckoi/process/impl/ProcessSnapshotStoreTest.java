@@ -0,0 +1,138 @@
+/**
+ * com.mckoi.process.impl.ProcessSnapshotStoreTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import com.mckoi.process.ProcessId;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ProcessSnapshotStore, in particular that a snapshot written by an
+ * eviction that raced with a resume or terminate is discarded.
+ *
+ * @author Tobias Downer
+ */
+
+public class ProcessSnapshotStoreTest {
+
+  private static final AccountApplication ACCOUNT_APP =
+                                new AccountApplication("account", "app");
+
+  private File folder;
+  private ProcessSnapshotStore store;
+
+  @Before
+  public void setup() throws IOException {
+    folder = Files.createTempDirectory("snapshots").toFile();
+    store = new ProcessSnapshotStore(folder, 60000);
+    store.init();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    // Deletes the snapshot files and path folders,
+    store.init();
+    folder.delete();
+  }
+
+  private static Map<String, String> state(String value) {
+    Map<String, String> state = new HashMap<>();
+    state.put("key", value);
+    return state;
+  }
+
+  @Test
+  public void writeAndTake() {
+    ProcessId process_id = new ProcessId((byte) 3, 10, 20);
+    long version = store.getVersion(process_id);
+    assertTrue(store.write(process_id, version,
+                           ACCOUNT_APP, "proc", 5000, state("a")));
+
+    ProcessSnapshotStore.Snapshot snapshot = store.take(process_id);
+    assertNotNull(snapshot);
+    assertEquals("proc", snapshot.getProcessName());
+    assertEquals(5000, snapshot.getNextBroadcastSequence());
+    assertEquals("account",
+                 snapshot.getAccountApplication().getAccountName());
+    assertEquals("a", snapshot.getState().get("key"));
+
+    // A snapshot is only used once,
+    assertNull(store.take(process_id));
+    assertEquals(1, store.getHitCount());
+    assertEquals(1, store.getMissCount());
+  }
+
+  @Test
+  public void writeAfterTakeIsDiscarded() {
+    ProcessId process_id = new ProcessId((byte) 3, 10, 21);
+    // The evictor reads the version,
+    long version = store.getVersion(process_id);
+    // A new instance is resumed before the snapshot is written,
+    assertNull(store.take(process_id));
+    // The late snapshot must not become visible,
+    assertFalse(store.write(process_id, version,
+                            ACCOUNT_APP, "proc", 0, state("stale")));
+    assertNull(store.take(process_id));
+  }
+
+  @Test
+  public void writeAfterRemoveIsDiscarded() {
+    ProcessId process_id = new ProcessId((byte) 3, 10, 22);
+    long version = store.getVersion(process_id);
+    // Terminated, or resumed from the database,
+    store.remove(process_id);
+    assertFalse(store.write(process_id, version,
+                            ACCOUNT_APP, "proc", 0, state("stale")));
+    assertNull(store.take(process_id));
+  }
+
+  @Test
+  public void removeDeletesSnapshot() {
+    ProcessId process_id = new ProcessId((byte) 3, 10, 23);
+    assertTrue(store.write(process_id, store.getVersion(process_id),
+                           ACCOUNT_APP, "proc", 0, state("a")));
+    store.remove(process_id);
+    assertNull(store.take(process_id));
+  }
+
+  @Test
+  public void newerWriteReplacesOlder() {
+    ProcessId process_id = new ProcessId((byte) 3, 10, 24);
+    assertTrue(store.write(process_id, store.getVersion(process_id),
+                           ACCOUNT_APP, "proc", 0, state("a")));
+    assertTrue(store.write(process_id, store.getVersion(process_id),
+                           ACCOUNT_APP, "proc", 0, state("b")));
+    assertEquals("b", store.take(process_id).getState().get("key"));
+  }
+
+}
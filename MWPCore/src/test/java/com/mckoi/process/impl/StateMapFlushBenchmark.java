@@ -0,0 +1,111 @@
+/**
+ * com.mckoi.process.impl.StateMapFlushBenchmark  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of flushing a StateMapImpl against the size of the map
+ * and the number of keys changed between flushes. The 'journal' mode
+ * writes only the changed keys, the 'full' mode invalidates the journal
+ * before each flush to measure the whole map comparison it replaces.
+ *
+ * @author Tobias Downer
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMapFlushBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int map_size;
+
+  @Param({"1", "16", "256"})
+  public int changes_per_flush;
+
+  @Param({"journal", "full"})
+  public String mode;
+
+  private StateMapImpl map;
+  private MemoryDataFile df;
+  private Random random;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    map = new StateMapImpl();
+    for (int i = 0; i < map_size; ++i) {
+      map.put("key" + i, "value" + i);
+    }
+    df = new MemoryDataFile();
+    map.serialize(df);
+    random = new Random(11);
+  }
+
+  @Benchmark
+  public boolean flush() {
+    map.lock();
+    try {
+      for (int i = 0; i < changes_per_flush; ++i) {
+        map.put("key" + random.nextInt(map_size),
+                "value" + random.nextInt());
+      }
+      if (mode.equals("full")) {
+        map.invalidateJournal();
+      }
+      return map.serialize(df);
+    }
+    finally {
+      map.unlock();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+              .include(StateMapFlushBenchmark.class.getSimpleName())
+              .build()).run();
+  }
+
+}
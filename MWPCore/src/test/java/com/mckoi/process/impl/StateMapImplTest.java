@@ -0,0 +1,179 @@
+/**
+ * com.mckoi.process.impl.StateMapImplTest  Oct 17, 2026
+ *
+ * Mckoi Database Software ( http://www.mckoi.com/ )
+ * Copyright (C) 2000 - 2012  Diehl and Associates, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License version 3
+ * along with this program.  If not, see ( http://www.gnu.org/licenses/ ) or
+ * write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ *
+ * Change Log:
+ *
+ *
+ */
+
+package com.mckoi.process.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that serializing only the changed keys of a StateMapImpl produces
+ * the same stored state as serializing the whole map.
+ *
+ * @author Tobias Downer
+ */
+
+public class StateMapImplTest {
+
+  /**
+   * Returns the map stored in the given DataFile.
+   */
+  private static Map<String, String> load(MemoryDataFile df) {
+    StateMapImpl map = new StateMapImpl();
+    map.deserialize(df);
+    return new HashMap<>(map);
+  }
+
+  /**
+   * Returns the map stored by a full serialization of the given content.
+   */
+  private static Map<String, String> loadFull(Map<String, String> content) {
+    StateMapImpl map = new StateMapImpl();
+    map.putAll(content);
+    MemoryDataFile df = new MemoryDataFile();
+    map.serialize(df);
+    return load(df);
+  }
+
+  /**
+   * Makes a random change to the map.
+   */
+  private static void mutate(StateMapImpl map, Random r, int key_space) {
+    String key = "k" + r.nextInt(key_space);
+    int op = r.nextInt(10);
+    if (op < 6) {
+      map.put(key, "v" + r.nextInt(1000));
+    }
+    else if (op < 9) {
+      map.remove(key);
+    }
+    else {
+      // Put the same value again,
+      String value = map.get(key);
+      if (value != null) {
+        map.put(key, value);
+      }
+    }
+  }
+
+  @Test
+  public void incrementalFlushMatchesFullSerialization() {
+    Random r = new Random(7);
+    StateMapImpl map = new StateMapImpl();
+    MemoryDataFile df = new MemoryDataFile();
+    for (int round = 0; round < 100; ++round) {
+      // Small rounds use the journal, large rounds overflow it,
+      int changes = (round % 10 == 9) ? 300 : r.nextInt(20);
+      for (int i = 0; i < changes; ++i) {
+        mutate(map, r, 500);
+      }
+      map.serialize(df);
+      Map<String, String> expected = new HashMap<>(map);
+      assertEquals(expected, load(df));
+      assertEquals(loadFull(expected), load(df));
+    }
+  }
+
+  @Test
+  public void incrementalFlushAfterDeserialize() {
+    MemoryDataFile df = new MemoryDataFile();
+    StateMapImpl map = new StateMapImpl();
+    for (int i = 0; i < 100; ++i) {
+      map.put("k" + i, "v" + i);
+    }
+    map.serialize(df);
+
+    // Resume the map from the stored state and change it,
+    StateMapImpl resumed = new StateMapImpl();
+    resumed.deserialize(df);
+    resumed.remove("k5");
+    resumed.put("k6", "changed");
+    resumed.put("new", "value");
+    resumed.serialize(df);
+    resumed.put("k7", "again");
+    resumed.serialize(df);
+
+    assertEquals(new HashMap<>(resumed), load(df));
+    assertNull(load(df).get("k5"));
+    assertEquals("again", load(df).get("k7"));
+  }
+
+  @Test
+  public void unchangedMapIsNotWritten() {
+    MemoryDataFile df = new MemoryDataFile();
+    StateMapImpl map = new StateMapImpl();
+    map.put("a", "1");
+    assertTrue(map.serialize(df));
+    assertFalse(map.serialize(df));
+    // Same value put again,
+    map.put("a", "1");
+    assertFalse(map.serialize(df));
+    map.remove("a");
+    assertTrue(map.serialize(df));
+    assertTrue(load(df).isEmpty());
+  }
+
+  @Test
+  public void invalidateJournalRewritesUncommittedChanges() {
+    MemoryDataFile committed = new MemoryDataFile();
+    StateMapImpl map = new StateMapImpl();
+    map.put("a", "1");
+    map.put("b", "2");
+    map.serialize(committed);
+
+    // A change written to a transaction that is never committed,
+    map.put("c", "3");
+    MemoryDataFile uncommitted = new MemoryDataFile();
+    uncommitted.replicateFrom(committed);
+    map.serialize(uncommitted);
+    map.invalidateJournal();
+
+    // The next serialize goes to the committed state and must include 'c',
+    map.put("d", "4");
+    map.serialize(committed);
+    assertEquals(new HashMap<>(map), load(committed));
+    assertEquals("3", load(committed).get("c"));
+  }
+
+  @Test
+  public void clearRemovesAllStoredKeys() {
+    MemoryDataFile df = new MemoryDataFile();
+    StateMapImpl map = new StateMapImpl();
+    for (int i = 0; i < 10; ++i) {
+      map.put("k" + i, "v");
+    }
+    map.serialize(df);
+    map.clear();
+    map.put("only", "x");
+    map.serialize(df);
+    Map<String, String> expected = new HashMap<>();
+    expected.put("only", "x");
+    assertEquals(expected, load(df));
+  }
+
+}